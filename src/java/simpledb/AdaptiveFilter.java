@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * AdaptiveFilter is an operator that implements a relational select on a
+ * conjunction of predicates. It filters the batches of its child by one
+ * conjunct after the other, in the order a {@link ConjunctOrder} keeps
+ * from the selectivity of each conjunct and the time it takes per tuple,
+ * as measured on the batches, so that a costly or unselective conjunct
+ * moves after a cheap and selective one. The initial order is that of
+ * the estimated selectivities.
+ */
+public class AdaptiveFilter extends Operator implements ColumnarIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private Predicate[] m_predicates;
+    private double[] m_selectivities;
+    private DbIterator m_child;
+    private ConjunctOrder m_order;
+    /** The batch being returned by fetchNext, and the position of its next tuple */
+    private TupleBatch m_batch;
+    private int m_pos;
+
+    /**
+     * Constructor.
+     *
+     * @param predicates
+     *            the predicates a tuple must all satisfy
+     * @param selectivities
+     *            the estimated selectivity of each predicate
+     * @param child
+     *            The child operator
+     */
+    public AdaptiveFilter(Predicate[] predicates, double[] selectivities, DbIterator child) {
+        if (predicates.length != selectivities.length)
+            throw new IllegalArgumentException("one selectivity is needed per predicate");
+        m_predicates = predicates.clone();
+        m_selectivities = selectivities.clone();
+        m_child = child;
+        m_order = new ConjunctOrder(m_selectivities);
+    }
+
+    /**
+     * @return the predicates, in the order they were given
+     */
+    public Predicate[] getPredicates() {
+        return m_predicates.clone();
+    }
+
+    /**
+     * @return the estimated selectivity of each predicate
+     */
+    public double[] getSelectivities() {
+        return m_selectivities.clone();
+    }
+
+    /**
+     * @return the predicates in the order they are evaluated in
+     */
+    public Predicate[] getEvaluationOrder() {
+        int[] order = m_order.order();
+        Predicate[] predicates = new Predicate[order.length];
+        for (int i = 0; i < order.length; i++)
+            predicates[i] = m_predicates[order[i]];
+        return predicates;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        m_child.open();
+        super.open();
+        m_batch = null;
+    }
+
+    public void close() {
+        m_child.close();
+        super.close();
+        m_batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+        m_batch = null;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        while (m_batch == null || m_pos >= m_batch.size()) {
+            m_batch = fetchNextBatch();
+            m_pos = 0;
+            if (m_batch == null)
+                return null;
+        }
+        return m_batch.get(m_pos++);
+    }
+
+    /**
+     * Reads batches from the child operator, and selects in each the tuples
+     * that pass every conjunct, until a batch has some.
+     */
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException,
+            DbException {
+        if (m_batch != null && m_pos < m_batch.size()) {
+            // the rest of the batch fetchNext was returning
+            TupleBatch rest = new TupleBatch();
+            while (m_pos < m_batch.size())
+                rest.add(m_batch.get(m_pos++));
+            return rest;
+        }
+        if (m_child instanceof ColumnarIterator) {
+            ColumnarBatch columns = fetchNextColumnarBatch();
+            return columns == null ? null : columns.toTupleBatch();
+        }
+        TupleBatch batch;
+        while ((batch = TupleBatch.next(m_child)) != null) {
+            int n = batch.size();
+            for (int i : m_order.order()) {
+                int evaluated = batch.size();
+                long start = System.nanoTime();
+                batch.filter(m_predicates[i]);
+                m_order.time(i, System.nanoTime() - start);
+                m_order.count(i, evaluated, batch.size());
+                if (batch.size() == 0)
+                    break;
+            }
+            m_order.tuples(n);
+            if (batch.size() > 0)
+                return batch;
+        }
+        return null;
+    }
+
+    public ColumnarBatch nextColumnarBatch() throws TransactionAbortedException,
+            DbException {
+        Tuple fetched = takeFetched();
+        if (fetched != null || (m_batch != null && m_pos < m_batch.size())) {
+            ColumnarBatch batch = new ColumnarBatch(getTupleDesc());
+            if (fetched != null)
+                batch.add(fetched);
+            while (m_batch != null && m_pos < m_batch.size())
+                batch.add(m_batch.get(m_pos++));
+            return batch;
+        }
+        return fetchNextColumnarBatch();
+    }
+
+    /**
+     * Reads columnar batches from the child operator, and selects in each
+     * the rows that pass every conjunct, until a batch has some.
+     */
+    private ColumnarBatch fetchNextColumnarBatch() throws TransactionAbortedException,
+            DbException {
+        ColumnarBatch batch;
+        while ((batch = ColumnarBatch.next(m_child)) != null) {
+            int n = batch.size();
+            for (int i : m_order.order()) {
+                int evaluated = batch.size();
+                long start = System.nanoTime();
+                batch.filter(m_predicates[i]);
+                m_order.time(i, System.nanoTime() - start);
+                m_order.count(i, evaluated, batch.size());
+                if (batch.size() == 0)
+                    break;
+            }
+            m_order.tuples(n);
+            if (batch.size() > 0)
+                return batch;
+        }
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] {m_child};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_child = children[0];
+    }
+
+}
@@ -1,15 +1,38 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The aggregate holds at most a configurable number of groups in memory.
+ * Once it has that many, the rows of the groups it already has are still
+ * merged into them, and the rows of other groups are split by the hash of
+ * their group into NUM_PARTITIONS partitions spilled to disk, keeping only
+ * their group and aggregate fields. The in-memory groups are returned
+ * first, and then each partition is aggregated in turn the same way, with
+ * a different hash for the partitions it spills in its turn.
+ * <p>
+ * When the child is a SeqScan of a HeapFile of at least PARALLEL_MIN_PAGES
+ * pages, an aggregate over an int field is computed by a ParallelAggregate
+ * on as many threads as there are processors. If the groups do not fit in
+ * memory, the aggregate reads its child again the usual way.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default number of groups an aggregate holds in memory */
+    public static final int DEFAULT_MAX_GROUPS = 100000;
+    /** The number of partitions the rows of the other groups are split into */
+    public static final int NUM_PARTITIONS = 16;
+    /** Beyond this depth, partitions are aggregated in memory whatever their size */
+    private static final int MAX_SPILL_DEPTH = 6;
+    /** The number of pages a scan needs for the aggregate to run in parallel */
+    public static final int PARALLEL_MIN_PAGES = ParallelScan.PARALLEL_MIN_PAGES;
     
     private DbIterator m_child;
     private int m_afield;
@@ -17,6 +40,13 @@ public class Aggregate extends Operator {
     private Aggregator.Op m_aop;
     private Aggregator aggregator;
     private DbIterator results;
+    private int m_maxGroups = DEFAULT_MAX_GROUPS;
+    /** The group and aggregate fields of the rows written to partitions */
+    private TupleDesc m_spillTd;
+    private int m_numPartitions;
+    private int m_parallelism = Runtime.getRuntime().availableProcessors();
+    /** The number of threads the last open() aggregated with */
+    private int m_threadsUsed;
 
     /**
      * Constructor.
@@ -41,11 +71,51 @@ public class Aggregate extends Operator {
 		m_afield = afield;
 		m_gfield = gfield;
 		m_aop = aop;
-		Type gbfieldtype = (gfield < 0 ? null : m_child.getTupleDesc().getFieldType(gfield));
-		if (m_child.getTupleDesc().getFieldType(afield).equals(Type.INT_TYPE))
-			aggregator = new IntegerAggregator(gfield, gbfieldtype, afield, aop);
-		else
-			aggregator = new StringAggregator(gfield, gbfieldtype, afield, aop);
+		aggregator = newAggregator(m_child.getTupleDesc(), gfield, afield);
+    }
+
+    /**
+     * @return an empty aggregator over tuples with the specified TupleDesc
+     */
+    private Aggregator newAggregator(TupleDesc td, int gfield, int afield) {
+		Type gbfieldtype = (gfield < 0 ? null : td.getFieldType(gfield));
+		if (td.getFieldType(afield).equals(Type.INT_TYPE))
+			return new IntegerAggregator(gfield, gbfieldtype, afield, m_aop);
+		return new StringAggregator(gfield, gbfieldtype, afield, m_aop);
+    }
+
+    /**
+     * Sets the number of groups this aggregate may hold in memory. Beyond
+     * it, the rows of the other groups are partitioned and spilled to disk.
+     * Takes effect at the next open().
+     */
+    public void setMaxGroups(int groups) {
+		m_maxGroups = groups;
+    }
+
+    /**
+     * Sets the number of threads that aggregate a large scan, which is the
+     * number of processors by default. With 1, the aggregate always runs on
+     * the calling thread. Takes effect at the next open().
+     */
+    public void setParallelism(int threads) {
+		m_parallelism = threads;
+    }
+
+    /**
+     * @return the number of threads the child's rows were aggregated with by
+     *   the last open()
+     */
+    public int threadsUsed() {
+		return m_threadsUsed;
+    }
+
+    /**
+     * @return the number of partitions of the child's rows spilled to disk
+     *   by the last open()
+     */
+    public int numPartitions() {
+		return m_numPartitions;
     }
 
     /**
@@ -96,13 +166,252 @@ public class Aggregate extends Operator {
 	    TransactionAbortedException {
     	super.open();
     	m_child.open();
-    	while (m_child.hasNext()) {
-    		aggregator.mergeTupleIntoGroup(m_child.next());
+    	if (results != null)
+    		results.close();
+    	TupleDesc td = m_child.getTupleDesc();
+    	aggregator = newAggregator(td, m_gfield, m_afield);
+    	if (m_gfield != Aggregator.NO_GROUPING) {
+    		m_spillTd = new TupleDesc(
+    				new Type[] { td.getFieldType(m_gfield), td.getFieldType(m_afield) },
+    				new String[] { td.getFieldName(m_gfield), td.getFieldName(m_afield) });
+    	}
+    	m_threadsUsed = 1;
+    	m_numPartitions = 0;
+    	HeapFile file = parallelScan();
+    	if (file != null) {
+    		ArrayList<Tuple> groups = new ParallelAggregate((SeqScan) m_child,
+    				m_gfield, m_afield, m_aop, m_parallelism).run(m_maxGroups);
+    		if (groups != null) {
+    			m_threadsUsed = m_parallelism;
+    			results = new Results(new TupleIterator(getTupleDesc(), groups), null, 0);
+    			results.open();
+    			return;
+    		}
+    	}
+    	SpillFile[] spills = null;
+    	if (aggregator instanceof IntegerAggregator && m_child instanceof ColumnarIterator) {
+    		// aggregate the int vectors of the child's rows, without tuples,
+    		// until there are too many groups
+    		ColumnarBatch batch;
+    		while ((batch = ColumnarBatch.next(m_child)) != null) {
+    			if (spills == null) {
+    				((IntegerAggregator) aggregator).mergeBatch(batch);
+    				spills = spillIfFull(aggregator, 0);
+    			} else {
+    				TupleBatch tuples = batch.toTupleBatch();
+    				for (int i = 0; i < tuples.size(); i++)
+    					merge(aggregator, tuples.get(i), m_gfield, m_afield, spills, 0);
+    			}
+    		}
+    		finish(spills);
+    	} else {
+    		spills = aggregate(m_child, aggregator, m_gfield, m_afield, 0);
     	}
-    	results = aggregator.iterator();
+    	for (int p = 0; spills != null && p < NUM_PARTITIONS; p++) {
+    		if (spills[p] != null)
+    			m_numPartitions++;
+    	}
+    	results = new Results(aggregator.iterator(), spills, 0);
     	results.open();
     }
 
+    /**
+     * @return the file of the child if the aggregate should be computed by
+     *   a ParallelAggregate, or null
+     */
+    private HeapFile parallelScan() {
+    	if (m_parallelism < 2 || m_child.getClass() != SeqScan.class
+    			|| m_child.getTupleDesc().getFieldType(m_afield) != Type.INT_TYPE)
+    		return null;
+    	DbFile file = Database.getCatalog().getDbFile(((SeqScan) m_child).getTableId());
+    	if (!(file instanceof HeapFile) || ((HeapFile) file).numPages() < PARALLEL_MIN_PAGES)
+    		return null;
+    	return (HeapFile) file;
+    }
+
+    /**
+     * Merges the rows of an iterator into an aggregator, spilling the rows
+     * of the groups that do not fit.
+     *
+     * @param depth the number of times the rows were partitioned already
+     * @return the partitions of the spilled rows, or null if all of them
+     *   were merged
+     */
+    private SpillFile[] aggregate(DbIterator input, Aggregator agg, int gfield,
+            int afield, int depth) throws DbException, TransactionAbortedException {
+    	SpillFile[] spills = null;
+    	TupleBatch batch;
+    	while ((batch = TupleBatch.next(input)) != null) {
+    		for (int i = 0; i < batch.size(); i++) {
+    			Tuple t = batch.get(i);
+    			if (spills == null) {
+    				agg.mergeTupleIntoGroup(t);
+    				spills = spillIfFull(agg, depth);
+    			} else {
+    				merge(agg, t, gfield, afield, spills, depth);
+    			}
+    		}
+    	}
+    	finish(spills);
+    	return spills;
+    }
+
+    /**
+     * Flushes the partitions written by aggregate(), if any.
+     */
+    private static void finish(SpillFile[] spills) throws DbException {
+    	if (spills == null)
+    		return;
+    	try {
+    		for (SpillFile f : spills) {
+    			if (f != null)
+    				f.finish();
+    		}
+    	} catch (IOException e) {
+    		deleteSpills(spills);
+    		throw new DbException("could not write a partition: " + e.getMessage());
+    	}
+    }
+
+    /**
+     * @return empty partitions if an aggregator holds more groups than fit
+     *   in memory, or null
+     */
+    private SpillFile[] spillIfFull(Aggregator agg, int depth) {
+    	if (agg.numGroups() > m_maxGroups && depth < MAX_SPILL_DEPTH)
+    		return new SpillFile[NUM_PARTITIONS];
+    	return null;
+    }
+
+    /**
+     * Merges a row into its group if the aggregator has it, and otherwise
+     * writes its group and aggregate fields to its partition.
+     */
+    private void merge(Aggregator agg, Tuple t, int gfield, int afield,
+            SpillFile[] spills, int depth) throws DbException {
+    	if (agg.mergeIntoExistingGroup(t))
+    		return;
+    	Field group = t.getField(gfield);
+    	int p = partitionOf(group, depth);
+    	try {
+    		if (spills[p] == null)
+    			spills[p] = new SpillFile(m_spillTd);
+    		Tuple row = new Tuple(m_spillTd);
+    		row.setField(0, group);
+    		row.setField(1, t.getField(afield));
+    		spills[p].add(row);
+    	} catch (IOException e) {
+    		deleteSpills(spills);
+    		throw new DbException("could not write a partition: " + e.getMessage());
+    	}
+    }
+
+    /**
+     * @return the partition of a group, with a different hash at each depth
+     *   so that a partition that is spilled again is split further (see
+     *   {@link AggregateHashTable#partition(int, int)})
+     */
+    private static int partitionOf(Field group, int depth) {
+    	int h = AggregateHashTable.partitionHash(group.hashCode() + depth * 0x9E3779B9);
+    	return (h >>> 16) % NUM_PARTITIONS;
+    }
+
+    private static void deleteSpills(SpillFile[] spills) {
+    	for (SpillFile f : spills) {
+    		if (f != null)
+    			f.delete();
+    	}
+    }
+
+    /**
+     * The results of an aggregate: the groups held in memory, followed by
+     * the groups of each of its spilled partitions, aggregated one at a time
+     * when the previous ones were returned.
+     */
+    private class Results implements DbIterator {
+    	private static final long serialVersionUID = 1L;
+    	private DbIterator m_groups;
+    	private SpillFile[] m_spills;
+    	private int m_depth;
+    	/** The results of the partition being returned, or null */
+    	private Results m_partition;
+    	private int m_next;
+
+    	public Results(DbIterator groups, SpillFile[] spills, int depth) {
+    		m_groups = groups;
+    		m_spills = spills;
+    		m_depth = depth;
+    	}
+
+    	public void open() throws DbException, TransactionAbortedException {
+    		m_groups.open();
+    		m_next = 0;
+    	}
+
+    	public boolean hasNext() throws DbException, TransactionAbortedException {
+    		if (m_partition == null && m_groups.hasNext())
+    			return true;
+    		while (m_partition == null || !m_partition.hasNext()) {
+    			if (m_partition != null) {
+    				m_partition.close();
+    				m_partition = null;
+    			}
+    			if (m_spills == null || m_next == m_spills.length)
+    				return false;
+    			SpillFile f = m_spills[m_next++];
+    			if (f == null)
+    				continue;
+    			DbIterator rows;
+    			try {
+    				rows = f.iterator();
+    			} catch (IOException e) {
+    				throw new DbException("could not read a partition: " + e.getMessage());
+    			}
+    			rows.open();
+    			Aggregator agg = newAggregator(m_spillTd, 0, 1);
+    			SpillFile[] spills = aggregate(rows, agg, 0, 1, m_depth + 1);
+    			rows.close();
+    			m_partition = new Results(agg.iterator(), spills, m_depth + 1);
+    			m_partition.open();
+    		}
+    		return true;
+    	}
+
+    	public Tuple next() throws DbException, TransactionAbortedException {
+    		if (!hasNext())
+    			throw new NoSuchElementException();
+    		return m_partition == null ? m_groups.next() : m_partition.next();
+    	}
+
+    	public void rewind() throws DbException, TransactionAbortedException {
+    		if (m_partition != null) {
+    			m_partition.close();
+    			m_partition = null;
+    		}
+    		m_groups.rewind();
+    		m_next = 0;
+    	}
+
+    	public TupleDesc getTupleDesc() {
+    		return m_groups.getTupleDesc();
+    	}
+
+    	/**
+    	 * Closes the results and deletes the partitions.
+    	 */
+    	public void close() {
+    		m_groups.close();
+    		if (m_partition != null) {
+    			m_partition.close();
+    			m_partition = null;
+    		}
+    		if (m_spills != null) {
+    			deleteSpills(m_spills);
+    			m_spills = null;
+    		}
+    	}
+    }
+
     /**
      * Returns the next tuple. If there is a group by field, then the first
      * field is the field by which we are grouping, and the second field is the
@@ -119,6 +428,13 @@ public class Aggregate extends Operator {
     	return null;
     }
 
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+    	if (results == null) {
+    		throw new DbException("fetchNextBatch() called before open()");
+    	}
+    	return TupleBatch.next(results);
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
 		results.rewind();
 		m_child.rewind();
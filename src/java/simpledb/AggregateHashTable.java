@@ -0,0 +1,386 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * AggregateHashTable holds the state of a grouped aggregate without a
+ * Field or boxed number per group. It is an open-addressing table of the
+ * distinct group keys, which numbers the groups from 0 in the order they
+ * are first seen; the count, sum, lowest and highest value of each group
+ * are long accumulators in parallel arrays indexed by group number, so
+ * that adding a value to an existing group allocates nothing.
+ * <p>
+ * {@link #create(Type)} returns a table specialized for the type of the
+ * group key: {@link IntKeys} stores int keys in an int[], {@link StringKeys}
+ * stores string keys with their cached hash codes, and {@link NoKeys} has a
+ * single group, for aggregates without grouping.
+ */
+public abstract class AggregateHashTable {
+
+    /** The number of groups */
+    protected int m_numGroups;
+    /** The group whose key is in each slot, or -1 if the slot is empty */
+    protected int[] m_slots;
+    private long[] m_counts = new long[16];
+    private long[] m_sums = new long[16];
+    private long[] m_mins = new long[16];
+    private long[] m_maxes = new long[16];
+
+    /**
+     * Creates an empty table.
+     */
+    protected AggregateHashTable() {
+        m_slots = new int[16];
+        Arrays.fill(m_slots, -1);
+    }
+
+    /**
+     * Returns an empty table specialized for group keys of the specified
+     * type.
+     *
+     * @param keyType the type of the group-by field, or null if there is no
+     *   grouping
+     */
+    public static AggregateHashTable create(Type keyType) {
+        if (keyType == null)
+            return new NoKeys();
+        if (keyType == Type.INT_TYPE)
+            return new IntKeys();
+        return new StringKeys();
+    }
+
+    /**
+     * Returns the group of the specified key, creating an empty group for
+     * it if there is none.
+     *
+     * @param key a group-by field, which NoKeys ignores
+     * @return the number of the group
+     */
+    public abstract int group(Field key);
+
+    /**
+     * @return the group of the specified key, or -1 if there is none
+     */
+    public abstract int find(Field key);
+
+    /**
+     * @return the group-by field of the specified group, or null for the
+     *   group of a NoKeys table
+     */
+    public abstract Field key(int group);
+
+    /**
+     * Adds a value to a group.
+     */
+    public void add(int group, int value) {
+        m_counts[group]++;
+        m_sums[group] += value;
+        if (value < m_mins[group])
+            m_mins[group] = value;
+        if (value > m_maxes[group])
+            m_maxes[group] = value;
+    }
+
+    /**
+     * Adds to a group count values, whose sum, lowest and highest value are
+     * given.
+     */
+    public void add(int group, long count, long sum, long min, long max) {
+        m_counts[group] += count;
+        m_sums[group] += sum;
+        m_mins[group] = Math.min(m_mins[group], min);
+        m_maxes[group] = Math.max(m_maxes[group], max);
+    }
+
+    /**
+     * Merges groups of another table of the same kind into this one, adding
+     * their accumulators to those of the groups with the same keys.
+     *
+     * @param groups the numbers of the groups of from to merge
+     */
+    public void merge(AggregateHashTable from, int[] groups) {
+        for (int g : groups) {
+            add(groupOf(from, g), from.m_counts[g], from.m_sums[g],
+                    from.m_mins[g], from.m_maxes[g]);
+        }
+    }
+
+    /**
+     * @return the group of the key of a group of another table of the same
+     *   kind, created if there is none
+     */
+    protected abstract int groupOf(AggregateHashTable from, int group);
+
+    /**
+     * Returns the partition of a group, out of n, by a hash of its key that
+     * is unrelated to the one the table places keys with: with the same
+     * hash, the keys of a partition would only fill a fraction of the slots
+     * of a table of their own.
+     */
+    public int partition(int group, int n) {
+        return (partitionHash(keyHashCode(group)) >>> 16) % n;
+    }
+
+    /**
+     * @return a hash of the hash code of a key, for partitioning groups
+     */
+    public static int partitionHash(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * @return the hash code of the key field of a group
+     */
+    protected abstract int keyHashCode(int group);
+
+    /**
+     * @return the number of groups
+     */
+    public int size() {
+        return m_numGroups;
+    }
+
+    /** @return the number of values added to a group */
+    public long count(int group) {
+        return m_counts[group];
+    }
+
+    /** @return the sum of the values added to a group */
+    public long sum(int group) {
+        return m_sums[group];
+    }
+
+    /** @return the lowest value added to a group */
+    public long min(int group) {
+        return m_mins[group];
+    }
+
+    /** @return the highest value added to a group */
+    public long max(int group) {
+        return m_maxes[group];
+    }
+
+    /**
+     * Numbers a new group with empty accumulators, and grows the slots when
+     * more than half of them are used.
+     *
+     * @return the number of the new group
+     */
+    protected int newGroup() {
+        int g = m_numGroups++;
+        if (g == m_counts.length) {
+            int n = g * 2;
+            m_counts = Arrays.copyOf(m_counts, n);
+            m_sums = Arrays.copyOf(m_sums, n);
+            m_mins = Arrays.copyOf(m_mins, n);
+            m_maxes = Arrays.copyOf(m_maxes, n);
+            grow(n);
+        }
+        m_mins[g] = Long.MAX_VALUE;
+        m_maxes[g] = Long.MIN_VALUE;
+        return g;
+    }
+
+    /**
+     * Grows the per-group key storage to the specified number of groups.
+     */
+    protected abstract void grow(int groups);
+
+    /**
+     * Moves the groups to a new array of slots, when more than half of the
+     * current ones are used.
+     */
+    protected void rehashIfFull() {
+        if (m_numGroups * 2 <= m_slots.length)
+            return;
+        int capacity = m_slots.length * 2;
+        m_slots = new int[capacity];
+        Arrays.fill(m_slots, -1);
+        int mask = capacity - 1;
+        for (int g = 0; g < m_numGroups; g++) {
+            int slot = hash(g) & mask;
+            while (m_slots[slot] >= 0)
+                slot = (slot + 1) & mask;
+            m_slots[slot] = g;
+        }
+    }
+
+    /**
+     * @return the hash of the key of the specified group
+     */
+    protected abstract int hash(int group);
+
+    /**
+     * A table whose keys are int fields, stored in an int[].
+     */
+    public static class IntKeys extends AggregateHashTable {
+        private int[] m_keys = new int[16];
+
+        /**
+         * @return the group of the specified int key, created if there is
+         *   none
+         */
+        public int group(int key) {
+            int mask = m_slots.length - 1;
+            int slot = JoinHashTable.mix(key) & mask;
+            int g;
+            while ((g = m_slots[slot]) >= 0) {
+                if (m_keys[g] == key)
+                    return g;
+                slot = (slot + 1) & mask;
+            }
+            g = newGroup();
+            m_keys[g] = key;
+            m_slots[slot] = g;
+            rehashIfFull();
+            return g;
+        }
+
+        public int group(Field key) {
+            return group(((IntField) key).getValue());
+        }
+
+        /**
+         * @return the group of the specified int key, or -1 if there is
+         *   none
+         */
+        public int find(int key) {
+            int mask = m_slots.length - 1;
+            int g;
+            for (int slot = JoinHashTable.mix(key) & mask; (g = m_slots[slot]) >= 0; slot = (slot + 1) & mask) {
+                if (m_keys[g] == key)
+                    return g;
+            }
+            return -1;
+        }
+
+        public int find(Field key) {
+            return find(((IntField) key).getValue());
+        }
+
+        public Field key(int group) {
+            return new IntField(m_keys[group]);
+        }
+
+        protected void grow(int groups) {
+            m_keys = Arrays.copyOf(m_keys, groups);
+        }
+
+        protected int hash(int group) {
+            return JoinHashTable.mix(m_keys[group]);
+        }
+
+        protected int groupOf(AggregateHashTable from, int group) {
+            return group(((IntKeys) from).m_keys[group]);
+        }
+
+        protected int keyHashCode(int group) {
+            return m_keys[group];
+        }
+    }
+
+    /**
+     * A table whose keys are string fields, stored with their hash codes so
+     * that probes only compare the strings whose hash codes are equal.
+     */
+    public static class StringKeys extends AggregateHashTable {
+        private String[] m_keys = new String[16];
+        private int[] m_hashes = new int[16];
+
+        /**
+         * @return the group of the specified string key, created if there
+         *   is none
+         */
+        public int group(String key) {
+            int h = key.hashCode();
+            int mask = m_slots.length - 1;
+            int slot = JoinHashTable.mix(h) & mask;
+            int g;
+            while ((g = m_slots[slot]) >= 0) {
+                if (m_hashes[g] == h && m_keys[g].equals(key))
+                    return g;
+                slot = (slot + 1) & mask;
+            }
+            g = newGroup();
+            m_keys[g] = key;
+            m_hashes[g] = h;
+            m_slots[slot] = g;
+            rehashIfFull();
+            return g;
+        }
+
+        public int group(Field key) {
+            return group(((StringField) key).getValue());
+        }
+
+        public int find(Field key) {
+            String k = ((StringField) key).getValue();
+            int h = k.hashCode();
+            int mask = m_slots.length - 1;
+            int g;
+            for (int slot = JoinHashTable.mix(h) & mask; (g = m_slots[slot]) >= 0; slot = (slot + 1) & mask) {
+                if (m_hashes[g] == h && m_keys[g].equals(k))
+                    return g;
+            }
+            return -1;
+        }
+
+        public Field key(int group) {
+            return new StringField(m_keys[group], Type.STRING_LEN);
+        }
+
+        protected void grow(int groups) {
+            m_keys = Arrays.copyOf(m_keys, groups);
+            m_hashes = Arrays.copyOf(m_hashes, groups);
+        }
+
+        protected int hash(int group) {
+            return JoinHashTable.mix(m_hashes[group]);
+        }
+
+        protected int groupOf(AggregateHashTable from, int group) {
+            return group(((StringKeys) from).m_keys[group]);
+        }
+
+        protected int keyHashCode(int group) {
+            return m_hashes[group];
+        }
+    }
+
+    /**
+     * A table with a single group, created by the first call to group().
+     */
+    public static class NoKeys extends AggregateHashTable {
+        public int group(Field key) {
+            return m_numGroups > 0 ? 0 : newGroup();
+        }
+
+        public int find(Field key) {
+            return m_numGroups > 0 ? 0 : -1;
+        }
+
+        public Field key(int group) {
+            return null;
+        }
+
+        protected void grow(int groups) {
+        }
+
+        protected int hash(int group) {
+            return 0;
+        }
+
+        protected int groupOf(AggregateHashTable from, int group) {
+            return group(null);
+        }
+
+        protected int keyHashCode(int group) {
+            return 0;
+        }
+    }
+}
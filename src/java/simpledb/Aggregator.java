@@ -57,6 +57,20 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge a new tuple into the aggregate if its group was already
+     * encountered, and otherwise leave the aggregate unchanged.
+     *
+     * @param tup the Tuple containing an aggregate field and a group-by field
+     * @return true if the tuple was merged
+     */
+    public boolean mergeIntoExistingGroup(Tuple tup);
+
+    /**
+     * @return the number of distinct groups merged so far
+     */
+    public int numGroups();
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
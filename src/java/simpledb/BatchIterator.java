@@ -0,0 +1,23 @@
+package simpledb;
+
+/**
+ * BatchIterator is implemented by iterators that can return their tuples a
+ * batch at a time, saving the per-tuple calls and checks of hasNext() and
+ * next(). Operators that read their children in batches should do so with
+ * {@link TupleBatch#next(DbIterator)}, which also reads from iterators that
+ * only implement DbIterator.
+ * <p>
+ * Calls to nextBatch() may be mixed with calls to hasNext() and next(): each
+ * tuple is returned once, by one or the other.
+ */
+public interface BatchIterator extends DbIterator {
+  /**
+   * Returns the next batch of tuples from the iterator. The returned batch
+   * is owned by the caller.
+   *
+   * @return a batch with at least one selected tuple, or null if there are
+   *   no more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A BitmapCondition is a boolean combination of predicates over fields of
+ * one table that have a BitmapIndex. It is evaluated in two ways: on the
+ * bitmaps, giving the positions of the tuples that may satisfy it, and on
+ * a fetched tuple, to recheck it (bitmap indexes keep the positions of
+ * deleted tuples).
+ *
+ * @see BitmapScan
+ */
+public abstract class BitmapCondition implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @return the positions of the tuples that may satisfy this condition
+     */
+    public abstract CompressedBitmap evaluate();
+
+    /**
+     * @param t a tuple of the indexed table
+     * @return true if t satisfies this condition
+     */
+    public abstract boolean filter(Tuple t);
+
+    /**
+     * @return the condition "key op operand" on the key of the specified
+     *   bitmap index
+     */
+    public static BitmapCondition predicate(BitmapIndex index, Predicate.Op op, Field operand) {
+        return new Leaf(index, op, operand);
+    }
+
+    /** @return the conjunction of the specified conditions */
+    public static BitmapCondition and(BitmapCondition... conds) {
+        return new Combination(true, conds);
+    }
+
+    /** @return the disjunction of the specified conditions */
+    public static BitmapCondition or(BitmapCondition... conds) {
+        return new Combination(false, conds);
+    }
+
+    private static class Leaf extends BitmapCondition {
+        private static final long serialVersionUID = 1L;
+        private BitmapIndex m_index;
+        private Predicate m_pred;
+
+        Leaf(BitmapIndex index, Predicate.Op op, Field operand) {
+            m_index = index;
+            m_pred = new Predicate(index.getKeyField(), op, operand);
+        }
+
+        public CompressedBitmap evaluate() {
+            return m_index.select(m_pred.getOp(), m_pred.getOperand());
+        }
+
+        public boolean filter(Tuple t) {
+            return m_pred.filter(t);
+        }
+
+        public String toString() {
+            return m_pred.toString();
+        }
+    }
+
+    private static class Combination extends BitmapCondition {
+        private static final long serialVersionUID = 1L;
+        private boolean m_and;
+        private BitmapCondition[] m_conds;
+
+        Combination(boolean and, BitmapCondition[] conds) {
+            if (conds.length == 0)
+                throw new IllegalArgumentException("no conditions to combine");
+            m_and = and;
+            m_conds = conds.clone();
+        }
+
+        public CompressedBitmap evaluate() {
+            CompressedBitmap result = m_conds[0].evaluate();
+            for (int i = 1; i < m_conds.length; i++)
+                result = m_and ? result.and(m_conds[i].evaluate()) : result.or(m_conds[i].evaluate());
+            return result;
+        }
+
+        public boolean filter(Tuple t) {
+            for (BitmapCondition c : m_conds) {
+                if (c.filter(t) != m_and)
+                    return !m_and;
+            }
+            return m_and;
+        }
+
+        public String toString() {
+            String s = "";
+            for (BitmapCondition c : m_conds)
+                s += (s.length() == 0 ? "(" : m_and ? " AND " : " OR ") + c;
+            return s + ")";
+        }
+    }
+}
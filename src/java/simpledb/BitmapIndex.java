@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * BitmapIndex is an in-memory bitmap index over one field of a table stored
+ * in a HeapFile, meant for fields with few distinct values. For each value
+ * of the field it keeps a CompressedBitmap of the positions of the tuples
+ * holding it, where the position of a tuple is
+ * <code>pageNumber * tuplesPerPage + slot</code>. Bitmaps of several
+ * predicates can then be combined with AND/OR before any heap page is read
+ * (see {@link BitmapScan}).
+ * <p>
+ * The index is built by scanning its table, and the BufferPool adds the
+ * tuples inserted into the table to the bitmap of their value. Deleted
+ * tuples are not removed: a bitmap is a superset of the positions holding
+ * its value, which stays true when a transaction that inserted or deleted
+ * tuples aborts. Users of the index must therefore recheck the tuples they
+ * fetch.
+ * <p>
+ * The index has no pages, so it is not a DbFile: the catalog keeps bitmap
+ * indexes apart from the other indexes, and rebuilds them each time it is
+ * loaded.
+ */
+public class BitmapIndex implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private int m_tableId;
+	private int m_keyField;
+	private int m_tuplesPerPage;
+	private TupleDesc m_td;
+	private HashMap<Field, CompressedBitmap> m_bitmaps = new HashMap<Field, CompressedBitmap>();
+
+	/**
+	 * Constructs an empty bitmap index.
+	 *
+	 * @param tableid the id of the indexed table, stored in a HeapFile
+	 * @param keyField the index of the indexed field in the table's tuples
+	 */
+	public BitmapIndex(int tableid, int keyField) {
+		m_tableId = tableid;
+		m_keyField = keyField;
+		TupleDesc baseTd = Database.getCatalog().getTupleDesc(tableid);
+		m_tuplesPerPage = HeapPage.getNumTuples(baseTd);
+		m_td = new TupleDesc(new Type[] { baseTd.getFieldType(keyField),
+				Type.INT_TYPE, Type.INT_TYPE },
+				new String[] { baseTd.getFieldName(keyField), "page", "slot" });
+	}
+
+	/** @return the id of the indexed table */
+	public int getTableId() {
+		return m_tableId;
+	}
+
+	/** @return the index of the indexed field in the base table's tuples */
+	public int getKeyField() {
+		return m_keyField;
+	}
+
+	/**
+	 * Returns the TupleDesc of the entries of this index: the key, and the
+	 * page number and slot of the base tuple.
+	 */
+	public TupleDesc getTupleDesc() {
+		return m_td;
+	}
+
+	/** @return the number of tuples on a page of the indexed table */
+	public int getTuplesPerPage() {
+		return m_tuplesPerPage;
+	}
+
+	/** @return the position of the tuple with the specified RecordId */
+	public int position(RecordId rid) {
+		return rid.getPageId().pageNumber() * m_tuplesPerPage + rid.tupleno();
+	}
+
+	/** @return the number of distinct values in the index */
+	public synchronized int numValues() {
+		return m_bitmaps.size();
+	}
+
+	/**
+	 * Returns a new bitmap of the positions of the tuples whose key
+	 * satisfies "key op operand", ORing the bitmaps of all matching values.
+	 */
+	public synchronized CompressedBitmap select(Predicate.Op op, Field operand) {
+		CompressedBitmap result = new CompressedBitmap();
+		if (op == Predicate.Op.EQUALS) {
+			CompressedBitmap b = m_bitmaps.get(operand);
+			return b == null ? result : result.or(b);
+		}
+		for (Map.Entry<Field, CompressedBitmap> e : m_bitmaps.entrySet()) {
+			if (e.getKey().compare(op, operand))
+				result = result.or(e.getValue());
+		}
+		return result;
+	}
+
+	/**
+	 * Adds a tuple of the base table to the bitmap of its key.
+	 *
+	 * @param t a tuple stored in the indexed table
+	 * @throws DbException if the tuple has no RecordId
+	 */
+	public synchronized void insertTuple(Tuple t) throws DbException {
+		if (t.getRecordId() == null)
+			throw new DbException("Tuple is not stored in the indexed table");
+		Field key = t.getField(m_keyField);
+		CompressedBitmap b = m_bitmaps.get(key);
+		if (b == null) {
+			b = new CompressedBitmap();
+			m_bitmaps.put(key, b);
+		}
+		b.add(position(t.getRecordId()));
+	}
+
+	/**
+	 * Fills an empty index with every tuple of the base table.
+	 *
+	 * @param tid the transaction used to scan the base table
+	 */
+	public void build(TransactionId tid)
+			throws DbException, TransactionAbortedException {
+		DbFileIterator it = Database.getCatalog().getDbFile(m_tableId).iterator(tid);
+		it.open();
+		while (it.hasNext())
+			insertTuple(it.next());
+		it.close();
+	}
+}
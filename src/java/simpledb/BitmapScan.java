@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BitmapScan is an access method that returns the tuples of a table that
+ * satisfy a BitmapCondition. The condition is first evaluated on the bitmap
+ * indexes of the table, combining the bitmaps of its predicates with
+ * word-level AND/OR; only the pages holding a set position are then read,
+ * in page order, and each candidate tuple is rechecked against the
+ * condition. It returns the same tuples, with the same TupleDesc, as a
+ * SeqScan of the table followed by a Filter on the condition.
+ */
+public class BitmapScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    BitmapCondition m_cond;
+
+    /**
+     * Creates a bitmap scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param cond
+     *            a condition over bitmap indexes of the table
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias,
+            BitmapCondition cond) {
+        super(tid, tableid, tableAlias);
+        m_cond = cond;
+    }
+
+    /** @return the condition satisfied by the returned tuples */
+    public BitmapCondition getCondition() {
+        return m_cond;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_iterator = new BitmapIterator();
+        m_iterator.open();
+    }
+
+    /**
+     * Visits the set positions of the condition's bitmap in increasing
+     * order, reading each page once.
+     */
+    private class BitmapIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+        private CompressedBitmap m_bitmap;
+        private int m_tuplesPerPage;
+        private int m_numPages;
+        private int m_pos;
+        private HeapPage m_page;
+        private Tuple m_next;
+
+        public void open() throws DbException, TransactionAbortedException {
+            m_bitmap = m_cond.evaluate();
+            m_tuplesPerPage = HeapPage.getNumTuples(Database.getCatalog().getTupleDesc(m_tableId));
+            m_numPages = ((HeapFile) Database.getCatalog().getDbFile(m_tableId)).numPages();
+            m_pos = m_bitmap.nextSetBit(0);
+            m_page = null;
+            m_next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (m_bitmap == null)
+                return false;
+            while (m_next == null && m_pos >= 0) {
+                int pgNo = m_pos / m_tuplesPerPage;
+                if (pgNo >= m_numPages)
+                    break;
+                if (m_page == null || m_page.getId().pageNumber() != pgNo)
+                    m_page = (HeapPage) Database.getBufferPool().getPage(m_tid,
+                            new HeapPageId(m_tableId, pgNo), Permissions.READ_ONLY);
+                Tuple t = m_page.getTuple(m_pos % m_tuplesPerPage);
+                if (t != null && m_cond.filter(t))
+                    m_next = t;
+                m_pos = m_bitmap.nextSetBit(m_pos + 1);
+            }
+            return m_next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = m_next;
+            m_next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            m_pos = m_bitmap.nextSetBit(0);
+            m_page = null;
+            m_next = null;
+        }
+
+        public void close() {
+            m_bitmap = null;
+            m_page = null;
+            m_next = null;
+        }
+    }
+}
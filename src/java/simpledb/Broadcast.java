@@ -0,0 +1,57 @@
+package simpledb;
+
+/**
+ * Broadcast is an exchange that sends every tuple of its producers to each
+ * of its consumers, such as the small side of a join whose other side is
+ * split between several threads.
+ */
+public class Broadcast extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private Broadcast(Channels channels, int channel) {
+        super(channels, channel);
+    }
+
+    /**
+     * Returns the consumers of a broadcast of the tuples of producers.
+     *
+     * @param producers
+     *            the subplans whose tuples to send, each run on a thread
+     * @param consumers
+     *            the number of consumers
+     */
+    public static Broadcast[] create(DbIterator[] producers, int consumers) {
+        Channels channels = new BroadcastChannels(producers, consumers);
+        Broadcast[] result = new Broadcast[consumers];
+        for (int i = 0; i < consumers; i++)
+            result[i] = new Broadcast(channels, i);
+        return result;
+    }
+
+    public String getName() {
+        return "broadcast";
+    }
+
+    /** Channels that route each batch to every consumer */
+    private static class BroadcastChannels extends Channels {
+        BroadcastChannels(DbIterator[] producers, int consumers) {
+            super("broadcast", producers, consumers);
+        }
+
+        boolean route(TupleBatch batch) {
+            boolean read = false;
+            for (int c = 0; c < numChannels(); c++) {
+                if (isClosed(c))
+                    continue;
+                // consumers may change the selection of their batches
+                TupleBatch copy = new TupleBatch();
+                for (int i = 0; i < batch.size(); i++)
+                    copy.add(batch.get(i));
+                if (put(c, copy))
+                    read = true;
+            }
+            return read;
+        }
+    }
+}
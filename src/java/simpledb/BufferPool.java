@@ -70,19 +70,22 @@ public class BufferPool {
 			}
     	}
 
-    	for (int i = 0; i < m_pages.size(); i++) {
-    		if (m_pages.get(i).getId().equals(pid)) {
-    			Page p = m_pages.remove(i);
-    			m_pages.add(p);
-    			return p;
+    	// the threads of a parallel scan share the cache
+    	synchronized (this) {
+    		for (int i = 0; i < m_pages.size(); i++) {
+    			if (m_pages.get(i).getId().equals(pid)) {
+    				Page p = m_pages.remove(i);
+    				m_pages.add(p);
+    				return p;
+    			}
     		}
+    		Catalog catalog = Database.getCatalog();
+    		Page newPage = catalog.getDbFile(pid.getTableId()).readPage(pid);
+    		if (m_pages.size() >= maxNumPages)
+    			evictPage();
+    		m_pages.add(newPage);
+    		return newPage;
     	}
-    	Catalog catalog = Database.getCatalog();
-    	Page newPage = catalog.getDbFile(pid.getTableId()).readPage(pid);
-    	if (m_pages.size() >= maxNumPages)
-    		evictPage();
-    	m_pages.add(newPage);
-    	return newPage;
 
     }
 
@@ -152,17 +155,25 @@ public class BufferPool {
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
      *
+     * Any indexes on the table are updated with the new tuple once it has
+     * been stored.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-    	HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableId);
+    	DbFile file = Database.getCatalog().getDbFile(tableId);
     	ArrayList<Page> dirtiedPages = file.insertTuple(tid, t);
+    	for (DbFile index : Database.getCatalog().getIndexes(tableId))
+    		dirtiedPages.addAll(index.insertTuple(tid, t));
+    	for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+    		index.insertTuple(t);
     	for (Page p:dirtiedPages) {
     		p.markDirty(true, tid);
-    		m_pages.add(p);
+    		if (!m_pages.contains(p))
+    			m_pages.add(p);
     	}
     }
 
@@ -176,18 +187,26 @@ public class BufferPool {
      * been dirtied, as it is not possible that a new page was created during the deletion
      * (note difference from addTuple).
      *
+     * Any indexes on the table are updated before the tuple is removed.
+     * Bitmap indexes keep the positions of deleted tuples.
+     *
      * @param tid the transaction adding the tuple.
      * @param t the tuple to add
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException {
-    	HeapFile file = (HeapFile) Database.getCatalog()
-    			.getDbFile(t.getRecordId().getPageId().getTableId());
-    	Page page = file.deleteTuple(tid, t);
-    	page.markDirty(true, tid);
-    	for (Page p : m_pages) {
-    		if (p.getId().equals(page.getId()))
-    			m_pages.set(m_pages.indexOf(p), page);
+    	int tableId = t.getRecordId().getPageId().getTableId();
+    	ArrayList<Page> dirtiedPages = new ArrayList<Page>();
+    	for (DbFile index : Database.getCatalog().getIndexes(tableId))
+    		dirtiedPages.add(index.deleteTuple(tid, t));
+    	DbFile file = Database.getCatalog().getDbFile(tableId);
+    	dirtiedPages.add(file.deleteTuple(tid, t));
+    	for (Page page : dirtiedPages) {
+    		page.markDirty(true, tid);
+    		for (int i = 0; i < m_pages.size(); i++) {
+    			if (m_pages.get(i).getId().equals(page.getId()))
+    				m_pages.set(i, page);
+    		}
     	}
     }
 
@@ -218,7 +237,7 @@ public class BufferPool {
      * @param pid an ID indicating the page to flush
      */
     private synchronized void flushPage(PageId pid) throws IOException {
-    	HeapFile file = (HeapFile) Database.getCatalog().getDbFile(pid.getTableId());
+    	DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
     	for (Page page:m_pages) {
     		if (page.getId().equals(pid)) {
     			if (page.isDirty() != null)
@@ -20,6 +20,10 @@ public class Catalog {
 	ArrayList<String> m_names;
 	ArrayList<String> m_keys;
 	ArrayList<Integer> m_ids;
+	ArrayList<DbFile> m_indexFiles;
+	ArrayList<Integer> m_indexTables;
+	ArrayList<String> m_indexFields;
+	ArrayList<BitmapIndex> m_bitmapIndexes;
 	
     /**
      * Constructor.
@@ -30,6 +34,10 @@ public class Catalog {
     	m_names = new ArrayList<String>();
     	m_keys = new ArrayList<String>();
     	m_ids = new ArrayList<Integer>();
+    	m_indexFiles = new ArrayList<DbFile>();
+    	m_indexTables = new ArrayList<Integer>();
+    	m_indexFields = new ArrayList<String>();
+    	m_bitmapIndexes = new ArrayList<BitmapIndex>();
     }
 
     /**
@@ -91,9 +99,7 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-    	if (m_ids.contains(tableid))
-    		return m_files.get(m_ids.indexOf(tableid)).getTupleDesc();
-    	throw new NoSuchElementException();
+    	return getDbFile(tableid).getTupleDesc();
     }
 
     /**
@@ -105,9 +111,114 @@ public class Catalog {
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
     	if (m_ids.contains(tableid))
     		return m_files.get(m_ids.indexOf(tableid));
+    	for (DbFile index : m_indexFiles) {
+    		if (index.getId() == tableid)
+    			return index;
+    	}
     	throw new NoSuchElementException();
     }
 
+    /**
+     * Add an index to the catalog. The index is stored in its own DbFile,
+     * whose id can be passed to getDbFile and getTupleDesc like a table id,
+     * but it is not returned by tableIdIterator.
+     * @param index the contents of the index
+     * @param tableid the id of the indexed table
+     * @param field the name of the indexed field in the table's TupleDesc
+     */
+    public void addIndex(DbFile index, int tableid, String field) {
+    	int i = m_indexFiles.indexOf(getIndexOrNull(index.getId()));
+    	if (i >= 0) {
+    		m_indexFiles.set(i, index);
+    		m_indexTables.set(i, tableid);
+    		m_indexFields.set(i, field);
+    	} else {
+    		m_indexFiles.add(index);
+    		m_indexTables.add(tableid);
+    		m_indexFields.add(field);
+    	}
+    }
+
+    private DbFile getIndexOrNull(int indexid) {
+    	for (DbFile index : m_indexFiles) {
+    		if (index.getId() == indexid)
+    			return index;
+    	}
+    	return null;
+    }
+
+    /**
+     * Returns all indexes on the specified table, which must be kept up to
+     * date when tuples are inserted into or deleted from the table.
+     */
+    public ArrayList<DbFile> getIndexes(int tableid) {
+    	ArrayList<DbFile> indexes = new ArrayList<DbFile>();
+    	for (int i = 0; i < m_indexFiles.size(); i++) {
+    		if (m_indexTables.get(i) == tableid)
+    			indexes.add(m_indexFiles.get(i));
+    	}
+    	return indexes;
+    }
+
+    /**
+     * Returns an index of the specified class on the specified field of a
+     * table, or null if there is none.
+     * @param tableid the id of the indexed table
+     * @param field the name of the field in the table's TupleDesc
+     * @param indexClass the kind of index wanted, e.g. HashIndexFile.class
+     */
+    public <T extends DbFile> T getIndex(int tableid, String field, Class<T> indexClass) {
+    	for (int i = 0; i < m_indexFiles.size(); i++) {
+    		if (m_indexTables.get(i) == tableid && m_indexFields.get(i).equals(field)
+    				&& indexClass.isInstance(m_indexFiles.get(i)))
+    			return indexClass.cast(m_indexFiles.get(i));
+    	}
+    	return null;
+    }
+
+    /**
+     * Add a bitmap index to the catalog. Bitmap indexes have no pages, so
+     * they are kept apart from the indexes stored in a DbFile.
+     * @param index the index, which knows its table and field
+     */
+    public void addBitmapIndex(BitmapIndex index) {
+    	for (int i = 0; i < m_bitmapIndexes.size(); i++) {
+    		BitmapIndex b = m_bitmapIndexes.get(i);
+    		if (b.getTableId() == index.getTableId() && b.getKeyField() == index.getKeyField()) {
+    			m_bitmapIndexes.set(i, index);
+    			return;
+    		}
+    	}
+    	m_bitmapIndexes.add(index);
+    }
+
+    /**
+     * Returns all bitmap indexes on the specified table, which must be kept
+     * up to date when tuples are inserted into the table.
+     */
+    public ArrayList<BitmapIndex> getBitmapIndexes(int tableid) {
+    	ArrayList<BitmapIndex> indexes = new ArrayList<BitmapIndex>();
+    	for (BitmapIndex b : m_bitmapIndexes) {
+    		if (b.getTableId() == tableid)
+    			indexes.add(b);
+    	}
+    	return indexes;
+    }
+
+    /**
+     * Returns the bitmap index on the specified field of a table, or null
+     * if there is none.
+     * @param tableid the id of the indexed table
+     * @param field the name of the field in the table's TupleDesc
+     */
+    public BitmapIndex getBitmapIndex(int tableid, String field) {
+    	for (BitmapIndex b : m_bitmapIndexes) {
+    		if (b.getTableId() == tableid && b.getTupleDesc().getFieldName(0).equals(field))
+    			return b;
+    	}
+    	return null;
+    }
+
     public String getPrimaryKey(int tableid) {
     	if (m_ids.contains(tableid))
     		return m_keys.get(m_ids.indexOf(tableid));
@@ -130,10 +241,19 @@ public class Catalog {
     	m_names.clear(); 
     	m_keys.clear(); 
     	m_ids.clear(); 
+    	m_indexFiles.clear();
+    	m_indexTables.clear();
+    	m_indexFields.clear();
+    	m_bitmapIndexes.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form name (field type [annotations], ...), where the
+     * annotations of a field are "pk" (primary key, hash indexed), "index"
+     * (hash index), "bitmap" (bitmap index), "sorted" or "sorted:f1:f2..."
+     * (sorted index storing copies of fields f1, f2, ...) and "clustered"
+     * (the table is a HeapFile clustered on this int field).
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -151,6 +271,10 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                int clusterField = -1;
+                ArrayList<String> indexed = new ArrayList<String>();
+                ArrayList<String> bitmapped = new ArrayList<String>();
+                ArrayList<String[]> sorted = new ArrayList<String[]>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -162,11 +286,23 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexed.add(els2[0].trim());
+                        else if (els2[i].trim().equals("clustered"))
+                            clusterField = names.size() - 1;
+                        else if (els2[i].trim().equals("bitmap"))
+                            bitmapped.add(els2[0].trim());
+                        else if (els2[i].trim().split(":")[0].equals("sorted")) {
+                            // sorted:a:b is a sorted index on this field including a and b
+                            String[] ann = els2[i].trim().split(":");
+                            ann[0] = els2[0].trim();
+                            sorted.add(ann);
+                        }
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -174,9 +310,20 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder,name + ".dat"), t);
+                HeapFile tabHf = clusterField < 0 ? new HeapFile(new File(baseFolder,name + ".dat"), t)
+                        : new HeapFile(new File(baseFolder,name + ".dat"), t, clusterField);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                if (!primaryKey.equals(""))
+                    createHashIndex(tabHf.getId(), primaryKey);
+                for (String field : indexed) {
+                    if (!field.equals(primaryKey))
+                        createHashIndex(tabHf.getId(), field);
+                }
+                for (String field : bitmapped)
+                    createBitmapIndex(tabHf.getId(), field);
+                for (String[] ann : sorted)
+                    createIsamIndex(tabHf.getId(), ann[0], Arrays.copyOfRange(ann, 1, ann.length));
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -186,5 +333,129 @@ public class Catalog {
             System.exit(0);
         }
     }
+
+    /**
+     * Creates and registers a hash index on a field of the specified table,
+     * stored in name_field.hidx next to the table's file. An existing index
+     * file is reused if it is at least as recent as the table's data file,
+     * and rebuilt otherwise. Fields are annotated with "pk" or "index" in the
+     * schema file to get an index when the schema is loaded.
+     * @param tableid the id of a table stored in a HeapFile
+     * @param field the name of the field to index
+     * @return the index
+     */
+    public HashIndexFile createHashIndex(int tableid, String field) throws IOException {
+        HashIndexFile existing = getIndex(tableid, field, HashIndexFile.class);
+        if (existing != null)
+            return existing;
+        if (!(getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("only tables stored in a HeapFile can be indexed");
+        HeapFile table = (HeapFile) getDbFile(tableid);
+        String name = getTableName(tableid);
+        File f = new File(table.getFile().getAbsoluteFile().getParentFile(),
+                name + "_" + field + ".hidx");
+        boolean stale = isStale(f, table);
+        HashIndexFile index = new HashIndexFile(f, table.getId(),
+                table.getTupleDesc().fieldNameToIndex(field));
+        addIndex(index, table.getId(), field);
+        if (stale) {
+            TransactionId tid = new TransactionId();
+            try {
+                index.build(tid);
+            } catch (DbException e) {
+                throw new IOException(e.getMessage());
+            } catch (TransactionAbortedException e) {
+                throw new IOException(e.getMessage());
+            } finally {
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            System.out.println("Built hash index on " + name + "." + field);
+        }
+        return index;
+    }
+
+    /**
+     * Creates and registers a sorted index on a field of the specified table
+     * that also stores copies of other fields, stored next to the table's
+     * file in name_field+included1+included2...isam. Index files are reused
+     * or rebuilt as in {@link #createHashIndex}.
+     * @param tableid the id of a table stored in a HeapFile
+     * @param field the name of the key field
+     * @param included the names of the other fields stored in the index
+     * @return the index
+     */
+    public IsamFile createIsamIndex(int tableid, String field, String[] included) throws IOException {
+        IsamFile existing = getIndex(tableid, field, IsamFile.class);
+        if (existing != null)
+            return existing;
+        if (!(getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("only tables stored in a HeapFile can be indexed");
+        HeapFile table = (HeapFile) getDbFile(tableid);
+        String name = getTableName(tableid);
+        String fileName = name + "_" + field;
+        for (String inc : included)
+            fileName += "+" + inc;
+        File f = new File(table.getFile().getAbsoluteFile().getParentFile(), fileName + ".isam");
+        boolean stale = isStale(f, table);
+        int[] includedFields = new int[included.length];
+        for (int i = 0; i < included.length; i++)
+            includedFields[i] = table.getTupleDesc().fieldNameToIndex(included[i]);
+        IsamFile index = new IsamFile(f, table.getId(),
+                table.getTupleDesc().fieldNameToIndex(field), includedFields);
+        addIndex(index, table.getId(), field);
+        if (stale) {
+            TransactionId tid = new TransactionId();
+            try {
+                index.build(tid);
+            } catch (DbException e) {
+                throw new IOException(e.getMessage());
+            } catch (TransactionAbortedException e) {
+                throw new IOException(e.getMessage());
+            } finally {
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            System.out.println("Built sorted index on " + name + "." + field);
+        }
+        return index;
+    }
+
+    /**
+     * Creates, builds and registers a bitmap index on a field of the
+     * specified table. Bitmap indexes are kept in memory only.
+     * @param tableid the id of a table stored in a HeapFile
+     * @param field the name of the field to index
+     * @return the index
+     */
+    public BitmapIndex createBitmapIndex(int tableid, String field) throws IOException {
+        BitmapIndex existing = getBitmapIndex(tableid, field);
+        if (existing != null)
+            return existing;
+        if (!(getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("only tables stored in a HeapFile can be indexed");
+        BitmapIndex index = new BitmapIndex(tableid, getTupleDesc(tableid).fieldNameToIndex(field));
+        TransactionId tid = new TransactionId();
+        try {
+            index.build(tid);
+        } catch (DbException e) {
+            throw new IOException(e.getMessage());
+        } catch (TransactionAbortedException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        addBitmapIndex(index);
+        return index;
+    }
+
+    /**
+     * Returns true, after deleting it, if an index file is missing or older
+     * than the data file of its table.
+     */
+    private boolean isStale(File f, HeapFile table) {
+        boolean stale = !f.exists() || f.lastModified() < table.getFile().lastModified();
+        if (stale)
+            f.delete();
+        return stale;
+    }
 }
 
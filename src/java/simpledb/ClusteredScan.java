@@ -0,0 +1,50 @@
+package simpledb;
+
+/**
+ * ClusteredScan is an access method that returns the tuples of a clustered
+ * HeapFile whose cluster key is within a range, reading only the pages that
+ * may hold such keys. It returns the same tuples, with the same TupleDesc,
+ * as a SeqScan of the table followed by Filters on the cluster key.
+ *
+ * @see HeapFile#iterator(TransactionId, Field, boolean, Field, boolean)
+ */
+public class ClusteredScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    Field m_lo, m_hi;
+    boolean m_loInclusive, m_hiInclusive;
+
+    /**
+     * Creates a clustered scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan, stored in a clustered HeapFile.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param lo
+     *            the lowest key returned, or null for no lower bound
+     * @param loInclusive
+     *            true if tuples whose key equals lo are returned
+     * @param hi
+     *            the highest key returned, or null for no upper bound
+     * @param hiInclusive
+     *            true if tuples whose key equals hi are returned
+     */
+    public ClusteredScan(TransactionId tid, int tableid, String tableAlias,
+            Field lo, boolean loInclusive, Field hi, boolean hiInclusive) {
+        super(tid, tableid, tableAlias);
+        m_lo = lo;
+        m_loInclusive = loInclusive;
+        m_hi = hi;
+        m_hiInclusive = hiInclusive;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HeapFile f = (HeapFile) Database.getCatalog().getDbFile(m_tableId);
+        m_iterator = f.iterator(m_tid, m_lo, m_loInclusive, m_hi, m_hiInclusive);
+        m_iterator.open();
+    }
+}
@@ -0,0 +1,373 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * ColumnarBatch is a batch of rows stored a column at a time, passed between
+ * operators by {@link ColumnarIterator#nextColumnarBatch()}. The values of
+ * an int column are stored in an int[] vector, and those of a string column
+ * in a byte[] with an int[] of offsets, so that filters and aggregates over
+ * int columns run as loops over primitive arrays without creating a Field
+ * or a Tuple per row. Rows are only turned into Tuples by
+ * {@link #getTuple(int)} and {@link #toTupleBatch()}, which operators that
+ * return tuples call once they have dropped the rows they do not need.
+ * <p>
+ * Like {@link TupleBatch}, a batch has a selection vector listing which of
+ * its rows are part of the batch.
+ */
+public class ColumnarBatch {
+
+    /** The number of rows operators put in a batch. */
+    public static final int SIZE = TupleBatch.SIZE;
+
+    private TupleDesc m_td;
+    private int m_numRows;
+    /** The vector of each int column, or null for other columns */
+    private int[][] m_ints;
+    /** The bytes of each string column, or null for other columns */
+    private byte[][] m_bytes;
+    /** The start of each row in m_bytes, and the end of the last one */
+    private int[][] m_offsets;
+    /** The page and slot each row was read from, if any */
+    private PageId[] m_pids;
+    private int[] m_slots;
+    /** The indexes of the selected rows, or null if all are. */
+    private int[] m_selection;
+    private int m_numSelected;
+
+    /**
+     * Creates an empty batch of rows with the specified TupleDesc.
+     */
+    public ColumnarBatch(TupleDesc td) {
+        m_td = td;
+        int n = td.numFields();
+        m_ints = new int[n][];
+        m_bytes = new byte[n][];
+        m_offsets = new int[n][];
+        for (int j = 0; j < n; j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                m_ints[j] = new int[SIZE];
+            } else {
+                m_bytes[j] = new byte[SIZE * 16];
+                m_offsets[j] = new int[SIZE + 1];
+            }
+        }
+        m_pids = new PageId[SIZE];
+        m_slots = new int[SIZE];
+    }
+
+    /**
+     * @return the TupleDesc of the rows of this batch
+     */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /**
+     * Appends an empty row to this batch, which must not have a selection
+     * vector, growing it if it is full. Its fields must then be set in
+     * column order with setInt() and setString().
+     *
+     * @param pid the page the row was read from, or null
+     * @param slot the slot of the page the row was read from
+     * @return the index of the row
+     */
+    int addRow(PageId pid, int slot) {
+        if (m_selection != null)
+            throw new IllegalStateException("cannot add to a batch with a selection vector");
+        if (m_numRows == m_pids.length) {
+            int capacity = m_numRows * 2;
+            for (int j = 0; j < m_ints.length; j++) {
+                if (m_ints[j] != null)
+                    m_ints[j] = Arrays.copyOf(m_ints[j], capacity);
+                else
+                    m_offsets[j] = Arrays.copyOf(m_offsets[j], capacity + 1);
+            }
+            m_pids = Arrays.copyOf(m_pids, capacity);
+            m_slots = Arrays.copyOf(m_slots, capacity);
+        }
+        m_pids[m_numRows] = pid;
+        m_slots[m_numRows] = slot;
+        m_numSelected = ++m_numRows;
+        return m_numRows - 1;
+    }
+
+    /**
+     * Sets the value of an int column of the last row.
+     */
+    void setInt(int col, int row, int value) {
+        m_ints[col][row] = value;
+    }
+
+    /**
+     * Sets the value of a string column of the last row to len bytes of
+     * src, starting at off.
+     */
+    void setString(int col, int row, byte[] src, int off, int len) {
+        int[] offsets = m_offsets[col];
+        int start = offsets[row];
+        byte[] bytes = m_bytes[col];
+        if (start + len > bytes.length)
+            bytes = m_bytes[col] = Arrays.copyOf(bytes, Math.max(bytes.length * 2, start + len));
+        System.arraycopy(src, off, bytes, start, len);
+        offsets[row + 1] = start + len;
+    }
+
+    /**
+     * Appends a tuple to this batch, which must not have a selection vector.
+     * The batch grows if it is full.
+     */
+    public void add(Tuple t) {
+        RecordId rid = t.getRecordId();
+        int row = rid == null ? addRow(null, 0) : addRow(rid.getPageId(), rid.tupleno());
+        for (int j = 0; j < m_ints.length; j++) {
+            Field f = t.getField(j);
+            if (m_ints[j] != null) {
+                setInt(j, row, ((IntField) f).getValue());
+            } else {
+                byte[] b = ((StringField) f).getValue().getBytes();
+                setString(j, row, b, 0, b.length);
+            }
+        }
+    }
+
+    /**
+     * @return true if no more rows should be added to this batch
+     */
+    public boolean isFull() {
+        return m_numRows >= SIZE;
+    }
+
+    /**
+     * @return the number of selected rows in this batch
+     */
+    public int size() {
+        return m_numSelected;
+    }
+
+    /**
+     * @return the index of the i-th selected row
+     */
+    private int row(int i) {
+        if (i >= m_numSelected)
+            throw new IndexOutOfBoundsException("row " + i + " of a batch of " + m_numSelected);
+        return m_selection == null ? i : m_selection[i];
+    }
+
+    /**
+     * @return the value of an int column in the i-th selected row
+     */
+    public int getInt(int col, int i) {
+        return m_ints[col][row(i)];
+    }
+
+    /**
+     * @return the value of a string column in the i-th selected row
+     */
+    public String getString(int col, int i) {
+        int r = row(i);
+        int start = m_offsets[col][r];
+        return new String(m_bytes[col], start, m_offsets[col][r + 1] - start);
+    }
+
+    /**
+     * @return the value of a column in the i-th selected row
+     */
+    public Field getField(int col, int i) {
+        if (m_ints[col] != null)
+            return new IntField(getInt(col, i));
+        return new StringField(getString(col, i), Type.STRING_LEN);
+    }
+
+    /**
+     * @return the i-th selected row, as a new Tuple whose RecordId is the
+     *   slot it was read from, if any
+     */
+    public Tuple getTuple(int i) {
+        int r = row(i);
+        Tuple t = new Tuple(m_td);
+        for (int j = 0; j < m_ints.length; j++)
+            t.setField(j, getField(j, i));
+        if (m_pids[r] != null)
+            t.setRecordId(new RecordId(m_pids[r], m_slots[r]));
+        return t;
+    }
+
+    /**
+     * @return the selected rows of this batch, as Tuples
+     */
+    public TupleBatch toTupleBatch() {
+        TupleBatch batch = new TupleBatch();
+        for (int i = 0; i < m_numSelected; i++)
+            batch.add(getTuple(i));
+        return batch;
+    }
+
+    /**
+     * @return the selection vector, created if all rows are selected
+     */
+    private int[] selection() {
+        if (m_selection == null) {
+            m_selection = new int[m_numRows];
+            for (int i = 0; i < m_numRows; i++)
+                m_selection[i] = i;
+            m_numSelected = m_numRows;
+        }
+        return m_selection;
+    }
+
+    /**
+     * Keeps selected only the rows that satisfy the specified predicate.
+     * Comparisons of an int column with an IntField run over its vector.
+     */
+    public void filter(Predicate p) {
+        int col = p.getField();
+        if (m_ints[col] != null && p.getOperand() instanceof IntField) {
+            filterInt(m_ints[col], p.getOp(), ((IntField) p.getOperand()).getValue());
+            return;
+        }
+        int[] sel = selection();
+        int n = 0;
+        for (int i = 0; i < m_numSelected; i++) {
+            if (getField(col, i).compare(p.getOp(), p.getOperand()))
+                sel[n++] = sel[i];
+        }
+        m_numSelected = n;
+    }
+
+    /**
+     * Keeps selected the rows whose value in the vector v compares to c.
+     */
+    private void filterInt(int[] v, Predicate.Op op, int c) {
+        m_numSelected = selectInt(v, selection(), m_numSelected, op, c);
+    }
+
+    /**
+     * Keeps the indexes among the first count of sel whose value in the
+     * vector v compares to c, moving them to the front of sel in order.
+     * Each loop appends every index and only advances past it if it
+     * matches, so that it has no branch on the data.
+     *
+     * @return the number of indexes kept
+     */
+    static int selectInt(int[] v, int[] sel, int count, Predicate.Op op, int c) {
+        int n = 0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < count; i++) {
+                int r = sel[i];
+                sel[n] = r;
+                n += v[r] == c ? 1 : 0;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < count; i++) {
+                int r = sel[i];
+                sel[n] = r;
+                n += v[r] != c ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < count; i++) {
+                int r = sel[i];
+                sel[n] = r;
+                n += v[r] > c ? 1 : 0;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < count; i++) {
+                int r = sel[i];
+                sel[n] = r;
+                n += v[r] >= c ? 1 : 0;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < count; i++) {
+                int r = sel[i];
+                sel[n] = r;
+                n += v[r] < c ? 1 : 0;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < count; i++) {
+                int r = sel[i];
+                sel[n] = r;
+                n += v[r] <= c ? 1 : 0;
+            }
+            break;
+        }
+        return n;
+    }
+
+    /**
+     * @return the sum of an int column over the selected rows
+     */
+    public long sum(int col) {
+        int[] v = m_ints[col];
+        long sum = 0;
+        if (m_selection == null) {
+            for (int i = 0; i < m_numRows; i++)
+                sum += v[i];
+        } else {
+            for (int i = 0; i < m_numSelected; i++)
+                sum += v[m_selection[i]];
+        }
+        return sum;
+    }
+
+    /**
+     * @return the lowest value of an int column over the selected rows, or
+     *   Integer.MAX_VALUE if there are none
+     */
+    public int min(int col) {
+        int[] v = m_ints[col];
+        int min = Integer.MAX_VALUE;
+        if (m_selection == null) {
+            for (int i = 0; i < m_numRows; i++)
+                min = Math.min(min, v[i]);
+        } else {
+            for (int i = 0; i < m_numSelected; i++)
+                min = Math.min(min, v[m_selection[i]]);
+        }
+        return min;
+    }
+
+    /**
+     * @return the highest value of an int column over the selected rows, or
+     *   Integer.MIN_VALUE if there are none
+     */
+    public int max(int col) {
+        int[] v = m_ints[col];
+        int max = Integer.MIN_VALUE;
+        if (m_selection == null) {
+            for (int i = 0; i < m_numRows; i++)
+                max = Math.max(max, v[i]);
+        } else {
+            for (int i = 0; i < m_numSelected; i++)
+                max = Math.max(max, v[m_selection[i]]);
+        }
+        return max;
+    }
+
+    /**
+     * Returns the next batch of rows of an iterator: by calling
+     * nextColumnarBatch() if it is a ColumnarIterator, and otherwise by
+     * reading a batch of tuples and storing them by column.
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *   no more rows.
+     */
+    public static ColumnarBatch next(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        if (it instanceof ColumnarIterator)
+            return ((ColumnarIterator) it).nextColumnarBatch();
+        TupleBatch tuples = TupleBatch.next(it);
+        if (tuples == null)
+            return null;
+        ColumnarBatch batch = new ColumnarBatch(it.getTupleDesc());
+        for (int i = 0; i < tuples.size(); i++)
+            batch.add(tuples.get(i));
+        return batch;
+    }
+}
@@ -0,0 +1,24 @@
+package simpledb;
+
+/**
+ * ColumnarIterator is implemented by iterators that can return their tuples
+ * a batch of columns at a time (see {@link ColumnarBatch}), so that the
+ * operators reading them can work on vectors of primitive values. Operators
+ * that read their children by columns should do so with
+ * {@link ColumnarBatch#next(DbIterator)}, which also reads from iterators
+ * that do not implement ColumnarIterator.
+ * <p>
+ * Calls to nextColumnarBatch() may be mixed with calls to nextBatch(),
+ * hasNext() and next(): each tuple is returned once, by one or the other.
+ */
+public interface ColumnarIterator extends BatchIterator {
+  /**
+   * Returns the next batch of rows from the iterator. The returned batch
+   * is owned by the caller.
+   *
+   * @return a batch with at least one selected row, or null if there are
+   *   no more rows.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public ColumnarBatch nextColumnarBatch() throws DbException, TransactionAbortedException;
+}
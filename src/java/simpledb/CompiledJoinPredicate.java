@@ -0,0 +1,196 @@
+package simpledb;
+
+/**
+ * CompiledJoinPredicate evaluates a JoinPredicate on pairs of tuples
+ * without the dispatch JoinPredicate.filter goes through for each of them,
+ * where Field.compare switches on the operator and casts the other field.
+ * compile() instead picks a class specialized for the operator and the
+ * types of the two fields, whose field indexes are final fields, so that
+ * evaluating the predicate is a single comparison of two ints, or a
+ * String.equals, which the JIT inlines into the loop that calls it. The
+ * operators and types no class is specialized for are evaluated by
+ * JoinPredicate.filter.
+ */
+public abstract class CompiledJoinPredicate {
+
+    private final JoinPredicate m_predicate;
+
+    protected CompiledJoinPredicate(JoinPredicate p) {
+        m_predicate = p;
+    }
+
+    /**
+     * @return the predicate compiled
+     */
+    public JoinPredicate getPredicate() {
+        return m_predicate;
+    }
+
+    /**
+     * @return true if the tuples satisfy the predicate, as
+     *   JoinPredicate.filter
+     */
+    public abstract boolean filter(Tuple t1, Tuple t2);
+
+    /**
+     * Returns the class that evaluates a join predicate for its operator and
+     * the types of its fields.
+     *
+     * @param td1
+     *            the TupleDesc of the first tuples
+     * @param td2
+     *            the TupleDesc of the second tuples
+     */
+    public static CompiledJoinPredicate compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        int f1 = p.getField1();
+        int f2 = p.getField2();
+        Type t1 = td1.getFieldType(f1);
+        if (t1 != td2.getFieldType(f2))
+            return new Interpreted(p);
+        if (t1 == Type.INT_TYPE) {
+            switch (p.getOperator()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(p, f1, f2);
+            case NOT_EQUALS:
+                return new IntNotEquals(p, f1, f2);
+            case GREATER_THAN:
+                return new IntGreaterThan(p, f1, f2);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(p, f1, f2);
+            case LESS_THAN:
+                return new IntLessThan(p, f1, f2);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(p, f1, f2);
+            }
+        } else if (t1 == Type.STRING_TYPE && p.getOperator() == Predicate.Op.EQUALS) {
+            return new StringEquals(p, f1, f2);
+        }
+        return new Interpreted(p);
+    }
+
+    /** @return the value of an int field of a tuple */
+    private static int intValue(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    /** @return the value of a string field of a tuple */
+    private static String stringValue(Tuple t, int field) {
+        return ((StringField) t.getField(field)).getValue();
+    }
+
+    private static final class Interpreted extends CompiledJoinPredicate {
+        Interpreted(JoinPredicate p) {
+            super(p);
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            return getPredicate().filter(t1, t2);
+        }
+    }
+
+    private static final class IntEquals extends CompiledJoinPredicate {
+        private final int m_field1;
+        private final int m_field2;
+
+        IntEquals(JoinPredicate p, int field1, int field2) {
+            super(p);
+            m_field1 = field1;
+            m_field2 = field2;
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            return intValue(t1, m_field1) == intValue(t2, m_field2);
+        }
+    }
+
+    private static final class IntNotEquals extends CompiledJoinPredicate {
+        private final int m_field1;
+        private final int m_field2;
+
+        IntNotEquals(JoinPredicate p, int field1, int field2) {
+            super(p);
+            m_field1 = field1;
+            m_field2 = field2;
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            return intValue(t1, m_field1) != intValue(t2, m_field2);
+        }
+    }
+
+    private static final class IntGreaterThan extends CompiledJoinPredicate {
+        private final int m_field1;
+        private final int m_field2;
+
+        IntGreaterThan(JoinPredicate p, int field1, int field2) {
+            super(p);
+            m_field1 = field1;
+            m_field2 = field2;
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            return intValue(t1, m_field1) > intValue(t2, m_field2);
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends CompiledJoinPredicate {
+        private final int m_field1;
+        private final int m_field2;
+
+        IntGreaterThanOrEq(JoinPredicate p, int field1, int field2) {
+            super(p);
+            m_field1 = field1;
+            m_field2 = field2;
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            return intValue(t1, m_field1) >= intValue(t2, m_field2);
+        }
+    }
+
+    private static final class IntLessThan extends CompiledJoinPredicate {
+        private final int m_field1;
+        private final int m_field2;
+
+        IntLessThan(JoinPredicate p, int field1, int field2) {
+            super(p);
+            m_field1 = field1;
+            m_field2 = field2;
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            return intValue(t1, m_field1) < intValue(t2, m_field2);
+        }
+    }
+
+    private static final class IntLessThanOrEq extends CompiledJoinPredicate {
+        private final int m_field1;
+        private final int m_field2;
+
+        IntLessThanOrEq(JoinPredicate p, int field1, int field2) {
+            super(p);
+            m_field1 = field1;
+            m_field2 = field2;
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            return intValue(t1, m_field1) <= intValue(t2, m_field2);
+        }
+    }
+
+    private static final class StringEquals extends CompiledJoinPredicate {
+        private final int m_field1;
+        private final int m_field2;
+
+        StringEquals(JoinPredicate p, int field1, int field2) {
+            super(p);
+            m_field1 = field1;
+            m_field2 = field2;
+        }
+
+        public boolean filter(Tuple t1, Tuple t2) {
+            return stringValue(t1, m_field1).equals(stringValue(t2, m_field2));
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * CompressedBitmap is a set of non-negative ints stored in the style of a
+ * roaring bitmap: the ints are partitioned on their high 16 bits into
+ * chunks, and each chunk stores its low 16 bits either as a sorted array
+ * (when it holds at most ARRAY_MAX values) or as a bitmap of 1024 words.
+ * Sparse sets therefore cost two bytes per value and dense ones one bit,
+ * and AND/OR of two dense chunks are computed a 64-bit word at a time.
+ */
+public class CompressedBitmap {
+
+    /** Largest number of values of a chunk stored as a sorted array. */
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1 << 10;
+
+    /** The high 16 bits of the chunks, sorted. */
+    private char[] m_keys = new char[4];
+    /** For each chunk, a char[] array of low bits or a long[] bitmap. */
+    private Object[] m_chunks = new Object[4];
+    /** For each chunk, its number of values. */
+    private int[] m_cards = new int[4];
+    private int m_numChunks = 0;
+
+    /**
+     * Adds a value to this set.
+     * @param x a non-negative int
+     */
+    public void add(int x) {
+        char key = (char) (x >>> 16);
+        char low = (char) x;
+        int i = findChunk(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertChunk(i, key, new char[4], 0);
+        }
+        Object c = m_chunks[i];
+        if (c instanceof long[]) {
+            long[] words = (long[]) c;
+            long w = words[low >>> 6];
+            long bit = 1L << low;
+            if ((w & bit) == 0) {
+                words[low >>> 6] = w | bit;
+                m_cards[i]++;
+            }
+            return;
+        }
+        char[] values = (char[]) c;
+        int n = m_cards[i];
+        int pos = Arrays.binarySearch(values, 0, n, low);
+        if (pos >= 0)
+            return;
+        pos = -pos - 1;
+        if (n == ARRAY_MAX) {
+            long[] words = toWords(values, n);
+            words[low >>> 6] |= 1L << low;
+            m_chunks[i] = words;
+            m_cards[i] = n + 1;
+            return;
+        }
+        if (n == values.length) {
+            values = Arrays.copyOf(values, Math.min(ARRAY_MAX, n * 2));
+            m_chunks[i] = values;
+        }
+        System.arraycopy(values, pos, values, pos + 1, n - pos);
+        values[pos] = low;
+        m_cards[i] = n + 1;
+    }
+
+    /**
+     * @return true if x is in this set
+     */
+    public boolean contains(int x) {
+        int i = findChunk((char) (x >>> 16));
+        if (i < 0)
+            return false;
+        char low = (char) x;
+        Object c = m_chunks[i];
+        if (c instanceof long[])
+            return (((long[]) c)[low >>> 6] & (1L << low)) != 0;
+        return Arrays.binarySearch((char[]) c, 0, m_cards[i], low) >= 0;
+    }
+
+    /**
+     * @return the number of values in this set
+     */
+    public int cardinality() {
+        int n = 0;
+        for (int i = 0; i < m_numChunks; i++)
+            n += m_cards[i];
+        return n;
+    }
+
+    /**
+     * Returns the smallest value of this set that is greater than or equal
+     * to from, or -1 if there is none. Iterating with
+     * <code>for (int x = b.nextSetBit(0); x >= 0; x = b.nextSetBit(x + 1))</code>
+     * visits the values in increasing order.
+     */
+    public int nextSetBit(int from) {
+        if (from < 0)
+            return -1;
+        int i = findChunk((char) (from >>> 16));
+        int low = from & 0xFFFF;
+        if (i < 0) {
+            i = -i - 1;
+            low = 0;
+        }
+        for (; i < m_numChunks; i++, low = 0) {
+            int found = nextInChunk(i, low);
+            if (found >= 0)
+                return (m_keys[i] << 16) | found;
+        }
+        return -1;
+    }
+
+    private int nextInChunk(int i, int low) {
+        Object c = m_chunks[i];
+        if (c instanceof long[]) {
+            long[] words = (long[]) c;
+            int w = low >>> 6;
+            long word = words[w] & (-1L << low);
+            while (true) {
+                if (word != 0)
+                    return w * 64 + Long.numberOfTrailingZeros(word);
+                if (++w == WORDS)
+                    return -1;
+                word = words[w];
+            }
+        }
+        char[] values = (char[]) c;
+        int pos = Arrays.binarySearch(values, 0, m_cards[i], (char) low);
+        if (pos < 0)
+            pos = -pos - 1;
+        return pos < m_cards[i] ? values[pos] : -1;
+    }
+
+    /**
+     * @return a new set of the values that are in both this set and other
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0, j = 0;
+        while (i < m_numChunks && j < other.m_numChunks) {
+            if (m_keys[i] < other.m_keys[j]) {
+                i++;
+            } else if (m_keys[i] > other.m_keys[j]) {
+                j++;
+            } else {
+                result.appendAnd(m_keys[i], m_chunks[i], m_cards[i],
+                        other.m_chunks[j], other.m_cards[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a new set of the values that are in this set or in other
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0, j = 0;
+        while (i < m_numChunks || j < other.m_numChunks) {
+            if (j == other.m_numChunks || (i < m_numChunks && m_keys[i] < other.m_keys[j])) {
+                result.insertChunk(result.m_numChunks, m_keys[i], copy(m_chunks[i]), m_cards[i]);
+                i++;
+            } else if (i == m_numChunks || m_keys[i] > other.m_keys[j]) {
+                result.insertChunk(result.m_numChunks, other.m_keys[j],
+                        copy(other.m_chunks[j]), other.m_cards[j]);
+                j++;
+            } else {
+                result.appendOr(m_keys[i], m_chunks[i], m_cards[i],
+                        other.m_chunks[j], other.m_cards[j]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private void appendAnd(char key, Object a, int cardA, Object b, int cardB) {
+        if (a instanceof long[] && b instanceof long[]) {
+            long[] wa = (long[]) a, wb = (long[]) b;
+            long[] words = new long[WORDS];
+            int card = 0;
+            for (int w = 0; w < WORDS; w++) {
+                words[w] = wa[w] & wb[w];
+                card += Long.bitCount(words[w]);
+            }
+            appendChunk(key, words, card);
+            return;
+        }
+        if (a instanceof long[]) {
+            Object t = a;
+            a = b;
+            b = t;
+            cardA = cardB;
+        }
+        // a is an array: keep its values that are in b
+        char[] va = (char[]) a;
+        char[] values = new char[cardA];
+        int card = 0;
+        for (int k = 0; k < cardA; k++) {
+            if (chunkContains(b, cardB, va[k]))
+                values[card++] = va[k];
+        }
+        appendChunk(key, values, card);
+    }
+
+    private void appendOr(char key, Object a, int cardA, Object b, int cardB) {
+        long[] words;
+        if (a instanceof long[] || b instanceof long[] || cardA + cardB > ARRAY_MAX) {
+            words = a instanceof long[] ? ((long[]) a).clone() : toWords((char[]) a, cardA);
+            if (b instanceof long[]) {
+                long[] wb = (long[]) b;
+                for (int w = 0; w < WORDS; w++)
+                    words[w] |= wb[w];
+            } else {
+                char[] vb = (char[]) b;
+                for (int k = 0; k < cardB; k++)
+                    words[vb[k] >>> 6] |= 1L << vb[k];
+            }
+            int card = 0;
+            for (int w = 0; w < WORDS; w++)
+                card += Long.bitCount(words[w]);
+            appendChunk(key, words, card);
+            return;
+        }
+        // merge two sorted arrays
+        char[] va = (char[]) a, vb = (char[]) b;
+        char[] values = new char[cardA + cardB];
+        int i = 0, j = 0, card = 0;
+        while (i < cardA || j < cardB) {
+            if (j == cardB || (i < cardA && va[i] < vb[j]))
+                values[card++] = va[i++];
+            else if (i == cardA || va[i] > vb[j])
+                values[card++] = vb[j++];
+            else {
+                values[card++] = va[i++];
+                j++;
+            }
+        }
+        appendChunk(key, values, card);
+    }
+
+    private static boolean chunkContains(Object c, int card, char low) {
+        if (c instanceof long[])
+            return (((long[]) c)[low >>> 6] & (1L << low)) != 0;
+        return Arrays.binarySearch((char[]) c, 0, card, low) >= 0;
+    }
+
+    /** Appends a chunk, converting it to its smaller representation. */
+    private void appendChunk(char key, Object c, int card) {
+        if (card == 0)
+            return;
+        if (c instanceof long[] && card <= ARRAY_MAX) {
+            long[] words = (long[]) c;
+            char[] values = new char[card];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[n++] = (char) (w * 64 + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            c = values;
+        }
+        insertChunk(m_numChunks, key, c, card);
+    }
+
+    private static long[] toWords(char[] values, int n) {
+        long[] words = new long[WORDS];
+        for (int k = 0; k < n; k++)
+            words[values[k] >>> 6] |= 1L << values[k];
+        return words;
+    }
+
+    private static Object copy(Object c) {
+        if (c instanceof long[])
+            return ((long[]) c).clone();
+        return ((char[]) c).clone();
+    }
+
+    private int findChunk(char key) {
+        return Arrays.binarySearch(m_keys, 0, m_numChunks, key);
+    }
+
+    private void insertChunk(int i, char key, Object c, int card) {
+        if (m_numChunks == m_keys.length) {
+            m_keys = Arrays.copyOf(m_keys, m_numChunks * 2);
+            m_chunks = Arrays.copyOf(m_chunks, m_numChunks * 2);
+            m_cards = Arrays.copyOf(m_cards, m_numChunks * 2);
+        }
+        System.arraycopy(m_keys, i, m_keys, i + 1, m_numChunks - i);
+        System.arraycopy(m_chunks, i, m_chunks, i + 1, m_numChunks - i);
+        System.arraycopy(m_cards, i, m_cards, i + 1, m_numChunks - i);
+        m_keys[i] = key;
+        m_chunks[i] = c;
+        m_cards[i] = card;
+        m_numChunks++;
+    }
+}
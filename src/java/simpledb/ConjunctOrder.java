@@ -0,0 +1,117 @@
+package simpledb;
+
+/**
+ * ConjunctOrder keeps the order in which to evaluate the conjuncts of a
+ * conjunction so that the tuples that fail it are rejected at the least
+ * cost. Each conjunct is ranked by cost / (1 - selectivity): the cost of
+ * evaluating it on a tuple over the fraction of tuples it rejects. The
+ * ranks start from the estimated selectivities, and are recomputed every
+ * REORDER_INTERVAL tuples from the number of tuples each conjunct was
+ * evaluated on, passed, and the time it took, as counted by its user.
+ * <p>
+ * The counts are halved at each reordering, so that the order follows
+ * the tuples read lately. A conjunct is only evaluated on the tuples the
+ * conjuncts before it passed, so its selectivity is measured on those.
+ */
+class ConjunctOrder {
+
+    /** The number of tuples between two reorderings */
+    public static final int REORDER_INTERVAL = 4096;
+    /** The weight of the estimated selectivities, in tuples */
+    private static final int PRIOR_TUPLES = 64;
+
+    private final int[] m_order;
+    private final double[] m_evaluated;
+    private final double[] m_passed;
+    /** The time spent evaluating each conjunct, in ns, or 0 if not timed */
+    private final double[] m_nanos;
+    private final double[] m_rank;
+    private int m_tuples;
+
+    /**
+     * Constructor.
+     *
+     * @param selectivities
+     *            the estimated selectivity of each conjunct
+     */
+    public ConjunctOrder(double[] selectivities) {
+        int n = selectivities.length;
+        m_order = new int[n];
+        m_evaluated = new double[n];
+        m_passed = new double[n];
+        m_nanos = new double[n];
+        m_rank = new double[n];
+        for (int i = 0; i < n; i++) {
+            m_evaluated[i] = PRIOR_TUPLES;
+            m_passed[i] = PRIOR_TUPLES * Math.max(0.0, Math.min(1.0, selectivities[i]));
+        }
+        reorder();
+    }
+
+    /**
+     * @return the conjuncts in the order to evaluate them. The array is
+     *   updated in place when they are reordered.
+     */
+    public int[] order() {
+        return m_order;
+    }
+
+    /**
+     * Counts the tuples a conjunct was evaluated on, and those it passed.
+     */
+    public void count(int conjunct, int evaluated, int passed) {
+        m_evaluated[conjunct] += evaluated;
+        m_passed[conjunct] += passed;
+    }
+
+    /**
+     * Adds to the time spent evaluating a conjunct.
+     */
+    public void time(int conjunct, long nanos) {
+        m_nanos[conjunct] += nanos;
+    }
+
+    /**
+     * Counts tuples the conjunction was evaluated on, and reorders the
+     * conjuncts once REORDER_INTERVAL of them were.
+     *
+     * @return true if the conjuncts were reordered
+     */
+    public boolean tuples(int n) {
+        m_tuples += n;
+        if (m_tuples < REORDER_INTERVAL)
+            return false;
+        reorder();
+        m_tuples = 0;
+        for (int i = 0; i < m_order.length; i++) {
+            m_evaluated[i] /= 2;
+            m_passed[i] /= 2;
+            m_nanos[i] /= 2;
+        }
+        return true;
+    }
+
+    /**
+     * Sorts the conjuncts by rank.
+     */
+    private void reorder() {
+        int n = m_order.length;
+        for (int i = 0; i < n; i++) {
+            double cost = m_nanos[i] > 0 ? m_nanos[i] / m_evaluated[i] : 1;
+            double rejected = 1 - m_passed[i] / m_evaluated[i];
+            m_rank[i] = rejected <= 0 ? Double.MAX_VALUE : cost / rejected;
+        }
+        // a stable insertion sort of the few conjuncts
+        for (int i = 0; i < n; i++)
+            m_order[i] = i;
+        for (int i = 1; i < n; i++) {
+            int c = m_order[i];
+            int j = i;
+            while (j > 0 && m_rank[m_order[j - 1]] > m_rank[c]) {
+                m_order[j] = m_order[j - 1];
+                j--;
+            }
+            m_order[j] = c;
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Exchange is the base class of the operators that connect subplans running
+ * on separate threads. An exchange has producers, subplans that each run on
+ * a thread of their own, and one or more consumers, which are the Exchange
+ * operators themselves: the subclasses route the batches of tuples of the
+ * producers to the consumers ({@link Gather} to its single consumer,
+ * {@link HashRepartition} by the hash of a field, {@link Broadcast} to all
+ * of them). Each consumer reads its tuples from a queue of QUEUE_BATCHES
+ * batches per producer. A producer waits while the queue of the consumer it
+ * routes a batch to is full, so that the producers never run further ahead
+ * of a slow consumer than that.
+ * <p>
+ * The producers start when the first consumer is opened, and stop once all
+ * of them are closed; a consumer that is closed before the others no longer
+ * gets any tuples. The producers are either given, or are copies of a
+ * pipeline over a scan that share its pages, created each time they start
+ * (see {@link ParallelScan#split(DbIterator, int)}).
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of batches the queue of a consumer holds per producer */
+    public static final int QUEUE_BATCHES = 4;
+
+    /** Put in every queue by each producer once it is done */
+    private static final TupleBatch END = new TupleBatch();
+
+    private Channels m_channels;
+    /** The number of this consumer */
+    private int m_channel;
+    /** Set while this consumer is open */
+    private boolean m_open;
+    /** The batch being returned, and the position of its next tuple */
+    private TupleBatch m_batch;
+    private int m_pos;
+
+    /**
+     * Creates a consumer of an exchange.
+     *
+     * @param channels
+     *            the producers and queues of the exchange
+     * @param channel
+     *            the number of the consumer
+     */
+    protected Exchange(Channels channels, int channel) {
+        m_channels = channels;
+        m_channel = channel;
+    }
+
+    /**
+     * @return a short description of the exchange, for query plans
+     */
+    public abstract String getName();
+
+    /**
+     * @return the number of this consumer among those of the exchange
+     */
+    public int getChannel() {
+        return m_channel;
+    }
+
+    /**
+     * @return the number of consumers of the exchange
+     */
+    public int numChannels() {
+        return m_channels.m_numChannels;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_channels.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        m_batch = null;
+        m_channels.open(m_channel);
+        m_open = true;
+    }
+
+    public void close() {
+        super.close();
+        m_batch = null;
+        if (m_open)
+            m_channels.close(m_channel);
+        m_open = false;
+    }
+
+    /**
+     * Runs the producers again. Only an exchange with a single consumer can
+     * be rewound, since the producers of the others are shared.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (numChannels() > 1)
+            throw new DbException(getName() + " has several consumers and cannot be rewound");
+        m_channels.close(m_channel);
+        m_batch = null;
+        m_channels.open(m_channel);
+    }
+
+    /**
+     * Returns the next batch routed to this consumer, or null once every
+     * producer is done.
+     */
+    protected TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException {
+        Tuple fetched = takeFetched();
+        if (fetched != null) {
+            TupleBatch batch = new TupleBatch();
+            batch.add(fetched);
+            return batch;
+        }
+        if (m_batch != null && m_pos < m_batch.size()) {
+            TupleBatch rest = new TupleBatch();
+            while (m_pos < m_batch.size())
+                rest.add(m_batch.get(m_pos++));
+            return rest;
+        }
+        return m_channels.take(m_channel);
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (m_batch == null || m_pos >= m_batch.size()) {
+            m_batch = m_channels.take(m_channel);
+            m_pos = 0;
+            if (m_batch == null)
+                return null;
+        }
+        return m_batch.get(m_pos++);
+    }
+
+    /**
+     * @return the producers of the exchange, or the pipeline they are
+     *   copies of
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return m_channels.m_pipeline != null ? new DbIterator[] { m_channels.m_pipeline }
+                : m_channels.m_producers.clone();
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        if (m_channels.m_pipeline != null)
+            m_channels.m_pipeline = children[0];
+        else {
+            m_channels.m_producers = children.clone();
+            m_channels.m_numProducers = children.length;
+        }
+    }
+
+    /**
+     * The producers of an exchange, the threads that run them and the
+     * queues of its consumers. Subclasses route the batches of the
+     * producers with {@link #put(int, TupleBatch)}.
+     */
+    static abstract class Channels {
+        /** The pipeline the producers are copies of, or null */
+        private DbIterator m_pipeline;
+        private int m_numProducers;
+        private DbIterator[] m_producers;
+        private final int m_numChannels;
+        private final String m_name;
+        private ArrayList<BlockingQueue<TupleBatch>> m_queues;
+        /** For each consumer, the number of producers not done yet */
+        private int[] m_running;
+        /** 1 for each consumer that was closed */
+        private AtomicIntegerArray m_closed;
+        private int m_openConsumers;
+        private Thread[] m_threads;
+        /** Set when the producers should stop */
+        private volatile boolean m_stop;
+        /** The first exception thrown by a producer */
+        private volatile Throwable m_error;
+
+        /**
+         * Creates the channels of an exchange between the specified
+         * producers and numChannels consumers.
+         *
+         * @param name
+         *            the prefix of the names of the threads
+         */
+        Channels(String name, DbIterator[] producers, int numChannels) {
+            if (producers.length == 0)
+                throw new IllegalArgumentException("an exchange needs a producer");
+            m_name = name;
+            m_producers = producers.clone();
+            m_numProducers = producers.length;
+            m_numChannels = numChannels;
+        }
+
+        /**
+         * Creates the channels of an exchange whose producers are copies of
+         * a pipeline over a scan, one per thread, which share its pages.
+         */
+        Channels(String name, DbIterator pipeline, int threads, int numChannels) {
+            m_name = name;
+            m_pipeline = pipeline;
+            m_numProducers = Math.max(1, threads);
+            m_numChannels = numChannels;
+        }
+
+        /**
+         * @return the number of threads the producers run on
+         */
+        int numProducers() {
+            return m_numProducers;
+        }
+
+        TupleDesc getTupleDesc() {
+            return m_pipeline != null ? m_pipeline.getTupleDesc() : m_producers[0].getTupleDesc();
+        }
+
+        /**
+         * Routes a batch of a producer to consumers.
+         *
+         * @return false if no consumer reads the batches any more
+         */
+        abstract boolean route(TupleBatch batch);
+
+        /**
+         * @return the number of consumers
+         */
+        int numChannels() {
+            return m_numChannels;
+        }
+
+        /**
+         * @return true if a consumer was closed
+         */
+        boolean isClosed(int channel) {
+            return m_closed.get(channel) != 0;
+        }
+
+        /**
+         * Puts a batch in the queue of a consumer, waiting while it is full.
+         *
+         * @return false if the consumer was closed first
+         */
+        boolean put(int channel, TupleBatch batch) {
+            BlockingQueue<TupleBatch> queue = m_queues.get(channel);
+            try {
+                while (!queue.offer(batch, 10, TimeUnit.MILLISECONDS)) {
+                    if (isClosed(channel))
+                        return false;
+                }
+                return true;
+            } catch (InterruptedException e) {
+                m_stop = true;
+                return false;
+            }
+        }
+
+        synchronized void open(int channel) {
+            if (m_openConsumers++ == 0)
+                start();
+        }
+
+        synchronized void close(int channel) {
+            if (m_queues == null || isClosed(channel))
+                return;
+            m_closed.set(channel, 1);
+            if (--m_openConsumers == 0)
+                stop();
+        }
+
+        /**
+         * Starts a thread for each producer.
+         */
+        private void start() {
+            if (m_pipeline != null)
+                m_producers = ParallelScan.split(m_pipeline, m_numProducers);
+            m_queues = new ArrayList<BlockingQueue<TupleBatch>>();
+            for (int i = 0; i < m_numChannels; i++)
+                m_queues.add(new ArrayBlockingQueue<TupleBatch>(m_numProducers * QUEUE_BATCHES));
+            m_running = new int[m_numChannels];
+            Arrays.fill(m_running, m_numProducers);
+            m_closed = new AtomicIntegerArray(m_numChannels);
+            m_stop = false;
+            m_error = null;
+            m_threads = new Thread[m_numProducers];
+            for (int i = 0; i < m_numProducers; i++) {
+                final DbIterator producer = m_producers[i];
+                m_threads[i] = new Thread(m_name + "-" + i) {
+                    public void run() {
+                        produce(producer);
+                    }
+                };
+                m_threads[i].setDaemon(true);
+                m_threads[i].start();
+            }
+        }
+
+        /**
+         * Runs a producer, routing its batches to the consumers, and then
+         * puts END in every queue.
+         */
+        private void produce(DbIterator producer) {
+            boolean open = false;
+            try {
+                producer.open();
+                open = true;
+                TupleBatch batch;
+                while (!m_stop && (batch = TupleBatch.next(producer)) != null) {
+                    if (!route(batch))
+                        break;
+                }
+            } catch (Throwable e) {
+                if (m_error == null)
+                    m_error = e;
+                m_stop = true;
+            }
+            if (open)
+                producer.close();
+            for (int c = 0; c < m_numChannels; c++)
+                put(c, END);
+        }
+
+        /**
+         * Tells the producers to stop, and waits for them.
+         */
+        private void stop() {
+            m_stop = true;
+            boolean interrupted = false;
+            for (Thread t : m_threads) {
+                while (t.isAlive()) {
+                    try {
+                        t.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+            m_queues = null;
+            m_threads = null;
+            if (m_pipeline != null)
+                m_producers = null;
+        }
+
+        /**
+         * @return the next batch in the queue of a consumer, or null once
+         *   every producer is done
+         */
+        TupleBatch take(int channel) throws DbException, TransactionAbortedException {
+            while (m_running[channel] > 0) {
+                TupleBatch batch;
+                try {
+                    batch = m_queues.get(channel).take();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted while waiting for a producer");
+                }
+                if (batch != END)
+                    return batch;
+                m_running[channel]--;
+            }
+            Throwable e = m_error;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            if (e != null)
+                throw new DbException("producer failed: " + e);
+            return null;
+        }
+    }
+}
@@ -3,9 +3,11 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. When its child
+ * returns columnar batches, the predicate is evaluated over the vectors of
+ * each batch, and only the tuples that pass it are created.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements ColumnarIterator {
 
     private static final long serialVersionUID = 1L;
     
@@ -68,6 +70,51 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Reads batches from the child operator, and selects in each the tuples
+     * that pass the predicate, until a batch has some.
+     */
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException,
+            DbException {
+        if (m_child instanceof ColumnarIterator) {
+            ColumnarBatch columns = fetchNextColumnarBatch();
+            return columns == null ? null : columns.toTupleBatch();
+        }
+        TupleBatch batch;
+        while ((batch = TupleBatch.next(m_child)) != null) {
+            batch.filter(m_predicate);
+            if (batch.size() > 0)
+                return batch;
+        }
+        return null;
+    }
+
+    public ColumnarBatch nextColumnarBatch() throws TransactionAbortedException,
+            DbException {
+        Tuple fetched = takeFetched();
+        if (fetched != null) {
+            ColumnarBatch batch = new ColumnarBatch(fetched.getTupleDesc());
+            batch.add(fetched);
+            return batch;
+        }
+        return fetchNextColumnarBatch();
+    }
+
+    /**
+     * Reads columnar batches from the child operator, and selects in each
+     * the rows that pass the predicate, until a batch has some.
+     */
+    private ColumnarBatch fetchNextColumnarBatch() throws TransactionAbortedException,
+            DbException {
+        ColumnarBatch batch;
+        while ((batch = ColumnarBatch.next(m_child)) != null) {
+            batch.filter(m_predicate);
+            if (batch.size() > 0)
+                return batch;
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] {m_child};
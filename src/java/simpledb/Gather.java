@@ -0,0 +1,45 @@
+package simpledb;
+
+/**
+ * Gather is an exchange that returns the tuples of all of its producers,
+ * each run on a thread of its own, in no particular order. It is how the
+ * copies of a subplan that run in parallel are brought back together.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param producers
+     *            the subplans whose tuples to return, which must have the
+     *            same TupleDesc
+     */
+    public Gather(DbIterator[] producers) {
+        this(new GatherChannels("gather", producers));
+    }
+
+    protected Gather(Channels channels) {
+        super(channels, 0);
+    }
+
+    public String getName() {
+        return "gather";
+    }
+
+    /** The channels of a gather, which have a single consumer */
+    static class GatherChannels extends Channels {
+        GatherChannels(String name, DbIterator[] producers) {
+            super(name, producers, 1);
+        }
+
+        GatherChannels(String name, DbIterator pipeline, int threads) {
+            super(name, pipeline, threads, 1);
+        }
+
+        boolean route(TupleBatch batch) {
+            return put(0, batch);
+        }
+    }
+}
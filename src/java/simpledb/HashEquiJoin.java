@@ -4,6 +4,24 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin builds a hash table over child1 and probes it with the
+ * tuples of child2. When child1 has more tuples than fit in memory (see
+ * {@link #setMaxBuildTuples(int)}), it is a hybrid hash join: both children
+ * are split by the hash of their join key into NUM_PARTITIONS partitions.
+ * The tuples of partition 0 of child1 stay in memory, and those of child2
+ * are joined with them as child2 is read; the other partitions are written
+ * to spill files, and then joined partition by partition. Each child is
+ * thus read once, and each spilled tuple written and read once. A spilled
+ * partition that still does not fit in memory is joined a chunk at a
+ * time, by re-reading its partition of child2 for each chunk.
+ * <p>
+ * The keys of child1 are also added to a {@link RuntimeFilter} as it is
+ * read, which the join pushes into the SeqScan of a HeapFile that child2
+ * reads its keys from, before it opens child2: the scan then drops the rows
+ * whose key has no match on the bytes of their pages, before they are
+ * decoded and passed through the operators between the scan and the join.
+ * The probe tuples the filter rejects are not spilled either.
  */
 public class HashEquiJoin extends Operator {
 
@@ -30,6 +48,9 @@ public class HashEquiJoin extends Operator {
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        map = JoinHashTable.create(child1.getTupleDesc().getFieldType(p.getField1()),
+                p.getField1());
+        m_runtimeFilter = createRuntimeFilter();
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -50,51 +71,349 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+    /** The tuples of m_build being joined, by join key */
+    JoinHashTable map;
     public final static int MAP_SIZE = 20000;
+    /** The number of partitions the inputs are split into when they spill */
+    public final static int NUM_PARTITIONS = 16;
+    private int m_maxBuildTuples = MAP_SIZE;
+    /** The keys of child1, or null if the keys of the children cannot be equal */
+    private RuntimeFilter m_runtimeFilter;
+    private boolean m_pushRuntimeFilter = true;
+    /**
+     * The inputs being joined: child1 and child2, or the tuples of a
+     * partition of each that were spilled to disk
+     */
+    transient private DbIterator m_build, m_probe;
+    /** True if m_build has tuples that did not fit in the map */
+    transient private boolean m_buildFull;
+    /** The spilled tuples of each partition of child1 and child2, or null */
+    transient private SpillFile[] m_buildSpills, m_probeSpills;
+    /** True if partition 0 of child1 is in the map rather than spilled */
+    transient private boolean m_inMemory;
+    /** True while child2 is read and partitioned */
+    transient private boolean m_spillingProbe;
+    /** The next spilled partition to join */
+    transient private int m_partition;
+    /** The batch of m_build being loaded into the map, and the next tuple to load */
+    transient private TupleBatch buildBatch = null;
+    transient private int buildPos = 0;
+
+    /**
+     * Sets the number of tuples of child1 this join may hold in memory.
+     * Beyond it, the inputs are partitioned and spilled to disk.
+     */
+    public void setMaxBuildTuples(int tuples) {
+        m_maxBuildTuples = tuples;
+    }
 
+    /**
+     * Sets whether the join pushes the runtime filter of the keys of child1
+     * into the scan child2 reads its keys from, which it does by default.
+     * It must be set before the join is opened.
+     */
+    public void setRuntimeFilter(boolean push) {
+        m_pushRuntimeFilter = push;
+    }
+
+    /**
+     * @return the runtime filter of the keys of child1, which is built once
+     *   the join is open, or null if the join keys have different types
+     */
+    public RuntimeFilter getRuntimeFilter() {
+        return m_runtimeFilter;
+    }
+
+    private RuntimeFilter createRuntimeFilter() {
+        Type type = child1.getTupleDesc().getFieldType(pred.getField1());
+        if (pred.getOperator() != Predicate.Op.EQUALS
+                || child2.getTupleDesc().getFieldType(pred.getField2()) != type)
+            return null;
+        return new RuntimeFilter(type);
+    }
+
+    /**
+     * Adds the runtime filter to the SeqScan of a HeapFile that child2
+     * reads its join key from, if there is one. The key is followed down
+     * Filters, Projects, parallel scans and the children of other joins,
+     * none of which are open yet.
+     */
+    private void pushRuntimeFilter() {
+        DbIterator op = child2;
+        int field = pred.getField2();
+        while (true) {
+            if (op instanceof Filter || op instanceof AdaptiveFilter || op instanceof ParallelScan) {
+                op = ((Operator) op).getChildren()[0];
+            } else if (op instanceof Project) {
+                field = ((Project) op).getFieldList().get(field);
+                op = ((Operator) op).getChildren()[0];
+            } else if (op instanceof HashEquiJoin || op instanceof Join
+                    || op instanceof SortMergeJoin) {
+                DbIterator[] children = ((Operator) op).getChildren();
+                int left = children[0].getTupleDesc().numFields();
+                op = field < left ? children[0] : children[1];
+                field = field < left ? field : field - left;
+            } else {
+                break;
+            }
+        }
+        if (op == null || op.getClass() != SeqScan.class)
+            return;
+        SeqScan scan = (SeqScan) op;
+        if (!(Database.getCatalog().getDbFile(scan.getTableId()) instanceof HeapFile))
+            return;
+        int[] columns = scan.getColumns();
+        scan.addRuntimeFilter(columns == null ? field : columns[field], m_runtimeFilter);
+    }
+
+    /**
+     * Loads the next tuples of m_build into the map, until it holds more
+     * than m_maxBuildTuples.
+     * 
+     * @return true if any tuple was loaded
+     */
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+        m_buildFull = false;
+        while (true) {
+            if (buildBatch == null || buildPos == buildBatch.size()) {
+                buildBatch = TupleBatch.next(m_build);
+                buildPos = 0;
+                if (buildBatch == null)
+                    break;
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
+            t1 = buildBatch.get(buildPos++);
+            map.add(t1);
+            if (m_runtimeFilter != null && m_build == child1)
+                m_runtimeFilter.add(t1.getField(pred.getField1()));
+            if (cnt++ == m_maxBuildTuples) {
+                m_buildFull = true;
                 return true;
+            }
         }
         return cnt > 0;
 
     }
 
+    /**
+     * @return the partition of a join key
+     */
+    private static int partitionOf(Field key) {
+        // the high bits, as the map uses the low ones
+        return (JoinHashTable.mix(key.hashCode()) >>> 16) % NUM_PARTITIONS;
+    }
+
+    /**
+     * Appends a tuple to the spill file of a partition, creating it if
+     * needed.
+     */
+    private void spill(SpillFile[] spills, int partition, Tuple t) throws DbException {
+        try {
+            if (spills[partition] == null)
+                spills[partition] = new SpillFile(t.getTupleDesc());
+            spills[partition].add(t);
+        } catch (java.io.IOException e) {
+            throw new DbException("could not spill tuples: " + e.getMessage());
+        }
+    }
 
+    /**
+     * Partitions child1 once it does not fit in memory: the tuples of
+     * partition 0 stay in the map while they fit, and the others are
+     * spilled to disk, to be joined with the same partition of child2.
+     */
+    private void partition() throws DbException, TransactionAbortedException {
+        m_buildSpills = new SpillFile[NUM_PARTITIONS];
+        m_probeSpills = new SpillFile[NUM_PARTITIONS];
+        m_inMemory = true;
+        Tuple[] loaded = new Tuple[map.size()];
+        for (int r = 0; r < loaded.length; r++)
+            loaded[r] = map.get(r);
+        map.clear();
+        for (Tuple t : loaded)
+            addBuild(t);
+        while (true) {
+            if (buildPos == buildBatch.size()) {
+                buildBatch = TupleBatch.next(child1);
+                buildPos = 0;
+                if (buildBatch == null)
+                    break;
+            }
+            Tuple t = buildBatch.get(buildPos++);
+            if (m_runtimeFilter != null)
+                m_runtimeFilter.add(t.getField(pred.getField1()));
+            addBuild(t);
+        }
+        m_buildFull = false;
+        m_spillingProbe = true;
+    }
+
+    private void addBuild(Tuple t) throws DbException {
+        int p = partitionOf(t.getField(pred.getField1()));
+        if (p != 0 || !m_inMemory) {
+            spill(m_buildSpills, p, t);
+            return;
+        }
+        map.add(t);
+        if (map.size() > m_maxBuildTuples) {
+            // partition 0 does not fit either
+            for (int r = 0; r < map.size(); r++)
+                spill(m_buildSpills, 0, map.get(r));
+            map.clear();
+            m_inMemory = false;
+        }
+    }
+
+    /**
+     * @return true if a tuple of m_probe is to be joined with the map now,
+     *   and false if it was spilled to be joined later, or has no match
+     */
+    private boolean probeNow(Tuple t) throws DbException {
+        if (!m_spillingProbe)
+            return true;
+        Field key = t.getField(pred.getField2());
+        int p = partitionOf(key);
+        if (p == 0 && m_inMemory)
+            return true;
+        // partitions of child1 without tuples, and keys not in the runtime
+        // filter, have no match
+        if (m_buildSpills[p] != null
+                && (m_runtimeFilter == null || m_runtimeFilter.mightContain(key)))
+            spill(m_probeSpills, p, t);
+        return false;
+    }
+
+    /**
+     * Moves to the next tuples to join once m_probe is exhausted: the
+     * next tuples of m_build that did not fit in the map, or the next
+     * spilled partition.
+     * 
+     * @return false if there are no more tuples to join
+     */
+    private boolean nextPass() throws DbException, TransactionAbortedException {
+        if (m_buildFull) {
+            // join the rest of m_build with m_probe, a chunk at a time
+            m_probe.rewind();
+            if (loadMap())
+                return true;
+        }
+        m_spillingProbe = false;
+        while (m_buildSpills != null && m_partition < NUM_PARTITIONS) {
+            int p = m_partition++;
+            closeSpilled();
+            if (p > 0)
+                deletePartition(p - 1);
+            if (m_buildSpills[p] == null || m_probeSpills[p] == null)
+                continue;
+            try {
+                m_build = m_buildSpills[p].iterator();
+                m_probe = m_probeSpills[p].iterator();
+            } catch (java.io.IOException e) {
+                throw new DbException("could not read spilled tuples: " + e.getMessage());
+            }
+            m_build.open();
+            m_probe.open();
+            buildBatch = null;
+            if (loadMap())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Closes m_build and m_probe if they read spilled partitions.
+     */
+    private void closeSpilled() {
+        if (m_build != null && m_build != child1)
+            m_build.close();
+        if (m_probe != null && m_probe != child2)
+            m_probe.close();
+        m_build = child1;
+        m_probe = child2;
+    }
+
+    /**
+     * Deletes the spill files of a partition once it was joined.
+     */
+    private void deletePartition(int p) {
+        if (m_buildSpills[p] != null)
+            m_buildSpills[p].delete();
+        if (m_probeSpills[p] != null)
+            m_probeSpills[p].delete();
+        m_buildSpills[p] = null;
+        m_probeSpills[p] = null;
+    }
+
+    /**
+     * Closes and deletes the spilled partitions.
+     */
+    private void deleteSpilled() {
+        closeSpilled();
+        for (int p = 0; m_buildSpills != null && p < NUM_PARTITIONS; p++)
+            deletePartition(p);
+        m_buildSpills = null;
+        m_probeSpills = null;
+        m_spillingProbe = false;
+    }
+
+    /**
+     * Loads child1 into the map, partitioning it if it does not fit, and
+     * builds the runtime filter of its keys.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        m_build = child1;
+        m_probe = child2;
+        m_partition = 0;
+        buildBatch = null;
+        matchRow = -1;
+        if (m_runtimeFilter != null)
+            m_runtimeFilter.clear();
+        loadMap();
+        if (m_buildFull)
+            partition();
+        if (m_runtimeFilter != null)
+            m_runtimeFilter.build();
+    }
+
+    /**
+     * Opens child1 and loads it before child2 is opened, so that the
+     * runtime filter is pushed into the scan of child2 before it is read.
+     */
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
+        start();
+        if (m_runtimeFilter != null && m_pushRuntimeFilter)
+            pushRuntimeFilter();
         child2.open();
-        loadMap();
+        super.open();
     }
 
     public void close() {
         super.close();
+        deleteSpilled();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
-        this.listIt=null;
+        this.matchRow=-1;
+        this.buildBatch=null;
         this.map.clear();
+        // the scan of child2 may outlive the join
+        if (m_runtimeFilter != null)
+            m_runtimeFilter.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        deleteSpilled();
         child1.rewind();
+        start();
         child2.rewind();
     }
 
-    transient Iterator<Tuple> listIt = null;
+    /** The next row of the map that matches t2, or -1 if there is none */
+    transient int matchRow = -1;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -115,45 +434,68 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+        t1 = map.get(matchRow);
+        matchRow = map.next(matchRow);
+        return combine(t1, t2);
+    }
 
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+    private Tuple combine(Tuple t1, Tuple t2) {
+        return new JoinedTuple(comboTD, t1, t2);
+    }
 
+    /**
+     * Probes the map with batches of child2 until the output batch is full.
+     * All the matches of a probe tuple go to the same batch, so the batch
+     * may grow beyond TupleBatch.SIZE.
+     */
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch out = new TupleBatch();
+        // matches left over from tuple-at-a-time calls
+        while (matchRow >= 0)
+            out.add(processList());
+        while (!out.isFull()) {
+            TupleBatch probe = TupleBatch.next(m_probe);
+            if (probe == null) {
+                // m_probe is done: advance m_build
+                if (!nextPass())
+                    break;
+                continue;
+            }
+            for (int i = 0; i < probe.size(); i++) {
+                Tuple p = probe.get(i);
+                if (!probeNow(p))
+                    continue;
+                for (int r = map.first(p.getField(pred.getField2())); r >= 0; r = map.next(r))
+                    out.add(combine(map.get(r), p));
+            }
+        }
+        return out.size() == 0 ? null : out;
     }
 
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
+        if (matchRow >= 0) {
             return processList();
         }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        // loop around m_probe
+        while (m_probe.hasNext()) {
+            t2 = m_probe.next();
+            if (!probeNow(t2))
+                continue;
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
+            matchRow = map.first(t2.getField(pred.getField2()));
+            if (matchRow < 0)
                 continue;
-            listIt = l.iterator();
 
             return processList();
 
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
+        // m_probe is done: advance m_build
+        if (nextPass()) {
             return fetchNext();
         }
 
@@ -169,6 +511,9 @@ public class HashEquiJoin extends Operator {
     public void setChildren(DbIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.map = JoinHashTable.create(child1.getTupleDesc().getFieldType(pred.getField1()),
+                pred.getField1());
+        this.m_runtimeFilter = createRuntimeFilter();
     }
     
 
@@ -0,0 +1,725 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * HashIndexFile is an on-disk extendible hash index over one field of a base
+ * table. It maps each key to the RecordIds of the base tuples holding it, and
+ * is used for equality lookups (see {@link IndexScan}).
+ * <p>
+ * The file is made of HashIndexPages: page 0 is the meta page, which records
+ * the global depth of the directory and where its consecutive pages start.
+ * The directory maps the low globalDepth bits of a key's hash to a bucket
+ * page. A full bucket is split in two by increasing its local depth; only
+ * when the local depth reaches the global depth is the directory doubled,
+ * which copies the existing bucket pointers and leaves every other bucket
+ * untouched. Once the directory spans several pages, doubling it copies it
+ * to twice as many new pages at the end of the file, and the old pages are
+ * left unused. A lookup therefore reads the meta page, one directory page
+ * and one bucket page, regardless of the size of the table. Buckets whose
+ * entries cannot be separated by splitting (duplicate keys, or a directory
+ * at MAX_DEPTH) grow a chain of overflow pages instead.
+ * <p>
+ * All pages are read through the BufferPool, so index pages are locked and
+ * cached like heap pages. The tuples of the DbFile interface are always
+ * tuples of the base table: insertTuple and deleteTuple add or remove the
+ * entry for the key and RecordId of the given tuple.
+ *
+ * @see HashIndexPage
+ */
+public class HashIndexFile implements DbFile {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Largest global depth. The directory then has 2^30 pointers on 2^20
+	 * pages, which is enough buckets for hundreds of billions of entries.
+	 */
+	public static final int MAX_DEPTH = 30;
+	/** Target fill of bucket pages built by {@link #build}. */
+	private static final double BUILD_FILL_FACTOR = 0.7;
+	/** Number of bucket pages build() aims to keep in memory at a time. */
+	private static final int BUILD_CHUNK = 4096;
+	/** Largest number of bits of the hash build() partitions entries by */
+	private static final int MAX_RUN_BITS = 8;
+
+	private static final int N = HashIndexPage.DIR_ENTRIES_PER_PAGE;
+
+	File m_file;
+	int m_tableId;
+	int m_keyField;
+	TupleDesc m_td;
+
+	/**
+	 * Constructs a hash index backed by the specified file. If the file is
+	 * empty, an empty index is written to it.
+	 *
+	 * @param f the file that stores the on-disk backing store for this index
+	 * @param tableid the id of the indexed table
+	 * @param keyField the index of the indexed field in the table's tuples
+	 */
+	public HashIndexFile(File f, int tableid, int keyField) {
+		m_file = f;
+		m_tableId = tableid;
+		m_keyField = keyField;
+		TupleDesc baseTd = Database.getCatalog().getTupleDesc(tableid);
+		m_td = new TupleDesc(
+				new Type[] { baseTd.getFieldType(keyField), Type.INT_TYPE, Type.INT_TYPE },
+				new String[] { baseTd.getFieldName(keyField), "page", "slot" });
+		if (m_file.length() == 0) {
+			try {
+				writeEmptyIndex();
+			} catch (IOException e) {
+				throw new RuntimeException("couldn't create hash index " + f, e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the File backing this index on disk.
+	 */
+	public File getFile() {
+		return m_file;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this index, computed the same way
+	 * as HeapFile ids.
+	 */
+	public int getId() {
+		return m_file.getAbsoluteFile().hashCode();
+	}
+
+	/** @return the id of the indexed table */
+	public int getTableId() {
+		return m_tableId;
+	}
+
+	/** @return the index of the indexed field in the base table's tuples */
+	public int getKeyField() {
+		return m_keyField;
+	}
+
+	/**
+	 * Returns the TupleDesc of the entries of this index: the key followed by
+	 * the page number and slot of the base tuple.
+	 */
+	public TupleDesc getTupleDesc() {
+		return m_td;
+	}
+
+	/**
+	 * Returns the number of pages in this index.
+	 */
+	public int numPages() {
+		return (int) (m_file.length() / BufferPool.PAGE_SIZE);
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid) {
+		byte[] bytes = new byte[BufferPool.PAGE_SIZE];
+		try {
+			RandomAccessFile file = new RandomAccessFile(getFile(), "r");
+			file.seek((long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+			file.read(bytes);
+			file.close();
+			return new HashIndexPage((HashIndexPageId) pid, bytes);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+		file.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+		file.write(page.getPageData());
+		file.close();
+	}
+
+	/**
+	 * Hash function used to place keys. Field.hashCode() is not well spread
+	 * in its low bits (IntField returns the value itself), so it is mixed
+	 * before the directory takes the low globalDepth bits.
+	 */
+	static int hash(Field key) {
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	private static int mask(int depth) {
+		return (1 << depth) - 1;
+	}
+
+	private HashIndexPage getPage(TransactionId tid, int pgNo, int pgcateg, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		return (HashIndexPage) Database.getBufferPool().getPage(tid,
+				new HashIndexPageId(getId(), pgNo, pgcateg), perm);
+	}
+
+	/**
+	 * Appends an empty page to the file and returns it, locked READ_WRITE.
+	 */
+	private synchronized HashIndexPage allocatePage(TransactionId tid, int pgcateg)
+			throws DbException, IOException, TransactionAbortedException {
+		int pgNo = numPages();
+		RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+		file.seek((long) pgNo * BufferPool.PAGE_SIZE);
+		file.write(HashIndexPage.createEmptyPageData());
+		file.close();
+		return getPage(tid, pgNo, pgcateg, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * Appends count empty pages to the file, and returns the page number of
+	 * the first of them.
+	 */
+	private synchronized int allocatePages(int count) throws IOException {
+		int pgNo = numPages();
+		RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+		file.setLength((long) (pgNo + count) * BufferPool.PAGE_SIZE);
+		file.close();
+		return pgNo;
+	}
+
+	/**
+	 * Writes an index with a global depth of 0: the meta page, one directory
+	 * page and a single empty bucket.
+	 */
+	private void writeEmptyIndex() throws IOException {
+		ByteBuffer meta = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+		meta.putInt(0, 0);
+		meta.putInt(4, 1);
+		meta.putInt(8, 1);
+		ByteBuffer dir = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+		dir.putInt(0, 2);
+		RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+		file.setLength(0);
+		file.write(meta.array());
+		file.write(dir.array());
+		file.write(HashIndexPage.createEmptyPageData());
+		file.close();
+	}
+
+	/**
+	 * Returns the page number of the primary bucket holding hash h.
+	 */
+	private int findBucket(TransactionId tid, HashIndexPage meta, int h)
+			throws TransactionAbortedException, DbException {
+		int idx = h & mask(meta.getGlobalDepth());
+		HashIndexPage dir = getPage(tid, meta.getDirPage(idx / N),
+				HashIndexPageId.DIRECTORY, Permissions.READ_ONLY);
+		return dir.getBucket(idx % N);
+	}
+
+	/**
+	 * Returns the RecordIds of all base tuples whose key equals the
+	 * specified key.
+	 */
+	public ArrayList<RecordId> lookupRecordIds(TransactionId tid, Field key)
+			throws DbException, TransactionAbortedException {
+		ArrayList<RecordId> rids = new ArrayList<RecordId>();
+		HashIndexPage meta = getPage(tid, 0, HashIndexPageId.META, Permissions.READ_ONLY);
+		int pgNo = findBucket(tid, meta, hash(key));
+		while (pgNo != 0) {
+			HashIndexPage bucket = getPage(tid, pgNo, HashIndexPageId.BUCKET, Permissions.READ_ONLY);
+			for (int i = 0; i < bucket.getNumEntries(); i++) {
+				if (bucket.keyEquals(i, key))
+					rids.add(new RecordId(new HeapPageId(m_tableId, bucket.getEntryPage(i)),
+							bucket.getEntrySlot(i)));
+			}
+			pgNo = bucket.getOverflow();
+		}
+		return rids;
+	}
+
+	/**
+	 * Returns an iterator over the base tuples whose key equals the
+	 * specified key.
+	 */
+	public DbFileIterator lookup(TransactionId tid, Field key) {
+		return new LookupIterator(tid, key);
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		if (t == null || t.getRecordId() == null)
+			throw new DbException("Tuple is not stored in the indexed table");
+		ArrayList<Page> dirtied = new ArrayList<Page>();
+		insertEntry(tid, t.getField(m_keyField), t.getRecordId(), dirtied);
+		return dirtied;
+	}
+
+	private void insertEntry(TransactionId tid, Field key, RecordId rid, ArrayList<Page> dirtied)
+			throws DbException, IOException, TransactionAbortedException {
+		int pg = rid.getPageId().pageNumber();
+		int slot = rid.tupleno();
+		int h = hash(key);
+		while (true) {
+			HashIndexPage meta = getPage(tid, 0, HashIndexPageId.META, Permissions.READ_ONLY);
+			HashIndexPage bucket = getPage(tid, findBucket(tid, meta, h),
+					HashIndexPageId.BUCKET, Permissions.READ_WRITE);
+			HashIndexPage p = bucket;
+			while (p.getNumEntries() >= p.getMaxEntries() && p.getOverflow() != 0)
+				p = getPage(tid, p.getOverflow(), HashIndexPageId.BUCKET, Permissions.READ_WRITE);
+			if (p.insertEntry(key, pg, slot)) {
+				addDirtied(dirtied, p);
+				return;
+			}
+			if (bucket.getLocalDepth() < MAX_DEPTH && canSplit(tid, bucket)) {
+				split(tid, meta, bucket, h, dirtied);
+				continue;
+			}
+			HashIndexPage overflow = allocatePage(tid, HashIndexPageId.BUCKET);
+			overflow.setLocalDepth(bucket.getLocalDepth());
+			p.setOverflow(overflow.getId().pageNumber());
+			overflow.insertEntry(key, pg, slot);
+			addDirtied(dirtied, p);
+			addDirtied(dirtied, overflow);
+			return;
+		}
+	}
+
+	private static void addDirtied(ArrayList<Page> dirtied, Page p) {
+		if (!dirtied.contains(p))
+			dirtied.add(p);
+	}
+
+	/**
+	 * A bucket can only be split usefully if the entries of its chain do not
+	 * all agree on the hash bits a split could ever look at.
+	 */
+	private boolean canSplit(TransactionId tid, HashIndexPage bucket)
+			throws DbException, TransactionAbortedException {
+		int m = mask(MAX_DEPTH);
+		boolean first = true;
+		int h0 = 0;
+		HashIndexPage p = bucket;
+		while (true) {
+			for (int i = 0; i < p.getNumEntries(); i++) {
+				int h = hash(p.getKey(i)) & m;
+				if (first) {
+					h0 = h;
+					first = false;
+				} else if (h != h0)
+					return true;
+			}
+			if (p.getOverflow() == 0)
+				return false;
+			p = getPage(tid, p.getOverflow(), HashIndexPageId.BUCKET, Permissions.READ_WRITE);
+		}
+	}
+
+	/**
+	 * Splits the bucket holding hash h into two buckets of local depth + 1,
+	 * doubling the directory first if needed. Entries are redistributed
+	 * within the bucket's chain and the new sibling; no other bucket is read.
+	 * Overflow pages left empty by the split are not reclaimed.
+	 */
+	private void split(TransactionId tid, HashIndexPage meta, HashIndexPage bucket, int h,
+			ArrayList<Page> dirtied) throws DbException, IOException, TransactionAbortedException {
+		int ld = bucket.getLocalDepth();
+		if (ld == meta.getGlobalDepth()) {
+			meta = getPage(tid, 0, HashIndexPageId.META, Permissions.READ_WRITE);
+			doubleDirectory(tid, meta, dirtied);
+		}
+
+		// gather the entries of the whole chain
+		ArrayList<HashIndexPage> chain = new ArrayList<HashIndexPage>();
+		ArrayList<Field> keys = new ArrayList<Field>();
+		ArrayList<Integer> pages = new ArrayList<Integer>();
+		ArrayList<Integer> slots = new ArrayList<Integer>();
+		HashIndexPage p = bucket;
+		while (true) {
+			chain.add(p);
+			for (int i = 0; i < p.getNumEntries(); i++) {
+				keys.add(p.getKey(i));
+				pages.add(p.getEntryPage(i));
+				slots.add(p.getEntrySlot(i));
+			}
+			if (p.getOverflow() == 0)
+				break;
+			p = getPage(tid, p.getOverflow(), HashIndexPageId.BUCKET, Permissions.READ_WRITE);
+		}
+		for (HashIndexPage c : chain) {
+			c.clearEntries();
+			c.setOverflow(0);
+			c.setLocalDepth(ld + 1);
+			addDirtied(dirtied, c);
+		}
+
+		HashIndexPage sibling = allocatePage(tid, HashIndexPageId.BUCKET);
+		sibling.setLocalDepth(ld + 1);
+		addDirtied(dirtied, sibling);
+
+		LinkedList<HashIndexPage> spare = new LinkedList<HashIndexPage>(chain.subList(1, chain.size()));
+		HashIndexPage[] tails = new HashIndexPage[] { bucket, sibling };
+		for (int i = 0; i < keys.size(); i++) {
+			int side = (hash(keys.get(i)) >>> ld) & 1;
+			if (!tails[side].insertEntry(keys.get(i), pages.get(i), slots.get(i))) {
+				HashIndexPage next = spare.isEmpty()
+						? allocatePage(tid, HashIndexPageId.BUCKET) : spare.removeFirst();
+				next.setLocalDepth(ld + 1);
+				addDirtied(dirtied, next);
+				tails[side].setOverflow(next.getId().pageNumber());
+				tails[side] = next;
+				tails[side].insertEntry(keys.get(i), pages.get(i), slots.get(i));
+			}
+		}
+
+		// point the directory slots with bit ld set at the sibling
+		int siblingNo = sibling.getId().pageNumber();
+		int gd = meta.getGlobalDepth();
+		for (int j = (h & mask(ld)) | (1 << ld); j < (1 << gd); j += 1 << (ld + 1)) {
+			HashIndexPage dir = getPage(tid, meta.getDirPage(j / N),
+					HashIndexPageId.DIRECTORY, Permissions.READ_WRITE);
+			dir.setBucket(j % N, siblingNo);
+			addDirtied(dirtied, dir);
+		}
+	}
+
+	/**
+	 * Doubles the directory by copying its bucket pointers; the new half
+	 * points at the same buckets as the old one. A directory of several
+	 * pages is copied twice to new consecutive pages.
+	 */
+	private void doubleDirectory(TransactionId tid, HashIndexPage meta, ArrayList<Page> dirtied)
+			throws DbException, IOException, TransactionAbortedException {
+		int gd = meta.getGlobalDepth();
+		int size = 1 << gd;
+		if (size < N) {
+			HashIndexPage dir = getPage(tid, meta.getDirPage(0),
+					HashIndexPageId.DIRECTORY, Permissions.READ_WRITE);
+			for (int i = 0; i < size; i++)
+				dir.setBucket(size + i, dir.getBucket(i));
+			addDirtied(dirtied, dir);
+		} else {
+			int nd = meta.getNumDirPages();
+			int first = allocatePages(2 * nd);
+			for (int i = 0; i < nd; i++) {
+				HashIndexPage src = getPage(tid, meta.getDirPage(i),
+						HashIndexPageId.DIRECTORY, Permissions.READ_ONLY);
+				for (int half = 0; half < 2; half++) {
+					HashIndexPage dst = getPage(tid, first + half * nd + i,
+							HashIndexPageId.DIRECTORY, Permissions.READ_WRITE);
+					for (int j = 0; j < N; j++)
+						dst.setBucket(j, src.getBucket(j));
+					addDirtied(dirtied, dst);
+				}
+			}
+			meta.setFirstDirPage(first);
+			meta.setNumDirPages(2 * nd);
+		}
+		meta.setGlobalDepth(gd + 1);
+		addDirtied(dirtied, meta);
+	}
+
+	// see DbFile.java for javadocs
+	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+	TransactionAbortedException {
+		if (t == null || t.getRecordId() == null)
+			throw new DbException("Tuple is not stored in the indexed table");
+		Field key = t.getField(m_keyField);
+		int pg = t.getRecordId().getPageId().pageNumber();
+		int slot = t.getRecordId().tupleno();
+		HashIndexPage meta = getPage(tid, 0, HashIndexPageId.META, Permissions.READ_ONLY);
+		int pgNo = findBucket(tid, meta, hash(key));
+		while (pgNo != 0) {
+			HashIndexPage bucket = getPage(tid, pgNo, HashIndexPageId.BUCKET, Permissions.READ_WRITE);
+			for (int i = 0; i < bucket.getNumEntries(); i++) {
+				if (bucket.getEntryPage(i) == pg && bucket.getEntrySlot(i) == slot
+						&& bucket.keyEquals(i, key)) {
+					bucket.removeEntry(i);
+					return bucket;
+				}
+			}
+			pgNo = bucket.getOverflow();
+		}
+		throw new DbException("Tuple has no entry in the index");
+	}
+
+	/**
+	 * Fills an empty index with entries for every tuple of the base table.
+	 * The base table is read once: its entries are written to temporary runs
+	 * partitioned by the low bits of their hash, and counted. The directory
+	 * is then sized from the number of entries, so no splits happen, and the
+	 * buckets are filled from the runs a group at a time: the buckets of a
+	 * group are those whose low bits select its runs, and only their last
+	 * page is held in memory. Pages are written directly to disk. Must be
+	 * called before any transaction reads the index through the BufferPool.
+	 *
+	 * @param tid the transaction used to scan the base table
+	 */
+	public void build(TransactionId tid)
+			throws DbException, IOException, TransactionAbortedException {
+		build(tid, BUILD_CHUNK);
+	}
+
+	/**
+	 * Fills an empty index as {@link #build(TransactionId)} does, with
+	 * groups of at most chunk buckets unless that takes more than
+	 * 2^MAX_RUN_BITS runs.
+	 */
+	void build(TransactionId tid, int chunk)
+			throws DbException, IOException, TransactionAbortedException {
+		HashIndexPage proto = new HashIndexPage(
+				new HashIndexPageId(getId(), 0, HashIndexPageId.BUCKET),
+				HashIndexPage.createEmptyPageData());
+		int perBucket = Math.max(1, (int) (proto.getMaxEntries() * BUILD_FILL_FACTOR));
+
+		// enough runs for a group of the most buckets the table may need to
+		// fit in chunk pages
+		DbFile base = Database.getCatalog().getDbFile(m_tableId);
+		long bound = 0;
+		if (base instanceof HeapFile)
+			bound = (long) ((HeapFile) base).numPages() * HeapPage.getNumTuples(base.getTupleDesc());
+		int runBits = 0;
+		while (runBits < MAX_RUN_BITS && ((long) chunk << runBits) * perBucket < bound)
+			runBits++;
+		SpillFile[] runs = new SpillFile[1 << runBits];
+		long n = 0;
+		try {
+			for (int r = 0; r < runs.length; r++)
+				runs[r] = new SpillFile(m_td);
+			DbFileIterator it = base.iterator(tid);
+			it.open();
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				Field key = t.getField(m_keyField);
+				Tuple entry = new Tuple(m_td);
+				entry.setField(0, key);
+				entry.setField(1, new IntField(t.getRecordId().getPageId().pageNumber()));
+				entry.setField(2, new IntField(t.getRecordId().tupleno()));
+				runs[hash(key) & mask(runBits)].add(entry);
+				n++;
+			}
+			it.close();
+			writeBuckets(runs, runBits, n, perBucket);
+		} finally {
+			for (SpillFile run : runs) {
+				if (run != null)
+					run.delete();
+			}
+		}
+	}
+
+	/**
+	 * Writes the meta page, the directory and the buckets of an index of n
+	 * entries, read from runs partitioned by the low runBits bits of their
+	 * hash.
+	 */
+	private void writeBuckets(SpillFile[] runs, int runBits, long n, int perBucket)
+			throws DbException, IOException, TransactionAbortedException {
+		int depth = 0;
+		while (depth < MAX_DEPTH && ((long) 1 << depth) * perBucket < n)
+			depth++;
+		int numBuckets = 1 << depth;
+		int numDirPages = (numBuckets + N - 1) / N;
+		int firstBucket = 1 + numDirPages;
+
+		RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+		try {
+			file.setLength(0);
+			ByteBuffer meta = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+			meta.putInt(0, depth);
+			meta.putInt(4, numDirPages);
+			meta.putInt(8, 1);
+			file.write(meta.array());
+			for (int i = 0; i < numDirPages; i++) {
+				ByteBuffer dir = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+				for (int j = 0; j < N && i * N + j < numBuckets; j++)
+					dir.putInt(4 * j, firstBucket + i * N + j);
+				file.write(dir.array());
+			}
+			int nextPage = firstBucket + numBuckets;
+			file.setLength((long) nextPage * BufferPool.PAGE_SIZE);
+
+			// bucket b is in group b & mask(bits), at index b >>> bits
+			int bits = Math.min(runBits, depth);
+			for (int g = 0; g < (1 << bits); g++) {
+				HashIndexPage[] tails = new HashIndexPage[1 << (depth - bits)];
+				for (int i = 0; i < tails.length; i++) {
+					tails[i] = new HashIndexPage(new HashIndexPageId(getId(),
+							firstBucket + (g | (i << bits)), HashIndexPageId.BUCKET),
+							HashIndexPage.createEmptyPageData());
+					tails[i].setLocalDepth(depth);
+				}
+				for (int r = g; r < runs.length; r += 1 << bits) {
+					DbIterator run = runs[r].iterator();
+					run.open();
+					while (run.hasNext()) {
+						Tuple entry = run.next();
+						Field key = entry.getField(0);
+						int i = (hash(key) & mask(depth)) >>> bits;
+						int pg = ((IntField) entry.getField(1)).getValue();
+						int slot = ((IntField) entry.getField(2)).getValue();
+						if (!tails[i].insertEntry(key, pg, slot)) {
+							HashIndexPage next = new HashIndexPage(
+									new HashIndexPageId(getId(), nextPage++, HashIndexPageId.BUCKET),
+									HashIndexPage.createEmptyPageData());
+							next.setLocalDepth(depth);
+							tails[i].setOverflow(next.getId().pageNumber());
+							writeBuilt(file, tails[i]);
+							next.insertEntry(key, pg, slot);
+							tails[i] = next;
+						}
+					}
+					run.close();
+				}
+				for (HashIndexPage p : tails)
+					writeBuilt(file, p);
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	private static void writeBuilt(RandomAccessFile file, HashIndexPage p) throws IOException {
+		file.seek((long) p.getId().pageNumber() * BufferPool.PAGE_SIZE);
+		file.write(p.getPageData());
+	}
+
+	/**
+	 * Returns an iterator over the entries of this index, as tuples of
+	 * getTupleDesc().
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return new EntryIterator(tid);
+	}
+
+	/**
+	 * Iterates over the base tuples matching one key: the matching RecordIds
+	 * are collected from the bucket chain on open, and the tuples are then
+	 * fetched from the base table one at a time.
+	 */
+	private class LookupIterator implements DbFileIterator {
+		private static final long serialVersionUID = 1L;
+		private TransactionId m_tid;
+		private Field m_key;
+		private ArrayList<RecordId> m_rids;
+		private int m_pos;
+		private Tuple m_next;
+
+		public LookupIterator(TransactionId tid, Field key) {
+			m_tid = tid;
+			m_key = key;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			m_rids = lookupRecordIds(m_tid, m_key);
+			m_pos = 0;
+			m_next = null;
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (m_rids == null)
+				return false;
+			while (m_next == null && m_pos < m_rids.size()) {
+				RecordId rid = m_rids.get(m_pos++);
+				HeapPage page = (HeapPage) Database.getBufferPool().getPage(m_tid,
+						rid.getPageId(), Permissions.READ_ONLY);
+				m_next = page.getTuple(rid.tupleno());
+			}
+			return m_next != null;
+		}
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+		NoSuchElementException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Tuple t = m_next;
+			m_next = null;
+			return t;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			m_rids = null;
+			m_next = null;
+		}
+	}
+
+	/**
+	 * Iterates over all entries of the index, visiting each bucket chain
+	 * once in directory order.
+	 */
+	private class EntryIterator implements DbFileIterator {
+		private static final long serialVersionUID = 1L;
+		private TransactionId m_tid;
+		private HashIndexPage m_meta;
+		private HashSet<Integer> m_visited;
+		private int m_dirIndex;
+		private Iterator<Tuple> m_iterator;
+
+		public EntryIterator(TransactionId tid) {
+			m_tid = tid;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			m_meta = getPage(m_tid, 0, HashIndexPageId.META, Permissions.READ_ONLY);
+			m_visited = new HashSet<Integer>();
+			m_dirIndex = 0;
+			m_iterator = null;
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (m_meta == null)
+				return false;
+			while (m_iterator == null || !m_iterator.hasNext()) {
+				if (m_dirIndex >= (1 << m_meta.getGlobalDepth()))
+					return false;
+				HashIndexPage dir = getPage(m_tid, m_meta.getDirPage(m_dirIndex / N),
+						HashIndexPageId.DIRECTORY, Permissions.READ_ONLY);
+				int pgNo = dir.getBucket(m_dirIndex % N);
+				m_dirIndex++;
+				if (!m_visited.add(pgNo))
+					continue;
+				ArrayList<Tuple> entries = new ArrayList<Tuple>();
+				while (pgNo != 0) {
+					HashIndexPage bucket = getPage(m_tid, pgNo,
+							HashIndexPageId.BUCKET, Permissions.READ_ONLY);
+					for (int i = 0; i < bucket.getNumEntries(); i++) {
+						Tuple t = new Tuple(m_td);
+						t.setField(0, bucket.getKey(i));
+						t.setField(1, new IntField(bucket.getEntryPage(i)));
+						t.setField(2, new IntField(bucket.getEntrySlot(i)));
+						entries.add(t);
+					}
+					pgNo = bucket.getOverflow();
+				}
+				m_iterator = entries.iterator();
+			}
+			return true;
+		}
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+		NoSuchElementException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return m_iterator.next();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			m_meta = null;
+			m_iterator = null;
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of HashIndexPage stores one page of a HashIndexFile and
+ * implements the Page interface that is used by BufferPool. The layout of
+ * the page depends on its category (see {@link HashIndexPageId}):
+ * <ul>
+ * <li>META: the global depth of the directory, the number of directory
+ * pages and the page number of the first of them. The directory pages are
+ * consecutive pages of the file.</li>
+ * <li>DIRECTORY: an array of bucket page numbers, one per directory slot.</li>
+ * <li>BUCKET: the local depth of the bucket, the number of entries, the page
+ * number of the next overflow page (or 0 if there is none), followed by the
+ * entries. Each entry is the serialized key followed by the page number and
+ * slot of the indexed tuple in the base table.</li>
+ * </ul>
+ *
+ * @see HashIndexFile
+ * @see BufferPool
+ */
+public class HashIndexPage implements Page {
+
+	/** Number of bucket pointers held by a directory page. */
+	public final static int DIR_ENTRIES_PER_PAGE = BufferPool.PAGE_SIZE / 4;
+
+	private final static int BUCKET_HEADER_SIZE = 12;
+
+	HashIndexPageId pid;
+	private byte[] m_data;
+	private ByteBuffer m_buf;
+	private Type m_keyType;
+
+	private TransactionId dirtyId = null;
+
+	byte[] oldData;
+
+	/**
+	 * Create a HashIndexPage from a set of bytes of data read from disk.
+	 *
+	 * @see #HashIndexPage
+	 */
+	public HashIndexPage(HashIndexPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.m_keyType = Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(0);
+		this.m_data = data.clone();
+		this.m_buf = ByteBuffer.wrap(m_data);
+		setBeforeImage();
+	}
+
+	/** Return a view of this page before it was modified
+		-- used by recovery */
+	public HashIndexPage getBeforeImage() {
+		try {
+			return new HashIndexPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public HashIndexPageId getId() {
+		return pid;
+	}
+
+	public byte[] getPageData() {
+		return m_data.clone();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * HashIndexPage.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.PAGE_SIZE]; //all 0
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction
+	 * that did the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		if (dirty)
+			dirtyId = tid;
+		else
+			dirtyId = null;
+	}
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		return dirtyId;
+	}
+
+	// ---------------------------------------------------------------- META
+
+	public int getGlobalDepth() {
+		return m_buf.getInt(0);
+	}
+
+	public void setGlobalDepth(int depth) {
+		m_buf.putInt(0, depth);
+	}
+
+	public int getNumDirPages() {
+		return m_buf.getInt(4);
+	}
+
+	public void setNumDirPages(int numDirPages) {
+		m_buf.putInt(4, numDirPages);
+	}
+
+	/** @return the page number of the i-th directory page */
+	public int getDirPage(int i) {
+		return m_buf.getInt(8) + i;
+	}
+
+	/** Sets the page number of the first directory page; the others follow it. */
+	public void setFirstDirPage(int pgNo) {
+		m_buf.putInt(8, pgNo);
+	}
+
+	// ----------------------------------------------------------- DIRECTORY
+
+	/** @return the bucket page number stored in directory slot i of this page */
+	public int getBucket(int i) {
+		return m_buf.getInt(4 * i);
+	}
+
+	public void setBucket(int i, int pgNo) {
+		m_buf.putInt(4 * i, pgNo);
+	}
+
+	// -------------------------------------------------------------- BUCKET
+
+	/** @return the number of entries that fit on a bucket page */
+	public int getMaxEntries() {
+		return (BufferPool.PAGE_SIZE - BUCKET_HEADER_SIZE) / getEntrySize();
+	}
+
+	private int getEntrySize() {
+		return m_keyType.getLen() + 8;
+	}
+
+	private int entryOffset(int i) {
+		return BUCKET_HEADER_SIZE + i * getEntrySize();
+	}
+
+	public int getLocalDepth() {
+		return m_buf.getInt(0);
+	}
+
+	public void setLocalDepth(int depth) {
+		m_buf.putInt(0, depth);
+	}
+
+	public int getNumEntries() {
+		return m_buf.getInt(4);
+	}
+
+	private void setNumEntries(int n) {
+		m_buf.putInt(4, n);
+	}
+
+	/** @return the page number of the next overflow page, or 0 if there is none */
+	public int getOverflow() {
+		return m_buf.getInt(8);
+	}
+
+	public void setOverflow(int pgNo) {
+		m_buf.putInt(8, pgNo);
+	}
+
+	/** @return the key of the i-th entry on this bucket page */
+	public Field getKey(int i) {
+		int off = entryOffset(i);
+		if (m_keyType == Type.INT_TYPE)
+			return new IntField(m_buf.getInt(off));
+		try {
+			DataInputStream dis = new DataInputStream(
+					new ByteArrayInputStream(m_data, off, m_keyType.getLen()));
+			return m_keyType.parse(dis);
+		} catch (java.text.ParseException e) {
+			throw new RuntimeException("couldn't parse key", e);
+		}
+	}
+
+	/** @return true if the key of the i-th entry equals key */
+	public boolean keyEquals(int i, Field key) {
+		if (m_keyType == Type.INT_TYPE)
+			return m_buf.getInt(entryOffset(i)) == ((IntField) key).getValue();
+		return getKey(i).equals(key);
+	}
+
+	/** @return the page number (in the base table) of the i-th entry */
+	public int getEntryPage(int i) {
+		return m_buf.getInt(entryOffset(i) + m_keyType.getLen());
+	}
+
+	/** @return the slot (in the base table) of the i-th entry */
+	public int getEntrySlot(int i) {
+		return m_buf.getInt(entryOffset(i) + m_keyType.getLen() + 4);
+	}
+
+	/**
+	 * Appends an entry to this bucket page.
+	 * @return false if the page is full
+	 */
+	public boolean insertEntry(Field key, int pgNo, int slot) {
+		int n = getNumEntries();
+		if (n >= getMaxEntries())
+			return false;
+		int off = entryOffset(n);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(m_keyType.getLen());
+		try {
+			key.serialize(new DataOutputStream(baos));
+		} catch (IOException e) {
+			throw new RuntimeException("couldn't serialize key", e);
+		}
+		System.arraycopy(baos.toByteArray(), 0, m_data, off, m_keyType.getLen());
+		m_buf.putInt(off + m_keyType.getLen(), pgNo);
+		m_buf.putInt(off + m_keyType.getLen() + 4, slot);
+		setNumEntries(n + 1);
+		return true;
+	}
+
+	/**
+	 * Removes the i-th entry from this bucket page by moving the last entry
+	 * into its place.
+	 */
+	public void removeEntry(int i) {
+		int n = getNumEntries();
+		if (i < n - 1)
+			System.arraycopy(m_data, entryOffset(n - 1), m_data, entryOffset(i), getEntrySize());
+		setNumEntries(n - 1);
+	}
+
+	/** Removes all entries from this bucket page, keeping the header. */
+	public void clearEntries() {
+		setNumEntries(0);
+	}
+}
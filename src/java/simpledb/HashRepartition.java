@@ -0,0 +1,104 @@
+package simpledb;
+
+/**
+ * HashRepartition is an exchange that splits the tuples of its producers
+ * between several consumers by the hash of a field, so that all the tuples
+ * with the same value of the field go to the same consumer. The consumers
+ * of two inputs repartitioned on their join fields into the same number of
+ * partitions can thus be joined pairwise, and those of an input
+ * repartitioned on its group-by field aggregated separately.
+ */
+public class HashRepartition extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Added to hash codes so that partitions are unrelated to other hashes */
+    private static final int SEED = 0x7F4A7C15;
+
+    private int m_field;
+
+    private HashRepartition(Channels channels, int channel, int field) {
+        super(channels, channel);
+        m_field = field;
+    }
+
+    /**
+     * Returns the consumers of a repartition of the tuples of producers.
+     *
+     * @param producers
+     *            the subplans whose tuples to split, each run on a thread
+     * @param field
+     *            the field whose hash chooses the consumer of a tuple
+     * @param partitions
+     *            the number of consumers
+     */
+    public static HashRepartition[] create(DbIterator[] producers, int field, int partitions) {
+        return consumers(new RepartitionChannels(producers, field, partitions), field);
+    }
+
+    /**
+     * Returns the consumers of a repartition of the tuples of a pipeline of
+     * Filters and Projects over a SeqScan, run on several threads that
+     * share the pages of the scan.
+     *
+     * @param threads
+     *            the number of copies of the pipeline to run
+     */
+    public static HashRepartition[] create(DbIterator pipeline, int threads, int field,
+            int partitions) {
+        return consumers(new RepartitionChannels(pipeline, threads, field, partitions), field);
+    }
+
+    private static HashRepartition[] consumers(Channels channels, int field) {
+        HashRepartition[] consumers = new HashRepartition[channels.numChannels()];
+        for (int i = 0; i < consumers.length; i++)
+            consumers[i] = new HashRepartition(channels, i, field);
+        return consumers;
+    }
+
+    /**
+     * @return the partition of a field value, out of n
+     */
+    public static int partitionOf(Field f, int n) {
+        return (AggregateHashTable.partitionHash(f.hashCode() + SEED) >>> 16) % n;
+    }
+
+    public String getName() {
+        return "repartition(" + getTupleDesc().getFieldName(m_field) + ")";
+    }
+
+    /** Channels that route each tuple to the partition of its field */
+    private static class RepartitionChannels extends Channels {
+        private int m_field;
+
+        RepartitionChannels(DbIterator[] producers, int field, int partitions) {
+            super("repartition", producers, partitions);
+            m_field = field;
+        }
+
+        RepartitionChannels(DbIterator pipeline, int threads, int field, int partitions) {
+            super("repartition", pipeline, threads, partitions);
+            m_field = field;
+        }
+
+        boolean route(TupleBatch batch) {
+            int n = numChannels();
+            TupleBatch[] parts = new TupleBatch[n];
+            for (int i = 0; i < batch.size(); i++) {
+                Tuple t = batch.get(i);
+                int p = partitionOf(t.getField(m_field), n);
+                if (parts[p] == null)
+                    parts[p] = new TupleBatch();
+                parts[p].add(t);
+            }
+            boolean read = false;
+            for (int p = 0; p < n; p++) {
+                if (isClosed(p))
+                    continue;
+                if (parts[p] == null || put(p, parts[p]))
+                    read = true;
+            }
+            return read;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package simpledb;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -10,6 +11,23 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile may instead be clustered on an int field (its cluster key). It
+ * then keeps, in a key directory stored next to the file (in name.dat.keys),
+ * the lowest and highest key of each page, and tries to keep its pages in
+ * key order: the first pages of the file (its sorted pages) are such that
+ * the highest key of a page is at most the lowest key of the next one. A new
+ * tuple is inserted in the sorted page its key belongs to if that page has
+ * room, and appended after the last sorted page if its key is the highest.
+ * Otherwise it goes to the pages that follow the sorted ones, which are in
+ * no particular order; tables that are filled in key order therefore stay
+ * sorted. Key ranges are widened by inserts but never narrowed by deletes,
+ * so they remain valid bounds when a transaction aborts. The key directory
+ * is given the modification time of the file each time a page is written,
+ * and is rebuilt from the pages if the file was modified after it. A range
+ * of keys is read by binary-searching the sorted pages for the first and
+ * last pages that may hold it, and skipping the other pages whose key range
+ * does not intersect it (see {@link #iterator(TransactionId, Field, boolean, Field, boolean)}).
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
@@ -22,6 +40,16 @@ public class HeapFile implements DbFile {
 	private static final long serialVersionUID = 1L;
 	File m_file;
 	TupleDesc m_td;
+	/** The index of the cluster key, or -1 if the file is not clustered */
+	int m_clusterField = -1;
+	/** The lowest and highest cluster key of each page, when loaded */
+	private int[] m_minKeys, m_maxKeys;
+	/** The number of pages in the key directory, or -1 if it is not loaded */
+	private int m_dirPages = -1;
+	/** The number of leading pages that are in key order */
+	private int m_sortedPages;
+	/** True if the key directory changed since it was last saved */
+	private boolean m_dirDirty;
 
 	/**
 	 * Constructs a heap file backed by the specified file.
@@ -35,6 +63,40 @@ public class HeapFile implements DbFile {
 		m_td = td;
 	}
 
+	/**
+	 * Constructs a heap file backed by the specified file, clustered on an
+	 * int field.
+	 * 
+	 * @param f
+	 *            the file that stores the on-disk backing store for this heap
+	 *            file.
+	 * @param clusterField
+	 *            the index of the cluster key in td
+	 */
+	public HeapFile(File f, TupleDesc td, int clusterField) {
+		this(f, td);
+		if (td.getFieldType(clusterField) != Type.INT_TYPE)
+			throw new IllegalArgumentException("the cluster key must be an int field");
+		m_clusterField = clusterField;
+	}
+
+	/**
+	 * Returns the index of the cluster key, or -1 if the file is not
+	 * clustered.
+	 */
+	public int getClusterField() {
+		return m_clusterField;
+	}
+
+	/**
+	 * Returns the number of leading pages of a clustered file that are in
+	 * key order.
+	 */
+	public synchronized int numSortedPages() {
+		loadDirectory();
+		return m_sortedPages;
+	}
+
 	/**
 	 * Returns the File backing this HeapFile on disk.
 	 * 
@@ -98,6 +160,9 @@ public class HeapFile implements DbFile {
 
 	// see DbFile.java for javadocs
 	public void writePage(Page page) throws IOException {
+		// the key directory must always cover the pages on disk
+		if (m_clusterField >= 0)
+			saveDirectory();
 		RandomAccessFile file = null;
 		byte[] bytes = page.getPageData();
 		try {
@@ -105,6 +170,8 @@ public class HeapFile implements DbFile {
 			file.seek(page.getId().pageNumber()*BufferPool.PAGE_SIZE);
 			file.write(bytes);
 			file.close();
+			if (m_clusterField >= 0)
+				stampDirectory();
 		} catch (FileNotFoundException e) {
 			//do nothing
 			e.printStackTrace();
@@ -125,11 +192,16 @@ public class HeapFile implements DbFile {
 		if (t == null)
 			throw new DbException("Tuple is null!");
 		ArrayList<Page> pages = new ArrayList<Page>();
-		for (int i = 0; i < numPages(); i++) {
+		HeapPage sorted = m_clusterField >= 0 ? insertSorted(tid, t) : null;
+		if (sorted != null) {
+			pages.add(sorted);
+			return pages;
+		}
+		for (int i = firstUnsortedPage(); i < numPages(); i++) {
 			PageId pid = new HeapPageId(getId(), i);
 			HeapPage page = (HeapPage) bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
 			if (page.getNumEmptySlots() != 0) {
-				page.insertTuple(t);
+				insertIntoPage(page, t);
 				pages.add(page);
 				break;
 			}
@@ -148,12 +220,235 @@ public class HeapFile implements DbFile {
 				e.printStackTrace();
 			}
 			HeapPage page = (HeapPage) bufferpool.getPage(tid, pid, Permissions.READ_WRITE);
-			page.insertTuple(t);
+			insertIntoPage(page, t);
 			pages.add(page);			
 		}
 		return pages;
 	}
 
+	/**
+	 * Inserts a tuple into a page, recording its key if the file is
+	 * clustered.
+	 */
+	private void insertIntoPage(HeapPage page, Tuple t) throws DbException {
+		if (m_clusterField < 0) {
+			page.insertTuple(t);
+			return;
+		}
+		synchronized (this) {
+			page.insertTuple(t);
+			recordKey(page.getId().pageNumber(), key(t));
+		}
+	}
+
+	private int key(Tuple t) {
+		return ((IntField) t.getField(m_clusterField)).getValue();
+	}
+
+	/**
+	 * @return the first page an unsorted insert may go to: the page after
+	 *   the sorted ones in a clustered file, and the first page otherwise
+	 */
+	private synchronized int firstUnsortedPage() {
+		if (m_clusterField < 0)
+			return 0;
+		loadDirectory();
+		return m_sortedPages;
+	}
+
+	/**
+	 * Tries to insert a tuple into the sorted page its key belongs to,
+	 * keeping the sorted pages in key order.
+	 * 
+	 * @return the page the tuple was inserted into, or null if it could not
+	 *   be inserted into a sorted page
+	 */
+	private HeapPage insertSorted(TransactionId tid, Tuple t)
+			throws DbException, TransactionAbortedException {
+		int key = key(t);
+		int[] candidates;
+		synchronized (this) {
+			loadDirectory();
+			if (m_sortedPages == 0)
+				return null;
+			// the last sorted page whose lowest key is at most key, and the next one
+			int p = lastPageStartingAtOrBefore(key);
+			candidates = new int[] { p, p + 1 };
+		}
+		for (int pgNo : candidates) {
+			synchronized (this) {
+				if (pgNo >= m_sortedPages || !fits(pgNo, key))
+					continue;
+			}
+			HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+					new HeapPageId(getId(), pgNo), Permissions.READ_WRITE);
+			synchronized (this) {
+				// the directory may have changed while waiting for the page
+				if (page.getNumEmptySlots() != 0 && pgNo < m_sortedPages && fits(pgNo, key)) {
+					page.insertTuple(t);
+					recordKey(pgNo, key);
+					return page;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if adding key to the sorted page pgNo keeps the sorted
+	 *   pages in key order
+	 */
+	private boolean fits(int pgNo, int key) {
+		int lo = Math.min(m_minKeys[pgNo], key);
+		int hi = Math.max(m_maxKeys[pgNo], key);
+		return (pgNo == 0 || m_maxKeys[pgNo - 1] <= lo)
+				&& (pgNo + 1 >= m_sortedPages || hi <= m_minKeys[pgNo + 1]);
+	}
+
+	/**
+	 * @return the last sorted page whose lowest key is at most key, or 0
+	 */
+	private int lastPageStartingAtOrBefore(int key) {
+		int lo = 0, hi = m_sortedPages - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (m_minKeys[mid] <= key)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the first sorted page whose highest key is at least key, or
+	 *   the number of sorted pages if there is none
+	 */
+	private int firstPageEndingAtOrAfter(int key) {
+		int lo = 0, hi = m_sortedPages;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (m_maxKeys[mid] >= key)
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
+	}
+
+	/**
+	 * Widens the key range of a page to include key, adding the page to the
+	 * directory if it is new. The sorted pages end before the page if it is
+	 * no longer in order, and are extended if the following pages now are.
+	 */
+	private void recordKey(int pgNo, int key) {
+		while (m_dirPages <= pgNo) {
+			if (m_dirPages == m_minKeys.length) {
+				m_minKeys = Arrays.copyOf(m_minKeys, m_dirPages * 2);
+				m_maxKeys = Arrays.copyOf(m_maxKeys, m_dirPages * 2);
+			}
+			// a page without tuples gets an empty range at key
+			m_minKeys[m_dirPages] = key;
+			m_maxKeys[m_dirPages] = key;
+			m_dirPages++;
+		}
+		if (pgNo < m_sortedPages && !fits(pgNo, key))
+			m_sortedPages = pgNo;
+		m_minKeys[pgNo] = Math.min(m_minKeys[pgNo], key);
+		m_maxKeys[pgNo] = Math.max(m_maxKeys[pgNo], key);
+		while (m_sortedPages < m_dirPages && (m_sortedPages == 0
+				|| m_maxKeys[m_sortedPages - 1] <= m_minKeys[m_sortedPages]))
+			m_sortedPages++;
+		m_dirDirty = true;
+	}
+
+	private File directoryFile() {
+		return new File(m_file.getPath() + ".keys");
+	}
+
+	/**
+	 * Marks the key directory as describing the file as it is now, by
+	 * giving it the modification time of the file.
+	 */
+	private void stampDirectory() {
+		File f = directoryFile();
+		if (f.exists())
+			f.setLastModified(m_file.lastModified());
+	}
+
+	/**
+	 * Loads the key directory of a clustered file, rebuilding it from the
+	 * pages on disk if it is missing, does not cover every page, or is older
+	 * than the file.
+	 */
+	private synchronized void loadDirectory() {
+		if (m_dirPages >= 0)
+			return;
+		m_minKeys = new int[16];
+		m_maxKeys = new int[16];
+		m_dirPages = 0;
+		m_sortedPages = 0;
+		File f = directoryFile();
+		if (f.exists() && f.lastModified() >= m_file.lastModified()) {
+			try {
+				DataInputStream in = new DataInputStream(new BufferedInputStream(
+						new FileInputStream(f)));
+				int sorted = in.readInt();
+				int n = in.readInt();
+				if (n == numPages()) {
+					m_minKeys = new int[Math.max(16, n)];
+					m_maxKeys = new int[Math.max(16, n)];
+					for (int i = 0; i < n; i++) {
+						m_minKeys[i] = in.readInt();
+						m_maxKeys[i] = in.readInt();
+					}
+					m_dirPages = n;
+					m_sortedPages = sorted;
+					in.close();
+					return;
+				}
+				in.close();
+			} catch (IOException e) {
+				// rebuild it below
+			}
+		}
+		int prevMax = Integer.MIN_VALUE;
+		for (int i = 0; i < numPages(); i++) {
+			HeapPage page = (HeapPage) readPage(new HeapPageId(getId(), i));
+			Iterator<Tuple> it = page.iterator();
+			if (!it.hasNext())
+				recordKey(i, prevMax);
+			while (it.hasNext())
+				recordKey(i, key(it.next()));
+			prevMax = m_maxKeys[i];
+		}
+		m_dirDirty = true;
+		try {
+			saveDirectory();
+			stampDirectory();
+		} catch (IOException e) {
+			// it is saved again with the next page written
+		}
+	}
+
+	/**
+	 * Writes the key directory of a clustered file, if it changed.
+	 */
+	private synchronized void saveDirectory() throws IOException {
+		if (!m_dirDirty)
+			return;
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(directoryFile())));
+		out.writeInt(m_sortedPages);
+		out.writeInt(m_dirPages);
+		for (int i = 0; i < m_dirPages; i++) {
+			out.writeInt(m_minKeys[i]);
+			out.writeInt(m_maxKeys[i]);
+		}
+		out.close();
+		m_dirDirty = false;
+	}
+
 	// see DbFile.java for javadocs
 	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
 	TransactionAbortedException {
@@ -169,77 +464,324 @@ public class HeapFile implements DbFile {
 		return new HeapFileIterator(tid);
 	}
 
-	private class HeapFileIterator implements DbFileIterator {
+	/**
+	 * Returns an iterator over the tuples that satisfy every one of the
+	 * specified predicates. The predicates are evaluated on the bytes of
+	 * each page, and only the tuples that satisfy them are decoded (see
+	 * {@link PagePredicate}).
+	 * 
+	 * @param predicates the predicates, on the fields of the tuples of the file
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+		return iterator(tid, predicates, null);
+	}
+
+	/**
+	 * Returns an iterator over some of the fields of the tuples that satisfy
+	 * every one of the specified predicates, as
+	 * {@link #iterator(TransactionId, Predicate[])} does. Only those fields
+	 * are decoded from the pages, and the tuples returned have the
+	 * TupleDesc of the file projected on them (see
+	 * {@link TupleDesc#project(int[])}).
+	 * 
+	 * @param columns the indexes of the fields returned, in order, or null
+	 *   for all of them
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate[] predicates, int[] columns) {
+		HeapFileIterator it = new HeapFileIterator(tid);
+		it.setPredicates(predicates);
+		it.setColumns(columns);
+		return it;
+	}
+
+	/**
+	 * Returns an iterator over a share of the pages of the file, for one of
+	 * several threads that scan it together. The iterator reads morsels of
+	 * morselPages consecutive pages, taking the next one from a counter
+	 * shared by the iterators when it has read the previous one, so that
+	 * each page is read by one of them and a thread that is slowed down
+	 * reads fewer of them.
+	 * 
+	 * @param nextPage the number of the first page of the next morsel
+	 * @param morselPages the number of pages of a morsel
+	 * @param predicates the predicates the tuples returned satisfy, as for
+	 *   {@link #iterator(TransactionId, Predicate[])}
+	 * @param columns the fields of the tuples returned, as for
+	 *   {@link #iterator(TransactionId, Predicate[], int[])}
+	 */
+	HeapFileIterator iterator(TransactionId tid, AtomicInteger nextPage, int morselPages,
+			Predicate[] predicates, int[] columns) {
+		HeapFileIterator it = new HeapFileIterator(tid, nextPage, morselPages);
+		it.setPredicates(predicates);
+		it.setColumns(columns);
+		return it;
+	}
+
+	/**
+	 * Returns an iterator over the tuples whose cluster key is within a
+	 * range. Only the pages whose key range intersects the range are read:
+	 * the sorted pages between the first and last that may hold it, found
+	 * by binary search, and the matching unsorted pages. If the file is not
+	 * clustered, every page is read.
+	 * 
+	 * @param lo the lowest key returned, or null for no lower bound
+	 * @param loInclusive true if tuples whose key equals lo are returned
+	 * @param hi the highest key returned, or null for no upper bound
+	 * @param hiInclusive true if tuples whose key equals hi are returned
+	 */
+	public DbFileIterator iterator(TransactionId tid, Field lo, boolean loInclusive,
+			Field hi, boolean hiInclusive) {
+		return new RangeIterator(tid, lo, loInclusive, hi, hiInclusive);
+	}
+
+	/**
+	 * @return the pages that may hold a key in [lo, hi], in page order
+	 */
+	synchronized ArrayList<Integer> pagesInRange(int lo, int hi) {
+		ArrayList<Integer> pages = new ArrayList<Integer>();
+		int n = numPages();
+		if (m_clusterField < 0) {
+			for (int i = 0; i < n; i++)
+				pages.add(i);
+			return pages;
+		}
+		loadDirectory();
+		int last = Math.min(lastPageStartingAtOrBefore(hi), m_sortedPages - 1);
+		for (int i = firstPageEndingAtOrAfter(lo); i <= last; i++) {
+			if (m_minKeys[i] <= hi)
+				pages.add(i);
+		}
+		for (int i = m_sortedPages; i < n; i++) {
+			// pages not in the directory yet are read
+			if (i >= m_dirPages || (m_minKeys[i] <= hi && m_maxKeys[i] >= lo))
+				pages.add(i);
+		}
+		return pages;
+	}
+
+	private class RangeIterator implements DbFileIterator {
+		private static final long serialVersionUID = 1L;
+		private TransactionId m_tid;
+		private Field m_lo, m_hi;
+		private boolean m_loInclusive, m_hiInclusive;
+		private ArrayList<Integer> m_pages;
+		private int m_pageIndex;
+		private Iterator<Tuple> m_iterator;
+		private Tuple m_next;
+
+		public RangeIterator(TransactionId tid, Field lo, boolean loInclusive,
+				Field hi, boolean hiInclusive) {
+			m_tid = tid;
+			m_lo = lo;
+			m_loInclusive = loInclusive;
+			m_hi = hi;
+			m_hiInclusive = hiInclusive;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			int lo = m_lo == null ? Integer.MIN_VALUE : ((IntField) m_lo).getValue();
+			int hi = m_hi == null ? Integer.MAX_VALUE : ((IntField) m_hi).getValue();
+			m_pages = pagesInRange(lo, hi);
+			m_pageIndex = 0;
+			m_iterator = null;
+			m_next = null;
+		}
+
+		private boolean inRange(Tuple t) {
+			int field = m_clusterField;
+			if (field < 0)
+				return true;
+			Field key = t.getField(field);
+			if (m_lo != null && !key.compare(m_loInclusive ? Predicate.Op.GREATER_THAN_OR_EQ
+					: Predicate.Op.GREATER_THAN, m_lo))
+				return false;
+			return m_hi == null || key.compare(m_hiInclusive ? Predicate.Op.LESS_THAN_OR_EQ
+					: Predicate.Op.LESS_THAN, m_hi);
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if (m_pages == null)
+				return false;
+			while (m_next == null) {
+				while (m_iterator == null || !m_iterator.hasNext()) {
+					if (m_pageIndex >= m_pages.size())
+						return false;
+					HeapPageId pid = new HeapPageId(getId(), m_pages.get(m_pageIndex++));
+					HeapPage page = (HeapPage) Database.getBufferPool().getPage(m_tid,
+							pid, Permissions.READ_ONLY);
+					m_iterator = page.iterator();
+				}
+				Tuple t = m_iterator.next();
+				if (inRange(t))
+					m_next = t;
+			}
+			return true;
+		}
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+				NoSuchElementException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			Tuple t = m_next;
+			m_next = null;
+			return t;
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			m_pages = null;
+			m_iterator = null;
+			m_next = null;
+		}
+	}
+
+	/**
+	 * Iterates over the tuples of every page, by slot. Besides returning
+	 * tuples, it can decode them a column at a time into a ColumnarBatch
+	 * (see {@link #fill(ColumnarBatch)}).
+	 */
+	class HeapFileIterator implements DbFileIterator {
 		private TransactionId m_tid;
 		private int pageIndex;
-		private Iterator<Tuple> iterator;
+		/** The page after the last one of the current morsel */
+		private int m_endPage;
+		/** The first page of the next morsel, or null to read every page */
+		private AtomicInteger m_morsels;
+		private int m_morselPages;
+		/** The page being read, or null to read page pageIndex next */
+		private HeapPage page;
+		/** The next slot of page to read */
+		private int slot;
 		private boolean isOpen;
+		/** The predicates the tuples returned satisfy, or null */
+		private PagePredicate m_predicate;
+		/** The fields of the tuples returned, or null for all of them */
+		private int[] m_columns;
+		private TupleDesc m_columnsTd;
 
 		public HeapFileIterator(TransactionId tid) {
 			m_tid = tid;
 			pageIndex = 0;
 		}
 
+		public HeapFileIterator(TransactionId tid, AtomicInteger morsels, int morselPages) {
+			this(tid);
+			m_morsels = morsels;
+			m_morselPages = morselPages;
+		}
+
+		/**
+		 * Makes this iterator return only the tuples that satisfy every one
+		 * of the specified predicates.
+		 */
+		void setPredicates(Predicate[] predicates) {
+			setPredicates(predicates, new int[0], new RuntimeFilter[0]);
+		}
+
+		/**
+		 * Makes this iterator return only the tuples that satisfy every one
+		 * of the specified predicates, and whose keys pass the specified
+		 * runtime filters.
+		 * 
+		 * @param filterFields the field of the tuples each filter tests
+		 */
+		void setPredicates(Predicate[] predicates, int[] filterFields, RuntimeFilter[] filters) {
+			m_predicate = predicates.length + filters.length == 0 ? null
+					: new PagePredicate(m_td, predicates, filterFields, filters);
+		}
+
+		/**
+		 * Makes this iterator return only some of the fields of the tuples,
+		 * which are the only ones decoded from the pages. Pushed predicates
+		 * may still refer to the other fields.
+		 * 
+		 * @param columns the indexes of the fields to return, in order, or
+		 *   null for all of them
+		 */
+		void setColumns(int[] columns) {
+			m_columns = columns == null ? null : columns.clone();
+			m_columnsTd = columns == null ? null : m_td.project(columns);
+		}
+
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
 			isOpen = true;
+			pageIndex = 0;
+			m_endPage = m_morsels == null ? Integer.MAX_VALUE : 0;
+			page = null;
+		}
+
+		/**
+		 * Reads page pageIndex, if there is one.
+		 * 
+		 * @return false if there are no more pages
+		 */
+		private boolean readPage() throws DbException, TransactionAbortedException {
+			if (page != null)
+				return true;
+			if (pageIndex >= m_endPage) {
+				if (m_morsels == null)
+					return false;
+				pageIndex = m_morsels.getAndAdd(m_morselPages);
+				m_endPage = pageIndex + m_morselPages;
+			}
+			if (pageIndex >= numPages())
+				return false;
 			HeapPageId pid = new HeapPageId(getId(), pageIndex);
-			HeapPage page = 
-					(HeapPage) Database.getBufferPool().
-					getPage(m_tid, pid, Permissions.READ_ONLY);
-			iterator = page.iterator();
+			page = (HeapPage) Database.getBufferPool().getPage(m_tid, pid,
+					Permissions.READ_ONLY);
+			slot = 0;
+			return true;
 		}
 
 		@Override
 		public boolean hasNext() throws DbException,
 		TransactionAbortedException {
-			if (isOpen) {
-				
-				if (iterator == null) 
-					return false;
-				if (iterator.hasNext())
+			if (!isOpen)
+				return false;
+			while (readPage()) {
+				int next = page.nextUsedSlot(slot, m_predicate);
+				if (next >= 0) {
+					slot = next;
 					return true;
-				//pageIndex++;
-				while(pageIndex < numPages()-1) {
-					pageIndex++;
-					HeapPageId pid = new HeapPageId(getId(), pageIndex);
-					HeapPage page = 
-							(HeapPage) Database.getBufferPool().
-							getPage(m_tid, pid, Permissions.READ_ONLY);
-					iterator = page.iterator();
-					if (iterator.hasNext()) {
-						return true;
-					}
 				}
-				return false;
+				page = null;
+				pageIndex++;
 			}
-//							
-//				if (!iterator.hasNext()) {
-//					pageIndex++;
-//					if (pageIndex < numPages()) {
-//						HeapPageId pid = new HeapPageId(getId(), pageIndex);
-//						HeapPage page = 
-//								(HeapPage) Database.getBufferPool().
-//								getPage(m_tid, pid, Permissions.READ_ONLY);
-//						iterator = page.iterator();
-//						return iterator.hasNext();
-//					}
-//				}
-//				return iterator.hasNext();
-//			}
 			return false;
 		}
 
 		@Override
 		public Tuple next() throws DbException, TransactionAbortedException,
 									NoSuchElementException {
-			if (isOpen) {
-				if (hasNext()) {
-					return iterator.next();
+			if (!hasNext())
+				throw new NoSuchElementException();
+			if (m_predicate == null && m_columns == null)
+				return page.getTuple(slot++);
+			return page.readTuple(slot++, m_columns, m_columnsTd);
+		}
+
+		/**
+		 * Appends the following tuples to a batch until it is full or there
+		 * are no more tuples, decoding them from the bytes of their pages.
+		 */
+		public void fill(ColumnarBatch batch) throws DbException,
+		TransactionAbortedException {
+			if (!isOpen)
+				throw new IllegalStateException("iterator not yet open");
+			while (!batch.isFull() && readPage()) {
+				slot = page.appendTo(batch, slot, m_predicate, m_columns);
+				if (!batch.isFull()) {
+					page = null;
+					pageIndex++;
 				}
 			}
-			throw new NoSuchElementException();
 		}
+
 		@Override
 		public void rewind() throws DbException, TransactionAbortedException {
 			close();
@@ -250,7 +792,7 @@ public class HeapFile implements DbFile {
 		public void close() {
 			pageIndex = 0;
 			isOpen = false;
-			iterator = null;
+			page = null;
 		}    	
 	}
 
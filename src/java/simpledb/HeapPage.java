@@ -16,8 +16,13 @@ public class HeapPage implements Page {
     HeapPageId pid;
     private TupleDesc td;
     private byte header[];
-    private Tuple tuples[];
+    /** The tuples of this page, or null until they are parsed from data */
+    private volatile Tuple tuples[];
+    /** The bytes this page was read from, or null once it is modified */
+    private byte data[];
     private int numSlots;
+    /** The offset of each field within a tuple */
+    private int[] fieldOffsets;
     
     private TransactionId dirtyId = null;
 
@@ -38,36 +43,64 @@ public class HeapPage implements Page {
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#PAGE_SIZE
+     * <p>
+     * Only the header is read here. The tuples are parsed the first time
+     * they are needed, and scans that read the page a column at a time
+     * (see {@link #appendTo(ColumnarBatch, int)}) decode the bytes directly
+     * without creating them.
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data.clone();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        try{
+        System.arraycopy(data, 0, header, 0, header.length);
+
+        setBeforeImage();
+    }
+
+    /**
+     * @return the tuples of this page, parsing them if they are not yet
+     */
+    private synchronized Tuple[] tuples() {
+        if (tuples != null)
+            return tuples;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        Tuple[] parsed = new Tuple[numSlots];
+        try {
+            dis.skipBytes(header.length);
             // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
+            for (int i=0; i<parsed.length; i++)
+                parsed[i] = readNextTuple(dis,i);
+            dis.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch(NoSuchElementException e){
             e.printStackTrace();
         }
-        dis.close();
-
-        setBeforeImage();
+        tuples = parsed;
+        return tuples;
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {
-        return (int) Math.floor((BufferPool.PAGE_SIZE * 8.0) / (td.getSize()* 8.0 + 1));
+        return getNumTuples(td);
+    }
 
+    /** Retrieve the number of tuples on a page of a HeapFile whose tuples
+        have the specified TupleDesc.
+        @return the number of tuples on such a page
+    */
+    public static int getNumTuples(TupleDesc td) {
+        return (int) Math.floor((BufferPool.PAGE_SIZE * 8.0) / (td.getSize()* 8.0 + 1));
     }
 
     /**
@@ -95,7 +128,7 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-        oldData = getPageData().clone();
+        oldData = getPageData();
     }
 
     /**
@@ -151,6 +184,10 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        byte[] unmodified = data;
+        if (unmodified != null)
+            return unmodified.clone();
+        Tuple[] tuples = tuples();
         int len = BufferPool.PAGE_SIZE;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -238,8 +275,9 @@ public class HeapPage implements Page {
     	int tupleno = t.getRecordId().tupleno();
     	if (!isSlotUsed(tupleno))
     		throw new DbException("Tuple slot is already empty");
+    	tuples()[tupleno] = null;
+    	data = null;
     	markSlotUsed(tupleno, false);
-    	tuples[tupleno] = null;
     	t.setRecordId(null);
     	
     }
@@ -258,7 +296,8 @@ public class HeapPage implements Page {
     		throw new DbException("TupleDesc is mismatched");
     	for (int i = 0; i < getNumTuples(); i++) {
     		if (!isSlotUsed(i)) {
-    			tuples[i] = t;
+    			tuples()[i] = t;
+    			data = null;
     			markSlotUsed(i, true);
     			t.setRecordId(new RecordId(getId(), i));
     			break;
@@ -289,13 +328,9 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
     	int num = 0;
-    	for (int i = 0; i < header.length; i++) {
-    		for (int j = 0; j < 8; j++) {
-    			int bit = (int)header[i] >> j;
-    			bit = bit & 1;
-    			if (bit == 0)
-        			num++;
-    		}
+    	for (int i = 0; i < numSlots; i++) {
+    		if (!isSlotUsed(i))
+    			num++;
     	}
         return num;
     }
@@ -309,6 +344,168 @@ public class HeapPage implements Page {
     	return bit == 1;
     }
 
+    /**
+     * Returns the tuple in the specified slot of this page, or null if the
+     * slot is empty.
+     */
+    public Tuple getTuple(int i) {
+    	if (i < 0 || i >= numSlots || !isSlotUsed(i))
+    		return null;
+    	return tuples()[i];
+    }
+
+    /**
+     * Returns the first used slot of this page at or after the specified
+     * slot, or -1 if there is none.
+     */
+    public int nextUsedSlot(int i) {
+    	for (; i < numSlots; i++) {
+    		if (isSlotUsed(i))
+    			return i;
+    	}
+    	return -1;
+    }
+
+    /**
+     * Returns the first used slot of this page at or after the specified
+     * slot whose tuple satisfies a predicate, or -1 if there is none. The
+     * predicate is evaluated on the bytes of the page, unless the page was
+     * modified since it was read.
+     *
+     * @param predicate the predicate, or null to return any used slot
+     */
+    public int nextUsedSlot(int i, PagePredicate predicate) {
+    	if (predicate == null)
+    		return nextUsedSlot(i);
+    	byte[] d = data;
+    	Tuple[] tuples = d == null ? tuples() : null;
+    	int size = td.getSize();
+    	for (; i < numSlots; i++) {
+    		if (isSlotUsed(i) && (d != null ? predicate.matches(d, header.length + i * size)
+    				: predicate.matches(tuples[i])))
+    			return i;
+    	}
+    	return -1;
+    }
+
+    /**
+     * Returns the tuple in the specified used slot of this page. Unlike
+     * getTuple(), only that tuple is decoded from the bytes of the page if
+     * its tuples were not parsed yet, for scans that skip most of them.
+     */
+    public Tuple readTuple(int i) {
+    	return readTuple(i, null, null);
+    }
+
+    /**
+     * Returns some of the fields of the tuple in the specified used slot of
+     * this page, as {@link #readTuple(int)} does. Only those fields are
+     * decoded from the bytes of the page if its tuples were not parsed yet.
+     *
+     * @param columns the indexes of the fields to return, or null for all of them
+     * @param ptd the TupleDesc of the tuple returned, as returned by
+     *   {@link TupleDesc#project(int[])}
+     */
+    public Tuple readTuple(int i, int[] columns, TupleDesc ptd) {
+    	byte[] d = data;
+    	if (d == null || tuples != null) {
+    		Tuple t = getTuple(i);
+    		return columns == null ? t : t.project(columns, ptd);
+    	}
+    	int size = td.getSize();
+    	if (columns == null)
+    		return readNextTuple(new DataInputStream(new ByteArrayInputStream(d,
+    				header.length + i * size, size)), i);
+    	int base = header.length + i * size;
+    	Tuple t = new Tuple(ptd);
+    	for (int j = 0; j < columns.length; j++) {
+    		int off = base + fieldOffsets[columns[j]];
+    		int v = (d[off] << 24) | ((d[off + 1] & 0xff) << 16)
+    				| ((d[off + 2] & 0xff) << 8) | (d[off + 3] & 0xff);
+    		if (td.getFieldType(columns[j]) == Type.INT_TYPE)
+    			t.setField(j, new IntField(v));
+    		else
+    			t.setField(j, new StringField(new String(d, off + 4, v), Type.STRING_LEN));
+    	}
+    	t.setRecordId(new RecordId(pid, i));
+    	return t;
+    }
+
+    /**
+     * Appends the tuples in the used slots of this page, starting at the
+     * specified slot, to a batch until it is full. The fields are decoded
+     * from the bytes of the page straight into the vectors of the batch,
+     * unless the page was modified since it was read.
+     *
+     * @param batch a batch with the TupleDesc of this page
+     * @param slot the first slot to read
+     * @return the slot to read next, or the number of slots on this page if
+     *   every tuple was appended
+     */
+    public int appendTo(ColumnarBatch batch, int slot) {
+    	return appendTo(batch, slot, null);
+    }
+
+    /**
+     * Appends the tuples in the used slots of this page that satisfy a
+     * predicate, as {@link #appendTo(ColumnarBatch, int)} does. Only the
+     * rows that satisfy it are decoded.
+     *
+     * @param predicate the predicate, or null to append every tuple
+     */
+    public int appendTo(ColumnarBatch batch, int slot, PagePredicate predicate) {
+    	return appendTo(batch, slot, predicate, null);
+    }
+
+    /**
+     * Appends some of the fields of the tuples in the used slots of this
+     * page that satisfy a predicate, as
+     * {@link #appendTo(ColumnarBatch, int, PagePredicate)} does. Only those
+     * fields are decoded.
+     *
+     * @param batch a batch whose TupleDesc is that of this page projected
+     *   on columns
+     * @param columns the indexes of the fields to append, or null for all
+     *   of them
+     */
+    public int appendTo(ColumnarBatch batch, int slot, PagePredicate predicate, int[] columns) {
+    	byte[] d = data;
+    	if (d == null) {
+    		Tuple[] tuples = tuples();
+    		for (; slot < numSlots && !batch.isFull(); slot++) {
+    			if (isSlotUsed(slot) && (predicate == null || predicate.matches(tuples[slot])))
+    				batch.add(columns == null ? tuples[slot]
+    						: tuples[slot].project(columns, batch.getTupleDesc()));
+    		}
+    		return slot;
+    	}
+    	int n = columns == null ? fieldOffsets.length : columns.length;
+    	int[] offsets = new int[n];
+    	boolean[] isInt = new boolean[n];
+    	for (int j = 0; j < n; j++) {
+    		int field = columns == null ? j : columns[j];
+    		offsets[j] = fieldOffsets[field];
+    		isInt[j] = td.getFieldType(field) == Type.INT_TYPE;
+    	}
+    	int size = td.getSize();
+    	for (; slot < numSlots && !batch.isFull(); slot++) {
+    		int base = header.length + slot * size;
+    		if (!isSlotUsed(slot) || (predicate != null && !predicate.matches(d, base)))
+    			continue;
+    		int row = batch.addRow(pid, slot);
+    		for (int j = 0; j < n; j++) {
+    			int off = base + offsets[j];
+    			int v = (d[off] << 24) | ((d[off + 1] & 0xff) << 16)
+    					| ((d[off + 2] & 0xff) << 8) | (d[off + 3] & 0xff);
+    			if (isInt[j])
+    				batch.setInt(j, row, v);
+    			else
+    				batch.setString(j, row, d, off + 4, v);
+    		}
+    	}
+    	return slot;
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
@@ -325,6 +522,7 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
+    	Tuple[] tuples = tuples();
     	ArrayList<Tuple> tupleArray = new ArrayList<Tuple>();
     	for (int i = 0; i < tuples.length; i++) {
     		if (isSlotUsed(i))
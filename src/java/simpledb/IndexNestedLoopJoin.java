@@ -0,0 +1,196 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator implements an equality join whose inner
+ * relation is a base table with a hash index on its join field. Instead of
+ * rescanning the inner relation for every outer tuple, as Join does, it
+ * probes the index once per outer tuple and reads only the matching inner
+ * tuples.
+ * <p>
+ * The inner child must be a SeqScan of the indexed table, possibly under a
+ * chain of Filters; the predicates pushed into the scan and those of the
+ * filters are applied to the tuples returned by the index, which are
+ * narrowed to the columns of the scan. The inner child itself is never
+ * opened.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate m_predicate;
+    private CompiledJoinPredicate m_compiled;
+    private DbIterator m_child1;
+    private DbIterator m_child2;
+    private TupleDesc m_td;
+    private HashIndexFile m_index;
+    private SeqScan m_scan;
+    private ArrayList<Predicate> m_innerFilters;
+    /** The predicates pushed into the scan, on the fields of the table */
+    private PagePredicate m_scanPredicate;
+    /** The fields of the table the scan returns, or null for all of them */
+    private int[] m_columns;
+    private TupleDesc m_columnsTd;
+    private Tuple outer;
+    private DbFileIterator m_matches;
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on and the index to probe.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            SeqScan of the right(inner) relation, possibly filtered
+     * @param index
+     *            A hash index on the join field of the inner relation
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1,
+            DbIterator child2, HashIndexFile index) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("index nested loop join requires an equality predicate");
+        m_predicate = p;
+        m_child1 = child1;
+        m_index = index;
+        setInner(child2);
+    }
+
+    private void setInner(DbIterator child2) {
+        m_child2 = child2;
+        m_td = TupleDesc.merge(m_child1.getTupleDesc(), child2.getTupleDesc());
+        m_innerFilters = new ArrayList<Predicate>();
+        m_scan = getBaseScan(child2, m_innerFilters);
+        if (m_scan == null)
+            throw new IllegalArgumentException("inner child must be a scan of the indexed table");
+        m_compiled = CompiledJoinPredicate.compile(m_predicate, m_child1.getTupleDesc(),
+                child2.getTupleDesc());
+        TupleDesc td = Database.getCatalog().getTupleDesc(m_scan.getTableId());
+        m_scanPredicate = new PagePredicate(td, m_scan.getPredicates());
+        m_columns = m_scan.getColumns();
+        m_columnsTd = m_columns == null ? null : td.project(m_columns);
+    }
+
+    /**
+     * Returns the SeqScan under a chain of Filters, collecting the filter
+     * predicates, or null if plan is anything else.
+     */
+    static SeqScan getBaseScan(DbIterator plan, List<Predicate> filters) {
+        while (plan instanceof Filter) {
+            if (filters != null)
+                filters.add(((Filter) plan).getPredicate());
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        if (plan != null && plan.getClass() == SeqScan.class)
+            return (SeqScan) plan;
+        return null;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return m_predicate;
+    }
+
+    /** @return the index probed for each outer tuple */
+    public HashIndexFile getIndex() {
+        return m_index;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return m_child1.getTupleDesc().getFieldName(m_predicate.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return m_child2.getTupleDesc().getFieldName(m_predicate.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        m_child1.open();
+    }
+
+    public void close() {
+        super.close();
+        m_child1.close();
+        if (m_matches != null)
+            m_matches.close();
+        m_matches = null;
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child1.rewind();
+        if (m_matches != null)
+            m_matches.close();
+        m_matches = null;
+        outer = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Tuples are the concatenation of the outer tuple and a
+     * matching inner tuple, as in Join.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            while (m_matches != null && m_matches.hasNext()) {
+                Tuple inner = m_matches.next();
+                if (!m_scanPredicate.matches(inner))
+                    continue;
+                if (m_columns != null)
+                    inner = inner.project(m_columns, m_columnsTd);
+                if (passesInnerFilters(inner) && m_compiled.filter(outer, inner))
+                    return merge(outer, inner);
+            }
+            if (m_matches != null)
+                m_matches.close();
+            if (!m_child1.hasNext()) {
+                m_matches = null;
+                return null;
+            }
+            outer = m_child1.next();
+            m_matches = m_index.lookup(m_scan.m_tid, outer.getField(m_predicate.getField1()));
+            m_matches.open();
+        }
+    }
+
+    private boolean passesInnerFilters(Tuple t) {
+        for (Predicate p : m_innerFilters) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        return new JoinedTuple(m_td, t1, t2);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] {m_child1, m_child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_child1 = children[0];
+        setInner(children[1]);
+    }
+
+}
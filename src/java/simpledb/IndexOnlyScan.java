@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an access method that answers a scan of a table from an
+ * IsamFile alone, without reading the table itself. It returns tuples made
+ * of the fields the index covers (its key and included fields), in the
+ * order they appear in the table, restricted to keys within a range.
+ * Returned tuples carry the RecordId of the base tuple they were built from.
+ */
+public class IndexOnlyScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    IsamFile m_index;
+    Field m_lo, m_hi;
+    boolean m_loInclusive, m_hiInclusive;
+    /** For each output field, its position in the index entries. */
+    int[] m_entryFields;
+    TupleDesc m_td;
+
+    /**
+     * Creates an index-only scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param index
+     *            an ISAM index on the table
+     * @param lo
+     *            the lowest key returned, or null for no lower bound
+     * @param loInclusive
+     *            true if tuples whose key equals lo are returned
+     * @param hi
+     *            the highest key returned, or null for no upper bound
+     * @param hiInclusive
+     *            true if tuples whose key equals hi are returned
+     */
+    public IndexOnlyScan(TransactionId tid, int tableid, String tableAlias,
+            IsamFile index, Field lo, boolean loInclusive, Field hi, boolean hiInclusive) {
+        super(tid, tableid, tableAlias);
+        m_index = index;
+        m_lo = lo;
+        m_loInclusive = loInclusive;
+        m_hi = hi;
+        m_hiInclusive = hiInclusive;
+
+        int[] covered = index.getCoveredFields();
+        Integer[] order = new Integer[covered.length];
+        for (int i = 0; i < covered.length; i++)
+            order[i] = i;
+        final int[] c = covered;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return c[a] - c[b];
+            }
+        });
+        TupleDesc entryTd = index.getTupleDesc();
+        m_entryFields = new int[covered.length];
+        Type[] types = new Type[covered.length];
+        String[] names = new String[covered.length];
+        for (int i = 0; i < covered.length; i++) {
+            m_entryFields[i] = order[i];
+            types[i] = entryTd.getFieldType(order[i]);
+            names[i] = entryTd.getFieldName(order[i]);
+        }
+        m_td = new TupleDesc(types, names);
+    }
+
+    /** @return the index this scan reads */
+    public IsamFile getIndex() {
+        return m_index;
+    }
+
+    /**
+     * Returns the TupleDesc of the covered fields, prefixed with the table
+     * alias as in SeqScan.
+     */
+    public TupleDesc getTupleDesc() {
+        Type[] types = new Type[m_td.numFields()];
+        String[] names = new String[m_td.numFields()];
+        for (int i = 0; i < m_td.numFields(); i++) {
+            types[i] = m_td.getFieldType(i);
+            names[i] = m_tableAlias + "." + m_td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_iterator = new CoveringIterator(m_index.rangeIterator(m_tid, m_lo,
+                m_loInclusive, m_hi, m_hiInclusive));
+        m_iterator.open();
+    }
+
+    /**
+     * Returns the next batch of tuples of the covered fields, which are
+     * narrower than the rows of the table that SeqScan batches.
+     */
+    public ColumnarBatch nextColumnarBatch() throws TransactionAbortedException, DbException {
+        if (m_iterator == null)
+            throw new IllegalStateException("IndexOnlyScan not yet open");
+        ColumnarBatch batch = new ColumnarBatch(m_td);
+        while (!batch.isFull() && m_iterator.hasNext())
+            batch.add(m_iterator.next());
+        return batch.size() == 0 ? null : batch;
+    }
+
+    /**
+     * Converts index entries into tuples of the covered fields.
+     */
+    private class CoveringIterator implements DbFileIterator {
+        private static final long serialVersionUID = 1L;
+        private DbFileIterator m_entries;
+
+        public CoveringIterator(DbFileIterator entries) {
+            m_entries = entries;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            m_entries.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return m_entries.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            Tuple entry = m_entries.next();
+            Tuple t = new Tuple(m_td);
+            for (int i = 0; i < m_entryFields.length; i++)
+                t.setField(i, entry.getField(m_entryFields[i]));
+            int n = entry.getTupleDesc().numFields();
+            t.setRecordId(new RecordId(new HeapPageId(m_tableId,
+                    ((IntField) entry.getField(n - 2)).getValue()),
+                    ((IntField) entry.getField(n - 1)).getValue()));
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            m_entries.rewind();
+        }
+
+        public void close() {
+            m_entries.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb;
+
+/**
+ * IndexScan is an access method that returns the tuples of a table whose
+ * indexed field equals a given key, by probing a HashIndexFile instead of
+ * reading every page of the table. It returns the same tuples, with the same
+ * TupleDesc, as a SeqScan of the table followed by an equality Filter.
+ */
+public class IndexScan extends SeqScan {
+
+    private static final long serialVersionUID = 1L;
+    HashIndexFile m_index;
+    Field m_key;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table (needed by the parser)
+     * @param index
+     *            a hash index on one field of the table
+     * @param key
+     *            the value the indexed field of returned tuples equals
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias,
+            HashIndexFile index, Field key) {
+        super(tid, tableid, tableAlias);
+        m_index = index;
+        m_key = key;
+    }
+
+    /** @return the index probed by this scan */
+    public HashIndexFile getIndex() {
+        return m_index;
+    }
+
+    /** @return the key looked up in the index */
+    public Field getKey() {
+        return m_key;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        m_iterator = m_index.lookup(m_tid, m_key);
+        m_iterator.open();
+    }
+}
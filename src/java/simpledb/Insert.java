@@ -78,7 +78,8 @@ public class Insert extends Operator {
     	int numTuples = 0;
     	while (m_child.hasNext()) {
 			try {
-				Database.getBufferPool().insertTuple(m_tid, m_tableid, m_child.next());
+				// a page keeps the tuple, so not a view of the child's tuples
+				Database.getBufferPool().insertTuple(m_tid, m_tableid, m_child.next().materialize());
 				numTuples++;
 			} catch (NoSuchElementException e) {
 				//do nothing
@@ -1,12 +1,17 @@
 package simpledb;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import simpledb.Aggregator.Op;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * The state of the groups is an AggregateHashTable, which keeps the count,
+ * sum, lowest and highest value of each group in primitive arrays, so that
+ * merging a row into an existing group allocates nothing. The aggregate
+ * itself, such as the average of a group, is computed from them by
+ * iterator().
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -16,11 +21,12 @@ public class IntegerAggregator implements Aggregator {
 	private Type m_gbfieldtype;
 	private int m_afield;
 	private Op m_what;
-	private HashMap<Field, Field> aggregateHash;
-	private HashMap<Field, Integer> avgCounts;
-	private HashMap<Field, Integer> avgSums;
+	private AggregateHashTable m_groups;
+	/** m_groups, if its keys are ints */
+	private AggregateHashTable.IntKeys m_intGroups;
+	/** m_groups, if its keys are strings */
+	private AggregateHashTable.StringKeys m_stringGroups;
 
-	private Field groupby;
 	private TupleDesc td;
 
 	/**
@@ -43,9 +49,11 @@ public class IntegerAggregator implements Aggregator {
 		m_gbfieldtype = gbfieldtype;
 		m_afield = afield;
 		m_what = what;
-		aggregateHash = new HashMap<Field, Field>();
-		avgCounts = new HashMap<Field, Integer>();
-		avgSums = new HashMap<Field, Integer>();
+		m_groups = AggregateHashTable.create(gbfield == Aggregator.NO_GROUPING ? null : gbfieldtype);
+		if (m_groups instanceof AggregateHashTable.IntKeys)
+			m_intGroups = (AggregateHashTable.IntKeys) m_groups;
+		else if (m_groups instanceof AggregateHashTable.StringKeys)
+			m_stringGroups = (AggregateHashTable.StringKeys) m_groups;
 	}
 
 	/**
@@ -56,91 +64,106 @@ public class IntegerAggregator implements Aggregator {
 	 *            the Tuple containing an aggregate field and a group-by field
 	 */
 	public void mergeTupleIntoGroup(Tuple tup) {
-		Integer value = 0;
-		IntField afield = (IntField) tup.getField(m_afield);
-		if (m_gbfield == Aggregator.NO_GROUPING)
-			groupby = new IntField(Aggregator.NO_GROUPING);
+		if (td == null)
+			td = makeTD(tup.getTupleDesc());
+		int value = ((IntField) tup.getField(m_afield)).getValue();
+		int g;
+		if (m_intGroups != null)
+			g = m_intGroups.group(((IntField) tup.getField(m_gbfield)).getValue());
+		else if (m_gbfield == Aggregator.NO_GROUPING)
+			g = m_groups.group(null);
+		else
+			g = m_groups.group(tup.getField(m_gbfield));
+		m_groups.add(g, value);
+	}
+
+	public boolean mergeIntoExistingGroup(Tuple tup) {
+		int g;
+		if (m_intGroups != null)
+			g = m_intGroups.find(((IntField) tup.getField(m_gbfield)).getValue());
 		else
-			groupby = tup.getField(m_gbfield);
-		
+			g = m_groups.find(m_gbfield == Aggregator.NO_GROUPING ? null : tup.getField(m_gbfield));
+		if (g < 0)
+			return false;
+		m_groups.add(g, ((IntField) tup.getField(m_afield)).getValue());
+		return true;
+	}
+
+	public int numGroups() {
+		return m_groups.size();
+	}
+
+	/**
+	 * Merges the selected rows of a batch into the aggregate. Without
+	 * grouping, the rows are aggregated by loops over the int vector of the
+	 * aggregate field, and then merged at once.
+	 * 
+	 * @param batch
+	 *            a batch of rows containing an aggregate field and a
+	 *            group-by field
+	 */
+	public void mergeBatch(ColumnarBatch batch) {
+		if (td == null)
+			td = makeTD(batch.getTupleDesc());
+		if (batch.size() == 0)
+			return;
+		if (m_gbfield == Aggregator.NO_GROUPING) {
+			// only compute the accumulators the aggregate reads
+			int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+			if (m_what == Op.MIN)
+				min = batch.min(m_afield);
+			else if (m_what == Op.MAX)
+				max = batch.max(m_afield);
+			long sum = m_what == Op.SUM || m_what == Op.AVG ? batch.sum(m_afield) : 0;
+			m_groups.add(m_groups.group(null), batch.size(), sum, min, max);
+			return;
+		}
+		for (int i = 0; i < batch.size(); i++) {
+			int g;
+			if (m_intGroups != null)
+				g = m_intGroups.group(batch.getInt(m_gbfield, i));
+			else
+				g = m_stringGroups.group(batch.getString(m_gbfield, i));
+			m_groups.add(g, batch.getInt(m_afield, i));
+		}
+	}
+
+	/**
+	 * @return the groups of the aggregate, which ParallelAggregate merges
+	 */
+	AggregateHashTable groups() {
+		return m_groups;
+	}
+
+	/**
+	 * Merges groups of another aggregator with the same grouping into this
+	 * one.
+	 * 
+	 * @param groups
+	 *            the numbers of the groups of from to merge
+	 */
+	void mergeGroups(IntegerAggregator from, int[] groups) {
+		if (td == null)
+			td = from.td;
+		m_groups.merge(from.m_groups, groups);
+	}
+
+	/**
+	 * @return the aggregate of a group, computed from its accumulators
+	 */
+	private int aggregate(int g) {
 		switch (m_what) {
-		case AVG:
-			if (avgCounts.get(groupby) == null) {
-				avgCounts.put(groupby, 1);
-				avgSums.put(groupby, afield.getValue());
-				value = afield.getValue();
-			}
-			else {
-				int count = avgCounts.get(groupby) + 1;
-				avgCounts.put(groupby, count);
-				avgSums.put(groupby,  avgSums.get(groupby) + afield.getValue());
-				value = avgSums.get(groupby)/count;
-			}
-			break;
 		case MIN:
-			if (aggregateHash.get(groupby) == null)
-				value = afield.getValue();
-			else
-				value = Math.min(afield.getValue(), 
-						((IntField)aggregateHash.get(groupby)).getValue());
-			break;
+			return (int) m_groups.min(g);
 		case MAX:
-			if (aggregateHash.get(groupby) == null) 
-				value = afield.getValue();
-			else
-				value = Math.max(afield.getValue(), 
-						((IntField)aggregateHash.get(groupby)).getValue());
-			break;
+			return (int) m_groups.max(g);
 		case SUM:
-			if (aggregateHash.get(groupby) != null) 
-				value = ((IntField)aggregateHash.get(groupby)).getValue();
-			value = value + afield.getValue();
-			break;
-		case COUNT:
-			if (aggregateHash.get(groupby) == null)
-				value = 1;
-			else
-				value = ((IntField)aggregateHash.get(groupby)).getValue() + 1;
-			break;
+			return (int) m_groups.sum(g);
+		case AVG:
+			return (int) (m_groups.sum(g) / m_groups.count(g));
+		default:
+			return (int) m_groups.count(g);
 		}
-		
-//		if (m_what.equals(Op.AVG)) {
-//			if (avgCounts.get(groupby) == null) {
-//				avgCounts.put(groupby, 1);
-//				avgSums.put(groupby, afield.getValue());
-//				value = afield.getValue();
-//			}
-//			else {
-//				int count = avgCounts.get(groupby) + 1;
-//				avgCounts.put(groupby, count);
-//				avgSums.put(groupby,  avgSums.get(groupby) + afield.getValue());
-//				value = avgSums.get(groupby)/count;
-//			}
-//		} else if (m_what.equals(Op.MAX)) {
-//			if (aggregateHash.get(groupby) == null) 
-//				value = afield.getValue();
-//			else
-//				value = Math.max(((IntField)aggregateHash.get(groupby)).getValue(), afield.getValue());
-//		} else if (m_what.equals(Op.MIN)) {
-//			if (aggregateHash.get(groupby) == null)
-//				value = afield.getValue();
-//			else
-//				value = Math.min(afield.getValue(), 
-//						((IntField)aggregateHash.get(groupby)).getValue());
-//		} else if (m_what.equals(Op.SUM)) {
-//			if (aggregateHash.get(groupby) != null) 
-//				value = ((IntField)aggregateHash.get(groupby)).getValue();
-//			value = value + afield.getValue();
-//		} else { //m_what.equals(Op.COUNT)
-//			if (aggregateHash.get(groupby) == null)
-//				value = 1;
-//			else
-//				value = ((IntField)aggregateHash.get(groupby)).getValue() + 1;
-//		}
-		Field aValue = new IntField(value);
-		aggregateHash.put(groupby, aValue); 
-		if (td == null)
-			td = makeTD(tup);
 	}
 
 	/**
@@ -152,34 +175,41 @@ public class IntegerAggregator implements Aggregator {
 	 *         the constructor.
 	 */
 	public DbIterator iterator() {
+		return new TupleIterator(td, results());
+	}
+
+	/**
+	 * @return the tuples returned by iterator()
+	 */
+	ArrayList<Tuple> results() {
 		ArrayList<Tuple> arr = new ArrayList<Tuple>();
 		Tuple tup;
-		for (Field gb: aggregateHash.keySet()) {
+		for (int g = 0; g < m_groups.size(); g++) {
 			tup = new Tuple(td);
 			if (m_gbfield == Aggregator.NO_GROUPING)
-				tup.setField(0, aggregateHash.get(gb));
+				tup.setField(0, new IntField(aggregate(g)));
 			else {
-				tup.setField(0, gb);
-				tup.setField(1, aggregateHash.get(gb));
+				tup.setField(0, m_groups.key(g));
+				tup.setField(1, new IntField(aggregate(g)));
 			}
 			arr.add(tup);
 		}
-		return new TupleIterator(td, arr);
+		return arr;
 	}
 
-	private TupleDesc makeTD(Tuple tup) {
+	private TupleDesc makeTD(TupleDesc input) {
 		Type[] types;
 		String[] fields;
 		String aggregateFieldName;
 		String groupbyFieldName;
-		aggregateFieldName = tup.getTupleDesc().getFieldName(m_afield);
+		aggregateFieldName = input.getFieldName(m_afield);
 		if (m_gbfield == Aggregator.NO_GROUPING) {
 			types = new Type[] {Type.INT_TYPE};
 			fields = new String[] {aggregateFieldName};
 		}
 		else {
-			groupbyFieldName = tup.getTupleDesc().getFieldName(m_gbfield);
-			types = new Type[] {tup.getTupleDesc().getFieldType(m_gbfield),Type.INT_TYPE};
+			groupbyFieldName = input.getFieldName(m_gbfield);
+			types = new Type[] {input.getFieldType(m_gbfield),Type.INT_TYPE};
 			fields = new String[] {groupbyFieldName, aggregateFieldName};
 		}
 		return new TupleDesc(types, fields);
@@ -0,0 +1,478 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * IsamFile is an on-disk sorted (ISAM) secondary index over one field of a
+ * base table. Besides the key and the RecordId of each base tuple, its
+ * entries may store copies of other ("included") fields of the table, so
+ * that queries touching only those fields can be answered from the index
+ * alone (see {@link IndexOnlyScan}).
+ * <p>
+ * The index is a static tree built by {@link #build}: leaves hold entries
+ * sorted on the key and are chained in key order, and internal pages hold
+ * the lowest key of each child. The internal levels never change after the
+ * build. A tuple inserted later goes into the sorted part of the leaf that
+ * covers its key if there is room, and into the leaf's chain of unsorted
+ * overflow pages otherwise; rebuilding the index restores a fully sorted
+ * layout.
+ * <p>
+ * The tuples of the DbFile interface are always tuples of the base table:
+ * insertTuple and deleteTuple add or remove the entry for the given tuple.
+ *
+ * @see IsamPage
+ */
+public class IsamFile implements DbFile {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Fraction of each leaf filled by build(), leaving room for inserts. */
+	private static final double BUILD_FILL_FACTOR = 0.8;
+
+	File m_file;
+	int m_tableId;
+	int m_keyField;
+	int[] m_includedFields;
+	TupleDesc m_td;
+
+	/**
+	 * Constructs an ISAM index backed by the specified file. If the file is
+	 * empty, an empty index is written to it.
+	 *
+	 * @param f the file that stores the on-disk backing store for this index
+	 * @param tableid the id of the indexed table
+	 * @param keyField the index of the key field in the table's tuples
+	 * @param includedFields the indexes of the fields of the table's tuples
+	 *   stored in the index entries in addition to the key
+	 */
+	public IsamFile(File f, int tableid, int keyField, int[] includedFields) {
+		m_file = f;
+		m_tableId = tableid;
+		m_keyField = keyField;
+		m_includedFields = includedFields.clone();
+		TupleDesc baseTd = Database.getCatalog().getTupleDesc(tableid);
+		int n = includedFields.length + 3;
+		Type[] types = new Type[n];
+		String[] names = new String[n];
+		types[0] = baseTd.getFieldType(keyField);
+		names[0] = baseTd.getFieldName(keyField);
+		for (int i = 0; i < includedFields.length; i++) {
+			types[i + 1] = baseTd.getFieldType(includedFields[i]);
+			names[i + 1] = baseTd.getFieldName(includedFields[i]);
+		}
+		types[n - 2] = Type.INT_TYPE;
+		names[n - 2] = "page";
+		types[n - 1] = Type.INT_TYPE;
+		names[n - 1] = "slot";
+		m_td = new TupleDesc(types, names);
+		if (m_file.length() == 0) {
+			try {
+				writeEmptyIndex();
+			} catch (IOException e) {
+				throw new RuntimeException("couldn't create ISAM index " + f, e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the File backing this index on disk.
+	 */
+	public File getFile() {
+		return m_file;
+	}
+
+	/**
+	 * Returns an ID uniquely identifying this index, computed the same way
+	 * as HeapFile ids.
+	 */
+	public int getId() {
+		return m_file.getAbsoluteFile().hashCode();
+	}
+
+	/** @return the id of the indexed table */
+	public int getTableId() {
+		return m_tableId;
+	}
+
+	/** @return the index of the key field in the base table's tuples */
+	public int getKeyField() {
+		return m_keyField;
+	}
+
+	/**
+	 * @return the indexes in the base table's tuples of the fields stored in
+	 *   each entry, the key first
+	 */
+	public int[] getCoveredFields() {
+		int[] fields = new int[m_includedFields.length + 1];
+		fields[0] = m_keyField;
+		System.arraycopy(m_includedFields, 0, fields, 1, m_includedFields.length);
+		return fields;
+	}
+
+	/**
+	 * Returns the TupleDesc of the entries of this index: the key, the
+	 * included fields, and the page number and slot of the base tuple.
+	 */
+	public TupleDesc getTupleDesc() {
+		return m_td;
+	}
+
+	/**
+	 * Returns the number of pages in this index.
+	 */
+	public int numPages() {
+		return (int) (m_file.length() / BufferPool.PAGE_SIZE);
+	}
+
+	// see DbFile.java for javadocs
+	public Page readPage(PageId pid) {
+		byte[] bytes = new byte[BufferPool.PAGE_SIZE];
+		try {
+			RandomAccessFile file = new RandomAccessFile(getFile(), "r");
+			file.seek((long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+			file.read(bytes);
+			file.close();
+			return new IsamPage((IsamPageId) pid, bytes);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	// see DbFile.java for javadocs
+	public void writePage(Page page) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+		file.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+		file.write(page.getPageData());
+		file.close();
+	}
+
+	private IsamPage getPage(TransactionId tid, int pgNo, int pgcateg, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		return (IsamPage) Database.getBufferPool().getPage(tid,
+				new IsamPageId(getId(), pgNo, pgcateg), perm);
+	}
+
+	/**
+	 * Appends an empty page to the file and returns it, locked READ_WRITE.
+	 */
+	private synchronized IsamPage allocatePage(TransactionId tid)
+			throws DbException, IOException, TransactionAbortedException {
+		int pgNo = numPages();
+		RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+		file.seek((long) pgNo * BufferPool.PAGE_SIZE);
+		file.write(IsamPage.createEmptyPageData());
+		file.close();
+		return getPage(tid, pgNo, IsamPageId.LEAF, Permissions.READ_WRITE);
+	}
+
+	/**
+	 * Writes an index made of the meta page and a single empty leaf.
+	 */
+	private void writeEmptyIndex() throws IOException {
+		ByteBuffer meta = ByteBuffer.allocate(BufferPool.PAGE_SIZE);
+		meta.putInt(0, 1);
+		meta.putInt(4, 1);
+		meta.putInt(8, 1);
+		RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+		file.setLength(0);
+		file.write(meta.array());
+		file.write(IsamPage.createEmptyPageData());
+		file.close();
+	}
+
+	/**
+	 * Builds the index entry of a base tuple.
+	 */
+	private Tuple makeEntry(Tuple t) throws DbException {
+		if (t == null || t.getRecordId() == null)
+			throw new DbException("Tuple is not stored in the indexed table");
+		Tuple entry = new Tuple(m_td);
+		entry.setField(0, t.getField(m_keyField));
+		for (int i = 0; i < m_includedFields.length; i++)
+			entry.setField(i + 1, t.getField(m_includedFields[i]));
+		entry.setField(m_td.numFields() - 2, new IntField(t.getRecordId().getPageId().pageNumber()));
+		entry.setField(m_td.numFields() - 1, new IntField(t.getRecordId().tupleno()));
+		return entry;
+	}
+
+	/**
+	 * Returns the page number of the leaf covering key: the last leaf whose
+	 * separator is less than key, or the first leaf. A null key returns the
+	 * first leaf.
+	 */
+	private int findLeaf(TransactionId tid, Field key)
+			throws DbException, TransactionAbortedException {
+		IsamPage meta = getPage(tid, 0, IsamPageId.META, Permissions.READ_ONLY);
+		if (key == null)
+			return meta.getFirstLeaf();
+		int pgNo = meta.getRoot();
+		for (int level = meta.getHeight(); level > 1; level--) {
+			IsamPage internal = getPage(tid, pgNo, IsamPageId.INTERNAL, Permissions.READ_ONLY);
+			pgNo = internal.getChild(internal.findChild(key));
+		}
+		return pgNo;
+	}
+
+	// see DbFile.java for javadocs
+	public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Tuple entry = makeEntry(t);
+		ArrayList<Page> dirtied = new ArrayList<Page>();
+		IsamPage leaf = getPage(tid, findLeaf(tid, entry.getField(0)),
+				IsamPageId.LEAF, Permissions.READ_WRITE);
+		if (leaf.insertSorted(entry)) {
+			dirtied.add(leaf);
+			return dirtied;
+		}
+		IsamPage p = leaf;
+		while (p.getOverflow() != 0) {
+			p = getPage(tid, p.getOverflow(), IsamPageId.LEAF, Permissions.READ_WRITE);
+			if (p.insertEntry(p.getNumEntries(), entry)) {
+				dirtied.add(p);
+				return dirtied;
+			}
+		}
+		IsamPage overflow = allocatePage(tid);
+		p.setOverflow(overflow.getId().pageNumber());
+		overflow.insertEntry(0, entry);
+		dirtied.add(p);
+		dirtied.add(overflow);
+		return dirtied;
+	}
+
+	// see DbFile.java for javadocs
+	public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+	TransactionAbortedException {
+		Field key = t.getField(m_keyField);
+		if (t.getRecordId() == null)
+			throw new DbException("Tuple is not stored in the indexed table");
+		int pg = t.getRecordId().getPageId().pageNumber();
+		int slot = t.getRecordId().tupleno();
+		int leafNo = findLeaf(tid, key);
+		while (leafNo != 0) {
+			IsamPage leaf = getPage(tid, leafNo, IsamPageId.LEAF, Permissions.READ_WRITE);
+			IsamPage p = leaf;
+			while (true) {
+				for (int i = 0; i < p.getNumEntries(); i++) {
+					if (p.getEntryPage(i) == pg && p.getEntrySlot(i) == slot
+							&& p.getEntryKey(i).equals(key)) {
+						p.removeEntry(i);
+						return p;
+					}
+				}
+				if (p.getOverflow() == 0)
+					break;
+				p = getPage(tid, p.getOverflow(), IsamPageId.LEAF, Permissions.READ_WRITE);
+			}
+			// duplicates of key may continue on the following leaves
+			leafNo = leaf.getNextLeaf();
+			if (leafNo != 0) {
+				IsamPage next = getPage(tid, leafNo, IsamPageId.LEAF, Permissions.READ_ONLY);
+				if (next.getLowKey().compare(Predicate.Op.GREATER_THAN, key))
+					break;
+			}
+		}
+		throw new DbException("Tuple has no entry in the index");
+	}
+
+	/**
+	 * Fills an empty index with entries for every tuple of the base table.
+	 * Entries are sorted in memory, written to leaves at BUILD_FILL_FACTOR,
+	 * and the internal levels are built bottom-up. Must be called before any
+	 * transaction reads the index through the BufferPool.
+	 *
+	 * @param tid the transaction used to scan the base table
+	 */
+	public void build(TransactionId tid)
+			throws DbException, IOException, TransactionAbortedException {
+		ArrayList<Tuple> entries = new ArrayList<Tuple>();
+		DbFileIterator it = Database.getCatalog().getDbFile(m_tableId).iterator(tid);
+		it.open();
+		while (it.hasNext())
+			entries.add(makeEntry(it.next()));
+		it.close();
+		Collections.sort(entries, new Comparator<Tuple>() {
+			public int compare(Tuple a, Tuple b) {
+				if (a.getField(0).compare(Predicate.Op.LESS_THAN, b.getField(0)))
+					return -1;
+				if (a.getField(0).compare(Predicate.Op.GREATER_THAN, b.getField(0)))
+					return 1;
+				return 0;
+			}
+		});
+		if (entries.isEmpty()) {
+			writeEmptyIndex();
+			return;
+		}
+
+		ArrayList<IsamPage> pages = new ArrayList<IsamPage>();
+		IsamPage meta = newPage(0, IsamPageId.META);
+		pages.add(meta);
+
+		// leaves, chained in key order
+		ArrayList<Field> separators = new ArrayList<Field>();
+		ArrayList<Integer> children = new ArrayList<Integer>();
+		IsamPage leaf = null;
+		int perLeaf = 0;
+		for (Tuple entry : entries) {
+			if (leaf == null || leaf.getNumEntries() >= perLeaf) {
+				IsamPage next = newPage(pages.size(), IsamPageId.LEAF);
+				perLeaf = Math.max(1, (int) (next.getMaxEntries() * BUILD_FILL_FACTOR));
+				next.setLowKey(entry.getField(0));
+				if (leaf != null)
+					leaf.setNextLeaf(next.getId().pageNumber());
+				leaf = next;
+				pages.add(leaf);
+				separators.add(entry.getField(0));
+				children.add(leaf.getId().pageNumber());
+			}
+			leaf.insertEntry(leaf.getNumEntries(), entry);
+		}
+		meta.setFirstLeaf(children.get(0));
+
+		// internal levels
+		int height = 1;
+		while (children.size() > 1) {
+			ArrayList<Field> upperSeparators = new ArrayList<Field>();
+			ArrayList<Integer> upperChildren = new ArrayList<Integer>();
+			IsamPage internal = null;
+			for (int i = 0; i < children.size(); i++) {
+				if (internal == null || !internal.appendChild(separators.get(i), children.get(i))) {
+					internal = newPage(pages.size(), IsamPageId.INTERNAL);
+					pages.add(internal);
+					internal.appendChild(separators.get(i), children.get(i));
+					upperSeparators.add(separators.get(i));
+					upperChildren.add(internal.getId().pageNumber());
+				}
+			}
+			separators = upperSeparators;
+			children = upperChildren;
+			height++;
+		}
+		meta.setRoot(children.get(0));
+		meta.setHeight(height);
+
+		RandomAccessFile file = new RandomAccessFile(getFile(), "rw");
+		file.setLength(0);
+		for (IsamPage p : pages)
+			file.write(p.getPageData());
+		file.close();
+	}
+
+	private IsamPage newPage(int pgNo, int pgcateg) throws IOException {
+		return new IsamPage(new IsamPageId(getId(), pgNo, pgcateg), IsamPage.createEmptyPageData());
+	}
+
+	/**
+	 * Returns an iterator over the entries of this index, as tuples of
+	 * getTupleDesc(), in leaf order.
+	 */
+	public DbFileIterator iterator(TransactionId tid) {
+		return rangeIterator(tid, null, true, null, true);
+	}
+
+	/**
+	 * Returns an iterator over the entries whose key lies between lo and hi.
+	 * Entries from the sorted part of the leaves come out in key order;
+	 * entries from overflow pages do not.
+	 *
+	 * @param lo the lower bound, or null for no lower bound
+	 * @param loInclusive true if entries equal to lo are returned
+	 * @param hi the upper bound, or null for no upper bound
+	 * @param hiInclusive true if entries equal to hi are returned
+	 */
+	public DbFileIterator rangeIterator(TransactionId tid, Field lo, boolean loInclusive,
+			Field hi, boolean hiInclusive) {
+		return new RangeIterator(tid, lo, loInclusive, hi, hiInclusive);
+	}
+
+	/**
+	 * Walks the leaf chain from the leaf covering lo, reading one leaf and
+	 * its overflow pages at a time, and stops at the first leaf whose
+	 * separator is above hi.
+	 */
+	private class RangeIterator implements DbFileIterator {
+		private static final long serialVersionUID = 1L;
+		private TransactionId m_tid;
+		private Field m_lo, m_hi;
+		private Predicate.Op m_loOp, m_hiOp;
+		private int m_nextLeaf;
+		private boolean m_first;
+		private Iterator<Tuple> m_iterator;
+
+		public RangeIterator(TransactionId tid, Field lo, boolean loInclusive,
+				Field hi, boolean hiInclusive) {
+			m_tid = tid;
+			m_lo = lo;
+			m_hi = hi;
+			m_loOp = loInclusive ? Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN;
+			m_hiOp = hiInclusive ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN;
+		}
+
+		public void open() throws DbException, TransactionAbortedException {
+			m_nextLeaf = findLeaf(m_tid, m_lo);
+			m_first = true;
+			m_iterator = null;
+		}
+
+		private boolean inRange(Field key) {
+			return (m_lo == null || key.compare(m_loOp, m_lo))
+					&& (m_hi == null || key.compare(m_hiOp, m_hi));
+		}
+
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			while (m_iterator == null || !m_iterator.hasNext()) {
+				if (m_nextLeaf == 0)
+					return false;
+				IsamPage leaf = getPage(m_tid, m_nextLeaf, IsamPageId.LEAF, Permissions.READ_ONLY);
+				if (!m_first && m_hi != null
+						&& leaf.getLowKey().compare(Predicate.Op.GREATER_THAN, m_hi)) {
+					m_nextLeaf = 0;
+					return false;
+				}
+				m_first = false;
+				m_nextLeaf = leaf.getNextLeaf();
+				ArrayList<Tuple> entries = new ArrayList<Tuple>();
+				for (int i = 0; i < leaf.getNumEntries(); i++) {
+					Field key = leaf.getEntryKey(i);
+					if (m_hi != null && !key.compare(m_hiOp, m_hi))
+						break;
+					if (inRange(key))
+						entries.add(leaf.getEntry(i));
+				}
+				int pgNo = leaf.getOverflow();
+				while (pgNo != 0) {
+					IsamPage p = getPage(m_tid, pgNo, IsamPageId.LEAF, Permissions.READ_ONLY);
+					for (int i = 0; i < p.getNumEntries(); i++) {
+						if (inRange(p.getEntryKey(i)))
+							entries.add(p.getEntry(i));
+					}
+					pgNo = p.getOverflow();
+				}
+				m_iterator = entries.iterator();
+			}
+			return true;
+		}
+
+		public Tuple next() throws DbException, TransactionAbortedException,
+		NoSuchElementException {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return m_iterator.next();
+		}
+
+		public void rewind() throws DbException, TransactionAbortedException {
+			close();
+			open();
+		}
+
+		public void close() {
+			m_nextLeaf = 0;
+			m_iterator = null;
+		}
+	}
+}
@@ -0,0 +1,335 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of IsamPage stores one page of an IsamFile and implements
+ * the Page interface that is used by BufferPool. The layout of the page
+ * depends on its category (see {@link IsamPageId}):
+ * <ul>
+ * <li>META: the page number of the root, the height of the tree (1 if the
+ * root is a leaf) and the page number of the first leaf.</li>
+ * <li>INTERNAL: the number of entries, followed by (separator key, child
+ * page number) pairs. The separator of a child is the lowest key of its
+ * subtree when the index was built.</li>
+ * <li>LEAF: the number of entries, the page number of the next leaf (or 0),
+ * the page number of the first overflow page (or 0) and the separator key
+ * of the leaf, followed by entries sorted on their key. An entry is a tuple
+ * of the IsamFile's TupleDesc. Overflow pages use the same layout, but
+ * their entries are not sorted.</li>
+ * </ul>
+ *
+ * @see IsamFile
+ * @see BufferPool
+ */
+public class IsamPage implements Page {
+
+	IsamPageId pid;
+	private byte[] m_data;
+	private ByteBuffer m_buf;
+	private TupleDesc m_td;
+	private int m_keyLen;
+
+	private TransactionId dirtyId = null;
+
+	byte[] oldData;
+
+	/**
+	 * Create an IsamPage from a set of bytes of data read from disk.
+	 *
+	 * @see #IsamPage
+	 */
+	public IsamPage(IsamPageId id, byte[] data) throws IOException {
+		this.pid = id;
+		this.m_td = Database.getCatalog().getTupleDesc(id.getTableId());
+		this.m_keyLen = m_td.getFieldType(0).getLen();
+		this.m_data = data.clone();
+		this.m_buf = ByteBuffer.wrap(m_data);
+		setBeforeImage();
+	}
+
+	/** Return a view of this page before it was modified
+		-- used by recovery */
+	public IsamPage getBeforeImage() {
+		try {
+			return new IsamPage(pid, oldData);
+		} catch (IOException e) {
+			e.printStackTrace();
+			//should never happen -- we parsed it OK before!
+			System.exit(1);
+		}
+		return null;
+	}
+
+	public void setBeforeImage() {
+		oldData = getPageData().clone();
+	}
+
+	/**
+	 * @return the PageId associated with this page.
+	 */
+	public IsamPageId getId() {
+		return pid;
+	}
+
+	public byte[] getPageData() {
+		return m_data.clone();
+	}
+
+	/**
+	 * Static method to generate a byte array corresponding to an empty
+	 * IsamPage.
+	 *
+	 * @return The returned ByteArray.
+	 */
+	public static byte[] createEmptyPageData() {
+		return new byte[BufferPool.PAGE_SIZE]; //all 0
+	}
+
+	/**
+	 * Marks this page as dirty/not dirty and record that transaction
+	 * that did the dirtying
+	 */
+	public void markDirty(boolean dirty, TransactionId tid) {
+		if (dirty)
+			dirtyId = tid;
+		else
+			dirtyId = null;
+	}
+
+	/**
+	 * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+	 */
+	public TransactionId isDirty() {
+		return dirtyId;
+	}
+
+	private Field readField(int off, Type t) {
+		if (t == Type.INT_TYPE)
+			return new IntField(m_buf.getInt(off));
+		try {
+			return t.parse(new DataInputStream(new ByteArrayInputStream(m_data, off, t.getLen())));
+		} catch (java.text.ParseException e) {
+			throw new RuntimeException("couldn't parse field", e);
+		}
+	}
+
+	private void writeField(int off, Field f) {
+		if (f.getType() == Type.INT_TYPE) {
+			m_buf.putInt(off, ((IntField) f).getValue());
+			return;
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(f.getType().getLen());
+		try {
+			f.serialize(new DataOutputStream(baos));
+		} catch (IOException e) {
+			throw new RuntimeException("couldn't serialize field", e);
+		}
+		System.arraycopy(baos.toByteArray(), 0, m_data, off, f.getType().getLen());
+	}
+
+	// ---------------------------------------------------------------- META
+
+	public int getRoot() {
+		return m_buf.getInt(0);
+	}
+
+	public void setRoot(int pgNo) {
+		m_buf.putInt(0, pgNo);
+	}
+
+	/** @return the number of levels of the tree, 1 if the root is a leaf */
+	public int getHeight() {
+		return m_buf.getInt(4);
+	}
+
+	public void setHeight(int height) {
+		m_buf.putInt(4, height);
+	}
+
+	public int getFirstLeaf() {
+		return m_buf.getInt(8);
+	}
+
+	public void setFirstLeaf(int pgNo) {
+		m_buf.putInt(8, pgNo);
+	}
+
+	// ------------------------------------------------------ INTERNAL, LEAF
+
+	public int getNumEntries() {
+		return m_buf.getInt(0);
+	}
+
+	private void setNumEntries(int n) {
+		m_buf.putInt(0, n);
+	}
+
+	// ------------------------------------------------------------ INTERNAL
+
+	/** @return the number of children that fit on an internal page */
+	public int getMaxChildren() {
+		return (BufferPool.PAGE_SIZE - 4) / (m_keyLen + 4);
+	}
+
+	private int childOffset(int i) {
+		return 4 + i * (m_keyLen + 4);
+	}
+
+	public Field getSeparator(int i) {
+		return readField(childOffset(i), m_td.getFieldType(0));
+	}
+
+	public int getChild(int i) {
+		return m_buf.getInt(childOffset(i) + m_keyLen);
+	}
+
+	/**
+	 * Appends a child to this internal page.
+	 * @return false if the page is full
+	 */
+	public boolean appendChild(Field separator, int pgNo) {
+		int n = getNumEntries();
+		if (n >= getMaxChildren())
+			return false;
+		writeField(childOffset(n), separator);
+		m_buf.putInt(childOffset(n) + m_keyLen, pgNo);
+		setNumEntries(n + 1);
+		return true;
+	}
+
+	/**
+	 * @return the index of the child whose subtree may hold key: the last
+	 *   child whose separator is less than key, or the first child
+	 */
+	public int findChild(Field key) {
+		int lo = 0, hi = getNumEntries() - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (getSeparator(mid).compare(Predicate.Op.LESS_THAN, key))
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	// ---------------------------------------------------------------- LEAF
+
+	private int leafHeaderSize() {
+		return 12 + m_keyLen;
+	}
+
+	/** @return the number of entries that fit on a leaf page */
+	public int getMaxEntries() {
+		return (BufferPool.PAGE_SIZE - leafHeaderSize()) / m_td.getSize();
+	}
+
+	private int entryOffset(int i) {
+		return leafHeaderSize() + i * m_td.getSize();
+	}
+
+	/** @return the page number of the next leaf, or 0 if this is the last */
+	public int getNextLeaf() {
+		return m_buf.getInt(4);
+	}
+
+	public void setNextLeaf(int pgNo) {
+		m_buf.putInt(4, pgNo);
+	}
+
+	/** @return the page number of the first overflow page, or 0 if there is none */
+	public int getOverflow() {
+		return m_buf.getInt(8);
+	}
+
+	public void setOverflow(int pgNo) {
+		m_buf.putInt(8, pgNo);
+	}
+
+	/** @return the separator key of this leaf */
+	public Field getLowKey() {
+		return readField(12, m_td.getFieldType(0));
+	}
+
+	public void setLowKey(Field key) {
+		writeField(12, key);
+	}
+
+	/** @return the key of the i-th entry */
+	public Field getEntryKey(int i) {
+		return readField(entryOffset(i), m_td.getFieldType(0));
+	}
+
+	/** @return the page number (in the base table) of the i-th entry */
+	public int getEntryPage(int i) {
+		return m_buf.getInt(entryOffset(i + 1) - 8);
+	}
+
+	/** @return the slot (in the base table) of the i-th entry */
+	public int getEntrySlot(int i) {
+		return m_buf.getInt(entryOffset(i + 1) - 4);
+	}
+
+	/** @return the i-th entry, as a tuple of the IsamFile's TupleDesc */
+	public Tuple getEntry(int i) {
+		Tuple t = new Tuple(m_td);
+		int off = entryOffset(i);
+		for (int j = 0; j < m_td.numFields(); j++) {
+			Type type = m_td.getFieldType(j);
+			t.setField(j, readField(off, type));
+			off += type.getLen();
+		}
+		return t;
+	}
+
+	/**
+	 * Inserts an entry at position i, shifting the following entries.
+	 * @return false if the page is full
+	 */
+	public boolean insertEntry(int i, Tuple entry) {
+		int n = getNumEntries();
+		if (n >= getMaxEntries())
+			return false;
+		if (i < n)
+			System.arraycopy(m_data, entryOffset(i), m_data, entryOffset(i + 1),
+					(n - i) * m_td.getSize());
+		int off = entryOffset(i);
+		for (int j = 0; j < m_td.numFields(); j++) {
+			writeField(off, entry.getField(j));
+			off += m_td.getFieldType(j).getLen();
+		}
+		setNumEntries(n + 1);
+		return true;
+	}
+
+	/**
+	 * Inserts an entry after all entries with a lower or equal key.
+	 * @return false if the page is full
+	 */
+	public boolean insertSorted(Tuple entry) {
+		Field key = entry.getField(0);
+		int lo = 0, hi = getNumEntries();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (getEntryKey(mid).compare(Predicate.Op.GREATER_THAN, key))
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return insertEntry(lo, entry);
+	}
+
+	/**
+	 * Removes the i-th entry, shifting the following entries so that their
+	 * order is kept.
+	 */
+	public void removeEntry(int i) {
+		int n = getNumEntries();
+		if (i < n - 1)
+			System.arraycopy(m_data, entryOffset(i + 1), m_data, entryOffset(i),
+					(n - 1 - i) * m_td.getSize());
+		setNumEntries(n - 1);
+	}
+}
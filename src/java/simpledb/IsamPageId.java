@@ -0,0 +1,90 @@
+package simpledb;
+
+/** Unique identifier for IsamPage objects. */
+public class IsamPageId implements PageId {
+
+	/** The page holding the root page number and the height of the tree. */
+	public final static int META = 0;
+	/** An internal page holding separator keys and child page numbers. */
+	public final static int INTERNAL = 1;
+	/** A leaf or overflow page holding sorted index entries. */
+	public final static int LEAF = 2;
+
+	private int m_tableId;
+	private int m_pgNo;
+	private int m_pgcateg;
+
+	/**
+	 * Constructor. Create a page id structure for a specific page of a
+	 * specific ISAM index.
+	 *
+	 * @param tableId The index that is being referenced
+	 * @param pgNo The page number in that index.
+	 * @param pgcateg The category of the page - META, INTERNAL or LEAF
+	 */
+	public IsamPageId(int tableId, int pgNo, int pgcateg) {
+		m_tableId = tableId;
+		m_pgNo = pgNo;
+		m_pgcateg = pgcateg;
+	}
+
+	/** @return the index associated with this PageId */
+	public int getTableId() {
+		return m_tableId;
+	}
+
+	/**
+	 * @return the page number in the index getTableId() associated with
+	 *   this PageId
+	 */
+	public int pageNumber() {
+		return m_pgNo;
+	}
+
+	/**
+	 * @return the category of this page
+	 */
+	public int pgcateg() {
+		return m_pgcateg;
+	}
+
+	/**
+	 * @return a hash code for this page, represented by the combination of
+	 *   the index id and the page number
+	 * @see BufferPool
+	 */
+	public int hashCode() {
+		return m_tableId + m_pgNo;
+	}
+
+	/**
+	 * Compares one PageId to another.
+	 *
+	 * @param o The object to compare against (must be a PageId)
+	 * @return true if the objects are equal (e.g., page numbers and index
+	 *   ids are the same)
+	 */
+	public boolean equals(Object o) {
+		return o != null &&
+				o.getClass().equals(this.getClass()) &&
+				((IsamPageId) o).pageNumber() == this.pageNumber() &&
+				((IsamPageId) o).getTableId() == this.getTableId();
+	}
+
+	/**
+	 *  Return a representation of this object as an array of
+	 *  integers, for writing to disk.  Size of returned array must contain
+	 *  number of integers that corresponds to number of args to one of the
+	 *  constructors.
+	 */
+	public int[] serialize() {
+		int data[] = new int[3];
+
+		data[0] = getTableId();
+		data[1] = pageNumber();
+		data[2] = pgcateg();
+
+		return data;
+	}
+
+}
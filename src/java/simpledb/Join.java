@@ -4,16 +4,40 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested loops join: it reads the outer relation a block of
+ * tuples at a time, as many as fit on a configurable number of pages, and
+ * scans the inner relation once per block rather than once per outer
+ * tuple. Each inner tuple is compared with the whole block; when the join
+ * fields are ints, the keys of the block are kept in an int[] and compared
+ * in a loop over it, and otherwise by a {@link CompiledJoinPredicate}.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default number of pages of outer tuples in a block. */
+    public static final int DEFAULT_BLOCK_PAGES = 10;
     
     private JoinPredicate m_predicate;
+    private CompiledJoinPredicate m_compiled;
     private DbIterator m_child1;
     private DbIterator m_child2;
-    private Tuple outer;
-    private Tuple inner;
+    private int m_blockPages = DEFAULT_BLOCK_PAGES;
+    private TupleDesc m_td;
+    /** Whether the first block of outer tuples was read */
+    private boolean m_started;
+    private Tuple[] m_block;
+    private int m_blockSize;
+    /** The int join keys of the block, or null if they are not ints */
+    private int[] m_keys;
+    /** The numbers from 0 to the block size, copied to m_matches */
+    private int[] m_all;
+    /** The indexes in the block of the outer tuples that match m_inner */
+    private int[] m_matches;
+    private int m_numMatches;
+    private int m_match;
+    private Tuple m_inner;
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -31,6 +55,16 @@ public class Join extends Operator {
         m_child2 = child2;
     }
 
+    /**
+     * Sets the number of pages' worth of outer tuples this join compares
+     * with each inner tuple. Takes effect from the next block.
+     */
+    public void setBlockPages(int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("a block must have at least one page");
+        m_blockPages = pages;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return m_predicate;
     }
@@ -66,24 +100,33 @@ public class Join extends Operator {
         super.open();
         m_child1.open();
         m_child2.open();
+        m_td = getTupleDesc();
+        m_started = false;
+        m_numMatches = m_match = 0;
     }
 
     public void close() {
         super.close();
         m_child1.close();
         m_child2.close();
+        m_block = null;
+        m_keys = null;
+        m_blockSize = 0;
+        m_inner = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         m_child1.rewind();
         m_child2.rewind();
+        m_started = false;
+        m_numMatches = m_match = 0;
     }
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate. Within a block, the tuples are returned
+     * in the order of the inner relation.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -98,35 +141,87 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-    	if (m_child1.hasNext() && outer == null) //first time we call fetchNext()
-    		outer = m_child1.next();
-    	while (outer != null) {
-    		while (m_child2.hasNext()) {
-    			inner = m_child2.next();
-    			if (m_predicate.filter(outer, inner)) {
-    				Tuple next = new Tuple(TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc()));
-    				int i = 0;
-    				Iterator<Field> outerFields = outer.fields();
-    				Iterator<Field> innerFields = inner.fields();
-    				while (outerFields.hasNext()) {
-    					next.setField(i, outerFields.next());
-    					i++;
-    				}
-    				while (innerFields.hasNext()) {
-    					next.setField(i, innerFields.next());
-    					i++;
-    				}
-    				return next;
-    			}
-    		}
-    		
-    		if (m_child1.hasNext())
-    			outer = m_child1.next();
-    		else
-    			outer = null;
-    		m_child2.rewind();
-    	}  	
-        return null;
+        while (true) {
+            if (m_match < m_numMatches)
+                return join(m_block[m_matches[m_match++]], m_inner);
+            if (m_started && m_blockSize > 0 && m_child2.hasNext()) {
+                m_inner = m_child2.next();
+                matchBlock();
+            } else {
+                if (m_started) {
+                    // the inner relation was joined with the whole block
+                    if (!m_child1.hasNext())
+                        return null;
+                    m_child2.rewind();
+                }
+                m_started = true;
+                if (!readBlock())
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Reads the next block of outer tuples.
+     * 
+     * @return false if there are no more outer tuples
+     */
+    private boolean readBlock() throws TransactionAbortedException, DbException {
+        TupleDesc td = m_child1.getTupleDesc();
+        int capacity = m_blockPages * HeapPage.getNumTuples(td);
+        if (m_block == null || m_block.length != capacity) {
+            m_block = new Tuple[capacity];
+            m_matches = new int[capacity];
+            m_all = new int[capacity];
+            for (int i = 0; i < capacity; i++)
+                m_all[i] = i;
+            boolean intKeys = td.getFieldType(m_predicate.getField1()) == Type.INT_TYPE
+                    && m_child2.getTupleDesc().getFieldType(m_predicate.getField2()) == Type.INT_TYPE;
+            m_keys = intKeys ? new int[capacity] : null;
+            m_compiled = CompiledJoinPredicate.compile(m_predicate, td, m_child2.getTupleDesc());
+            m_blockSize = 0;
+        }
+        int n = 0;
+        while (n < capacity && m_child1.hasNext()) {
+            // the block is compared with every inner tuple
+            Tuple t = m_child1.next().materialize();
+            m_block[n] = t;
+            if (m_keys != null)
+                m_keys[n] = ((IntField) t.getField(m_predicate.getField1())).getValue();
+            n++;
+        }
+        for (int i = n; i < m_blockSize; i++)
+            m_block[i] = null;
+        m_blockSize = n;
+        m_numMatches = m_match = 0;
+        return n > 0;
+    }
+
+    /**
+     * Finds the outer tuples of the block that match m_inner.
+     */
+    private void matchBlock() {
+        if (m_keys != null) {
+            System.arraycopy(m_all, 0, m_matches, 0, m_blockSize);
+            m_numMatches = ColumnarBatch.selectInt(m_keys, m_matches, m_blockSize,
+                    m_predicate.getOperator(),
+                    ((IntField) m_inner.getField(m_predicate.getField2())).getValue());
+        } else {
+            int n = 0;
+            for (int i = 0; i < m_blockSize; i++) {
+                if (m_compiled.filter(m_block[i], m_inner))
+                    m_matches[n++] = i;
+            }
+            m_numMatches = n;
+        }
+        m_match = 0;
+    }
+
+    /**
+     * @return the concatenation of an outer and an inner tuple
+     */
+    private Tuple join(Tuple outer, Tuple inner) {
+        return new JoinedTuple(m_td, outer, inner);
     }
 
     @Override
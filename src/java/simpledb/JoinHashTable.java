@@ -0,0 +1,283 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * JoinHashTable is the hash table HashEquiJoin builds over the tuples of its
+ * outer child. It is an open-addressing table of the distinct join keys,
+ * each of which refers to a chain of the tuples with that key; the tuples
+ * are stored in one flat array, and each chain is an int array of row
+ * indexes, so that adding a tuple allocates no map entry or list. Rows are
+ * numbered from 0 in the order they are added, and the chain of a key lists
+ * its rows in that order.
+ * <p>
+ * {@link #create(Type, int)} returns a table specialized for the type of
+ * the join key: {@link IntKeys} stores int keys in an int[] and compares
+ * them without calling Field methods, and {@link StringKeys} stores string
+ * keys with their cached hash codes.
+ */
+public abstract class JoinHashTable {
+
+    /** The index of the key field in the tuples */
+    protected final int m_field;
+    private Tuple[] m_rows = new Tuple[64];
+    /** The row following each row in the chain of its key, or -1 */
+    private int[] m_next = new int[64];
+    private int m_numRows;
+    /** The number of distinct keys */
+    protected int m_numKeys;
+    /** The first and last row of the key in each slot, or -1 if it is empty */
+    protected int[] m_heads, m_tails;
+
+    /**
+     * Creates an empty table over tuples whose key is the specified field.
+     */
+    protected JoinHashTable(int field) {
+        m_field = field;
+        allocate(16);
+    }
+
+    /**
+     * Returns an empty table specialized for keys of the specified type.
+     *
+     * @param keyType the type of the key field
+     * @param field the index of the key field in the tuples
+     */
+    public static JoinHashTable create(Type keyType, int field) {
+        if (keyType == Type.INT_TYPE)
+            return new IntKeys(field);
+        return new StringKeys(field);
+    }
+
+    /**
+     * Allocates empty slots for keys.
+     */
+    protected void allocate(int capacity) {
+        m_heads = new int[capacity];
+        m_tails = new int[capacity];
+        Arrays.fill(m_heads, -1);
+    }
+
+    /**
+     * Adds a tuple to the table.
+     */
+    public void add(Tuple t) {
+        if (m_numRows == m_rows.length) {
+            m_rows = Arrays.copyOf(m_rows, m_numRows * 2);
+            m_next = Arrays.copyOf(m_next, m_numRows * 2);
+        }
+        int row = m_numRows++;
+        m_rows[row] = t;
+        m_next[row] = -1;
+        int slot = slotFor(t.getField(m_field));
+        if (m_heads[slot] < 0) {
+            m_heads[slot] = row;
+            m_tails[slot] = row;
+            // grow when more than half the slots are used
+            if (++m_numKeys * 2 > m_heads.length)
+                rehash(m_heads.length * 2);
+        } else {
+            m_next[m_tails[slot]] = row;
+            m_tails[slot] = row;
+        }
+    }
+
+    /**
+     * @return the first row whose key equals the specified field, or -1
+     */
+    public int first(Field key) {
+        int slot = find(key);
+        return slot < 0 ? -1 : m_heads[slot];
+    }
+
+    /**
+     * @return the row that follows the specified row in the chain of its
+     *   key, or -1 if it is the last one
+     */
+    public int next(int row) {
+        return m_next[row];
+    }
+
+    /**
+     * @return the tuple of the specified row
+     */
+    public Tuple get(int row) {
+        return m_rows[row];
+    }
+
+    /**
+     * @return the number of tuples in the table
+     */
+    public int size() {
+        return m_numRows;
+    }
+
+    /**
+     * Removes every tuple from the table.
+     */
+    public void clear() {
+        Arrays.fill(m_rows, 0, m_numRows, null);
+        m_numRows = 0;
+        m_numKeys = 0;
+        Arrays.fill(m_heads, -1);
+    }
+
+    /**
+     * Spreads the bits of a hash code, so that keys that differ only in
+     * their high bits do not probe the same slots.
+     */
+    protected static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot of the specified key, or -1 if it is not in the
+     *   table
+     */
+    protected abstract int find(Field key);
+
+    /**
+     * @return the slot of the specified key, claiming an empty slot for it
+     *   if it is not in the table
+     */
+    protected abstract int slotFor(Field key);
+
+    /**
+     * Moves the keys to a new array of slots of the specified size.
+     */
+    protected abstract void rehash(int capacity);
+
+    /**
+     * A table whose keys are int fields, stored in an int[].
+     */
+    public static class IntKeys extends JoinHashTable {
+        private int[] m_keys;
+
+        public IntKeys(int field) {
+            super(field);
+        }
+
+        protected void allocate(int capacity) {
+            super.allocate(capacity);
+            m_keys = new int[capacity];
+        }
+
+        /**
+         * @return the first row whose key is the specified int, or -1
+         */
+        public int first(int key) {
+            int mask = m_keys.length - 1;
+            for (int slot = mix(key) & mask; m_heads[slot] >= 0; slot = (slot + 1) & mask) {
+                if (m_keys[slot] == key)
+                    return m_heads[slot];
+            }
+            return -1;
+        }
+
+        protected int find(Field key) {
+            if (!(key instanceof IntField))
+                return -1;
+            int k = ((IntField) key).getValue();
+            int mask = m_keys.length - 1;
+            for (int slot = mix(k) & mask; m_heads[slot] >= 0; slot = (slot + 1) & mask) {
+                if (m_keys[slot] == k)
+                    return slot;
+            }
+            return -1;
+        }
+
+        protected int slotFor(Field key) {
+            int k = ((IntField) key).getValue();
+            int mask = m_keys.length - 1;
+            int slot = mix(k) & mask;
+            while (m_heads[slot] >= 0 && m_keys[slot] != k)
+                slot = (slot + 1) & mask;
+            m_keys[slot] = k;
+            return slot;
+        }
+
+        protected void rehash(int capacity) {
+            int[] keys = m_keys, heads = m_heads, tails = m_tails;
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (heads[i] < 0)
+                    continue;
+                int slot = mix(keys[i]) & mask;
+                while (m_heads[slot] >= 0)
+                    slot = (slot + 1) & mask;
+                m_keys[slot] = keys[i];
+                m_heads[slot] = heads[i];
+                m_tails[slot] = tails[i];
+            }
+        }
+    }
+
+    /**
+     * A table whose keys are string fields, stored with their hash codes so
+     * that probes only compare the strings whose hash codes are equal.
+     */
+    public static class StringKeys extends JoinHashTable {
+        private String[] m_keys;
+        private int[] m_hashes;
+
+        public StringKeys(int field) {
+            super(field);
+        }
+
+        protected void allocate(int capacity) {
+            super.allocate(capacity);
+            m_keys = new String[capacity];
+            m_hashes = new int[capacity];
+        }
+
+        protected int find(Field key) {
+            if (!(key instanceof StringField))
+                return -1;
+            String k = ((StringField) key).getValue();
+            int h = k.hashCode();
+            int mask = m_keys.length - 1;
+            for (int slot = mix(h) & mask; m_heads[slot] >= 0; slot = (slot + 1) & mask) {
+                if (m_hashes[slot] == h && m_keys[slot].equals(k))
+                    return slot;
+            }
+            return -1;
+        }
+
+        protected int slotFor(Field key) {
+            String k = ((StringField) key).getValue();
+            int h = k.hashCode();
+            int mask = m_keys.length - 1;
+            int slot = mix(h) & mask;
+            while (m_heads[slot] >= 0 && !(m_hashes[slot] == h && m_keys[slot].equals(k)))
+                slot = (slot + 1) & mask;
+            m_keys[slot] = k;
+            m_hashes[slot] = h;
+            return slot;
+        }
+
+        protected void rehash(int capacity) {
+            String[] keys = m_keys;
+            int[] hashes = m_hashes, heads = m_heads, tails = m_tails;
+            allocate(capacity);
+            int mask = capacity - 1;
+            for (int i = 0; i < keys.length; i++) {
+                if (heads[i] < 0)
+                    continue;
+                int slot = mix(hashes[i]) & mask;
+                while (m_heads[slot] >= 0)
+                    slot = (slot + 1) & mask;
+                m_keys[slot] = keys[i];
+                m_hashes[slot] = hashes[i];
+                m_heads[slot] = heads[i];
+                m_tails[slot] = tails[i];
+            }
+        }
+
+        public void clear() {
+            super.clear();
+            Arrays.fill(m_keys, null);
+        }
+    }
+}
@@ -14,6 +14,9 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /** Index pages read per hash index probe: meta, directory and bucket. */
+    static final int HASH_PROBE_PAGES = 3;
+
     /**
      * Constructor
      * 
@@ -34,6 +37,11 @@ public class JoinOptimizer {
      * inner/outer here -- because DbIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The join is computed with the algorithm the optimizer chose for lj, if
+     * it can be applied to these subplans. If the optimizer chose none, an
+     * IndexNestedLoopJoin is used when plan2 has a suitable index, and a
+     * nested loops Join otherwise.
      * 
      * @param lj
      *            The join being considered
@@ -68,12 +76,41 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        HashIndexFile index = lj.algorithm == null
+                || lj.algorithm == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP
+                ? innerIndex(lj, plan2) : null;
+        if (index != null)
+            j = new IndexNestedLoopJoin(p, plan1, plan2, index);
+        else if (lj.algorithm == LogicalJoinNode.Algorithm.HASH
+                && lj.p == Predicate.Op.EQUALS && !(lj instanceof LogicalSubplanJoinNode))
+            j = new HashEquiJoin(p, plan1, plan2);
+        else if (lj.algorithm == LogicalJoinNode.Algorithm.SORT_MERGE
+                && !(lj instanceof LogicalSubplanJoinNode))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * Returns the hash index an IndexNestedLoopJoin could probe to compute
+     * lj with plan2 as the inner relation, or null if there is none: the
+     * join must be an equality join and plan2 a (possibly filtered) scan of
+     * a table with a hash index on the join field.
+     */
+    private static HashIndexFile innerIndex(LogicalJoinNode lj, DbIterator plan2) {
+        if (lj instanceof LogicalSubplanJoinNode || lj.p != Predicate.Op.EQUALS)
+            return null;
+        SeqScan scan = IndexNestedLoopJoin.getBaseScan(plan2, null);
+        if (scan == null)
+            return null;
+        return Database.getCatalog().getIndex(scan.getTableId(), lj.f2PureName,
+                HashIndexFile.class);
+
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -102,15 +139,161 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
+        return estimateJoinCost(j, card1, card2, cost1, cost2, false);
+    }
+
+    /**
+     * Estimate the cost of a join, as {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)}, when the right-hand side may be probed
+     * through an index. An index nested loops join reads the hash directory
+     * and bucket (HASH_PROBE_PAGES) plus one page per matching tuple for each
+     * left-hand tuple, instead of scanning the right-hand side.
+     *
+     * @param innerIndexed
+     *            true if the right-hand side is a base table with a hash
+     *            index on the join field of an equality join
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, boolean innerIndexed) {
+        double nlCost = estimateJoinCost(j, LogicalJoinNode.Algorithm.NESTED_LOOP,
+                card1, card2, cost1, cost2);
+        if (!innerIndexed || j instanceof LogicalSubplanJoinNode)
+            return nlCost;
+        return Math.min(nlCost, estimateJoinCost(j,
+                LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP, card1, card2, cost1, cost2));
+    }
+
+    /**
+     * Estimate the cost of computing a join with the specified algorithm,
+     * with the same parameters as {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)}.
+     * <p>
+     * A hash join scans each side once, hashing and inserting each left-hand
+     * tuple into its table (2 operations) and probing the table once per
+     * right-hand tuple. The left-hand tuples that do not fit in the
+     * HashEquiJoin.MAP_SIZE tuples it keeps in memory are partitioned to disk
+     * with the matching right-hand tuples, which are written and read once
+     * more.
+     */
+    public double estimateJoinCost(LogicalJoinNode j, LogicalJoinNode.Algorithm a,
+            int card1, int card2, double cost1, double cost2) {
+        return estimateJoinCost(j, a, card1, card2, cost1, cost2, false, false);
+    }
+
+    /**
+     * Estimate the cost of computing a join with the specified algorithm,
+     * as {@link #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm,
+     * int, int, double, double)}, when either side may already be sorted on
+     * its join field.
+     * <p>
+     * A sort-merge join sorts each side that is not sorted (n log n
+     * comparisons), then visits each tuple once, plus once per result of a
+     * range join, whose cardinality is estimated as in
+     * {@link #estimateTableJoinCardinality}.
+     *
+     * @param sorted1
+     *            true if the left-hand side is sorted on its join field
+     * @param sorted2
+     *            true if the right-hand side is sorted on its join field
+     */
+    public double estimateJoinCost(LogicalJoinNode j, LogicalJoinNode.Algorithm a,
+            int card1, int card2, double cost1, double cost2, boolean sorted1,
+            boolean sorted2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Project 3.
             return card1 + cost1 + cost2;
-        } else {
-            return cost1 + card1*cost2 + card1*card2;
+        }
+        switch (a) {
+        case INDEX_NESTED_LOOP:
+            double matches = card1 == 0 ? 0 : (double) Math.max(card1, card2) / card1;
+            return cost1
+                    + card1 * (HASH_PROBE_PAGES + matches) * TableStats.IOCOSTPERPAGE
+                    + card1 * matches;
+        case HASH:
+            double spilled = card1 <= HashEquiJoin.MAP_SIZE ? 0
+                    : 1 - (double) HashEquiJoin.MAP_SIZE / card1;
+            return cost1 + cost2 + 2.0 * card1 + card2
+                    + 2 * spilled * (cost1 + cost2);
+        case SORT_MERGE:
+            double cost = cost1 + cost2 + card1 + card2;
+            if (!sorted1)
+                cost += sortCost(card1);
+            if (!sorted2)
+                cost += sortCost(card2);
+            if (j.p != Predicate.Op.EQUALS)
+                cost += card1 * (double) card2 * .30;
+            return cost;
+        default:
+            return cost1 + (double) card1 * cost2 + (double) card1 * card2;
         }
     }
 
+    /**
+     * @return the number of comparisons to sort card tuples
+     */
+    private static double sortCost(int card) {
+        return card < 2 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * Returns the cheapest algorithm for computing a join with the specified
+     * estimates, as {@link #chooseJoinAlgorithm(LogicalJoinNode, int, int,
+     * double, double, boolean, boolean, boolean)}, when neither side is
+     * sorted.
+     */
+    public LogicalJoinNode.Algorithm chooseJoinAlgorithm(LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2, boolean innerIndexed) {
+        return chooseJoinAlgorithm(j, card1, card2, cost1, cost2, innerIndexed, false, false);
+    }
+
+    /**
+     * Returns the cheapest algorithm for computing a join with the specified
+     * estimates, among those that apply to it: hash and index joins only
+     * compute equality joins, and the latter needs an index on the right-hand
+     * side; sort-merge joins compute equality and range joins.
+     *
+     * @param innerIndexed
+     *            true if the right-hand side is a base table with a hash
+     *            index on the join field of an equality join
+     * @param sorted1
+     *            true if the left-hand side is sorted on its join field
+     * @param sorted2
+     *            true if the right-hand side is sorted on its join field
+     */
+    public LogicalJoinNode.Algorithm chooseJoinAlgorithm(LogicalJoinNode j,
+            int card1, int card2, double cost1, double cost2, boolean innerIndexed,
+            boolean sorted1, boolean sorted2) {
+        LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOP;
+        if (j instanceof LogicalSubplanJoinNode || j.p == Predicate.Op.NOT_EQUALS
+                || j.p == Predicate.Op.LIKE)
+            return best;
+        double bestCost = estimateJoinCost(j, best, card1, card2, cost1, cost2);
+        for (LogicalJoinNode.Algorithm a : LogicalJoinNode.Algorithm.values()) {
+            if (a == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP && !innerIndexed)
+                continue;
+            if (j.p != Predicate.Op.EQUALS && a != LogicalJoinNode.Algorithm.SORT_MERGE)
+                continue;
+            double cost = estimateJoinCost(j, a, card1, card2, cost1, cost2,
+                    sorted1, sorted2);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns true if the table with the specified alias has a hash index on
+     * the specified field, so that an equality join can probe it.
+     */
+    private boolean hasIndex(String alias, String field) {
+        Integer tableId = p.getTableId(alias);
+        return tableId != null && Database.getCatalog().getIndex(tableId, field,
+                HashIndexFile.class) != null;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -254,6 +437,9 @@ public class JoinOptimizer {
     	if (explain) {
     		printJoins(joins, optjoin, stats, filterSelectivities);
     	}
+    	if (joins.isEmpty()) {
+    		return joins;
+    	}
     	return optjoin.getOrder(new HashSet<LogicalJoinNode>(joins));
     	
     	
@@ -322,6 +508,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether each side is a base table, which an index join may probe
+        boolean t1Base = true, t2Base = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new Vector<LogicalJoinNode>();
@@ -356,6 +544,7 @@ public class JoinOptimizer {
                                        // left
                 // subtree is
                 t1card = bestCard;
+                t1Base = false;
                 leftPkey = hasPkey(prevBest);
 
                 t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
@@ -372,6 +561,7 @@ public class JoinOptimizer {
                                        // left
                 // subtree is
                 t2card = bestCard;
+                t2Base = false;
                 rightPkey = hasPkey(prevBest);
 
                 t1cost = stats.get(table1Name).estimateScanCost();
@@ -387,13 +577,28 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        // the cheapest algorithm for each order of the two sides; for a
+        // hash join, this puts the smaller side on the left to build on it
+        boolean equi = j.p == Predicate.Op.EQUALS && !(j instanceof LogicalSubplanJoinNode);
+        // a subplan is sorted on the join field if its last join merged on it
+        boolean t1Sorted = !t1Base && isSortedOn(prevBest, j.f1QuantifiedName);
+        boolean t2Sorted = !t2Base && isSortedOn(prevBest, j.f2QuantifiedName);
+        LogicalJoinNode.Algorithm a1 = chooseJoinAlgorithm(j, t1card, t2card,
+                t1cost, t2cost, equi && t2Base && hasIndex(j.t2Alias, j.f2PureName),
+                t1Sorted, t2Sorted);
+        double cost1 = estimateJoinCost(j, a1, t1card, t2card, t1cost, t2cost,
+                t1Sorted, t2Sorted);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        LogicalJoinNode.Algorithm a2 = chooseJoinAlgorithm(j2, t2card, t1card,
+                t2cost, t1cost, equi && t1Base && hasIndex(j.t1Alias, j.f1PureName),
+                t2Sorted, t1Sorted);
+        double cost2 = estimateJoinCost(j2, a2, t2card, t1card, t2cost, t1cost,
+                t2Sorted, t1Sorted);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
+            a1 = a2;
             cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
@@ -408,10 +613,29 @@ public class JoinOptimizer {
                 rightPkey, stats);
         cc.cost = cost1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
+        if (!(j instanceof LogicalSubplanJoinNode))
+            j = j.withAlgorithm(a1);
         cc.plan.addElement(j); // prevbest is left -- add new join to end
         return cc;
     }
 
+    /**
+     * Return true if the result of the specified left-deep list of joins is
+     * sorted on the specified field, as its last join is a sort-merge join
+     * on it
+     *
+     * @param field
+     *            the quantified name of the field
+     */
+    private boolean isSortedOn(Vector<LogicalJoinNode> joinlist, String field) {
+        if (joinlist.isEmpty())
+            return false;
+        LogicalJoinNode last = joinlist.lastElement();
+        return last.algorithm == LogicalJoinNode.Algorithm.SORT_MERGE
+                && (field.equals(last.f1QuantifiedName) || (last.p == Predicate.Op.EQUALS
+                        && field.equals(last.f2QuantifiedName)));
+    }
+
     /**
      * Return true if the specified table is in the list of joins, false
      * otherwise
@@ -507,7 +731,8 @@ public class JoinOptimizer {
             // Double c = pc.getCost(pathSoFar);
             neither = true;
 
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
+            root = new DefaultMutableTreeNode("Join " + j
+                    + (j.algorithm == null ? "" : " " + j.algorithm) + " (Cost ="
                     + pc.getCost(pathSoFar) + ", card = "
                     + pc.getCard(pathSoFar) + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
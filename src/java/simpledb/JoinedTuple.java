@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * JoinedTuple is the tuple a join returns for a pair of tuples it matched.
+ * It is a view of the fields of the two tuples rather than a copy of them,
+ * so that a plan of several joins does not copy the fields of its tuples
+ * at each join, and its TupleDesc is the merged one the join computed
+ * once. Setting a field of a joined tuple first copies its fields into the
+ * tuple itself, so that the tuples it joined are left unchanged.
+ * <p>
+ * Reading field i of a view of views takes a step per join below it, so
+ * the operators that keep the tuples they read and read their fields
+ * repeatedly, such as OrderBy or the outer block of a Join, copy them
+ * with {@link #materialize()}.
+ */
+public class JoinedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Tuple m_left;
+    private final Tuple m_right;
+    private final int m_leftFields;
+    /** The fields of this tuple once one was set, or null while it is a view */
+    private Field[] m_fields;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the TupleDesc of the joined tuple, the merge of those of
+     *            left and right
+     * @param left
+     *            the tuple whose fields come first
+     * @param right
+     *            the tuple whose fields follow
+     */
+    public JoinedTuple(TupleDesc td, Tuple left, Tuple right) {
+        super(td, null);
+        m_left = left;
+        m_right = right;
+        m_leftFields = left.getTupleDesc().numFields();
+    }
+
+    /**
+     * @return the tuple whose fields come first
+     */
+    public Tuple getLeft() {
+        return m_left;
+    }
+
+    /**
+     * @return the tuple whose fields follow
+     */
+    public Tuple getRight() {
+        return m_right;
+    }
+
+    public Field getField(int i) {
+        if (m_fields != null)
+            return m_fields[i];
+        return i < m_leftFields ? m_left.getField(i) : m_right.getField(i - m_leftFields);
+    }
+
+    /**
+     * Changes the value of the ith field of this tuple, after copying the
+     * fields of the tuples it joins into it on the first change.
+     */
+    public void setField(int i, Field f) {
+        if (m_fields == null) {
+            Field[] fields = new Field[getTupleDesc().numFields()];
+            copyFields(fields, 0);
+            m_fields = fields;
+        }
+        m_fields[i] = f;
+    }
+
+    /**
+     * @return a Tuple with the fields of this one
+     */
+    public Tuple materialize() {
+        Field[] fields = new Field[getTupleDesc().numFields()];
+        copyFields(fields, 0);
+        return new Tuple(getTupleDesc(), fields);
+    }
+
+    protected void copyFields(Field[] to, int offset) {
+        if (m_fields != null) {
+            System.arraycopy(m_fields, 0, to, offset, m_fields.length);
+            return;
+        }
+        m_left.copyFields(to, offset);
+        m_right.copyFields(to, offset + m_leftFields);
+    }
+
+    public Iterator<Field> fields() {
+        return materialize().fields();
+    }
+}
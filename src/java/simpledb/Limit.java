@@ -0,0 +1,120 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit is an operator that returns only the first tuples of its child, as
+ * a LIMIT clause does. It stops reading its child as soon as it has
+ * returned them, so that the operators below it do no more work than
+ * those tuples need.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator m_child;
+    private int m_limit;
+    /** The number of tuples returned since the last open() or rewind() */
+    private int m_count;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the largest number of tuples to return
+     * @param child
+     *            the tuples to return the first of
+     */
+    public Limit(int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        m_limit = limit;
+        m_child = child;
+    }
+
+    /**
+     * Returns an iterator over the first tuples of child, as a Limit over it
+     * does, that reads as few tuples as it can: the limit is pushed down
+     * through a Project, and an OrderBy it is applied to becomes a TopN
+     * unless the limit is more tuples than the OrderBy sorts in memory.
+     *
+     * @param limit
+     *            the largest number of tuples to return
+     * @param child
+     *            the tuples to return the first of
+     */
+    public static DbIterator pushDown(int limit, DbIterator child) {
+        if (child instanceof Project) {
+            Project p = (Project) child;
+            p.setChildren(new DbIterator[] { pushDown(limit, p.getChildren()[0]) });
+            return p;
+        }
+        if (child instanceof OrderBy) {
+            OrderBy o = (OrderBy) child;
+            if ((long) limit > (long) o.getMemoryPages() * HeapPage.getNumTuples(o.getTupleDesc()))
+                return new Limit(limit, o);
+            return new TopN(o.getOrderByFields(), o.getAscending(), limit, o.getChildren()[0]);
+        }
+        if (child instanceof TopN) {
+            TopN t = (TopN) child;
+            if (t.getLimit() <= limit)
+                return t;
+            return new TopN(t.getOrderByFields(), t.getAscending(), limit, t.getChildren()[0]);
+        }
+        if (child instanceof Limit) {
+            Limit l = (Limit) child;
+            return new Limit(Math.min(limit, l.m_limit), l.m_child);
+        }
+        return new Limit(limit, child);
+    }
+
+    /**
+     * @return the largest number of tuples this operator returns
+     */
+    public int getLimit() {
+        return m_limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        m_child.open();
+        m_count = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        m_child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_child.rewind();
+        m_count = 0;
+    }
+
+    /**
+     * Returns the next tuple of the child, or null once the limit is
+     * reached, without reading the child any further.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (m_count >= m_limit || !m_child.hasNext())
+            return null;
+        m_count++;
+        return m_child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_child = children[0];
+    }
+
+}
@@ -23,6 +23,22 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The physical join algorithms the optimizer chooses from. */
+    public enum Algorithm {
+        /** {@link Join}: scans the right-hand side once per left-hand tuple */
+        NESTED_LOOP,
+        /** {@link IndexNestedLoopJoin}: probes a hash index on the right-hand side */
+        INDEX_NESTED_LOOP,
+        /** {@link HashEquiJoin}: builds a hash table over the left-hand side */
+        HASH,
+        /** {@link SortMergeJoin}: merges both sides in the order of the join fields */
+        SORT_MERGE
+    }
+
+    /** The algorithm chosen by the optimizer to compute this join, or null
+     * if it has not chosen one */
+    public Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +79,14 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a new LogicalJoinNode for the same join, computed with the
+     * specified algorithm. */
+    public LogicalJoinNode withAlgorithm(Algorithm a) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.algorithm = a;
+        return j2;
+    }
+    
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
@@ -2,6 +2,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -33,8 +34,14 @@ public class LogicalPlan {
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private boolean hasOrderBy = false;
+    /** The ORDER BY fields, most significant first, and their orders */
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
+    /** The LIMIT of the query, or -1 if it has none */
+    private int limit = -1;
+    /** The number of threads the plan may run on */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
     private String query;
 //    private Query owner;
 
@@ -203,19 +210,39 @@ public class LogicalPlan {
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Each call adds
+        a field that orders the tuples whose previous ORDER BY fields are equal.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
         hasOrderBy = true;
     }
 
+    /** Set the largest number of tuples the query returns, as a LIMIT clause does.
+        @param limit the number of tuples, or -1 for no limit
+    */
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    /** @return the LIMIT of the query, or -1 if it has none */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** Set the number of threads the physical plan may run on, which is the
+        number of processors by default.
+        @param threads the number of threads, or 1 for a plan that runs on the calling thread
+    */
+    public void setParallelism(int threads) {
+        this.parallelism = threads;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,6 +298,177 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Chooses how the table with the specified alias is read. In order of
+     * preference: an IndexOnlyScan of a sorted index that covers every field
+     * the query uses and whose key is bounded by the WHERE clause; an
+     * IndexScan if the WHERE clause has an equality filter on a field with a
+     * hash index; a ClusteredScan if the table is clustered on a field the
+     * WHERE clause bounds; a BitmapScan ANDing the filters on fields with a
+     * bitmap index; an unbounded IndexOnlyScan if the covering index is smaller than
+     * the table; and a SeqScan otherwise. The filters themselves are
+     * still applied on top of the returned scan, or pushed into it if it
+     * is a SeqScan of a HeapFile.
+     */
+    private SeqScan accessPath(TransactionId t, int tableId, String alias) {
+        IndexOnlyScan covering = null;
+        boolean bounded = false;
+        HashSet<String> fields = referencedFields(alias, true);
+        for (DbFile f : Database.getCatalog().getIndexes(tableId)) {
+            if (!(f instanceof IsamFile))
+                continue;
+            IsamFile index = (IsamFile) f;
+            TupleDesc td = index.getTupleDesc();
+            HashSet<String> covered = new HashSet<String>();
+            for (int i = 0; i < td.numFields() - 2; i++)
+                covered.add(td.getFieldName(i));
+            if (fields == null ? covered.size() < Database.getCatalog().getTupleDesc(tableId).numFields()
+                    : !covered.containsAll(fields))
+                continue;
+            Field[] bounds = new Field[2];
+            boolean[] inclusive = new boolean[] { true, true };
+            for (LogicalFilterNode lf : filters) {
+                if (lf.tableAlias.equals(alias) && lf.fieldPureName.equals(td.getFieldName(0)))
+                    addBound(bounds, inclusive, lf.p, parseConstant(td.getFieldType(0), lf.c));
+            }
+            boolean b = bounds[0] != null || bounds[1] != null;
+            if (covering == null || (b && !bounded)
+                    || (b == bounded && index.numPages() < covering.getIndex().numPages())) {
+                covering = new IndexOnlyScan(t, tableId, alias, index,
+                        bounds[0], inclusive[0], bounds[1], inclusive[1]);
+                bounded = b;
+            }
+        }
+        if (covering != null && bounded)
+            return covering;
+
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(alias) || lf.p != Predicate.Op.EQUALS)
+                continue;
+            HashIndexFile index = Database.getCatalog().getIndex(tableId, lf.fieldPureName, HashIndexFile.class);
+            if (index == null)
+                continue;
+            Field key = parseConstant(index.getTupleDesc().getFieldType(0), lf.c);
+            if (key != null)
+                return new IndexScan(t, tableId, alias, index, key);
+        }
+
+        DbFile table = Database.getCatalog().getDbFile(tableId);
+        if (table instanceof HeapFile && ((HeapFile) table).getClusterField() >= 0) {
+            String key = table.getTupleDesc().getFieldName(((HeapFile) table).getClusterField());
+            Field[] bounds = new Field[2];
+            boolean[] inclusive = new boolean[] { true, true };
+            for (LogicalFilterNode lf : filters) {
+                if (lf.tableAlias.equals(alias) && lf.fieldPureName.equals(key))
+                    addBound(bounds, inclusive, lf.p, parseConstant(Type.INT_TYPE, lf.c));
+            }
+            if (bounds[0] != null || bounds[1] != null)
+                return new ClusteredScan(t, tableId, alias,
+                        bounds[0], inclusive[0], bounds[1], inclusive[1]);
+        }
+
+        ArrayList<BitmapCondition> bitmapConds = new ArrayList<BitmapCondition>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(alias))
+                continue;
+            BitmapIndex index = Database.getCatalog().getBitmapIndex(tableId, lf.fieldPureName);
+            if (index == null)
+                continue;
+            Field v = parseConstant(index.getTupleDesc().getFieldType(0), lf.c);
+            if (v != null)
+                bitmapConds.add(BitmapCondition.predicate(index, lf.p, v));
+        }
+        if (!bitmapConds.isEmpty())
+            return new BitmapScan(t, tableId, alias,
+                    BitmapCondition.and(bitmapConds.toArray(new BitmapCondition[0])));
+
+        if (covering != null && table instanceof HeapFile
+                && covering.getIndex().numPages() < ((HeapFile) table).numPages())
+            return covering;
+        return new SeqScan(t, tableId, alias);
+    }
+
+    /**
+     * Returns the constant of a filter as a Field of the specified type, or
+     * null if it is not a valid constant of that type.
+     */
+    private static Field parseConstant(Type type, String c) {
+        if (type == Type.INT_TYPE) {
+            try {
+                return new IntField(Integer.parseInt(c));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return new StringField(c, Type.STRING_LEN);
+    }
+
+    /**
+     * Narrows the range [bounds[0], bounds[1]] of an index key with the
+     * filter "key op v".
+     */
+    private static void addBound(Field[] bounds, boolean[] inclusive, Predicate.Op op, Field v) {
+        if (v == null)
+            return;
+        if (op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ) {
+            boolean incl = op != Predicate.Op.GREATER_THAN;
+            if (bounds[0] == null || v.compare(Predicate.Op.GREATER_THAN, bounds[0])
+                    || (v.equals(bounds[0]) && !incl)) {
+                bounds[0] = v;
+                inclusive[0] = incl;
+            }
+        }
+        if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ) {
+            boolean incl = op != Predicate.Op.LESS_THAN;
+            if (bounds[1] == null || v.compare(Predicate.Op.LESS_THAN, bounds[1])
+                    || (v.equals(bounds[1]) && !incl)) {
+                bounds[1] = v;
+                inclusive[1] = incl;
+            }
+        }
+    }
+
+    /**
+     * Returns the names of the fields of the table with the specified alias
+     * that the query refers to, or null if it refers to all of them.
+     *
+     * @param withFilters false to leave out the fields that only the
+     *   filters on the table refer to
+     */
+    private HashSet<String> referencedFields(String alias, boolean withFilters) {
+        HashSet<String> fields = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            addReferencedField(fields, alias, si.fname);
+        }
+        addReferencedField(fields, alias, aggField);
+        addReferencedField(fields, alias, groupByField);
+        for (String f : oByFields)
+            addReferencedField(fields, alias, f);
+        for (LogicalFilterNode lf : filters) {
+            if (withFilters && lf.tableAlias.equals(alias))
+                fields.add(lf.fieldPureName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (alias.equals(lj.t1Alias))
+                fields.add(lj.f1PureName);
+            if (alias.equals(lj.t2Alias))
+                fields.add(lj.f2PureName);
+        }
+        return fields;
+    }
+
+    private static void addReferencedField(HashSet<String> fields, String alias, String name) {
+        if (name == null)
+            return;
+        String[] parts = name.split("[.]");
+        if (parts.length == 2 && parts[0].equals(alias))
+            fields.add(parts[1]);
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -294,7 +492,7 @@ public class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 ss = accessPath(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -306,6 +504,9 @@ public class LogicalPlan {
 
         }
 
+        // the predicates on each table, with their estimated selectivities
+        HashMap<String, ArrayList<Predicate>> predicates = new HashMap<String, ArrayList<Predicate>>();
+        HashMap<String, ArrayList<Double>> selectivities = new HashMap<String, ArrayList<Double>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,16 +535,50 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            if (!predicates.containsKey(lf.tableAlias)) {
+                predicates.put(lf.tableAlias, new ArrayList<Predicate>());
+                selectivities.put(lf.tableAlias, new ArrayList<Double>());
+            }
+            predicates.get(lf.tableAlias).add(p);
+            selectivities.get(lf.tableAlias).add(sel);
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // the predicates are pushed into a SeqScan of a HeapFile, most
+        // selective first; a conjunction on another subplan is evaluated
+        // by an AdaptiveFilter, which reorders it as it runs
+        for (String alias : predicates.keySet()) {
+            DbIterator subplan = subplanMap.get(alias);
+            Predicate[] p = predicates.get(alias).toArray(new Predicate[0]);
+            double[] sel = new double[p.length];
+            for (int i = 0; i < p.length; i++)
+                sel[i] = selectivities.get(alias).get(i);
+            if (subplan.getClass() == SeqScan.class && Database.getCatalog().getDbFile(
+                    ((SeqScan) subplan).getTableId()) instanceof HeapFile) {
+                for (int i : new ConjunctOrder(sel).order())
+                    ((SeqScan) subplan).addPredicate(p[i]);
+            } else if (p.length == 1)
+                subplanMap.put(alias, new Filter(p[0], subplan));
+            else
+                subplanMap.put(alias, new AdaptiveFilter(p, sel, subplan));
+        }
         
+        // the scans the filters were pushed into only decode the fields
+        // that the operators above them use
+        for (LogicalScanNode table : tables) {
+            DbIterator subplan = subplanMap.get(table.alias);
+            if (subplan != null && subplan.getClass() == SeqScan.class && Database.getCatalog()
+                    .getDbFile(((SeqScan) subplan).getTableId()) instanceof HeapFile)
+                pruneColumns((SeqScan) subplan, table.alias);
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
@@ -382,7 +617,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = parallelJoin(jo.instantiateJoin(lj,plan1,plan2));
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -458,6 +693,11 @@ public class LogicalPlan {
                 }
         }
 
+        if (hasAgg || hasOrderBy) {
+            // the filters of a single table run on several threads
+            node = ParallelScan.parallelize(node, parallelism);
+        }
+
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
@@ -471,14 +711,121 @@ public class LogicalPlan {
             } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
+            aggNode.setParallelism(parallelism);
+            node = parallelAggregate(aggNode);
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] fields = new int[oByFields.size()];
+            boolean[] asc = new boolean[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = node.getTupleDesc().fieldNameToIndex(oByFields.elementAt(i));
+                asc[i] = oByAscs.elementAt(i);
+            }
+            // a sort-merge join may already return the tuples in this order
+            if (fields.length > 1 || !asc[0] || !SortMergeJoin.isSortedOn(node, fields[0]))
+                node = new OrderBy(fields, asc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        DbIterator plan = new Project(outFields, outTypes, node);
+        if (!hasAgg && !hasOrderBy)
+            plan = ParallelScan.parallelize(plan, parallelism);
+        // the limit goes below the projection, and turns a sort into a TopN
+        return limit < 0 ? plan : Limit.pushDown(limit, plan);
+    }
+
+    /**
+     * Makes a scan return only the fields of its table that the query
+     * refers to, other than those the filters pushed into the scan refer
+     * to, so that joins, sorts and aggregates carry no other fields.
+     */
+    private void pruneColumns(SeqScan scan, String alias) {
+        HashSet<String> fields = referencedFields(alias, false);
+        if (fields == null)
+            return;
+        TupleDesc td = Database.getCatalog().getTupleDesc(scan.getTableId());
+        ArrayList<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < td.numFields(); i++) {
+            if (fields.contains(td.getFieldName(i)))
+                columns.add(i);
+        }
+        if (columns.size() == td.numFields())
+            return;
+        // a tuple has at least one field
+        if (columns.isEmpty())
+            columns.add(0);
+        int[] c = new int[columns.size()];
+        for (int i = 0; i < c.length; i++)
+            c[i] = columns.get(i);
+        scan.setColumns(c);
+    }
+
+    /**
+     * Returns a join that runs on several threads if it is a HashEquiJoin
+     * with a large input: both inputs are repartitioned on their join
+     * fields, and the pairs of partitions are joined by HashEquiJoins that
+     * run on the threads of a Gather.
+     */
+    private DbIterator parallelJoin(DbIterator j) {
+        if (parallelism < 2 || !(j instanceof HashEquiJoin))
+            return j;
+        HashEquiJoin hj = (HashEquiJoin) j;
+        DbIterator[] children = hj.getChildren();
+        if (!isLarge(children[0]) && !isLarge(children[1]))
+            return j;
+        JoinPredicate p = hj.getJoinPredicate();
+        HashRepartition[] left = repartition(children[0], p.getField1());
+        HashRepartition[] right = repartition(children[1], p.getField2());
+        DbIterator[] joins = new DbIterator[parallelism];
+        for (int i = 0; i < parallelism; i++)
+            joins[i] = new HashEquiJoin(p, left[i], right[i]);
+        return new Gather(joins);
+    }
+
+    /**
+     * Returns an aggregate that runs on several threads if it has a
+     * grouping and its child already runs on several threads: the child's
+     * tuples are repartitioned on the group-by field, and each partition is
+     * aggregated on a thread of a Gather. The aggregate of a bare scan is
+     * computed in parallel by Aggregate itself.
+     */
+    private DbIterator parallelAggregate(Aggregate a) {
+        DbIterator child = a.getChildren()[0];
+        if (parallelism < 2 || a.groupField() == Aggregator.NO_GROUPING
+                || !(child instanceof Gather))
+            return a;
+        HashRepartition[] parts = repartition(child, a.groupField());
+        DbIterator[] aggs = new DbIterator[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            Aggregate ai = new Aggregate(parts[i], a.aggregateField(), a.groupField(),
+                    a.aggregateOp());
+            ai.setMaxGroups(Math.max(1, Aggregate.DEFAULT_MAX_GROUPS / parallelism));
+            aggs[i] = ai;
+        }
+        return new Gather(aggs);
+    }
+
+    /**
+     * @return true if a subplan is worth repartitioning on several threads
+     */
+    private static boolean isLarge(DbIterator plan) {
+        return plan instanceof Gather || ParallelScan.isLargeScan(plan);
+    }
+
+    /**
+     * Returns the consumers of a repartition of a subplan on a field into
+     * one partition per thread. The producers are the copies of a pipeline
+     * over a scan, which share its pages, or the producers of a Gather,
+     * whose tuples are then repartitioned without being gathered first.
+     */
+    private HashRepartition[] repartition(DbIterator plan, int field) {
+        if (plan instanceof ParallelScan)
+            plan = ((ParallelScan) plan).getChildren()[0];
+        if (ParallelScan.getScan(plan) != null)
+            return HashRepartition.create(plan, parallelism, field, parallelism);
+        if (plan instanceof Gather)
+            return HashRepartition.create(((Gather) plan).getChildren(), field, parallelism);
+        return HashRepartition.create(new DbIterator[] { plan }, field, parallelism);
     }
 
     public static void main(String argv[]) {
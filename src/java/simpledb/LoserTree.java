@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * LoserTree merges k iterators whose tuples are sorted by a comparator into
+ * one sorted sequence. It is a tournament tree: each internal node holds the
+ * source that lost the comparison played there, and the overall winner is
+ * kept apart, so that replacing the winner by the next tuple of its source
+ * replays only the log2(k) comparisons on the path from its leaf to the
+ * root, each against a single loser.
+ * <p>
+ * Tuples that compare equal are returned in the order of their sources, so
+ * merging runs produced in input order keeps the sort stable.
+ */
+public class LoserTree {
+
+    private DbIterator[] m_sources;
+    private Comparator<Tuple> m_comparator;
+    /** The current tuple of each source, or null if it is exhausted */
+    private Tuple[] m_heads;
+    /** The loser at each internal node 1..k-1, and the winner at 0 */
+    private int[] m_tree;
+
+    /**
+     * Creates a tree that merges the specified open iterators.
+     */
+    public LoserTree(DbIterator[] sources, Comparator<Tuple> comparator)
+            throws DbException, TransactionAbortedException {
+        m_sources = sources;
+        m_comparator = comparator;
+        int k = sources.length;
+        m_heads = new Tuple[k];
+        m_tree = new int[Math.max(k, 1)];
+        for (int i = 0; i < k; i++)
+            m_heads[i] = sources[i].hasNext() ? sources[i].next() : null;
+        m_tree[0] = k == 0 ? -1 : play(1);
+    }
+
+    /**
+     * Plays the matches of the subtree rooted at the specified node,
+     * recording the losers.
+     *
+     * @return the source that wins the subtree
+     */
+    private int play(int node) {
+        int k = m_sources.length;
+        if (node >= k)
+            return node - k;
+        int w1 = play(2 * node);
+        int w2 = play(2 * node + 1);
+        if (beats(w1, w2)) {
+            m_tree[node] = w2;
+            return w1;
+        }
+        m_tree[node] = w1;
+        return w2;
+    }
+
+    /**
+     * @return true if the current tuple of source a comes before that of
+     *   source b; exhausted sources come last
+     */
+    private boolean beats(int a, int b) {
+        if (m_heads[a] == null)
+            return false;
+        if (m_heads[b] == null)
+            return true;
+        int c = m_comparator.compare(m_heads[a], m_heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /**
+     * @return true if there are more tuples to merge
+     */
+    public boolean hasNext() {
+        return m_tree[0] >= 0 && m_heads[m_tree[0]] != null;
+    }
+
+    /**
+     * @return the smallest tuple not returned yet, or null if there are none
+     */
+    public Tuple next() throws DbException, TransactionAbortedException {
+        if (!hasNext())
+            return null;
+        int w = m_tree[0];
+        Tuple result = m_heads[w];
+        m_heads[w] = m_sources[w].hasNext() ? m_sources[w].next() : null;
+        for (int node = (w + m_sources.length) / 2; node > 0; node /= 2) {
+            if (beats(m_tree[node], w)) {
+                int loser = w;
+                w = m_tree[node];
+                m_tree[node] = loser;
+            }
+        }
+        m_tree[0] = w;
+        return result;
+    }
+}
@@ -4,10 +4,12 @@ import java.util.NoSuchElementException;
 
 /**
  * Abstract class for implementing operators. It handles <code>close</code>,
- * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
- * <code>open</code> and <code>readNext</code>.
+ * <code>next</code>, <code>hasNext</code> and <code>nextBatch</code>.
+ * Subclasses only need to implement <code>open</code> and
+ * <code>readNext</code>, and may override <code>fetchNextBatch</code> to
+ * process tuples a batch at a time.
  */
-public abstract class Operator implements DbIterator {
+public abstract class Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -33,6 +35,56 @@ public abstract class Operator implements DbIterator {
         return result;
     }
 
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+
+        if (next != null) {
+            // hasNext() already fetched a tuple
+            TupleBatch batch = new TupleBatch();
+            batch.add(next);
+            next = null;
+            return batch;
+        }
+        return fetchNextBatch();
+    }
+
+    /**
+     * Returns the tuple hasNext() already fetched, if any, which is then no
+     * longer returned by next() or nextBatch(). Subclasses that return their
+     * tuples in some other form must return it first.
+     * 
+     * @return the tuple fetched by hasNext(), or null if there is none
+     */
+    protected Tuple takeFetched() {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        Tuple result = next;
+        next = null;
+        return result;
+    }
+
+    /**
+     * Returns the next batch of tuples of the iterator, or null if the
+     * iteration is finished. Operator uses this method to implement
+     * <code>nextBatch</code>; by default it calls fetchNext until the batch
+     * is full.
+     * 
+     * @return a batch with at least one selected tuple, or null if the
+     *         iteration is finished.
+     */
+    protected TupleBatch fetchNextBatch() throws DbException,
+            TransactionAbortedException {
+        TupleBatch batch = new TupleBatch();
+        while (!batch.isFull()) {
+            Tuple t = fetchNext();
+            if (t == null)
+                break;
+            batch.add(t);
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -1,20 +1,42 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or
+ * more fields.
+ * <p>
+ * It is an external merge sort with bounded memory: it reads its child into
+ * runs of as many tuples as fit on a configurable number of pages, sorts
+ * each run, and writes it to a SpillFile. The runs are then merged with a
+ * LoserTree as the tuples are returned, at most MERGE_FAN_IN at a time;
+ * more runs are first merged into longer ones, in passes over groups of
+ * consecutive runs that keep the sort stable. A child that fits in one run
+ * is sorted in memory without being written out.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The default number of pages' worth of tuples sorted in memory. */
+    public static final int DEFAULT_MEMORY_PAGES = 500;
+    /** The largest number of runs merged at once. */
+    public static final int MERGE_FAN_IN = 64;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
+    private int[] orderByFields;
+    private boolean[] ascending;
     private String orderByFieldName;
     private Iterator<Tuple> it;
-    private boolean asc;
+    private int memoryPages = DEFAULT_MEMORY_PAGES;
+    private TupleComparator comparator;
+    /** The sorted runs written to disk, if the child did not fit in memory */
+    private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private DbIterator[] runIterators;
+    private LoserTree merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,21 +49,72 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts the tuples from the iterator on
+     * several fields: by the first one, then by the second one among tuples
+     * whose first fields are equal, and so on.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one order per sort field");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields;
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
+        this.ascending = asc;
+        this.comparator = new TupleComparator(orderbyFields, asc);
+    }
+
+    /**
+     * Sets the number of pages' worth of tuples this operator sorts in
+     * memory. Takes effect at the next open().
+     */
+    public void setMemoryPages(int pages) {
+        if (pages < 1)
+            throw new IllegalArgumentException("need at least one page of memory");
+        memoryPages = pages;
     }
     
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascending[0];
     }
     
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
+    }
+
+    /**
+     * @return the fields the sort is applied to, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+    
+    /**
+     * @return for each sort field, true if the sort order is ascending
+     */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
+
+    /**
+     * @return the number of pages' worth of tuples this operator sorts in
+     *   memory
+     */
+    public int getMemoryPages() {
+        return memoryPages;
     }
     
     public String getOrderFieldName()
@@ -53,24 +126,140 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs written to disk by the last open()
+     */
+    public int numRuns() {
+        return runs.size();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        deleteRuns();
+        childTups.clear();
+        int runSize = memoryPages * HeapPage.getNumTuples(td);
+        TupleBatch batch;
+        while ((batch = TupleBatch.next(child)) != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                childTups.add(batch.get(i).materialize());
+                if (childTups.size() >= runSize) {
+                    runs.add(writeRun(childTups));
+                    childTups.clear();
+                }
+            }
+        }
+        if (!runs.isEmpty()) {
+            if (!childTups.isEmpty())
+                runs.add(writeRun(childTups));
+            childTups.clear();
+            childTups.trimToSize();
+            while (runs.size() > MERGE_FAN_IN)
+                mergeRuns();
+        } else {
+            Collections.sort(childTups, comparator);
+        }
         super.open();
+        rewind();
+    }
+
+    /**
+     * Sorts the specified tuples and writes them to a new run.
+     */
+    private SpillFile writeRun(ArrayList<Tuple> tuples) throws DbException {
+        Collections.sort(tuples, comparator);
+        try {
+            SpillFile run = new SpillFile(td);
+            for (Tuple t : tuples)
+                run.add(t);
+            run.finish();
+            return run;
+        } catch (IOException e) {
+            throw new DbException("could not write a sorted run: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Merges each group of MERGE_FAN_IN consecutive runs into one, keeping
+     * the runs in input order so that the sort stays stable.
+     */
+    private void mergeRuns() throws DbException, TransactionAbortedException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int start = 0; start < runs.size(); start += MERGE_FAN_IN) {
+            List<SpillFile> group = runs.subList(start, Math.min(start + MERGE_FAN_IN, runs.size()));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            DbIterator[] its = openRuns(group);
+            LoserTree tree = new LoserTree(its, comparator);
+            try {
+                SpillFile run = new SpillFile(td);
+                while (tree.hasNext())
+                    run.add(tree.next());
+                run.finish();
+                merged.add(run);
+            } catch (IOException e) {
+                throw new DbException("could not write a sorted run: " + e.getMessage());
+            } finally {
+                for (int i = 0; i < its.length; i++)
+                    its[i].close();
+            }
+            for (SpillFile f : group)
+                f.delete();
+        }
+        runs = merged;
+    }
+
+    /**
+     * @return open iterators over the specified runs
+     */
+    private static DbIterator[] openRuns(List<SpillFile> files)
+            throws DbException, TransactionAbortedException {
+        DbIterator[] its = new DbIterator[files.size()];
+        try {
+            for (int i = 0; i < its.length; i++) {
+                its[i] = files.get(i).iterator();
+                its[i].open();
+            }
+        } catch (IOException e) {
+            throw new DbException("could not read a sorted run: " + e.getMessage());
+        }
+        return its;
+    }
+
+    private void closeRuns() {
+        if (runIterators != null) {
+            for (DbIterator i : runIterators)
+                i.close();
+            runIterators = null;
+        }
+        merge = null;
+    }
+
+    private void deleteRuns() {
+        closeRuns();
+        for (SpillFile f : runs)
+            f.delete();
+        runs.clear();
     }
 
     public void close() {
         super.close();
+        child.close();
         it = null;
+        childTups.clear();
+        deleteRuns();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+        } else {
+            closeRuns();
+            runIterators = openRuns(runs);
+            merge = new LoserTree(runIterators, comparator);
+        }
     }
 
     /**
@@ -82,12 +271,23 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null)
+            return merge.next();
         if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
     }
 
+    protected TupleBatch fetchNextBatch() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        TupleBatch batch = new TupleBatch();
+        Tuple t;
+        while (!batch.isFull() && (t = fetchNext()) != null)
+            batch.add(t);
+        return batch.size() == 0 ? null : batch;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -99,25 +299,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
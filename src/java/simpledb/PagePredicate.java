@@ -0,0 +1,247 @@
+package simpledb;
+
+/**
+ * PagePredicate evaluates a conjunction of Predicates on the rows of a
+ * HeapPage as they are laid out in its bytes, so that a scan only creates
+ * the Tuples of the rows that satisfy them. An int field is compared as the
+ * 4 bytes at its offset in the row, and a string field byte by byte with
+ * the operand, unless the operand has chars that are not ASCII: the field
+ * is then decoded into a StringField first.
+ * <p>
+ * The predicates are evaluated in the order a {@link ConjunctOrder} keeps
+ * from the fraction of the rows each of them passed, starting from the
+ * order they were given in, so that the most selective comes first.
+ * <p>
+ * The rows can also be required to have a key that may be in a
+ * {@link RuntimeFilter}, which a hash join builds at runtime from the keys
+ * of its build side. The filters are ordered with the predicates, after
+ * them to start with.
+ */
+public class PagePredicate {
+
+    private Predicate[] m_predicates;
+    /** The offset of the field of each predicate within a row */
+    private int[] m_offsets;
+    /** The operand of each predicate on an int field */
+    private int[] m_ints;
+    /** The bytes of the operand of each predicate on a string field, or
+        null if it is an int field or the operand is not ASCII */
+    private byte[][] m_strings;
+    /** The runtime filters, and the field and offset within a row of
+        the key each of them tests */
+    private RuntimeFilter[] m_filters;
+    private int[] m_filterFields;
+    private int[] m_filterOffsets;
+    private ConjunctOrder m_order;
+    /** The rows each predicate was evaluated on and passed since the
+        counts were last given to m_order, and the number of rows */
+    private int[] m_evaluated;
+    private int[] m_passed;
+    private int m_rows;
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the TupleDesc of the rows
+     * @param predicates
+     *            the predicates a row must all satisfy
+     */
+    public PagePredicate(TupleDesc td, Predicate[] predicates) {
+        this(td, predicates, new int[0], new RuntimeFilter[0]);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the TupleDesc of the rows
+     * @param predicates
+     *            the predicates a row must all satisfy
+     * @param filterFields
+     *            the field of the rows each runtime filter tests
+     * @param filters
+     *            the runtime filters the key of a row must pass
+     */
+    public PagePredicate(TupleDesc td, Predicate[] predicates, int[] filterFields,
+            RuntimeFilter[] filters) {
+        m_predicates = predicates.clone();
+        m_filters = filters.clone();
+        m_filterFields = filterFields.clone();
+        m_filterOffsets = new int[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            if (td.getFieldType(filterFields[i]) != filters[i].getType())
+                throw new IllegalArgumentException("runtime filter of the wrong type");
+            for (int j = 0; j < filterFields[i]; j++)
+                m_filterOffsets[i] += td.getFieldType(j).getLen();
+        }
+        int n = predicates.length;
+        m_offsets = new int[n];
+        m_ints = new int[n];
+        m_strings = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            Predicate p = predicates[i];
+            for (int j = 0; j < p.getField(); j++)
+                m_offsets[i] += td.getFieldType(j).getLen();
+            if (td.getFieldType(p.getField()) != p.getOperand().getType())
+                throw new IllegalArgumentException("operand of the wrong type: " + p);
+            if (p.getOperand() instanceof IntField)
+                m_ints[i] = ((IntField) p.getOperand()).getValue();
+            else
+                m_strings[i] = ascii(((StringField) p.getOperand()).getValue());
+        }
+        // without estimates, the predicates start in the order given, and
+        // the runtime filters after them
+        int conjuncts = n + filters.length;
+        double[] selectivities = new double[conjuncts];
+        for (int i = 0; i < conjuncts; i++)
+            selectivities[i] = (i + 1.0) / (conjuncts + 1);
+        m_order = new ConjunctOrder(selectivities);
+        m_evaluated = new int[conjuncts];
+        m_passed = new int[conjuncts];
+    }
+
+    /**
+     * @return the predicates evaluated
+     */
+    public Predicate[] getPredicates() {
+        return m_predicates.clone();
+    }
+
+    /**
+     * @return the bytes of an ASCII string, or null if it has other chars
+     */
+    private static byte[] ascii(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80)
+                return null;
+            b[i] = (byte) c;
+        }
+        return b;
+    }
+
+    /**
+     * @return true if the row that starts at offset row of d satisfies
+     *   every predicate
+     */
+    public boolean matches(byte[] d, int row) {
+        if (++m_rows == ConjunctOrder.REORDER_INTERVAL) {
+            for (int i = 0; i < m_evaluated.length; i++) {
+                m_order.count(i, m_evaluated[i], m_passed[i]);
+                m_evaluated[i] = m_passed[i] = 0;
+            }
+            m_order.tuples(m_rows);
+            m_rows = 0;
+        }
+        int n = m_predicates.length;
+        for (int i : m_order.order()) {
+            if (i >= n) {
+                m_evaluated[i]++;
+                if (!m_filters[i - n].mightContain(d, row + m_filterOffsets[i - n]))
+                    return false;
+                m_passed[i]++;
+                continue;
+            }
+            int off = row + m_offsets[i];
+            int v = (d[off] << 24) | ((d[off + 1] & 0xff) << 16)
+                    | ((d[off + 2] & 0xff) << 8) | (d[off + 3] & 0xff);
+            Predicate.Op op = m_predicates[i].getOp();
+            boolean match;
+            if (m_strings[i] != null)
+                match = matchString(d, off + 4, v, op, m_strings[i]);
+            else if (m_predicates[i].getOperand() instanceof IntField)
+                match = matchInt(v, op, m_ints[i]);
+            else
+                match = new StringField(new String(d, off + 4, v), Type.STRING_LEN)
+                        .compare(op, m_predicates[i].getOperand());
+            m_evaluated[i]++;
+            if (!match)
+                return false;
+            m_passed[i]++;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if a tuple satisfies every predicate
+     */
+    public boolean matches(Tuple t) {
+        for (Predicate p : m_predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        for (int i = 0; i < m_filters.length; i++) {
+            if (!m_filters[i].mightContain(t.getField(m_filterFields[i])))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares an int with an operand as IntField.compare does.
+     */
+    private static boolean matchInt(int v, Predicate.Op op, int c) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return v == c;
+        case NOT_EQUALS:
+            return v != c;
+        case GREATER_THAN:
+            return v > c;
+        case GREATER_THAN_OR_EQ:
+            return v >= c;
+        case LESS_THAN:
+            return v < c;
+        case LESS_THAN_OR_EQ:
+            return v <= c;
+        }
+        return false;
+    }
+
+    /**
+     * Compares the len bytes of a string at offset off of d with the bytes
+     * of an ASCII operand as StringField.compare does. The bytes of a
+     * string that are not ASCII decode to chars that are not either, which
+     * sort after every ASCII char and never match one, so the bytes can be
+     * compared without decoding them.
+     */
+    private static boolean matchString(byte[] d, int off, int len, Predicate.Op op, byte[] c) {
+        if (op == Predicate.Op.LIKE) {
+            // a substring match, as String.indexOf
+            outer:
+            for (int start = 0; start + c.length <= len; start++) {
+                for (int k = 0; k < c.length; k++) {
+                    if (d[off + start + k] != c[k])
+                        continue outer;
+                }
+                return true;
+            }
+            return false;
+        }
+        int n = Math.min(len, c.length);
+        int cmp = 0;
+        for (int k = 0; k < n && cmp == 0; k++)
+            cmp = (d[off + k] & 0xff) - c[k];
+        if (cmp == 0)
+            cmp = len - c.length;
+        switch (op) {
+        case EQUALS:
+            return cmp == 0;
+        case NOT_EQUALS:
+            return cmp != 0;
+        case GREATER_THAN:
+            return cmp > 0;
+        case GREATER_THAN_OR_EQ:
+            return cmp >= 0;
+        case LESS_THAN:
+            return cmp < 0;
+        case LESS_THAN_OR_EQ:
+            return cmp <= 0;
+        default:
+            return false;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelAggregate computes an aggregate over an int field of a HeapFile
+ * on several threads, in two phases:
+ * <ol>
+ * <li>Each thread takes the next {@link ParallelScan#MORSEL_PAGES} pages
+ * of the file until there are none left, and merges their rows into an
+ * IntegerAggregator of its own, decoding them from the pages into
+ * ColumnarBatches. The threads share nothing but the number of the next
+ * page and the BufferPool, and since they take small ranges of pages as
+ * they need them rather than a fixed share of the file, none of them is
+ * left idle while another has a long way to go.</li>
+ * <li>Each thread splits its groups into one partition per thread, by the
+ * hash of their key, and thread p then merges partition p of every thread
+ * into a final aggregator. A key is in the same partition for every thread,
+ * so the final aggregators hold different groups and the merge needs no
+ * locking.</li>
+ * </ol>
+ * Aggregate uses it instead of reading its child when the child is a
+ * SeqScan of a large HeapFile (see {@link Aggregate#setParallelism(int)}).
+ */
+public class ParallelAggregate {
+
+    private TransactionId m_tid;
+    private HeapFile m_file;
+    private int m_gfield;
+    private int m_afield;
+    private Aggregator.Op m_op;
+    private int m_threads;
+    /** The predicates the rows aggregated satisfy */
+    private Predicate[] m_predicates;
+    /** The fields of the file the rows have, or null for all of them */
+    private int[] m_columns;
+    /** The TupleDesc of the rows */
+    private TupleDesc m_td;
+    /** The first page of the next morsel */
+    private AtomicInteger m_nextPage = new AtomicInteger();
+    /** Set when the threads should stop scanning */
+    private volatile boolean m_stop;
+    /** Set if a thread got more groups than it may hold */
+    private volatile boolean m_overflow;
+    /** The aggregator of each thread */
+    private IntegerAggregator[] m_partials;
+    /** For each thread and partition, the groups of the thread in it */
+    private int[][][] m_partitions;
+    /** The groups of each partition, once merged */
+    private ArrayList<ArrayList<Tuple>> m_results;
+
+    /**
+     * Constructor.
+     *
+     * @param scan
+     *            the scan of the HeapFile whose rows are aggregated, whose
+     *            predicates and columns are honoured
+     * @param gfield
+     *            the group-by field of the rows of the scan, or NO_GROUPING
+     * @param afield
+     *            the int field aggregated
+     * @param op
+     *            the aggregation operator
+     * @param threads
+     *            the number of threads to aggregate with
+     */
+    public ParallelAggregate(SeqScan scan, int gfield, int afield,
+            Aggregator.Op op, int threads) {
+        m_tid = scan.getTransactionId();
+        m_file = (HeapFile) Database.getCatalog().getDbFile(scan.getTableId());
+        m_predicates = scan.getPredicates();
+        m_columns = scan.getColumns();
+        m_td = m_columns == null ? m_file.getTupleDesc() : m_file.getTupleDesc().project(m_columns);
+        if (m_td.getFieldType(afield) != Type.INT_TYPE)
+            throw new IllegalArgumentException("only int fields are aggregated in parallel");
+        m_gfield = gfield;
+        m_afield = afield;
+        m_op = op;
+        m_threads = Math.max(1, threads);
+    }
+
+    /**
+     * Aggregates the rows of the file. The threads give up as soon as one of
+     * them has more than its share of maxGroups groups, so that the groups
+     * of all the threads never take more memory than maxGroups groups do.
+     *
+     * @param maxGroups
+     *            the number of groups that may be held in memory
+     * @return the result tuples of the aggregate, as those of
+     *         {@link Aggregator#iterator()}, or null if there were too many
+     *         groups
+     */
+    public ArrayList<Tuple> run(int maxGroups) throws DbException,
+            TransactionAbortedException {
+        final int maxPerThread = Math.max(1, maxGroups / m_threads);
+        m_nextPage.set(0);
+        m_stop = false;
+        m_overflow = false;
+        m_partials = new IntegerAggregator[m_threads];
+        m_partitions = new int[m_threads][][];
+        m_results = new ArrayList<ArrayList<Tuple>>();
+        for (int p = 0; p < m_threads; p++)
+            m_results.add(null);
+        try {
+            runAll(new Phase() {
+                public void run(int thread) throws DbException, TransactionAbortedException {
+                    scan(thread, maxPerThread);
+                }
+            });
+            if (m_overflow)
+                return null;
+            runAll(new Phase() {
+                public void run(int partition) {
+                    merge(partition);
+                }
+            });
+            ArrayList<Tuple> result = new ArrayList<Tuple>();
+            for (ArrayList<Tuple> groups : m_results)
+                result.addAll(groups);
+            return result;
+        } finally {
+            m_partials = null;
+            m_partitions = null;
+            m_results = null;
+        }
+    }
+
+    /**
+     * Aggregates the morsels a thread takes into its own aggregator, and
+     * then splits its groups into partitions.
+     */
+    private void scan(int thread, int maxGroups) throws DbException,
+            TransactionAbortedException {
+        IntegerAggregator agg = newAggregator();
+        m_partials[thread] = agg;
+        HeapFile.HeapFileIterator it = m_file.iterator(m_tid, m_nextPage,
+                ParallelScan.MORSEL_PAGES, m_predicates, m_columns);
+        it.open();
+        ColumnarBatch batch;
+        do {
+            batch = new ColumnarBatch(m_td);
+            it.fill(batch);
+            agg.mergeBatch(batch);
+            if (agg.numGroups() > maxGroups) {
+                m_overflow = true;
+                m_stop = true;
+            }
+        } while (batch.isFull() && !m_stop);
+        it.close();
+        if (m_stop)
+            return;
+
+        AggregateHashTable groups = agg.groups();
+        int[] partitionOf = new int[groups.size()];
+        int[] sizes = new int[m_threads];
+        for (int g = 0; g < partitionOf.length; g++)
+            sizes[partitionOf[g] = groups.partition(g, m_threads)]++;
+        int[][] partitions = new int[m_threads][];
+        for (int p = 0; p < m_threads; p++)
+            partitions[p] = new int[sizes[p]];
+        int[] next = new int[m_threads];
+        for (int g = 0; g < partitionOf.length; g++) {
+            int p = partitionOf[g];
+            partitions[p][next[p]++] = g;
+        }
+        m_partitions[thread] = partitions;
+    }
+
+    /**
+     * Merges a partition of the groups of every thread, and computes their
+     * aggregates.
+     */
+    private void merge(int partition) {
+        IntegerAggregator merged = newAggregator();
+        for (int t = 0; t < m_threads; t++)
+            merged.mergeGroups(m_partials[t], m_partitions[t][partition]);
+        m_results.set(partition, merged.results());
+    }
+
+    /**
+     * @return an empty aggregator over the rows of the scan
+     */
+    private IntegerAggregator newAggregator() {
+        Type gtype = m_gfield == Aggregator.NO_GROUPING ? null
+                : m_td.getFieldType(m_gfield);
+        return new IntegerAggregator(m_gfield, gtype, m_afield, m_op);
+    }
+
+    /** The work of one thread in a phase */
+    private interface Phase {
+        void run(int thread) throws DbException, TransactionAbortedException;
+    }
+
+    /**
+     * Runs a phase on m_threads threads, numbered from 0, and waits for them
+     * to finish. If any of them fails, the others are told to stop and its
+     * exception is thrown.
+     */
+    private void runAll(final Phase phase) throws DbException,
+            TransactionAbortedException {
+        final Throwable[] errors = new Throwable[m_threads];
+        Thread[] threads = new Thread[m_threads];
+        for (int i = 0; i < m_threads; i++) {
+            final int thread = i;
+            threads[i] = new Thread("aggregate-" + i) {
+                public void run() {
+                    try {
+                        phase.run(thread);
+                    } catch (Throwable e) {
+                        errors[thread] = e;
+                        m_stop = true;
+                    }
+                }
+            };
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+        boolean interrupted = false;
+        for (Thread t : threads) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        for (Throwable e : errors) {
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof RuntimeException)
+                throw (RuntimeException) e;
+            if (e instanceof Error)
+                throw (Error) e;
+            if (e != null)
+                throw new DbException("aggregate thread failed: " + e);
+        }
+    }
+}
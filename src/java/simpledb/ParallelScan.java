@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelScan runs a pipeline of Filters and Projects over a SeqScan of a
+ * HeapFile on several threads, and returns the tuples of all of them. The
+ * pages of the file are handed out in morsels of MORSEL_PAGES pages: each
+ * thread runs a copy of the pipeline over a scan that takes the next morsel
+ * when it has read the previous one, until there are none left (see
+ * {@link HeapFile#iterator(TransactionId, AtomicInteger, int)}).
+ * <p>
+ * It is a Gather of the copies: the threads put the batches of tuples
+ * their pipelines return in a bounded queue, which the consumer of this
+ * operator reads, and wait when it is full. The tuples of different morsels
+ * are returned in no particular order.
+ */
+public class ParallelScan extends Gather {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of consecutive pages a thread scans at a time */
+    public static final int MORSEL_PAGES = 16;
+    /** The number of pages a scan needs to be run in parallel by parallelize() */
+    public static final int PARALLEL_MIN_PAGES = 128;
+
+    private int m_threads;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            a chain of Filters and Projects over a SeqScan of a HeapFile,
+     *            or only the SeqScan
+     * @param threads
+     *            the number of threads to scan with
+     */
+    public ParallelScan(DbIterator child, int threads) {
+        super(new GatherChannels("scan", check(child), threads));
+        m_threads = Math.max(1, threads);
+    }
+
+    private static DbIterator check(DbIterator child) {
+        if (getScan(child) == null)
+            throw new IllegalArgumentException("not a pipeline over a scan of a HeapFile");
+        return child;
+    }
+
+    /**
+     * Returns copies of a pipeline of Filters and Projects over a SeqScan
+     * of a HeapFile, whose scans share the pages of the file: each reads
+     * the next morsel of the file when it has read the previous one.
+     *
+     * @param n
+     *            the number of copies
+     */
+    public static DbIterator[] split(DbIterator pipeline, int n) {
+        SeqScan scan = getScan(pipeline);
+        if (scan == null)
+            throw new IllegalArgumentException("not a pipeline over a scan of a HeapFile");
+        AtomicInteger nextPage = new AtomicInteger();
+        DbIterator[] copies = new DbIterator[n];
+        for (int i = 0; i < n; i++)
+            copies[i] = copy(pipeline, new MorselScan(scan, nextPage));
+        return copies;
+    }
+
+    /**
+     * Returns a ParallelScan on the specified number of threads over a
+     * pipeline of Filters and Projects over a large scan (see
+     * {@link #isLargeScan(DbIterator)}), or the pipeline itself if it is not
+     * one or there is a single thread. A bare SeqScan without predicates is
+     * returned as it is, since Aggregate reads its pages in parallel by
+     * itself.
+     */
+    public static DbIterator parallelize(DbIterator plan, int threads) {
+        if (threads < 2 || !isLargeScan(plan)
+                || (plan instanceof SeqScan && ((SeqScan) plan).getPredicates().length == 0))
+            return plan;
+        return new ParallelScan(plan, threads);
+    }
+
+    /**
+     * @return true if plan is a pipeline of Filters and Projects over a
+     *   SeqScan of a HeapFile of at least PARALLEL_MIN_PAGES pages
+     */
+    public static boolean isLargeScan(DbIterator plan) {
+        SeqScan scan = getScan(plan);
+        return scan != null && ((HeapFile) Database.getCatalog().getDbFile(
+                scan.getTableId())).numPages() >= PARALLEL_MIN_PAGES;
+    }
+
+    /**
+     * @return the SeqScan of a HeapFile at the bottom of a chain of Filters
+     *   and Projects, or null if plan is not one
+     */
+    static SeqScan getScan(DbIterator plan) {
+        while (plan instanceof Filter || plan instanceof Project)
+            plan = ((Operator) plan).getChildren()[0];
+        if (plan == null || plan.getClass() != SeqScan.class)
+            return null;
+        SeqScan scan = (SeqScan) plan;
+        if (!(Database.getCatalog().getDbFile(scan.getTableId()) instanceof HeapFile))
+            return null;
+        return scan;
+    }
+
+    /**
+     * @return a copy of a pipeline, over the specified scan instead
+     */
+    private static DbIterator copy(DbIterator plan, SeqScan scan) {
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new Filter(f.getPredicate(), copy(f.getChildren()[0], scan));
+        }
+        if (plan instanceof Project) {
+            Project p = (Project) plan;
+            TupleDesc td = p.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++)
+                types[i] = td.getFieldType(i);
+            return new Project(p.getFieldList(), types, copy(p.getChildren()[0], scan));
+        }
+        return scan;
+    }
+
+    /**
+     * A SeqScan that reads the morsels of a file shared with other scans.
+     */
+    private static class MorselScan extends SeqScan {
+        private static final long serialVersionUID = 1L;
+        private AtomicInteger m_nextPage;
+
+        public MorselScan(SeqScan scan, AtomicInteger nextPage) {
+            super(scan.getTransactionId(), scan.getTableId(), scan.getAlias());
+            m_nextPage = nextPage;
+            for (Predicate p : scan.getPredicates())
+                addPredicate(p);
+            setColumns(scan.getColumns());
+            RuntimeFilter[] filters = scan.getRuntimeFilters();
+            int[] fields = scan.getRuntimeFilterFields();
+            for (int i = 0; i < filters.length; i++)
+                addRuntimeFilter(fields[i], filters[i]);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            HeapFile file = (HeapFile) Database.getCatalog().getDbFile(m_tableId);
+            m_iterator = file.iterator(m_tid, m_nextPage, MORSEL_PAGES, getPredicates(),
+                    getColumns());
+            setRuntimeFilters();
+            m_iterator.open();
+        }
+    }
+
+    /**
+     * @return the number of threads the scan runs on
+     */
+    public int getThreads() {
+        return m_threads;
+    }
+
+    public String getName() {
+        return "parallel scan";
+    }
+}
@@ -41,6 +41,13 @@ public class Project extends Operator {
         td = new TupleDesc(types, fieldAr);
     }
 
+    /**
+     * @return the ids of the fields of the child's TupleDesc projected out
+     */
+    public ArrayList<Integer> getFieldList() {
+        return new ArrayList<Integer>(outFieldIds);
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -69,17 +76,34 @@ public class Project extends Operator {
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         while (child.hasNext()) {
-            Tuple t = child.next();
-            Tuple newTuple = new Tuple(td);
-            newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
-            }
-            return newTuple;
+            return project(child.next());
         }
         return null;
     }
 
+    /**
+     * Projects a batch of tuples read from the child operator.
+     */
+    protected TupleBatch fetchNextBatch() throws TransactionAbortedException,
+            DbException {
+        TupleBatch in = TupleBatch.next(child);
+        if (in == null)
+            return null;
+        TupleBatch out = new TupleBatch();
+        for (int i = 0; i < in.size(); i++)
+            out.add(project(in.get(i)));
+        return out;
+    }
+
+    private Tuple project(Tuple t) {
+        Tuple newTuple = new Tuple(td);
+        newTuple.setRecordId(t.getRecordId());
+        for (int i = 0; i < td.numFields(); i++) {
+            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+        }
+        return newTuple;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
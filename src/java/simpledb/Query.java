@@ -107,10 +107,12 @@ public class Query implements Serializable {
 
         this.start();
         int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        TupleBatch batch;
+        while ((batch = TupleBatch.next(op)) != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                System.out.println(batch.get(i));
+                cnt++;
+            }
         }
         System.out.println("\n " + cnt + " rows.");
         this.close();
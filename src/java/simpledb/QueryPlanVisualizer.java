@@ -9,12 +9,21 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
+    static final String INDEX_SCAN = "index scan";
+    static final String INDEX_ONLY_SCAN = "index only scan";
+    static final String BITMAP_SCAN = "bitmap scan";
+    static final String CLUSTERED_SCAN = "clustered scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String TOP_N = "top";
+    static final String LIMIT = "limit";
+    static final String PARALLEL = "parallel";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(DbIterator root) {
@@ -26,7 +35,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         DbIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (joinName(o) != null) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -56,6 +65,44 @@ public class QueryPlanVisualizer {
 
     }
 
+    private String scanName(SeqScan s) {
+        if (s instanceof IndexScan)
+            return INDEX_SCAN;
+        if (s instanceof IndexOnlyScan)
+            return INDEX_ONLY_SCAN;
+        if (s instanceof BitmapScan)
+            return BITMAP_SCAN;
+        if (s instanceof ClusteredScan)
+            return CLUSTERED_SCAN;
+        return SCAN;
+    }
+
+    /**
+     * @return the symbol of a join operator, showing the algorithm it
+     *   computes the join with, or null if o is not a join
+     */
+    private static String joinName(Operator o) {
+        if (o instanceof Join)
+            return JOIN;
+        if (o instanceof HashEquiJoin)
+            return HASH_JOIN;
+        if (o instanceof IndexNestedLoopJoin)
+            return INDEX_JOIN;
+        if (o instanceof SortMergeJoin)
+            return MERGE_JOIN;
+        return null;
+    }
+
+    private static JoinPredicate joinPredicate(Operator o) {
+        if (o instanceof Join)
+            return ((Join) o).getJoinPredicate();
+        if (o instanceof HashEquiJoin)
+            return ((HashEquiJoin) o).getJoinPredicate();
+        if (o instanceof SortMergeJoin)
+            return ((SortMergeJoin) o).getJoinPredicate();
+        return ((IndexNestedLoopJoin) o).getJoinPredicate();
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
             DbIterator queryPlan, int currentStartPosition,
             int parentUpperBarStartShift) {
@@ -67,6 +114,7 @@ public class QueryPlanVisualizer {
 
         if (queryPlan instanceof SeqScan) {
             SeqScan s = (SeqScan) queryPlan;
+            String scan = scanName(s);
             String tableName = s.getTableName();
             String alias = s.getAlias();
 //            TupleDesc td = s.getTupleDesc();
@@ -74,15 +122,27 @@ public class QueryPlanVisualizer {
                 alias = " " + alias;
             else
                 alias = "";
+            // predicates pushed into the scan are shown as a selection in
+            // it, and the fields it returns, if not all, as a projection
+            TupleDesc td = Database.getCatalog().getTupleDesc(s.getTableId());
+            for (Predicate p : s.getPredicates())
+                alias += "," + SELECT + s.getAlias() + "." + td.getFieldName(p.getField())
+                        + p.getOp() + p.getOperand();
+            if (s.getColumns() != null) {
+                TupleDesc columns = s.getTupleDesc();
+                alias += "," + PROJECT;
+                for (int i = 0; i < columns.numFields(); i++)
+                    alias += (i == 0 ? "" : ",") + columns.getFieldName(i);
+            }
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
-            if (SCAN.length() / 2 < parentUpperBarStartShift) {
+                    .format("%1$s(%2$s)", scan, tableName + alias);
+            if (scan.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - SCAN.length() / 2;
+                        - scan.length() / 2;
             } else {
-                thisNode.upBarPosition = currentStartPosition + SCAN.length()
+                thisNode.upBarPosition = currentStartPosition + scan.length()
                         / 2;
                 thisNode.textStartPosition = currentStartPosition;
             }
@@ -107,18 +167,18 @@ public class QueryPlanVisualizer {
             Operator plan = (Operator) queryPlan;
             DbIterator[] children = plan.getChildren();
 
-            if (plan instanceof Join) {
-                Join j = (Join) plan;
-                TupleDesc td = j.getTupleDesc();
-                JoinPredicate jp = j.getJoinPredicate();
+            String join = joinName(plan);
+            if (join != null) {
+                TupleDesc td = plan.getTupleDesc();
+                JoinPredicate jp = joinPredicate(plan);
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", join,
+                        field1 + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = JOIN.length() / 2;
+                if (join.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = join.length() / 2;
 
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + adjustDepth + 3, children[0],
@@ -128,35 +188,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - join.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -196,13 +228,16 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof Filter) {
-                Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+            } else if (plan instanceof Filter || plan instanceof AdaptiveFilter) {
+                Predicate[] conjuncts = plan instanceof Filter
+                        ? new Predicate[] { ((Filter) plan).getPredicate() }
+                        : ((AdaptiveFilter) plan).getPredicates();
+                String cond = "";
+                for (Predicate p : conjuncts)
+                    cond += (cond.length() == 0 ? "" : "&") + children[0].getTupleDesc()
+                            .getFieldName(p.getField()) + p.getOp() + p.getOperand();
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, cond,
+                        plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -238,6 +273,41 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof TopN || plan instanceof Limit
+                    || plan instanceof ParallelScan) {
+                String name;
+                if (plan instanceof TopN) {
+                    TopN t = (TopN) plan;
+                    name = TOP_N;
+                    thisNode.text = String.format("%1$s(%2$s,%3$d),card:%4$d",
+                            TOP_N, children[0].getTupleDesc().getFieldName(
+                                    t.getOrderByField()), t.getLimit(),
+                            t.getEstimatedCardinality());
+                } else if (plan instanceof Limit) {
+                    name = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                            LIMIT, ((Limit) plan).getLimit(),
+                            plan.getEstimatedCardinality());
+                } else {
+                    name = PARALLEL;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d",
+                            PARALLEL, ((ParallelScan) plan).getThreads(),
+                            plan.getEstimatedCardinality());
+                }
+                int upBarShift = parentUpperBarStartShift;
+                if (name.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = name.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - name.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 String fields = "";
@@ -261,15 +331,9 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
-                String name="Exchange";
-                int card=0;
-                try {
-                    name = (String) plan.getClass().getMethod("getName").invoke(plan);
-                    card = (Integer) plan.getClass().getMethod("getEstimatedCardinality").invoke(plan);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } 
+            else if (plan instanceof Exchange) {
+                String name = ((Exchange) plan).getName();
+                int card = plan.getEstimatedCardinality();
 
                 thisNode.text = String.format("%1$s,card:%2$d", name,card);
                 int upBarShift = parentUpperBarStartShift;
@@ -0,0 +1,181 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * RuntimeFilter is the set of join keys of the build side of a hash join,
+ * summarized so that the scan on the probe side can drop the rows whose key
+ * has no match before it creates their tuples. It is a bloom filter on the
+ * hash of the keys and, for int keys, the range of the keys: a key outside
+ * the range or not in the bloom filter is not one of the keys, while a key
+ * that passes both may not be one either, as the bloom filter has false
+ * positives.
+ * <p>
+ * The keys are added while the build side is read, and {@link #build()}
+ * then sizes the bloom filter to their number. Until it is built, a filter
+ * passes every key, so that it can be handed to the scan before the keys
+ * are known, and {@link #clear()} makes it pass every key again.
+ * <p>
+ * The bloom filter is blocked: the bits of a key are all in one long of
+ * its bit array, so that a key is tested with a single memory access.
+ */
+public class RuntimeFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The number of bits of the bloom filter per key */
+    public static final int BITS_PER_KEY = 8;
+
+    private final Type m_type;
+    /** The bits of the bloom filter, or null if it is not built */
+    private long[] m_bits;
+    /** The hashes of the keys added since the filter was cleared */
+    private int[] m_hashes = new int[64];
+    private int m_keys;
+    /** The range of the int keys added */
+    private int m_min = Integer.MAX_VALUE;
+    private int m_max = Integer.MIN_VALUE;
+
+    /**
+     * Constructor.
+     *
+     * @param type
+     *            the type of the keys
+     */
+    public RuntimeFilter(Type type) {
+        m_type = type;
+    }
+
+    /**
+     * @return the type of the keys
+     */
+    public Type getType() {
+        return m_type;
+    }
+
+    /**
+     * @return the number of keys added, counting duplicates
+     */
+    public int numKeys() {
+        return m_keys;
+    }
+
+    /**
+     * @return true if the filter was built, and rejects the keys that were
+     *   not added
+     */
+    public boolean isBuilt() {
+        return m_bits != null;
+    }
+
+    /**
+     * Drops the keys, so that the filter passes every key until it is
+     * built again.
+     */
+    public void clear() {
+        m_bits = null;
+        m_keys = 0;
+        m_min = Integer.MAX_VALUE;
+        m_max = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Adds a key to the filter. The keys added after it is built are only
+     * in it once it is built again.
+     */
+    public void add(Field key) {
+        if (key.getType() != m_type)
+            throw new IllegalArgumentException("key of the wrong type: " + key);
+        if (m_keys == m_hashes.length) {
+            int[] hashes = new int[m_keys * 2];
+            System.arraycopy(m_hashes, 0, hashes, 0, m_keys);
+            m_hashes = hashes;
+        }
+        m_hashes[m_keys++] = key.hashCode();
+        if (key instanceof IntField) {
+            int v = ((IntField) key).getValue();
+            m_min = Math.min(m_min, v);
+            m_max = Math.max(m_max, v);
+        }
+    }
+
+    /**
+     * Sets the bits of the bloom filter of the keys added.
+     */
+    public void build() {
+        int words = 1;
+        while ((long) words * 64 < (long) m_keys * BITS_PER_KEY && words < (1 << 30))
+            words *= 2;
+        long[] b = new long[words];
+        for (int i = 0; i < m_keys; i++) {
+            int h = JoinHashTable.mix(m_hashes[i]);
+            b[h & (words - 1)] |= bits(h);
+        }
+        m_bits = b;
+    }
+
+    /**
+     * @return the three bits a key with the mixed hash h sets in its long,
+     *   taken from other bits of the hash than those choosing the long
+     */
+    private static long bits(int h) {
+        int g = h * 0x85EBCA6B;
+        g ^= g >>> 15;
+        return (1L << (g & 63)) | (1L << ((g >>> 6) & 63)) | (1L << ((g >>> 12) & 63));
+    }
+
+    /**
+     * @return false if the hash of a key is not that of a key of the filter
+     */
+    private static boolean mightContainHash(long[] words, int hash) {
+        int h = JoinHashTable.mix(hash);
+        long b = bits(h);
+        return (words[h & (words.length - 1)] & b) == b;
+    }
+
+    /**
+     * @return false if key is not one of the keys of the filter, and true
+     *   if it may be one of them or the filter is not built
+     */
+    public boolean mightContain(Field key) {
+        long[] words = m_bits;
+        if (words == null)
+            return true;
+        if (key.getType() != m_type)
+            return false;
+        if (key instanceof IntField) {
+            int v = ((IntField) key).getValue();
+            if (v < m_min || v > m_max)
+                return false;
+        }
+        return mightContainHash(words, key.hashCode());
+    }
+
+    /**
+     * Tests a key as {@link #mightContain(Field)} does, as it is laid out
+     * in the bytes of a HeapPage, without creating a Field. The hash of a
+     * string of ASCII bytes is computed from its bytes as String.hashCode
+     * does on its chars; other strings are decoded first.
+     *
+     * @param d
+     *            the bytes of the page
+     * @param off
+     *            the offset of the key in d
+     */
+    public boolean mightContain(byte[] d, int off) {
+        long[] words = m_bits;
+        if (words == null)
+            return true;
+        int v = (d[off] << 24) | ((d[off + 1] & 0xff) << 16)
+                | ((d[off + 2] & 0xff) << 8) | (d[off + 3] & 0xff);
+        if (m_type == Type.INT_TYPE)
+            return v >= m_min && v <= m_max && mightContainHash(words, v);
+        int hash = 0;
+        for (int k = off + 4; k < off + 4 + v; k++) {
+            if (d[k] < 0)
+                return mightContainHash(words, new String(d, off + 4, v).hashCode());
+            hash = 31 * hash + d[k];
+        }
+        return mightContainHash(words, hash);
+    }
+}
@@ -8,14 +8,32 @@ import simpledb.TupleDesc.TDItem;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Predicates can be pushed into the scan of a HeapFile with
+ * {@link #addPredicate(Predicate)}, instead of a Filter on top of it: the
+ * scan then evaluates them on the bytes of each page, and only creates the
+ * tuples that satisfy all of them. The scan of a HeapFile can also return
+ * only some of the fields of the table (see {@link #setColumns(int[])}),
+ * which are the only ones decoded from the pages. A hash join whose probe
+ * side reads the scan adds to it the {@link RuntimeFilter} of the keys of
+ * its build side (see {@link #addRuntimeFilter(int, RuntimeFilter)}), so
+ * that the rows without a match are dropped with the pages' bytes too.
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements ColumnarIterator {
 
     private static final long serialVersionUID = 1L;
     TransactionId m_tid;
     int m_tableId;
     String m_tableAlias;
     DbFileIterator m_iterator;
+    /** The predicates the tuples returned satisfy */
+    private ArrayList<Predicate> m_predicates = new ArrayList<Predicate>();
+    /** The fields of the table returned, or null for all of them */
+    private int[] m_columns;
+    /** The runtime filters the tuples returned pass, and the field of the
+        table each of them tests */
+    private ArrayList<RuntimeFilter> m_filters = new ArrayList<RuntimeFilter>();
+    private ArrayList<Integer> m_filterFields = new ArrayList<Integer>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -48,6 +66,20 @@ public class SeqScan implements DbIterator {
     	return Database.getCatalog().getTableName(m_tableId);
     }
     
+    /**
+     * @return the id of the table this operator scans
+     * */
+    public int getTableId() {
+    	return m_tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+    	return m_tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans. 
      * */
@@ -57,7 +89,90 @@ public class SeqScan implements DbIterator {
     }
 
     /**
-     * Reset the tableid, and tableAlias of this operator.
+     * Makes the scan return only the tuples that also satisfy the specified
+     * predicate, evaluated on the pages of the table, which must be a
+     * HeapFile. The scan must not be open. The scans that extend SeqScan
+     * read their tables in other ways, and ignore them.
+     *
+     * @param p
+     *            a predicate on the fields of the tuples of the table
+     */
+    public void addPredicate(Predicate p) {
+    	m_predicates.add(p);
+    }
+
+    /**
+     * @return the predicates the tuples returned satisfy
+     */
+    public Predicate[] getPredicates() {
+    	return m_predicates.toArray(new Predicate[m_predicates.size()]);
+    }
+
+    /**
+     * Makes the scan of a HeapFile return only the tuples whose key passes
+     * a runtime filter. The scan tests the keys against the filter as it is
+     * when each of them is read, so the filter may be built or cleared
+     * while the scan is open; a filter added while the scan is open is
+     * used once it is rewound. Adding a filter the scan already has does
+     * nothing.
+     *
+     * @param field
+     *            the field of the table that holds the key
+     * @param filter
+     *            the filter the keys must pass
+     */
+    public void addRuntimeFilter(int field, RuntimeFilter filter) {
+    	for (RuntimeFilter f : m_filters) {
+    		if (f == filter)
+    			return;
+    	}
+    	m_filters.add(filter);
+    	m_filterFields.add(field);
+    }
+
+    /**
+     * @return the runtime filters the tuples returned pass
+     */
+    public RuntimeFilter[] getRuntimeFilters() {
+    	return m_filters.toArray(new RuntimeFilter[m_filters.size()]);
+    }
+
+    /**
+     * @return the field of the table each of the runtime filters tests
+     */
+    public int[] getRuntimeFilterFields() {
+    	int[] fields = new int[m_filterFields.size()];
+    	for (int i = 0; i < fields.length; i++)
+    		fields[i] = m_filterFields.get(i);
+    	return fields;
+    }
+
+    /**
+     * Makes the scan return only some of the fields of the table, which
+     * must be a HeapFile. The TupleDesc of the scan has only those fields;
+     * the predicates pushed into the scan still refer to the fields of the
+     * table. The scan must not be open.
+     *
+     * @param columns
+     *            the indexes of the fields of the table to return, in
+     *            order, or null to return all of them
+     */
+    public void setColumns(int[] columns) {
+    	m_columns = columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the indexes of the fields of the table the scan returns, or
+     *   null if it returns all of them
+     */
+    public int[] getColumns() {
+    	return m_columns == null ? null : m_columns.clone();
+    }
+
+    /**
+     * Reset the tableid, and tableAlias of this operator, and drop the
+     * predicates and runtime filters pushed into it and its choice of
+     * columns.
      * @param tableid
      *            the table to scan.
      * @param tableAlias
@@ -71,6 +186,10 @@ public class SeqScan implements DbIterator {
     public void reset(int tableid, String tableAlias) {
     	m_tableId = tableid;
     	m_tableAlias = tableAlias;
+    	m_predicates.clear();
+    	m_filters.clear();
+    	m_filterFields.clear();
+    	m_columns = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -78,15 +197,34 @@ public class SeqScan implements DbIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        m_iterator = Database.getCatalog().getDbFile(m_tableId).iterator(m_tid);
+        DbFile file = Database.getCatalog().getDbFile(m_tableId);
+        if (m_predicates.isEmpty() && m_filters.isEmpty() && m_columns == null) {
+            m_iterator = file.iterator(m_tid);
+        } else {
+            if (!(file instanceof HeapFile))
+                throw new DbException("only the scan of a HeapFile can take predicates or columns");
+            m_iterator = ((HeapFile) file).iterator(m_tid, getPredicates(), m_columns);
+        }
+        setRuntimeFilters();
         m_iterator.open();
     }
 
+    /**
+     * Makes the iterator of a HeapFile evaluate the runtime filters as
+     * they are now.
+     */
+    void setRuntimeFilters() {
+        if (m_filters.isEmpty() || !(m_iterator instanceof HeapFile.HeapFileIterator))
+            return;
+        ((HeapFile.HeapFileIterator) m_iterator).setPredicates(getPredicates(),
+                getRuntimeFilterFields(), getRuntimeFilters());
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
      * becomes useful when joining tables containing a field(s) with the same
-     * name.
+     * name. It has only the fields chosen with {@link #setColumns(int[])}.
      * 
      * @return the TupleDesc with field names from the underlying HeapFile,
      *         prefixed with the tableAlias string from the constructor.
@@ -104,7 +242,7 @@ public class SeqScan implements DbIterator {
     		index++;
     	}
     	TupleDesc td = new TupleDesc(types, names);
-    	return td;
+    	return m_columns == null ? td : td.project(m_columns);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
@@ -116,12 +254,42 @@ public class SeqScan implements DbIterator {
         return m_iterator.next();
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	if (m_iterator == null)
+    		throw new IllegalStateException("SeqScan not yet open");
+    	TupleBatch batch = new TupleBatch();
+    	while (!batch.isFull() && m_iterator.hasNext())
+    		batch.add(m_iterator.next());
+    	return batch.size() == 0 ? null : batch;
+    }
+
+    /**
+     * Returns the next batch of rows. The rows of a HeapFile are decoded
+     * from its pages straight into the vectors of the batch; the tuples of
+     * other iterators are stored in it one at a time. The rows have the
+     * TupleDesc of the table, like the tuples returned by next().
+     */
+    public ColumnarBatch nextColumnarBatch() throws TransactionAbortedException, DbException {
+    	if (m_iterator == null)
+    		throw new IllegalStateException("SeqScan not yet open");
+    	TupleDesc td = Database.getCatalog().getDbFile(m_tableId).getTupleDesc();
+    	ColumnarBatch batch = new ColumnarBatch(m_columns == null ? td : td.project(m_columns));
+    	if (m_iterator instanceof HeapFile.HeapFileIterator) {
+    		((HeapFile.HeapFileIterator) m_iterator).fill(batch);
+    	} else {
+    		while (!batch.isFull() && m_iterator.hasNext())
+    			batch.add(m_iterator.next());
+    	}
+    	return batch.size() == 0 ? null : batch;
+    }
+
     public void close() {
     	m_iterator.close();
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+    	setRuntimeFilters();
     	m_iterator.rewind();
     }
 }
@@ -0,0 +1,271 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two relations by merging them in the order of their
+ * join fields. A child that is not already sorted on its join field (see
+ * {@link #isSortedOn(DbIterator, int)}) is sorted by an OrderBy first.
+ * <p>
+ * An equality join reads both inputs once, keeping in memory only the inner
+ * tuples of the current join key, so that runs of duplicate keys on either
+ * side are joined with each other. A range join (<code>&lt;</code>,
+ * <code>&lt;=</code>, <code>&gt;</code> or <code>&gt;=</code>) keeps the
+ * sorted inner relation in memory and returns, for each outer tuple, the
+ * prefix or suffix of it that matches, whose bounds only move forward as the
+ * outer keys grow.
+ * <p>
+ * The join returns its tuples in ascending order of the outer join field,
+ * and for an equality join of the inner join field as well.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate m_predicate;
+    private DbIterator m_child1;
+    private DbIterator m_child2;
+    /** The children, sorted on their join fields */
+    private DbIterator m_outer;
+    private DbIterator m_inner;
+    private TupleDesc m_td;
+    /** The inner tuples of the current key, or all of them for a range join */
+    private ArrayList<Tuple> m_buffer = new ArrayList<Tuple>();
+    /** The join key of the tuples in m_buffer, for an equality join */
+    private Field m_runKey;
+    /** The inner tuple read past the end of the current run, if any */
+    private Tuple m_lookahead;
+    /** The first inner tuples whose keys are >= and > the outer key */
+    private int m_lo, m_hi;
+    private Tuple m_outerTuple;
+    /** The range of m_buffer left to join with m_outerTuple */
+    private int m_pos, m_end;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children, whose operator
+     *            must be EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        switch (p.getOperator()) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            break;
+        default:
+            throw new IllegalArgumentException("a sort-merge join cannot compute " + p.getOperator());
+        }
+        m_predicate = p;
+        setChildren(new DbIterator[] { child1, child2 });
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return m_predicate;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return TupleDesc.merge(m_child1.getTupleDesc(), m_child2.getTupleDesc());
+    }
+
+    /**
+     * Returns true if an iterator returns its tuples in ascending order of
+     * the specified field: if it is an ascending OrderBy or TopN on it, a
+     * SortMergeJoin that returns its tuples in that order, or a Filter or
+     * AdaptiveFilter over such an iterator.
+     */
+    public static boolean isSortedOn(DbIterator it, int field) {
+        if (it instanceof Filter || it instanceof AdaptiveFilter)
+            return isSortedOn(((Operator) it).getChildren()[0], field);
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof TopN) {
+            TopN t = (TopN) it;
+            return t.isASC() && t.getOrderByField() == field;
+        }
+        if (it instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) it;
+            JoinPredicate p = j.m_predicate;
+            return field == p.getField1() || (p.getOperator() == Predicate.Op.EQUALS
+                    && field == j.m_child1.getTupleDesc().numFields() + p.getField2());
+        }
+        return false;
+    }
+
+    /**
+     * @return it, or an OrderBy that sorts it on field if it is not sorted
+     */
+    private static DbIterator sorted(DbIterator it, int field) {
+        return isSortedOn(it, field) ? it : new OrderBy(field, true, it);
+    }
+
+    /**
+     * @return a negative number, zero or a positive number as f1 is less
+     *   than, equal to or greater than f2
+     */
+    private static int compare(Field f1, Field f2) {
+        if (f1.compare(Predicate.Op.EQUALS, f2))
+            return 0;
+        return f1.compare(Predicate.Op.LESS_THAN, f2) ? -1 : 1;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        m_outer.open();
+        m_inner.open();
+        m_td = getTupleDesc();
+        m_buffer.clear();
+        if (m_predicate.getOperator() != Predicate.Op.EQUALS) {
+            // the keys of the buffer are read by each outer tuple
+            while (m_inner.hasNext())
+                m_buffer.add(m_inner.next().materialize());
+        }
+        start();
+        super.open();
+    }
+
+    /**
+     * Resets the merge to the first outer tuple.
+     */
+    private void start() {
+        m_runKey = null;
+        m_lookahead = null;
+        m_lo = m_hi = 0;
+        m_pos = m_end = 0;
+    }
+
+    public void close() {
+        super.close();
+        m_outer.close();
+        m_inner.close();
+        m_buffer.clear();
+        m_outerTuple = null;
+        m_lookahead = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_outer.rewind();
+        if (m_predicate.getOperator() == Predicate.Op.EQUALS) {
+            m_inner.rewind();
+            m_buffer.clear();
+        }
+        start();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of the current outer tuple with the
+     * next inner tuple it matches, or else of the next outer tuple that
+     * matches any.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (m_pos < m_end)
+                return join(m_outerTuple, m_buffer.get(m_pos++));
+            if (!m_outer.hasNext())
+                return null;
+            m_outerTuple = m_outer.next();
+            Field key = m_outerTuple.getField(m_predicate.getField1());
+            if (m_predicate.getOperator() == Predicate.Op.EQUALS)
+                mergeRun(key);
+            else
+                mergeRange(key);
+        }
+    }
+
+    /**
+     * Moves the run of inner tuples forward to the first key that is not
+     * less than the outer key, and sets the range to join to the run if its
+     * key equals the outer key.
+     */
+    private void mergeRun(Field key) throws TransactionAbortedException, DbException {
+        int field = m_predicate.getField2();
+        if (m_runKey == null || compare(m_runKey, key) < 0) {
+            m_buffer.clear();
+            m_runKey = null;
+            while (m_lookahead != null || m_inner.hasNext()) {
+                Tuple t = m_lookahead != null ? m_lookahead : m_inner.next();
+                m_lookahead = null;
+                Field k = t.getField(field);
+                if (m_runKey == null) {
+                    if (compare(k, key) < 0)
+                        continue;
+                    m_runKey = k;
+                } else if (compare(k, m_runKey) != 0) {
+                    m_lookahead = t;
+                    break;
+                }
+                m_buffer.add(t);
+            }
+        }
+        m_pos = 0;
+        m_end = m_runKey != null && compare(m_runKey, key) == 0 ? m_buffer.size() : 0;
+    }
+
+    /**
+     * Moves the bounds of the inner tuples whose keys are less than and not
+     * greater than the outer key forward, and sets the range to join to the
+     * tuples on the side of them the predicate selects.
+     */
+    private void mergeRange(Field key) {
+        int field = m_predicate.getField2();
+        int n = m_buffer.size();
+        while (m_lo < n && compare(m_buffer.get(m_lo).getField(field), key) < 0)
+            m_lo++;
+        if (m_hi < m_lo)
+            m_hi = m_lo;
+        while (m_hi < n && compare(m_buffer.get(m_hi).getField(field), key) <= 0)
+            m_hi++;
+        // the predicate compares the outer key with the inner one
+        switch (m_predicate.getOperator()) {
+        case LESS_THAN:
+            m_pos = m_hi;
+            m_end = n;
+            break;
+        case LESS_THAN_OR_EQ:
+            m_pos = m_lo;
+            m_end = n;
+            break;
+        case GREATER_THAN:
+            m_pos = 0;
+            m_end = m_lo;
+            break;
+        default:
+            m_pos = 0;
+            m_end = m_hi;
+            break;
+        }
+    }
+
+    /**
+     * @return the concatenation of an outer and an inner tuple
+     */
+    private Tuple join(Tuple outer, Tuple inner) {
+        return new JoinedTuple(m_td, outer, inner);
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child1, m_child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_child1 = children[0];
+        m_child2 = children[1];
+        m_outer = sorted(m_child1, m_predicate.getField1());
+        m_inner = sorted(m_child2, m_predicate.getField2());
+    }
+
+}
@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file that operators write tuples to when they do
+ * not fit in memory, and read back later. Tuples are appended with
+ * {@link #add(Tuple)} in a compact binary format, without a header or empty
+ * slots: an int field as its 4 bytes, and a string field as its length and
+ * bytes, without the padding to Type.STRING_LEN it has in a HeapPage. They
+ * are then read in the same order by the iterator returned by
+ * {@link #iterator()}. Tuples read back have no RecordId.
+ */
+public class SpillFile {
+
+    private File m_file;
+    private TupleDesc m_td;
+    private DataOutputStream m_out;
+    private int m_numTuples;
+
+    /**
+     * Creates an empty temporary file for tuples with the specified
+     * TupleDesc.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        m_td = td;
+        m_file = File.createTempFile("spill", ".tmp");
+        m_file.deleteOnExit();
+        m_out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(m_file)));
+    }
+
+    /**
+     * @return the TupleDesc of the tuples in this file
+     */
+    public TupleDesc getTupleDesc() {
+        return m_td;
+    }
+
+    /**
+     * Appends a tuple to this file.
+     *
+     * @throws IllegalStateException if the file was already read
+     */
+    public void add(Tuple t) throws IOException {
+        if (m_out == null)
+            throw new IllegalStateException("cannot add to a spill file that was read");
+        for (int i = 0; i < m_td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (f instanceof IntField) {
+                m_out.writeInt(((IntField) f).getValue());
+            } else {
+                String v = ((StringField) f).getValue();
+                if (v.length() > Type.STRING_LEN)
+                    v = v.substring(0, Type.STRING_LEN);
+                m_out.writeInt(v.length());
+                m_out.writeBytes(v);
+            }
+        }
+        m_numTuples++;
+    }
+
+    /**
+     * @return the number of tuples in this file
+     */
+    public int size() {
+        return m_numTuples;
+    }
+
+    /**
+     * Finishes writing this file and frees its write buffer. No more tuples
+     * may be added afterwards.
+     */
+    public void finish() throws IOException {
+        if (m_out != null) {
+            m_out.close();
+            m_out = null;
+        }
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file, in the order they
+     * were added. No more tuples may be added afterwards.
+     */
+    public DbIterator iterator() throws IOException {
+        finish();
+        return new SpillIterator();
+    }
+
+    /**
+     * Deletes this file.
+     */
+    public void delete() {
+        if (m_out != null) {
+            try {
+                m_out.close();
+            } catch (IOException e) {
+                // the file is deleted anyway
+            }
+            m_out = null;
+        }
+        m_file.delete();
+    }
+
+    private class SpillIterator implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private DataInputStream m_in;
+        private int m_read;
+        private byte[] m_buf = new byte[Type.STRING_LEN];
+
+        public void open() throws DbException {
+            try {
+                m_in = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(m_file)));
+            } catch (FileNotFoundException e) {
+                throw new DbException("spill file not found: " + e.getMessage());
+            }
+            m_read = 0;
+        }
+
+        public boolean hasNext() {
+            return m_in != null && m_read < m_numTuples;
+        }
+
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(m_td);
+            try {
+                for (int i = 0; i < m_td.numFields(); i++) {
+                    if (m_td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setField(i, new IntField(m_in.readInt()));
+                    } else {
+                        int len = m_in.readInt();
+                        m_in.readFully(m_buf, 0, len);
+                        t.setField(i, new StringField(new String(m_buf, 0, len), Type.STRING_LEN));
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            m_read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return m_td;
+        }
+
+        public void close() {
+            if (m_in != null) {
+                try {
+                    m_in.close();
+                } catch (IOException e) {
+                    // nothing more is read from it
+                }
+                m_in = null;
+            }
+        }
+    }
+}
@@ -1,10 +1,10 @@
 package simpledb;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 /**
- * Knows how to compute some aggregate over a set of StringFields.
+ * Knows how to compute some aggregate over a set of StringFields. The
+ * counts of the groups are kept in an AggregateHashTable.
  */
 public class StringAggregator implements Aggregator {
 
@@ -14,9 +14,8 @@ public class StringAggregator implements Aggregator {
 	private Type m_gbfieldtype;
 	private int m_afield;
 	private Op m_what;
-	private HashMap<Field, IntField> aggregateHash;
+	private AggregateHashTable m_groups;
 	private TupleDesc td = null;
-	private Field groupby;
 
 	/**
 	 * Aggregate constructor
@@ -32,11 +31,9 @@ public class StringAggregator implements Aggregator {
 		m_gbfieldtype = gbfieldtype;
 		m_afield = afield;
 		m_what = what;
-		aggregateHash = new HashMap<Field, IntField>();
 		if (what != Op.COUNT)
 			throw new IllegalArgumentException("Operation must be COUNT");
-		//aggregateHash.put(new IntField(Aggregator.NO_GROUPING), new IntField(0));
-		
+		m_groups = AggregateHashTable.create(gbfield == Aggregator.NO_GROUPING ? null : gbfieldtype);
 	}
 
 	/**
@@ -44,22 +41,28 @@ public class StringAggregator implements Aggregator {
 	 * @param tup the Tuple containing an aggregate field and a group-by field
 	 */
 	public void mergeTupleIntoGroup(Tuple tup) {
-		IntField count;
 		if (tup.getField(m_afield) == null)
 			return;
-		if (m_gbfield == Aggregator.NO_GROUPING)
-			groupby = new IntField(Aggregator.NO_GROUPING);
-		else
-			groupby = tup.getField(m_gbfield);
-		if (aggregateHash.get(groupby) == null)
-			count = new IntField(1);
-		else
-			count = new IntField(aggregateHash.get(groupby).getValue() + 1);
-		aggregateHash.put(groupby, count); 
+		int g = m_groups.group(m_gbfield == Aggregator.NO_GROUPING ? null : tup.getField(m_gbfield));
+		m_groups.add(g, 1, 0, 0, 0);
 		if (td == null)
 			td = makeTD(tup);
 	}
 
+	public boolean mergeIntoExistingGroup(Tuple tup) {
+		if (tup.getField(m_afield) == null)
+			return true;
+		int g = m_groups.find(m_gbfield == Aggregator.NO_GROUPING ? null : tup.getField(m_gbfield));
+		if (g < 0)
+			return false;
+		m_groups.add(g, 1, 0, 0, 0);
+		return true;
+	}
+
+	public int numGroups() {
+		return m_groups.size();
+	}
+
 	/**
 	 * Create a DbIterator over group aggregate results.
 	 *
@@ -71,13 +74,14 @@ public class StringAggregator implements Aggregator {
 	public DbIterator iterator() {
 		ArrayList<Tuple> arr = new ArrayList<Tuple>();
 		Tuple tup;
-		for (Field gb: aggregateHash.keySet()) {
+		for (int g = 0; g < m_groups.size(); g++) {
 			tup = new Tuple(td);
-			if (((IntField)gb).getValue() == Aggregator.NO_GROUPING)
-				tup.setField(0, aggregateHash.get(gb));
+			IntField count = new IntField((int) m_groups.count(g));
+			if (m_gbfield == Aggregator.NO_GROUPING)
+				tup.setField(0, count);
 			else {
-				tup.setField(0, gb);
-				tup.setField(1, aggregateHash.get(gb));
+				tup.setField(0, m_groups.key(g));
+				tup.setField(1, count);
 			}
 			arr.add(tup);
 		}
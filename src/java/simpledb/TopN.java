@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * TopN is an operator that returns the first N tuples of its child in the
+ * order of an ORDER BY, as an OrderBy followed by a Limit does, but without
+ * sorting the whole child: it keeps only the N best tuples seen so far in a
+ * bounded heap whose root is the worst of them, so that each further tuple
+ * is either dropped after one comparison with the root or replaces it.
+ * <p>
+ * Like OrderBy, the sort is stable: of tuples that compare equal, the ones
+ * read first are kept and returned first.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator m_child;
+    private int[] m_fields;
+    private boolean[] m_asc;
+    private int m_limit;
+    private TupleComparator m_comparator;
+    /** A heap of the best tuples read so far, the worst at index 0 */
+    private Tuple[] m_heap;
+    /** The position in the child of each tuple in m_heap */
+    private long[] m_seq;
+    private int m_size;
+    /** The tuples to return, in order, and the position of the next one */
+    private Tuple[] m_result;
+    private int m_pos;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, DbIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one order per sort field");
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        m_child = child;
+        m_fields = orderbyFields;
+        m_asc = asc;
+        m_limit = limit;
+        m_comparator = new TupleComparator(orderbyFields, asc);
+    }
+
+    /**
+     * Creates a new TopN node that sorts on a single field.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, child);
+    }
+
+    /**
+     * @return the number of tuples this operator returns, at most
+     */
+    public int getLimit() {
+        return m_limit;
+    }
+
+    public boolean isASC() {
+        return m_asc[0];
+    }
+
+    public int getOrderByField() {
+        return m_fields[0];
+    }
+
+    /**
+     * @return the fields the sort is applied to, most significant first
+     */
+    public int[] getOrderByFields() {
+        return m_fields.clone();
+    }
+
+    /**
+     * @return for each sort field, true if the sort order is ascending
+     */
+    public boolean[] getAscending() {
+        return m_asc.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return m_child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        m_child.open();
+        m_heap = new Tuple[Math.min(m_limit, TupleBatch.SIZE)];
+        m_seq = new long[m_heap.length];
+        m_size = 0;
+        long seq = 0;
+        TupleBatch batch;
+        while (m_limit > 0 && (batch = TupleBatch.next(m_child)) != null) {
+            for (int i = 0; i < batch.size(); i++)
+                offer(batch.get(i), seq++);
+        }
+        m_result = new Tuple[m_size];
+        for (int i = m_size - 1; i >= 0; i--)
+            m_result[i] = poll();
+        m_heap = null;
+        m_seq = null;
+        m_pos = 0;
+        super.open();
+    }
+
+    /**
+     * Adds a tuple to the heap if it is among the best m_limit tuples read
+     * so far, dropping the worst one if the heap is full.
+     */
+    private void offer(Tuple t, long seq) {
+        if (m_size < m_limit) {
+            t = t.materialize();
+            if (m_size == m_heap.length) {
+                int n = (int) Math.min((long) m_size * 2, m_limit);
+                m_heap = Arrays.copyOf(m_heap, n);
+                m_seq = Arrays.copyOf(m_seq, n);
+            }
+            int i = m_size++;
+            // sift up past the better parents, which include the equal ones
+            // since t was read last
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (m_comparator.compare(m_heap[parent], t) > 0)
+                    break;
+                m_heap[i] = m_heap[parent];
+                m_seq[i] = m_seq[parent];
+                i = parent;
+            }
+            m_heap[i] = t;
+            m_seq[i] = seq;
+        } else if (m_comparator.compare(t, m_heap[0]) < 0) {
+            // a tuple equal to the root was read after it, so it is worse
+            siftDown(t.materialize(), seq);
+        }
+    }
+
+    /**
+     * Replaces the root of the heap by the specified tuple and moves it
+     * down to its place.
+     */
+    private void siftDown(Tuple t, long seq) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= m_size)
+                break;
+            if (child + 1 < m_size && worse(child + 1, child))
+                child++;
+            int c = m_comparator.compare(m_heap[child], t);
+            if (c < 0 || (c == 0 && m_seq[child] < seq))
+                break;
+            m_heap[i] = m_heap[child];
+            m_seq[i] = m_seq[child];
+            i = child;
+        }
+        m_heap[i] = t;
+        m_seq[i] = seq;
+    }
+
+    /**
+     * @return true if the tuple at heap index a comes after that at index b
+     */
+    private boolean worse(int a, int b) {
+        int c = m_comparator.compare(m_heap[a], m_heap[b]);
+        return c > 0 || (c == 0 && m_seq[a] > m_seq[b]);
+    }
+
+    /**
+     * Removes the worst tuple from the heap.
+     *
+     * @return the removed tuple
+     */
+    private Tuple poll() {
+        Tuple worst = m_heap[0];
+        m_size--;
+        if (m_size > 0)
+            siftDown(m_heap[m_size], m_seq[m_size]);
+        m_heap[m_size] = null;
+        return worst;
+    }
+
+    public void close() {
+        super.close();
+        m_child.close();
+        m_result = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        m_pos = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the retained tuples in
+     * order.
+     *
+     * @return The next tuple, or null if there are no more tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (m_result == null || m_pos >= m_result.length)
+            return null;
+        return m_result[m_pos++];
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { m_child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        m_child = children[0];
+    }
+
+}
@@ -25,8 +25,17 @@ public class Tuple implements Serializable {
      *            instance with at least one field.
      */
     public Tuple(TupleDesc td) {
+        this(td, new Field[td.numFields()]);
+    }
+
+    /**
+     * Creates a tuple with the specified fields. A subclass that keeps its
+     * fields in some other way passes null, and overrides the methods that
+     * read them.
+     */
+    protected Tuple(TupleDesc td, Field[] fields) {
         m_td = td;
-        m_fields = new Field[td.numFields()];
+        m_fields = fields;
         m_recordId = null;
     }
 
@@ -77,6 +86,45 @@ public class Tuple implements Serializable {
         return m_fields[i];
     }
 
+    /**
+     * Returns a tuple with some of the fields of this one, and its RecordId.
+     * 
+     * @param fields
+     *            the indexes of the fields to keep, in the order of the new
+     *            tuple
+     * @param td
+     *            the TupleDesc of the new tuple, as returned by
+     *            {@link TupleDesc#project(int[])}
+     */
+    public Tuple project(int[] fields, TupleDesc td) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < fields.length; i++)
+            t.m_fields[i] = getField(fields[i]);
+        t.m_recordId = getRecordId();
+        return t;
+    }
+
+    /**
+     * Returns a tuple that holds its fields itself: this one, unless it is
+     * a view of other tuples such as a {@link JoinedTuple}. Operators that
+     * keep the tuples they read materialize them.
+     */
+    public Tuple materialize() {
+        return this;
+    }
+
+    /**
+     * Copies the fields of this tuple into an array.
+     *
+     * @param to
+     *            the array to copy them to
+     * @param offset
+     *            the index in the array of the first field
+     */
+    protected void copyFields(Field[] to, int offset) {
+        System.arraycopy(m_fields, 0, to, offset, m_fields.length);
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -88,8 +136,8 @@ public class Tuple implements Serializable {
     public String toString() {
     	//Iterator<Field> iter = fields();
     	String str = "";
-    	for (int i = 0; i < m_fields.length; i++) {
-    		str = str + m_fields[i] + "\t";
+    	for (int i = 0; i < m_td.numFields(); i++) {
+    		str = str + getField(i) + "\t";
     	}
     	//while (iter.hasNext()) {
     	//	str = str + iter.next().toString() + "\t";
@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch is a batch of tuples passed between operators by
+ * {@link BatchIterator#nextBatch()}. It holds up to about SIZE tuples and a
+ * selection vector listing which of them are part of the batch, so that an
+ * operator such as Filter can drop tuples without copying the others.
+ */
+public class TupleBatch {
+
+    /** The number of tuples operators put in a batch. */
+    public static final int SIZE = 1024;
+
+    private Tuple[] m_tuples;
+    private int m_numTuples;
+    /** The indexes in m_tuples of the selected tuples, or null if all are. */
+    private int[] m_selection;
+    private int m_numSelected;
+
+    /**
+     * Creates an empty batch.
+     */
+    public TupleBatch() {
+        m_tuples = new Tuple[SIZE];
+    }
+
+    /**
+     * Appends a tuple to this batch, which must not have a selection
+     * vector. The batch grows if it is full.
+     */
+    public void add(Tuple t) {
+        if (m_selection != null)
+            throw new IllegalStateException("cannot add to a batch with a selection vector");
+        if (m_numTuples == m_tuples.length)
+            m_tuples = Arrays.copyOf(m_tuples, m_numTuples * 2);
+        m_tuples[m_numTuples++] = t;
+        m_numSelected = m_numTuples;
+    }
+
+    /**
+     * @return true if no more tuples should be added to this batch
+     */
+    public boolean isFull() {
+        return m_numTuples >= SIZE;
+    }
+
+    /**
+     * @return the number of selected tuples in this batch
+     */
+    public int size() {
+        return m_numSelected;
+    }
+
+    /**
+     * @return the i-th selected tuple of this batch
+     */
+    public Tuple get(int i) {
+        if (i >= m_numSelected)
+            throw new IndexOutOfBoundsException("tuple " + i + " of a batch of " + m_numSelected);
+        return m_tuples[m_selection == null ? i : m_selection[i]];
+    }
+
+    /**
+     * Keeps selected only the tuples that satisfy the specified predicate.
+     */
+    public void filter(Predicate p) {
+        if (m_selection == null) {
+            m_selection = new int[m_numTuples];
+            int n = 0;
+            for (int i = 0; i < m_numTuples; i++) {
+                if (p.filter(m_tuples[i]))
+                    m_selection[n++] = i;
+            }
+            m_numSelected = n;
+            return;
+        }
+        int n = 0;
+        for (int i = 0; i < m_numSelected; i++) {
+            if (p.filter(m_tuples[m_selection[i]]))
+                m_selection[n++] = m_selection[i];
+        }
+        m_numSelected = n;
+    }
+
+    /**
+     * Returns the next batch of tuples of an iterator: by calling nextBatch()
+     * if it is a BatchIterator, and otherwise by reading up to SIZE tuples
+     * with hasNext() and next().
+     *
+     * @return a batch with at least one selected tuple, or null if there are
+     *   no more tuples.
+     */
+    public static TupleBatch next(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        if (it instanceof BatchIterator)
+            return ((BatchIterator) it).nextBatch();
+        TupleBatch batch = new TupleBatch();
+        while (!batch.isFull() && it.hasNext())
+            batch.add(it.next());
+        return batch.size() == 0 ? null : batch;
+    }
+}
@@ -0,0 +1,40 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Compares tuples on a list of fields, each in ascending or descending
+ * order.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    int[] fields;
+    boolean[] asc;
+
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
+        this.asc = asc;
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            Field t1 = (o1).getField(fields[i]);
+            Field t2 = (o2).getField(fields[i]);
+            int c;
+            if (t1 instanceof IntField && t2 instanceof IntField) {
+                int v1 = ((IntField) t1).getValue(), v2 = ((IntField) t2).getValue();
+                c = v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+            } else if (t1.compare(Predicate.Op.EQUALS, t2)) {
+                c = 0;
+            } else {
+                c = t1.compare(Predicate.Op.GREATER_THAN, t2) ? 1 : -1;
+            }
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+}
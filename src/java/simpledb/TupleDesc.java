@@ -185,6 +185,24 @@ public class TupleDesc implements Serializable {
     	return new TupleDesc(types, names);
     }
 
+    /**
+     * Returns a TupleDesc with some of the fields of this one.
+     * 
+     * @param fields
+     *            the indexes of the fields to keep, in the order of the new
+     *            TupleDesc
+     * @return the new TupleDesc
+     */
+    public TupleDesc project(int[] fields) {
+    	Type[] types = new Type[fields.length];
+    	String[] names = new String[fields.length];
+    	for (int i = 0; i < fields.length; i++) {
+    		types[i] = getFieldType(fields[i]);
+    		names[i] = getFieldName(fields[i]);
+    	}
+    	return new TupleDesc(types, names);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they are the same size and if the n-th
@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class AdaptiveFilterTest extends SimpleDbTestBase {
+    ArrayList<ArrayList<Integer>> tuples;
+    HeapFile f;
+    TransactionId tid;
+    /** c0 < 900 passes most tuples, c1 = 7 few of them */
+    Predicate unselective = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(900));
+    Predicate selective = new Predicate(1, Predicate.Op.EQUALS, new IntField(7));
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, tuples, "c");
+        tid = new TransactionId();
+    }
+
+    /** @return the tuples of an iterator, read one at a time */
+    private static ArrayList<ArrayList<Integer>> readTuples(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return result;
+    }
+
+    /** @return the tuples of an iterator, read by batches */
+    private static ArrayList<ArrayList<Integer>> readBatches(BatchIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            for (int i = 0; i < batch.size(); i++)
+                result.add(SystemTestUtil.tupleToList(batch.get(i)));
+        }
+        it.close();
+        return result;
+    }
+
+    /** @return a filter of a scan of f on the two predicates, the
+     *    unselective one estimated as the most selective */
+    private AdaptiveFilter misestimated(DbIterator child) {
+        return new AdaptiveFilter(new Predicate[] { unselective, selective },
+                new double[] { 0.01, 0.9 }, child);
+    }
+
+    /**
+     * An AdaptiveFilter returns the tuples that pass all of its
+     * predicates, by tuples, by batches and by columnar batches, also
+     * after it reorders them
+     */
+    @Test public void sameTuples() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = readTuples(new Filter(selective,
+                new Filter(unselective, new SeqScan(tid, f.getId()))));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, readTuples(misestimated(new SeqScan(tid, f.getId()))));
+        // a TupleIterator returns no columnar batches
+        assertEquals(expected, readBatches(misestimated(new TupleIterator(f.getTupleDesc(),
+                scanTuples()))));
+        assertEquals(expected, readBatches(misestimated(new SeqScan(tid, f.getId()))));
+
+        // hasNext() fetches a tuple before the batches are read
+        AdaptiveFilter filter = misestimated(new SeqScan(tid, f.getId()));
+        filter.open();
+        assertTrue(filter.hasNext());
+        ArrayList<ArrayList<Integer>> mixed = new ArrayList<ArrayList<Integer>>();
+        mixed.add(SystemTestUtil.tupleToList(filter.next()));
+        assertTrue(filter.hasNext());
+        ColumnarBatch batch;
+        while ((batch = filter.nextColumnarBatch()) != null) {
+            for (int i = 0; i < batch.size(); i++)
+                mixed.add(SystemTestUtil.tupleToList(batch.getTuple(i)));
+        }
+        filter.close();
+        assertEquals(expected, mixed);
+    }
+
+    /** @return the tuples of f */
+    private ArrayList<Tuple> scanTuples() throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        DbIterator scan = new SeqScan(tid, f.getId());
+        scan.open();
+        while (scan.hasNext())
+            result.add(scan.next());
+        scan.close();
+        return result;
+    }
+
+    /**
+     * An AdaptiveFilter whose selectivities were misestimated evaluates
+     * the selective predicate first once it has read enough tuples
+     */
+    @Test public void reorders() throws Exception {
+        AdaptiveFilter filter = misestimated(new SeqScan(tid, f.getId()));
+        assertSame(unselective, filter.getEvaluationOrder()[0]);
+        readTuples(filter);
+        assertSame(selective, filter.getEvaluationOrder()[0]);
+        assertSame(unselective, filter.getPredicates()[0]);
+    }
+
+    /**
+     * ConjunctOrder ranks conjuncts by cost over the fraction of tuples
+     * they reject
+     */
+    @Test public void conjunctOrder() throws Exception {
+        ConjunctOrder order = new ConjunctOrder(new double[] { 0.5, 0.1, 1.0 });
+        assertArrayEquals(new int[] { 1, 0, 2 }, order.order());
+        // 0 turns out to reject most tuples, but to be costly
+        order.count(0, 10000, 100);
+        order.time(0, 10000 * 50);
+        order.count(1, 10000, 1000);
+        order.time(1, 10000 * 10);
+        assertFalse(order.tuples(ConjunctOrder.REORDER_INTERVAL - 1));
+        assertTrue(order.tuples(1));
+        assertArrayEquals(new int[] { 1, 0, 2 }, order.order());
+        // until it gets cheaper
+        order.count(0, 100000, 1000);
+        order.time(0, 100000 * 5);
+        assertTrue(order.tuples(ConjunctOrder.REORDER_INTERVAL));
+        assertArrayEquals(new int[] { 0, 1, 2 }, order.order());
+    }
+
+    /**
+     * LogicalPlan pushes the filters on a SeqScan into it most selective
+     * first, and puts those on another access path in an AdaptiveFilter
+     */
+    @Test public void physicalPlan() throws Exception {
+        String name = Database.getCatalog().getTableName(f.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(1);
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "900");
+        lp.addFilter("t.c1", Predicate.Op.EQUALS, "7");
+        lp.addProjectField("t.c2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator scan = plan;
+        while (!(scan instanceof SeqScan))
+            scan = ((Operator) scan).getChildren()[0];
+        Predicate[] pushed = ((SeqScan) scan).getPredicates();
+        assertEquals(2, pushed.length);
+        assertEquals(1, pushed[0].getField());
+
+        HashIndexFile index = Database.getCatalog().createHashIndex(f.getId(), "c1");
+        try {
+            lp = new LogicalPlan();
+            lp.setParallelism(1);
+            lp.addScan(f.getId(), "t");
+            lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "900");
+            lp.addFilter("t.c2", Predicate.Op.GREATER_THAN, "500");
+            lp.addFilter("t.c1", Predicate.Op.EQUALS, "7");
+            lp.addProjectField("t.c2", null);
+            plan = lp.physicalPlan(tid, stats, false);
+            DbIterator op = plan;
+            while (!(op instanceof AdaptiveFilter))
+                op = ((Operator) op).getChildren()[0];
+            assertTrue(((Operator) op).getChildren()[0] instanceof IndexScan);
+            assertEquals(3, ((AdaptiveFilter) op).getPredicates().length);
+
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            for (ArrayList<Integer> t : tuples) {
+                if (t.get(0) < 900 && t.get(2) > 500 && t.get(1) == 7)
+                    expected.add(t.get(2));
+            }
+            ArrayList<Integer> actual = new ArrayList<Integer>();
+            plan.open();
+            while (plan.hasNext())
+                actual.add(((IntField) plan.next().getField(0)).getValue());
+            plan.close();
+            Collections.sort(expected);
+            Collections.sort(actual);
+            assertEquals(expected, actual);
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+            index.getFile().delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AdaptiveFilterTest.class);
+    }
+}
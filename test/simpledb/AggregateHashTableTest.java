@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AggregateHashTableTest extends SimpleDbTestBase {
+
+    /**
+     * Groups are numbered in the order they are first seen, and keep their
+     * accumulators as the table grows
+     */
+    @Test public void intKeys() {
+        AggregateHashTable.IntKeys t = (AggregateHashTable.IntKeys) AggregateHashTable.create(Type.INT_TYPE);
+        int n = 10000;
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < n; i++) {
+                int key = i * 7919 - 5000;
+                int g = t.group(key);
+                assertEquals(i, g);
+                t.add(g, i + round);
+            }
+        }
+        assertEquals(n, t.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(new IntField(i * 7919 - 5000), t.key(i));
+            assertEquals(3, t.count(i));
+            assertEquals(3L * i + 3, t.sum(i));
+            assertEquals(i, t.min(i));
+            assertEquals(i + 2, t.max(i));
+        }
+        assertEquals(5, t.group(new IntField(5 * 7919 - 5000)));
+    }
+
+    /**
+     * String keys with equal hash codes are different groups
+     */
+    @Test public void stringKeys() {
+        AggregateHashTable t = AggregateHashTable.create(Type.STRING_TYPE);
+        HashMap<String, Integer> groups = new HashMap<String, Integer>();
+        // "Aa" and "BB" have the same hash code
+        String[] keys = { "Aa", "BB", "AaAa", "BBBB", "AaBB" };
+        for (int i = 0; i < 1000; i++) {
+            String key = keys[i % keys.length] + (i % 50);
+            int g = t.group(new StringField(key, Type.STRING_LEN));
+            Integer old = groups.put(key, g);
+            assertTrue(old == null || old == g);
+            t.add(g, 1, 0, 0, 0);
+        }
+        assertEquals(groups.size(), t.size());
+        for (String key : groups.keySet()) {
+            int g = groups.get(key);
+            assertEquals(new StringField(key, Type.STRING_LEN), t.key(g));
+            assertEquals(1000 / groups.size(), t.count(g));
+        }
+    }
+
+    /**
+     * Averages are computed from long sums, which do not overflow
+     */
+    @Test public void largeAverage() throws Exception {
+        IntegerAggregator agg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 0, Aggregator.Op.AVG);
+        DbIterator it = TestUtil.createTupleList(1, new int[] {
+                Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE - 3 });
+        it.open();
+        while (it.hasNext())
+            agg.mergeTupleIntoGroup(it.next());
+        DbIterator result = agg.iterator();
+        result.open();
+        assertEquals(new IntField(Integer.MAX_VALUE - 1), result.next().getField(0));
+        assertFalse(result.hasNext());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AggregateHashTableTest.class);
+    }
+}
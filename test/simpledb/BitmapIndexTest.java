@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(3, 5000, 20, null, tuples, "c");
+    }
+
+    private static CompressedBitmap randomBitmap(Random r, TreeSet<Integer> values, int n, int range) {
+        CompressedBitmap b = new CompressedBitmap();
+        for (int i = 0; i < n; i++) {
+            int x = r.nextInt(range);
+            b.add(x);
+            values.add(x);
+        }
+        return b;
+    }
+
+    private static void assertSameValues(TreeSet<Integer> expected, CompressedBitmap b) {
+        assertEquals(expected.size(), b.cardinality());
+        int x = b.nextSetBit(0);
+        for (int v : expected) {
+            assertEquals(v, x);
+            assertTrue(b.contains(v));
+            x = b.nextSetBit(x + 1);
+        }
+        assertEquals(-1, x);
+    }
+
+    /**
+     * Unit test for CompressedBitmap, with both sparse and dense chunks
+     */
+    @Test public void compressedBitmap() {
+        Random r = new Random(42);
+        TreeSet<Integer> va = new TreeSet<Integer>();
+        TreeSet<Integer> vb = new TreeSet<Integer>();
+        // a is dense in its first chunk and sparse elsewhere, b mostly sparse
+        CompressedBitmap a = randomBitmap(r, va, 30000, 65536);
+        a = a.or(randomBitmap(r, va, 300, 1 << 20));
+        CompressedBitmap b = randomBitmap(r, vb, 6000, 1 << 18);
+        assertSameValues(va, a);
+        assertSameValues(vb, b);
+
+        TreeSet<Integer> and = new TreeSet<Integer>(va);
+        and.retainAll(vb);
+        assertSameValues(and, a.and(b));
+        assertSameValues(and, b.and(a));
+        TreeSet<Integer> or = new TreeSet<Integer>(va);
+        or.addAll(vb);
+        assertSameValues(or, a.or(b));
+        assertSameValues(or, b.or(a));
+        assertFalse(a.contains(1 << 21));
+    }
+
+    private BitmapIndex createIndex(int field) throws Exception {
+        BitmapIndex index = new BitmapIndex(table.getId(), field);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getCatalog().addBitmapIndex(index);
+        return index;
+    }
+
+    /**
+     * BitmapScan combines predicates on several bitmap indexes with AND and
+     * OR
+     */
+    @Test public void bitmapScan() throws Exception {
+        BitmapIndex i0 = createIndex(0);
+        BitmapIndex i1 = createIndex(1);
+        assertTrue(i0.numValues() <= 20);
+        BitmapCondition cond = BitmapCondition.or(
+                BitmapCondition.and(
+                        BitmapCondition.predicate(i0, Predicate.Op.EQUALS, new IntField(3)),
+                        BitmapCondition.predicate(i1, Predicate.Op.LESS_THAN, new IntField(10))),
+                BitmapCondition.predicate(i1, Predicate.Op.EQUALS, new IntField(17)));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if ((t.get(0) == 3 && t.get(1) < 10) || t.get(1) == 17)
+                expected.add(t);
+        }
+        TransactionId tid = new TransactionId();
+        BitmapScan scan = new BitmapScan(tid, table.getId(), "t", cond);
+        SystemTestUtil.matchTuples(scan, expected);
+
+        // tuples are returned in page order
+        scan.open();
+        int lastPos = -1;
+        while (scan.hasNext()) {
+            int pos = i0.position(scan.next().getRecordId());
+            assertTrue(pos > lastPos);
+            lastPos = pos;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserted tuples are added to the index; deleted tuples are left in it
+     * but are not returned by a BitmapScan. The catalog keeps the index
+     * apart from the indexes stored in a DbFile.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        BitmapIndex index = createIndex(0);
+        assertSame(index, Database.getCatalog().getBitmapIndex(table.getId(), "c0"));
+        assertTrue(Database.getCatalog().getIndexes(table.getId()).isEmpty());
+        BitmapCondition cond = BitmapCondition.predicate(index, Predicate.Op.EQUALS, new IntField(100));
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 50; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            for (int j = 0; j < 3; j++)
+                t.setField(j, new IntField(100 + j));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            inserted.add(t);
+        }
+        assertEquals(50, index.select(Predicate.Op.EQUALS, new IntField(100)).cardinality());
+        BitmapScan scan = new BitmapScan(tid, table.getId(), "t", cond);
+        assertEquals(50, count(scan));
+
+        for (int i = 0; i < 20; i++)
+            Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+        assertEquals(50, index.select(Predicate.Op.EQUALS, new IntField(100)).cardinality());
+        assertEquals(30, count(scan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * LogicalPlan reads a table with a BitmapScan when its filters are on
+     * fields with a bitmap index
+     */
+    @Test public void physicalPlan() throws Exception {
+        createIndex(0);
+        createIndex(1);
+        TransactionId tid = new TransactionId();
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.EQUALS, "5");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, "12");
+        lp.addProjectField("t.c2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator scan = plan;
+        while (!(scan instanceof SeqScan))
+            scan = ((Operator) scan).getChildren()[0];
+        assertTrue(scan instanceof BitmapScan);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == 5 && t.get(1) > 12) {
+                ArrayList<Integer> e = new ArrayList<Integer>();
+                e.add(t.get(2));
+                expected.add(e);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
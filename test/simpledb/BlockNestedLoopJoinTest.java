@@ -0,0 +1,145 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+    ArrayList<ArrayList<Integer>> tuples1;
+    ArrayList<ArrayList<Integer>> tuples2;
+    HeapFile f1;
+    HeapFile f2;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples1 = new ArrayList<ArrayList<Integer>>();
+        f1 = SystemTestUtil.createRandomHeapFile(2, 1200, 100, null, tuples1, "c");
+        tuples2 = new ArrayList<ArrayList<Integer>>();
+        f2 = SystemTestUtil.createRandomHeapFile(2, 50, 100, null, tuples2, "c");
+        tid = new TransactionId();
+    }
+
+    private ArrayList<ArrayList<Integer>> expectedJoin(Predicate.Op op) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : tuples1) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (new IntField(t1.get(1)).compare(op, new IntField(t2.get(0)))) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(t1);
+                    t.addAll(t2);
+                    expected.add(t);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /** @return the number of times each tuple is in a list */
+    private static HashMap<ArrayList<Integer>, Integer> count(ArrayList<ArrayList<Integer>> tuples) {
+        HashMap<ArrayList<Integer>, Integer> counts = new HashMap<ArrayList<Integer>, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            Integer c = counts.get(t);
+            counts.put(t, c == null ? 1 : c + 1);
+        }
+        return counts;
+    }
+
+    /** @return the tuples of an iterator */
+    private static ArrayList<ArrayList<Integer>> readTuples(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * The inner relation is scanned once per block of outer tuples, and the
+     * join returns the same tuples for every block size
+     */
+    @Test public void blocks() throws Exception {
+        int perPage = HeapPage.getNumTuples(f1.getTupleDesc());
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ }) {
+            for (int pages : new int[] { 1, 3, Join.DEFAULT_BLOCK_PAGES }) {
+                TestUtil.CountingIterator inner = new TestUtil.CountingIterator(new SeqScan(tid, f2.getId()));
+                Join j = new Join(new JoinPredicate(1, op, 0), new SeqScan(tid, f1.getId()), inner);
+                j.setBlockPages(pages);
+                assertEquals(count(expectedJoin(op)), count(readTuples(j)));
+                int blocks = (tuples1.size() + pages * perPage - 1) / (pages * perPage);
+                assertEquals(blocks - 1, inner.rewinds);
+            }
+        }
+    }
+
+    /**
+     * Rewinding a join returns its tuples again
+     */
+    @Test public void rewind() throws Exception {
+        Join j = new Join(new JoinPredicate(1, Predicate.Op.LESS_THAN, 0),
+                new SeqScan(tid, f1.getId()), new SeqScan(tid, f2.getId()));
+        j.setBlockPages(1);
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        j.rewind();
+        int m = 0;
+        while (j.hasNext()) {
+            j.next();
+            m++;
+        }
+        j.close();
+        assertEquals(expectedJoin(Predicate.Op.LESS_THAN).size(), n);
+        assertEquals(n, m);
+    }
+
+    /**
+     * Joins on string fields compare the block tuples by their fields
+     */
+    @Test public void strings() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File file = File.createTempFile("block", ".dat");
+        file.deleteOnExit();
+        HeapFile strings = new HeapFile(file, td);
+        Database.getCatalog().addTable(strings, SystemTestUtil.getUUID());
+        for (int i = 0; i < 600; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + (i % 50), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, strings.getId(), t);
+        }
+        Join j = new Join(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, strings.getId()), new SeqScan(tid, strings.getId()));
+        j.setBlockPages(1);
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            Tuple t = j.next();
+            assertEquals(((IntField) t.getField(0)).getValue() % 50,
+                    ((IntField) t.getField(2)).getValue() % 50);
+            n++;
+        }
+        j.close();
+        assertEquals(600 * 12, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+    }
+}
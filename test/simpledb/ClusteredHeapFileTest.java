@@ -0,0 +1,214 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ClusteredHeapFileTest extends SimpleDbTestBase {
+    private File file;
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("clustered", ".dat");
+        file.deleteOnExit();
+        table = new HeapFile(file, Utility.getTupleDesc(2, "c"), 0);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        tuples = new ArrayList<ArrayList<Integer>>();
+    }
+
+    @After public void tearDown() throws Exception {
+        new File(file.getPath() + ".keys").delete();
+    }
+
+    /** Inserts tuples with the specified keys in one transaction. */
+    private void insert(int[] keys) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int key : keys) {
+            Tuple t = Utility.getHeapTuple(new int[] { key, tuples.size() });
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            ArrayList<Integer> l = new ArrayList<Integer>();
+            l.add(key);
+            l.add(tuples.size());
+            tuples.add(l);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private void checkRange(int lo, boolean loInclusive, int hi, boolean hiInclusive) throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            int key = t.get(0);
+            if ((key > lo || (loInclusive && key == lo)) && (key < hi || (hiInclusive && key == hi)))
+                expected.add(t);
+        }
+        TransactionId tid = new TransactionId();
+        ClusteredScan scan = new ClusteredScan(tid, table.getId(), "t",
+                new IntField(lo), loInclusive, new IntField(hi), hiInclusive);
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A table filled in key order stays sorted, and a range of keys is read
+     * from the few pages that hold it
+     */
+    @Test public void insertInOrder() throws Exception {
+        int[] keys = new int[10000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i / 3;
+        insert(keys);
+        assertTrue(table.numPages() > 10);
+        assertEquals(table.numPages(), table.numSortedPages());
+        assertTrue(table.pagesInRange(1000, 1010).size() <= 2);
+        assertEquals(0, table.pagesInRange(-10, -1).size());
+        checkRange(1000, true, 1010, false);
+        checkRange(1000, false, 1010, true);
+        checkRange(2000, true, 2000, true);
+        checkRange(-5, true, 5, true);
+    }
+
+    /**
+     * Tuples inserted out of order go to a sorted page when they fit, and
+     * to the unsorted pages otherwise; ranges are still read correctly
+     */
+    @Test public void insertOutOfOrder() throws Exception {
+        int[] keys = new int[6000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i;
+        insert(keys);
+        int sorted = table.numSortedPages();
+        Random r = new Random(7);
+        keys = new int[1000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = r.nextInt(6000);
+        insert(keys);
+        assertTrue(table.numSortedPages() <= sorted);
+        checkRange(100, true, 200, true);
+        checkRange(5990, true, 7000, true);
+        checkRange(-1, true, 6000, false);
+    }
+
+    /**
+     * The key directory is saved with the pages, and rebuilt from them if it
+     * is missing
+     */
+    @Test public void keyDirectory() throws Exception {
+        int[] keys = new int[3000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i;
+        insert(keys);
+        assertTrue(new File(file.getPath() + ".keys").exists());
+        int sorted = table.numSortedPages();
+
+        HeapFile reopened = new HeapFile(file, Utility.getTupleDesc(2, "c"), 0);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(sorted, reopened.numSortedPages());
+
+        new File(file.getPath() + ".keys").delete();
+        reopened = new HeapFile(file, Utility.getTupleDesc(2, "c"), 0);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(sorted, reopened.numSortedPages());
+        assertEquals(table.pagesInRange(500, 600), reopened.pagesInRange(500, 600));
+    }
+
+    /**
+     * A key directory older than its file, which was rewritten with as
+     * many pages, is rebuilt rather than trusted
+     */
+    @Test public void staleKeyDirectory() throws Exception {
+        int[] keys = new int[3000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i;
+        insert(keys);
+        int pages = table.numPages();
+        long saved = new File(file.getPath() + ".keys").lastModified();
+
+        // another clustered file of as many pages, with other keys
+        File other = File.createTempFile("clustered", ".dat");
+        other.deleteOnExit();
+        table = new HeapFile(other, Utility.getTupleDesc(2, "c"), 0);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        tuples.clear();
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = 10000 + keys.length - i;
+        insert(keys);
+        new File(other.getPath() + ".keys").delete();
+        assertEquals(pages, table.numPages());
+
+        // rewrite the first file with the pages of the other
+        byte[] bytes = new byte[(int) other.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(other));
+        in.readFully(bytes);
+        in.close();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes);
+        out.close();
+        file.setLastModified(saved + 2000);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        table = new HeapFile(file, Utility.getTupleDesc(2, "c"), 0);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        checkRange(10500, true, 10600, false);
+        checkRange(0, true, 20000, true);
+    }
+
+    /**
+     * LogicalPlan reads a clustered table with a ClusteredScan when the
+     * WHERE clause bounds its cluster key
+     */
+    @Test public void physicalPlan() throws Exception {
+        int[] keys = new int[3000];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i;
+        insert(keys);
+        TransactionId tid = new TransactionId();
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.GREATER_THAN_OR_EQ, "1500");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "1600");
+        lp.addProjectField("t.c1", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator scan = plan;
+        while (!(scan instanceof SeqScan))
+            scan = ((Operator) scan).getChildren()[0];
+        assertTrue(scan instanceof ClusteredScan);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= 1500 && t.get(0) < 1600) {
+                ArrayList<Integer> e = new ArrayList<Integer>();
+                e.add(t.get(1));
+                expected.add(e);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClusteredHeapFileTest.class);
+    }
+}
@@ -0,0 +1,206 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnPruningTest extends SimpleDbTestBase {
+    HeapFile f;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File file = File.createTempFile("pruning", ".dat");
+        file.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "s", "b" });
+        f = new HeapFile(file, td);
+        Database.getCatalog().addTable(f, "pruning");
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Tuple tup = new Tuple(td);
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new StringField("s" + (i % 13), Type.STRING_LEN));
+            tup.setField(2, new IntField(i % 7));
+            Database.getBufferPool().insertTuple(t, f.getId(), tup);
+            if (i % 500 == 499) {
+                // keep the dirty pages within the buffer pool
+                Database.getBufferPool().transactionComplete(t);
+                t = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(t);
+        // read the pages back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    /** @return a Project of the specified fields of a scan of f */
+    private DbIterator project(DbIterator child, int... fields) {
+        ArrayList<Integer> fieldList = new ArrayList<Integer>();
+        Type[] types = new Type[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            fieldList.add(fields[i]);
+            types[i] = child.getTupleDesc().getFieldType(fields[i]);
+        }
+        return new Project(fieldList, types, child);
+    }
+
+    /** @return a scan of f that returns the specified fields */
+    private SeqScan pruned(Predicate p, int... columns) {
+        SeqScan scan = new SeqScan(tid, f.getId());
+        if (p != null)
+            scan.addPredicate(p);
+        scan.setColumns(columns);
+        return scan;
+    }
+
+    /**
+     * A scan that returns some of the fields of its table returns the same
+     * tuples as a Project of a full scan, with their RecordIds, by tuples
+     * and by columnar batches, also with predicates on the other fields
+     */
+    @Test public void sameTuples() throws Exception {
+        SeqScan scan = pruned(null, 0, 2);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("pruning.b", scan.getTupleDesc().getFieldName(1));
+        assertEquals(Type.INT_TYPE, scan.getTupleDesc().getFieldType(1));
+        ArrayList<String> expected = SystemTestUtil.readTuplesWithIds(project(new SeqScan(tid, f.getId()), 0, 2));
+        assertEquals(2000, expected.size());
+        assertEquals(expected, SystemTestUtil.readTuplesWithIds(scan));
+        assertEquals(expected, SystemTestUtil.readColumnsWithIds(pruned(null, 0, 2)));
+
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new StringField("s3", Type.STRING_LEN));
+        expected = SystemTestUtil.readTuplesWithIds(project(new Filter(p, new SeqScan(tid, f.getId())), 2));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, SystemTestUtil.readTuplesWithIds(pruned(p, 2)));
+        assertEquals(expected, SystemTestUtil.readColumnsWithIds(pruned(p, 2)));
+    }
+
+    /**
+     * A scan that returns some of the fields of its table reads them from
+     * the tuples of a page modified since it was read
+     */
+    @Test public void modifiedPage() throws Exception {
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(5000));
+        t.setField(1, new StringField("s3", Type.STRING_LEN));
+        t.setField(2, new IntField(42));
+        DbIterator first = new SeqScan(tid, f.getId());
+        first.open();
+        Database.getBufferPool().deleteTuple(tid, first.next());
+        first.close();
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+
+        ArrayList<String> expected = SystemTestUtil.readTuplesWithIds(project(new SeqScan(tid, f.getId()), 1, 2));
+        assertTrue(expected.get(0).startsWith("s3\t42"));
+        assertEquals(expected, SystemTestUtil.readTuplesWithIds(pruned(null, 1, 2)));
+        assertEquals(expected, SystemTestUtil.readColumnsWithIds(pruned(null, 1, 2)));
+    }
+
+    /** @return the scans at the leaves of a plan */
+    private static ArrayList<SeqScan> scans(DbIterator plan) {
+        ArrayList<SeqScan> scans = new ArrayList<SeqScan>();
+        if (plan instanceof SeqScan)
+            scans.add((SeqScan) plan);
+        else if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren())
+                scans.addAll(scans(child));
+        }
+        return scans;
+    }
+
+    /**
+     * LogicalPlan makes the scans of a join and aggregate return only the
+     * fields the operators above them use, and the query returns the same
+     * tuples
+     */
+    @Test public void physicalPlan() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(3, 100, 7, null, null, "c");
+        String name = Database.getCatalog().getTableName(small.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("pruning", new TableStats(f.getId(), 1000));
+        stats.put(name, new TableStats(small.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(1);
+        lp.addScan(f.getId(), "p");
+        lp.addScan(small.getId(), "q");
+        lp.addJoin("p.b", "q.c0", Predicate.Op.EQUALS);
+        lp.addFilter("p.s", Predicate.Op.EQUALS, "s3");
+        lp.addProjectField("q.c1", null);
+        lp.addProjectField("p.a", "count");
+        lp.addAggregate("count", "p.a", "q.c1");
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        ArrayList<SeqScan> scans = scans(plan);
+        assertEquals(2, scans.size());
+        for (SeqScan scan : scans) {
+            if (scan.getTableId() == f.getId())
+                assertArrayEquals(new int[] { 0, 2 }, scan.getColumns());
+            else
+                assertArrayEquals(new int[] { 0, 1 }, scan.getColumns());
+        }
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan)
+                .contains(QueryPlanVisualizer.PROJECT + "p.a,p.b"));
+
+        // the same join and aggregate over full scans
+        JoinPredicate jp = new JoinPredicate(2, Predicate.Op.EQUALS, 0);
+        DbIterator join = new Join(jp, new Filter(new Predicate(1, Predicate.Op.EQUALS,
+                new StringField("s3", Type.STRING_LEN)), new SeqScan(tid, f.getId(), "p")),
+                new SeqScan(tid, small.getId(), "q"));
+        DbIterator expected = new Aggregate(join, 0, 4, Aggregator.Op.COUNT);
+        ArrayList<String> e = readRows(expected);
+        assertFalse(e.isEmpty());
+        assertEquals(e, readRows(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** @return the tuples of an iterator, as sorted strings */
+    private static ArrayList<String> readRows(DbIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /**
+     * An IndexNestedLoopJoin over a scan that returns some of the fields of
+     * its table returns them from the tuples it looks up
+     */
+    @Test public void indexJoin() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(1, 50, 2000, null, null, "c");
+        HashIndexFile index = Database.getCatalog().createHashIndex(f.getId(), "a");
+        try {
+            Predicate p = new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(2));
+            JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+            ArrayList<String> expected = readRows(new Join(jp, new SeqScan(tid, outer.getId()),
+                    project(new Filter(p, new SeqScan(tid, f.getId())), 0, 1)));
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, readRows(new IndexNestedLoopJoin(jp,
+                    new SeqScan(tid, outer.getId()), pruned(p, 0, 1), index)));
+        } finally {
+            Database.getBufferPool().transactionComplete(tid);
+            index.getFile().delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnPruningTest.class);
+    }
+}
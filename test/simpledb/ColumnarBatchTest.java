@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnarBatchTest extends SimpleDbTestBase {
+    private HeapFile ints;
+    private HeapFile strings;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        ints = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, new ArrayList<ArrayList<Integer>>(), "c");
+
+        File file = File.createTempFile("columnar", ".dat");
+        file.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "s", "b" });
+        strings = new HeapFile(file, td);
+        Database.getCatalog().addTable(strings, SystemTestUtil.getUUID());
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < 500; i++) {
+            Tuple tup = new Tuple(td);
+            tup.setField(0, new IntField(i));
+            tup.setField(1, new StringField("s" + (i % 37), Type.STRING_LEN));
+            tup.setField(2, new IntField(-i));
+            Database.getBufferPool().insertTuple(t, strings.getId(), tup);
+        }
+        Database.getBufferPool().transactionComplete(t);
+        // read the pages back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    /** @return the sorted tuples returned by next(), as strings */
+    private static ArrayList<String> readResults(DbIterator it) throws Exception {
+        ArrayList<String> tuples = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next().toString());
+        it.close();
+        Collections.sort(tuples);
+        return tuples;
+    }
+
+    /** An iterator that only returns the tuples of another one by next() */
+    private static class TupleScan implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private DbIterator m_child;
+
+        public TupleScan(DbIterator child) {
+            m_child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            m_child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return m_child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            return m_child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            m_child.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return m_child.getTupleDesc();
+        }
+
+        public void close() {
+            m_child.close();
+        }
+    }
+
+    /**
+     * Unit test for ColumnarBatch.filter() over int and string columns
+     */
+    @Test public void filter() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        ColumnarBatch batch = new ColumnarBatch(td);
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(i % 2 == 0 ? "even" : "odd", Type.STRING_LEN));
+            batch.add(t);
+        }
+        batch.filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(3)));
+        batch.filter(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(8)));
+        batch.filter(new Predicate(1, Predicate.Op.EQUALS, new StringField("even", Type.STRING_LEN)));
+        assertEquals(2, batch.size());
+        assertEquals(4, batch.getInt(0, 0));
+        assertEquals(6, batch.getInt(0, 1));
+        assertEquals("even", batch.getString(1, 1));
+        assertEquals(10, batch.sum(0));
+        assertEquals(4, batch.min(0));
+        assertEquals(6, batch.max(0));
+    }
+
+    /**
+     * SeqScan decodes the same rows from the pages as next() returns, and
+     * falls back to the tuples of pages modified since they were read
+     */
+    @Test public void scan() throws Exception {
+        assertEquals(SystemTestUtil.readTuplesWithIds(new SeqScan(tid, ints.getId())),
+                SystemTestUtil.readColumnsWithIds(new SeqScan(tid, ints.getId())));
+        ArrayList<String> expected = SystemTestUtil.readTuplesWithIds(new SeqScan(tid, strings.getId()));
+        assertEquals(500, expected.size());
+        assertEquals(expected, SystemTestUtil.readColumnsWithIds(new SeqScan(tid, strings.getId())));
+
+        Tuple t = new Tuple(strings.getTupleDesc());
+        t.setField(0, new IntField(500));
+        t.setField(1, new StringField("new", Type.STRING_LEN));
+        t.setField(2, new IntField(-500));
+        Database.getBufferPool().insertTuple(tid, strings.getId(), t);
+        expected = SystemTestUtil.readTuplesWithIds(new SeqScan(tid, strings.getId()));
+        assertEquals(501, expected.size());
+        assertEquals(expected, SystemTestUtil.readColumnsWithIds(new SeqScan(tid, strings.getId())));
+    }
+
+    /**
+     * Filter selects the same rows by columns as by tuples, and Aggregate
+     * computes the same results from the int vectors of its child
+     */
+    @Test public void operators() throws Exception {
+        Filter f = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30)),
+                new SeqScan(tid, ints.getId()));
+        assertEquals(SystemTestUtil.readTuplesWithIds(f), SystemTestUtil.readColumnsWithIds(f));
+        f = new Filter(new Predicate(1, Predicate.Op.EQUALS, new StringField("s5", Type.STRING_LEN)),
+                new SeqScan(tid, strings.getId()));
+        assertEquals(SystemTestUtil.readTuplesWithIds(f), SystemTestUtil.readColumnsWithIds(f));
+
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            for (int group : new int[] { Aggregator.NO_GROUPING, 1 }) {
+                Aggregate expected = new Aggregate(new TupleScan(new SeqScan(tid, strings.getId())), 2, group, op);
+                Aggregate actual = new Aggregate(new SeqScan(tid, strings.getId()), 2, group, op);
+                assertEquals(readResults(expected), readResults(actual));
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnarBatchTest.class);
+    }
+}
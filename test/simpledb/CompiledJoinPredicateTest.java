@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompiledJoinPredicateTest extends SimpleDbTestBase {
+    TupleDesc td;
+    ArrayList<Tuple> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+                new String[] { "i", "s" });
+        String[] words = { "", "a", "ab", "abc", "b", "ba", "caf\u00e9" };
+        tuples = new ArrayList<Tuple>();
+        for (int i = -3; i <= 3; i++) {
+            for (String w : words) {
+                Tuple t = new Tuple(td);
+                t.setField(0, new IntField(i));
+                t.setField(1, new StringField(w, Type.STRING_LEN));
+                tuples.add(t);
+            }
+        }
+    }
+
+    /**
+     * A compiled join predicate holds for the same pairs of tuples as the
+     * join predicate, for every operator over int and string fields
+     */
+    @Test public void sameAsJoinPredicate() throws Exception {
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int field = 0; field < 2; field++) {
+                JoinPredicate p = new JoinPredicate(field, op, field);
+                CompiledJoinPredicate c = CompiledJoinPredicate.compile(p, td, td);
+                assertSame(p, c.getPredicate());
+                for (Tuple t1 : tuples) {
+                    for (Tuple t2 : tuples)
+                        assertEquals(op + " " + t1 + " " + t2, p.filter(t1, t2), c.filter(t1, t2));
+                }
+            }
+        }
+    }
+
+    /**
+     * A Join of string fields matches its tuples with a compiled predicate
+     */
+    @Test public void join() throws Exception {
+        JoinPredicate jp = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        Join j = new Join(jp, new TupleIterator(td, tuples), new TupleIterator(td, tuples));
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            Tuple t = j.next();
+            assertEquals(t.getField(1), t.getField(3));
+            n++;
+        }
+        j.close();
+        assertEquals(7 * 7 * 7, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompiledJoinPredicateTest.class);
+    }
+}
@@ -0,0 +1,301 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+    ArrayList<ArrayList<Integer>> tuples;
+    HeapFile f;
+    HeapFile small;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(3, 50000, 1000, null, tuples, "c");
+        small = SystemTestUtil.createRandomHeapFile(2, 500, 1000, null, null, "c");
+        tid = new TransactionId();
+        assertTrue(f.numPages() >= ParallelScan.PARALLEL_MIN_PAGES);
+    }
+
+    /** @return the tuples of an iterator, counted by SystemTestUtil.countTuples() */
+    private static HashMap<ArrayList<Integer>, Integer> run(DbIterator it) throws Exception {
+        it.open();
+        HashMap<ArrayList<Integer>, Integer> counts = SystemTestUtil.countTuples(it);
+        it.close();
+        return counts;
+    }
+
+    /** @return the tuples of f whose c1 is below max, split in three scans */
+    private DbIterator[] producers(int max) {
+        DbIterator pipeline = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(max)),
+                new SeqScan(tid, f.getId()));
+        return ParallelScan.split(pipeline, 3);
+    }
+
+    /**
+     * A gather returns the tuples of all of its producers, also after a
+     * rewind
+     */
+    @Test public void gather() throws Exception {
+        HashMap<ArrayList<Integer>, Integer> expected = run(new SeqScan(tid, f.getId()));
+        Gather g = new Gather(new DbIterator[] {
+                new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)),
+                        new SeqScan(tid, f.getId())),
+                new Filter(new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(300)),
+                        new SeqScan(tid, f.getId())) });
+        assertEquals("gather", g.getName());
+        assertEquals(f.getTupleDesc(), g.getTupleDesc());
+        assertEquals(expected, run(g));
+        g.open();
+        g.rewind();
+        assertEquals(expected, SystemTestUtil.countTuples(g));
+        g.close();
+    }
+
+    /**
+     * A repartition sends all the tuples with the same value of its field
+     * to the same consumer, and every tuple to one of them
+     */
+    @Test public void repartition() throws Exception {
+        HashRepartition[] parts = HashRepartition.create(producers(500), 2, 4);
+        assertEquals(4, parts.length);
+        for (HashRepartition p : parts)
+            p.open();
+        HashMap<ArrayList<Integer>, Integer> union = new HashMap<ArrayList<Integer>, Integer>();
+        HashMap<Integer, Integer> partitionOf = new HashMap<Integer, Integer>();
+        // read the consumers in turns, as the producers wait for each of them
+        boolean more = true;
+        while (more) {
+            more = false;
+            for (int p = 0; p < parts.length; p++) {
+                for (int i = 0; i < 100 && parts[p].hasNext(); i++) {
+                    Tuple t = parts[p].next();
+                    int key = ((IntField) t.getField(2)).getValue();
+                    Integer previous = partitionOf.put(key, p);
+                    assertTrue(previous == null || previous == p);
+                    assertEquals(p, HashRepartition.partitionOf(t.getField(2), 4));
+                    SystemTestUtil.addTuple(union, t);
+                    more = true;
+                }
+            }
+        }
+        for (HashRepartition p : parts)
+            p.close();
+        assertEquals(run(new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500)),
+                new SeqScan(tid, f.getId()))), union);
+
+        try {
+            parts[0].open();
+            parts[0].rewind();
+            fail("a consumer of several was rewound");
+        } catch (DbException e) {
+            // expected
+        }
+        parts[0].close();
+    }
+
+    /**
+     * A broadcast sends every tuple to each consumer, and the others still
+     * get them once one of them is closed
+     */
+    @Test public void broadcast() throws Exception {
+        HashMap<ArrayList<Integer>, Integer> expected = run(new SeqScan(tid, small.getId()));
+        Broadcast[] b = Broadcast.create(new DbIterator[] { new SeqScan(tid, small.getId()) }, 3);
+        for (Broadcast c : b)
+            c.open();
+        b[2].close();
+        assertEquals(expected, SystemTestUtil.countTuples(b[0]));
+        assertEquals(expected, SystemTestUtil.countTuples(b[1]));
+        b[0].close();
+        b[1].close();
+    }
+
+    /**
+     * A producer does not run further ahead of its consumer than the queue
+     * of the exchange holds
+     */
+    @Test public void backpressure() throws Exception {
+        Counting producer = new Counting(new SeqScan(tid, f.getId()));
+        Gather g = new Gather(new DbIterator[] { producer });
+        g.open();
+        assertTrue(g.hasNext());
+        g.next();
+        Thread.sleep(200);
+        int read = producer.m_count;
+        assertTrue(read < tuples.size());
+        assertTrue(read <= (Exchange.QUEUE_BATCHES + 2) * TupleBatch.SIZE);
+        g.close();
+    }
+
+    /**
+     * The errors of a producer are thrown by the consumer
+     */
+    @Test public void producerError() throws Exception {
+        Gather g = new Gather(new DbIterator[] { new Counting(new SeqScan(tid, f.getId())) {
+            private static final long serialVersionUID = 1L;
+
+            protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+                if (m_count == 1000)
+                    throw new DbException("failed");
+                return super.fetchNext();
+            }
+        } });
+        g.open();
+        try {
+            SystemTestUtil.countTuples(g);
+            fail("the error of the producer was lost");
+        } catch (DbException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        g.close();
+    }
+
+    /**
+     * A hash join and a grouped aggregate planned on several threads return
+     * the same tuples as on one thread
+     */
+    @Test public void physicalPlan() throws Exception {
+        String big = Database.getCatalog().getTableName(f.getId());
+        String name = Database.getCatalog().getTableName(small.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(big, new TableStats(f.getId(), 1000));
+        stats.put(name, new TableStats(small.getId(), 1000));
+
+        HashMap<ArrayList<Integer>, Integer> serial = null;
+        for (int threads : new int[] { 1, 4 }) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.setParallelism(threads);
+            lp.addScan(f.getId(), "b");
+            lp.addScan(small.getId(), "s");
+            lp.addJoin("b.c0", "s.c0", Predicate.Op.EQUALS);
+            lp.addProjectField("s.c1", null);
+            lp.addProjectField("b.c2", null);
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            String tree = new QueryPlanVisualizer().getQueryPlanTree(plan);
+            assertEquals(threads > 1, tree.contains("gather"));
+            assertEquals(threads > 1, tree.contains("repartition(b.c0)"));
+            HashMap<ArrayList<Integer>, Integer> result = run(plan);
+            if (serial == null) {
+                serial = result;
+                assertFalse(serial.isEmpty());
+            } else
+                assertEquals(serial, result);
+        }
+
+        serial = null;
+        for (int threads : new int[] { 1, 4 }) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.setParallelism(threads);
+            lp.addScan(f.getId(), "b");
+            lp.addFilter("b.c1", Predicate.Op.LESS_THAN, "500");
+            lp.addProjectField("b.c2", null);
+            lp.addProjectField("b.c0", "sum");
+            lp.addAggregate("sum", "b.c0", "b.c2");
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            String tree = new QueryPlanVisualizer().getQueryPlanTree(plan);
+            assertEquals(threads > 1, tree.contains("repartition(b.c2)"));
+            HashMap<ArrayList<Integer>, Integer> result = run(plan);
+            if (serial == null) {
+                serial = result;
+                assertEquals(1000, serial.size());
+            } else
+                assertEquals(serial, result);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The aggregate of a bare scan runs on as many threads as the plan,
+     * and on the calling thread alone for a parallelism of 1
+     */
+    @Test public void aggregateParallelism() throws Exception {
+        String big = Database.getCatalog().getTableName(f.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(big, new TableStats(f.getId(), 1000));
+
+        HashMap<ArrayList<Integer>, Integer> serial = null;
+        for (int threads : new int[] { 1, 4 }) {
+            LogicalPlan lp = new LogicalPlan();
+            lp.setParallelism(threads);
+            lp.addScan(f.getId(), "b");
+            lp.addProjectField("b.c2", null);
+            lp.addProjectField("b.c0", "sum");
+            lp.addAggregate("sum", "b.c0", "b.c2");
+            DbIterator plan = lp.physicalPlan(tid, stats, false);
+            Aggregate agg = (Aggregate) ((Operator) plan).getChildren()[0];
+            HashMap<ArrayList<Integer>, Integer> result = run(plan);
+            assertEquals(threads, agg.threadsUsed());
+            if (serial == null) {
+                serial = result;
+                assertEquals(1000, serial.size());
+            } else
+                assertEquals(serial, result);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Counts the tuples read from its child.
+     */
+    private static class Counting extends Operator {
+        private static final long serialVersionUID = 1L;
+        private DbIterator m_child;
+        volatile int m_count;
+
+        Counting(DbIterator child) {
+            m_child = child;
+        }
+
+        public void open() throws DbException, NoSuchElementException,
+                TransactionAbortedException {
+            m_child.open();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            m_child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            m_child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!m_child.hasNext())
+                return null;
+            m_count++;
+            return m_child.next();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return m_child.getTupleDesc();
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { m_child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            m_child = children[0];
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,149 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+    ArrayList<ArrayList<Integer>> tuples;
+    HeapFile f;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(3, 25000, 1000, null, tuples, "c");
+        tid = new TransactionId();
+    }
+
+    /** @return the tuples of an iterator, read twice with a rewind between */
+    private static ArrayList<ArrayList<Integer>> readTwice(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.rewind();
+        ArrayList<ArrayList<Integer>> again = new ArrayList<ArrayList<Integer>>();
+        TupleBatch batch;
+        while ((batch = ((BatchIterator) it).nextBatch()) != null) {
+            for (int i = 0; i < batch.size(); i++)
+                again.add(SystemTestUtil.tupleToList(batch.get(i)));
+        }
+        it.close();
+        assertEquals(result, again);
+        return result;
+    }
+
+    /** Sorts lists by c0 ascending, then c1 descending */
+    private static final Comparator<ArrayList<Integer>> C0_ASC_C1_DESC = new Comparator<ArrayList<Integer>>() {
+        public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+            int c = a.get(0).compareTo(b.get(0));
+            return c != 0 ? c : b.get(1).compareTo(a.get(1));
+        }
+    };
+
+    /**
+     * A child larger than the memory budget is sorted in runs written to
+     * disk, merged in more than one pass, and returns the same tuples as an
+     * in-memory sort
+     */
+    @Test public void spilledRuns() throws Exception {
+        OrderBy inMemory = new OrderBy(2, true, new SeqScan(tid, f.getId()));
+        ArrayList<ArrayList<Integer>> expected = readTwice(inMemory);
+        assertEquals(0, inMemory.numRuns());
+
+        OrderBy external = new OrderBy(2, true, new SeqScan(tid, f.getId()));
+        external.setMemoryPages(1);
+        external.open();
+        assertTrue(external.numRuns() > 1);
+        assertTrue(external.numRuns() <= OrderBy.MERGE_FAN_IN);
+        external.close();
+        ArrayList<ArrayList<Integer>> actual = readTwice(external);
+        // both sorts are stable
+        assertEquals(expected, actual);
+        for (int i = 1; i < actual.size(); i++)
+            assertTrue(actual.get(i - 1).get(2) <= actual.get(i).get(2));
+    }
+
+    /**
+     * Tuples are sorted on several fields, each ascending or descending
+     */
+    @Test public void multipleFields() throws Exception {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        Collections.sort(expected, C0_ASC_C1_DESC);
+        for (int pages : new int[] { 3, OrderBy.DEFAULT_MEMORY_PAGES }) {
+            OrderBy o = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+                    new SeqScan(tid, f.getId()));
+            o.setMemoryPages(pages);
+            ArrayList<ArrayList<Integer>> actual = readTwice(o);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < actual.size(); i++) {
+                assertEquals(expected.get(i).get(0), actual.get(i).get(0));
+                assertEquals(expected.get(i).get(1), actual.get(i).get(1));
+            }
+        }
+    }
+
+    /**
+     * LogicalPlan sorts on each ORDER BY field it is given
+     */
+    @Test public void logicalPlan() throws Exception {
+        String name = Database.getCatalog().getTableName(f.getId());
+        java.util.HashMap<String, TableStats> stats = new java.util.HashMap<String, TableStats>();
+        stats.put(name, new TableStats(f.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addProjectField("t.c0", null);
+        lp.addProjectField("t.c1", null);
+        lp.addOrderBy("t.c0", true);
+        lp.addOrderBy("t.c1", false);
+        ArrayList<ArrayList<Integer>> actual = readTwice(lp.physicalPlan(tid, stats, false));
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            expected.add(new ArrayList<Integer>(t.subList(0, 2)));
+        Collections.sort(expected, C0_ASC_C1_DESC);
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * A LoserTree merges sorted sources, some of them empty, in order
+     */
+    @Test public void loserTree() throws Exception {
+        for (int k = 1; k <= 9; k++) {
+            DbIterator[] sources = new DbIterator[k];
+            ArrayList<Integer> expected = new ArrayList<Integer>();
+            for (int i = 0; i < k; i++) {
+                int[] values = new int[i % 3 == 1 ? 0 : 10 + i];
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = j * (i + 1);
+                    expected.add(values[j]);
+                }
+                sources[i] = TestUtil.createTupleList(1, values);
+                sources[i].open();
+            }
+            Collections.sort(expected);
+            LoserTree tree = new LoserTree(sources, new TupleComparator(0, true));
+            ArrayList<Integer> actual = new ArrayList<Integer>();
+            while (tree.hasNext())
+                actual.add(((IntField) tree.next().getField(0)).getValue());
+            assertNull(tree.next());
+            assertEquals(expected, actual);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExternalSortTest.class);
+    }
+}
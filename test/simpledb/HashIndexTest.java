@@ -0,0 +1,236 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 5000, 1000, null, tuples, "c");
+    }
+
+    private HashIndexFile createIndex(HeapFile hf) throws Exception {
+        File f = File.createTempFile("index", ".hidx");
+        f.delete();
+        f.deleteOnExit();
+        HashIndexFile index = new HashIndexFile(f, hf.getId(), 0);
+        Database.getCatalog().addIndex(index, hf.getId(), "c0");
+        return index;
+    }
+
+    private static int count(DbFileIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private HashMap<Integer, Integer> keyCounts() {
+        HashMap<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            Integer c = counts.get(t.get(0));
+            counts.put(t.get(0), c == null ? 1 : c + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * Unit test for HashIndexFile.build() and lookup()
+     */
+    @Test public void buildAndLookup() throws Exception {
+        HashIndexFile index = createIndex(table);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        checkLookups(index, tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * build() partitions the entries into several runs when the buckets do
+     * not fit in memory at once
+     */
+    @Test public void buildInRuns() throws Exception {
+        HashIndexFile index = createIndex(table);
+        TransactionId tid = new TransactionId();
+        index.build(tid, 1);
+        checkLookups(index, tid);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Checks that an index of table has an entry per tuple, found by
+     * looking up its key
+     */
+    private void checkLookups(HashIndexFile index, TransactionId tid) throws Exception {
+        assertEquals(5000, count(index.iterator(tid)));
+        HashMap<Integer, Integer> counts = keyCounts();
+        for (int key = 0; key < 1000; key++) {
+            Integer expected = counts.get(key);
+            DbFileIterator it = index.lookup(tid, new IntField(key));
+            it.open();
+            int n = 0;
+            while (it.hasNext()) {
+                assertEquals(new IntField(key), it.next().getField(0));
+                n++;
+            }
+            it.close();
+            assertEquals(expected == null ? 0 : expected.intValue(), n);
+        }
+    }
+
+    /**
+     * Inserting through the BufferPool splits buckets and doubles the
+     * directory; every key must stay reachable.
+     */
+    @Test public void insertSplitsBuckets() throws Exception {
+        HeapFile empty = Utility.createEmptyHeapFile(
+                File.createTempFile("empty", ".dat").getAbsolutePath(), 2);
+        empty.getFile().deleteOnExit();
+        empty = Utility.openHeapFile(2, "c", empty.getFile());
+        HashIndexFile index = createIndex(empty);
+
+        for (int batch = 0; batch < 10; batch++) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 500; i++) {
+                Tuple t = Utility.getHeapTuple(new int[] { batch * 500 + i, i });
+                Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+
+        TransactionId tid = new TransactionId();
+        HashIndexPage meta = (HashIndexPage) Database.getBufferPool().getPage(tid,
+                new HashIndexPageId(index.getId(), 0, HashIndexPageId.META), Permissions.READ_ONLY);
+        assertTrue(meta.getGlobalDepth() > 0);
+        assertEquals(5000, count(index.iterator(tid)));
+        for (int key = 0; key < 5000; key += 7) {
+            assertEquals(1, count(index.lookup(tid, new IntField(key))));
+        }
+        assertEquals(0, count(index.lookup(tid, new IntField(5000))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A directory of several pages is doubled by copying it to new
+     * consecutive pages, and its buckets stay reachable
+     */
+    @Test public void directorySpansPages() throws Exception {
+        // 2^11 buckets, on two directory pages
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 250000, null, null, "c");
+        HashIndexFile index = createIndex(big);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        HashIndexPageId metaId = new HashIndexPageId(index.getId(), 0, HashIndexPageId.META);
+        HashIndexPage meta = (HashIndexPage) Database.getBufferPool().getPage(tid, metaId,
+                Permissions.READ_ONLY);
+        assertEquals(11, meta.getGlobalDepth());
+        assertEquals(2, meta.getNumDirPages());
+        Database.getBufferPool().transactionComplete(tid);
+
+        // overfill the bucket of one hash, whose split doubles the directory
+        tid = new TransactionId();
+        int bucket = HashIndexFile.hash(new IntField(-1)) & 2047;
+        ArrayList<Integer> keys = new ArrayList<Integer>();
+        for (int k = -1; keys.size() < 400; k--) {
+            if ((HashIndexFile.hash(new IntField(k)) & 2047) != bucket)
+                continue;
+            keys.add(k);
+            Tuple t = Utility.getHeapTuple(new int[] { k, 0 });
+            t.setRecordId(new RecordId(new HeapPageId(big.getId(), 0), keys.size()));
+            for (Page p : index.insertTuple(tid, t))
+                p.markDirty(true, tid);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        meta = (HashIndexPage) Database.getBufferPool().getPage(tid, metaId,
+                Permissions.READ_ONLY);
+        assertEquals(12, meta.getGlobalDepth());
+        assertEquals(4, meta.getNumDirPages());
+        for (int k : keys)
+            assertEquals(1, index.lookupRecordIds(tid, new IntField(k)).size());
+        assertEquals(250400, count(index.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Duplicate keys that cannot be split apart go to overflow pages.
+     */
+    @Test public void duplicateKeysOverflow() throws Exception {
+        ArrayList<ArrayList<Integer>> dups = new ArrayList<ArrayList<Integer>>();
+        HashMap<Integer, Integer> spec = new HashMap<Integer, Integer>();
+        spec.put(0, 42);
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, spec, dups, "c");
+        HashIndexFile index = createIndex(hf);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        assertEquals(2000, count(index.lookup(tid, new IntField(42))));
+        assertEquals(0, count(index.lookup(tid, new IntField(43))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deleting a tuple through the BufferPool removes its index entry.
+     */
+    @Test public void deleteRemovesEntry() throws Exception {
+        HashIndexFile index = createIndex(table);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        int key = tuples.get(0).get(0);
+        int before = keyCounts().get(key);
+        tid = new TransactionId();
+        DbFileIterator it = index.lookup(tid, new IntField(key));
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        assertEquals(before - 1, count(index.lookup(tid, new IntField(key))));
+        assertEquals(4999, count(index.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for IndexScan
+     */
+    @Test public void indexScan() throws Exception {
+        HashIndexFile index = createIndex(table);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+
+        int key = tuples.get(0).get(0);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) == key)
+                expected.add(t);
+        }
+        IndexScan scan = new IndexScan(tid, table.getId(), "t", index, new IntField(key));
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexTest.class);
+    }
+}
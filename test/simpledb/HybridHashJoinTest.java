@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HybridHashJoinTest extends SimpleDbTestBase {
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+    }
+
+    /** @return the rows of the equi-join of two tables on their first column */
+    private static ArrayList<ArrayList<Integer>> expected(ArrayList<ArrayList<Integer>> t1,
+            ArrayList<ArrayList<Integer>> t2) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> a : t1) {
+            for (ArrayList<Integer> b : t2) {
+                if (a.get(0).equals(b.get(0))) {
+                    ArrayList<Integer> row = new ArrayList<Integer>(a);
+                    row.addAll(b);
+                    result.add(row);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** @return the sorted rows returned by next(), or by nextBatch() */
+    private static ArrayList<String> read(HashEquiJoin j, boolean batches) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        if (batches) {
+            TupleBatch b;
+            while ((b = j.nextBatch()) != null) {
+                for (int i = 0; i < b.size(); i++)
+                    rows.add(SystemTestUtil.tupleToList(b.get(i)).toString());
+            }
+        } else {
+            while (j.hasNext())
+                rows.add(SystemTestUtil.tupleToList(j.next()).toString());
+        }
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private void check(int rows1, int rows2, int maxValue, HashMap<Integer, Integer> spec,
+            int maxBuildTuples) throws Exception {
+        ArrayList<ArrayList<Integer>> t1 = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> t2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, rows1, maxValue, spec, t1, "c");
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, rows2, maxValue, null, t2, "c");
+        ArrayList<String> expected = new ArrayList<String>();
+        for (ArrayList<Integer> row : expected(t1, t2))
+            expected.add(row.toString());
+        Collections.sort(expected);
+        assertFalse(expected.isEmpty());
+
+        HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, f1.getId()), new SeqScan(tid, f2.getId()));
+        j.setMaxBuildTuples(maxBuildTuples);
+        j.open();
+        assertEquals(expected, read(j, false));
+        j.rewind();
+        assertEquals(expected, read(j, true));
+        j.close();
+    }
+
+    /**
+     * A build side larger than the memory budget is partitioned and spilled,
+     * and joined correctly by tuples and by batches
+     */
+    @Test public void spill() throws Exception {
+        check(3000, 2000, 1000, null, 200);
+    }
+
+    /**
+     * A partition that does not fit in memory either is joined a chunk at a
+     * time
+     */
+    @Test public void skew() throws Exception {
+        HashMap<Integer, Integer> spec = new HashMap<Integer, Integer>();
+        spec.put(0, 7);
+        check(1500, 3000, 100, spec, 200);
+        // a partition that ends at the end of a chunk
+        check(3 * 201, 1000, 100, spec, 200);
+    }
+
+    /**
+     * SpillFile returns the tuples added to it, in order
+     */
+    @Test public void spillFile() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        SpillFile f = new SpillFile(td);
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("v" + i, Type.STRING_LEN));
+            f.add(t);
+        }
+        assertEquals(1000, f.size());
+        DbIterator it = f.iterator();
+        it.open();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 1000; i++) {
+                Tuple t = it.next();
+                assertEquals(new IntField(i), t.getField(0));
+                assertEquals(new StringField("v" + i, Type.STRING_LEN), t.getField(1));
+            }
+            assertFalse(it.hasNext());
+            it.rewind();
+        }
+        it.close();
+        f.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HybridHashJoinTest.class);
+    }
+}
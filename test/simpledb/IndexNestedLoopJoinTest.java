@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+    ArrayList<ArrayList<Integer>> tuples1;
+    ArrayList<ArrayList<Integer>> tuples2;
+    HeapFile f1;
+    HeapFile f2;
+    HashIndexFile index;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples1 = new ArrayList<ArrayList<Integer>>();
+        f1 = SystemTestUtil.createRandomHeapFile(2, 500, 200, null, tuples1, "c");
+        Database.getCatalog().addTable(f1, SystemTestUtil.getUUID());
+        tuples2 = new ArrayList<ArrayList<Integer>>();
+        f2 = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, tuples2, "c");
+        Database.getCatalog().addTable(f2, SystemTestUtil.getUUID());
+        index = Database.getCatalog().createHashIndex(f2.getId(), "c0");
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        index.getFile().delete();
+    }
+
+    private ArrayList<ArrayList<Integer>> expectedJoin(int maxInnerC1) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : tuples1) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (t1.get(1).equals(t2.get(0)) && t2.get(1) < maxInnerC1) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(t1);
+                    t.addAll(t2);
+                    expected.add(t);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Unit test for IndexNestedLoopJoin.getNext() against an unfiltered
+     * inner table
+     */
+    @Test public void joinMatchesNestedLoops() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, new SeqScan(tid, f1.getId()),
+                new SeqScan(tid, f2.getId()), index);
+        SystemTestUtil.matchTuples(j, expectedJoin(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Filters over the inner scan are applied to the probed tuples
+     */
+    @Test public void innerFilters() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        DbIterator inner = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(100)),
+                new SeqScan(tid, f2.getId()));
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, new SeqScan(tid, f1.getId()), inner, index);
+        SystemTestUtil.matchTuples(j, expectedJoin(100));
+    }
+
+    /**
+     * Unit test for rewinding an IndexNestedLoopJoin
+     */
+    @Test public void rewind() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, new SeqScan(tid, f1.getId()),
+                new SeqScan(tid, f2.getId()), index);
+        j.open();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        j.rewind();
+        int m = 0;
+        while (j.hasNext()) {
+            j.next();
+            m++;
+        }
+        j.close();
+        assertEquals(expectedJoin(Integer.MAX_VALUE).size(), n);
+        assertEquals(n, m);
+    }
+
+    /**
+     * JoinOptimizer.instantiateJoin uses the index only for an equality join
+     * whose inner side is a scan of the indexed table
+     */
+    @Test public void instantiateJoin() throws Exception {
+        String a1 = Database.getCatalog().getTableName(f1.getId());
+        String a2 = Database.getCatalog().getTableName(f2.getId());
+        LogicalJoinNode lj = new LogicalJoinNode(a1, a2, "c1", "c0", Predicate.Op.EQUALS);
+        DbIterator j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, f1.getId(), a1), new SeqScan(tid, f2.getId(), a2));
+        assertTrue(j instanceof IndexNestedLoopJoin);
+
+        lj = new LogicalJoinNode(a2, a1, "c0", "c1", Predicate.Op.EQUALS);
+        j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, f2.getId(), a2), new SeqScan(tid, f1.getId(), a1));
+        assertFalse(j instanceof IndexNestedLoopJoin);
+
+        lj = new LogicalJoinNode(a1, a2, "c1", "c0", Predicate.Op.LESS_THAN);
+        j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, f1.getId(), a1), new SeqScan(tid, f2.getId(), a2));
+        assertFalse(j instanceof IndexNestedLoopJoin);
+    }
+
+    /**
+     * Probing an index is cheaper than rescanning a large inner table
+     */
+    @Test public void estimateJoinCost() throws Exception {
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "c1", "c0", Predicate.Op.EQUALS);
+        JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new java.util.Vector<LogicalJoinNode>());
+        double scan = jo.estimateJoinCost(lj, 100, 1000000, 1000, 10000000, false);
+        double probe = jo.estimateJoinCost(lj, 100, 1000000, 1000, 10000000, true);
+        assertTrue(probe < scan);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
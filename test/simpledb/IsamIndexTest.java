@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IsamIndexTest extends SimpleDbTestBase {
+    private HeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(3, 5000, 1000, null, tuples, "c");
+    }
+
+    private IsamFile createIndex(HeapFile hf) throws Exception {
+        File f = File.createTempFile("index", ".isam");
+        f.delete();
+        f.deleteOnExit();
+        IsamFile index = new IsamFile(f, hf.getId(), 0, new int[] { 2 });
+        Database.getCatalog().addIndex(index, hf.getId(), "c0");
+        return index;
+    }
+
+    /** @return the number of entries returned by it, checking their order */
+    private static int countSorted(DbFileIterator it) throws Exception {
+        int n = 0;
+        int last = Integer.MIN_VALUE;
+        it.open();
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private int expectedCount(int lo, boolean loInclusive, int hi, boolean hiInclusive) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            int key = t.get(0);
+            if ((key > lo || (loInclusive && key == lo)) && (key < hi || (hiInclusive && key == hi)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * Unit test for IsamFile.build() and rangeIterator()
+     */
+    @Test public void buildAndRange() throws Exception {
+        IsamFile index = createIndex(table);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        assertEquals(tuples.size(), countSorted(index.iterator(tid)));
+        assertEquals(expectedCount(100, true, 200, false),
+                countSorted(index.rangeIterator(tid, new IntField(100), true, new IntField(200), false)));
+        assertEquals(expectedCount(100, false, 200, true),
+                countSorted(index.rangeIterator(tid, new IntField(100), false, new IntField(200), true)));
+        assertEquals(expectedCount(500, true, 500, true),
+                countSorted(index.rangeIterator(tid, new IntField(500), true, new IntField(500), true)));
+        assertEquals(expectedCount(Integer.MIN_VALUE, true, 10, true),
+                countSorted(index.rangeIterator(tid, null, true, new IntField(10), true)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts through the BufferPool are added to the index, spilling into
+     * overflow pages when a leaf is full, and deletes remove them
+     */
+    @Test public void insertAndDelete() throws Exception {
+        IsamFile index = createIndex(table);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        int[] row = new int[] { 500, 1, 2 };
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(table.getTupleDesc());
+            for (int j = 0; j < row.length; j++)
+                t.setField(j, new IntField(row[j]));
+            Database.getBufferPool().insertTuple(tid, table.getId(), t);
+            inserted.add(t);
+        }
+        assertEquals(expectedCount(500, true, 500, true) + 300,
+                countSorted(index.rangeIterator(tid, new IntField(500), true, new IntField(500), true)));
+        assertTrue(index.numPages() > 0);
+
+        for (Tuple t : inserted)
+            Database.getBufferPool().deleteTuple(tid, t);
+        assertEquals(expectedCount(500, true, 500, true),
+                countSorted(index.rangeIterator(tid, new IntField(500), true, new IntField(500), true)));
+        assertEquals(tuples.size(), countSorted(index.iterator(tid)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * IndexOnlyScan returns the covered fields of the matching tuples, with
+     * the RecordId of the base tuple
+     */
+    @Test public void indexOnlyScan() throws Exception {
+        IsamFile index = createIndex(table);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) >= 100 && t.get(0) < 300) {
+                ArrayList<Integer> e = new ArrayList<Integer>();
+                e.add(t.get(0));
+                e.add(t.get(2));
+                expected.add(e);
+            }
+        }
+        IndexOnlyScan scan = new IndexOnlyScan(tid, table.getId(), "t", index,
+                new IntField(100), true, new IntField(300), false);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t.c2", scan.getTupleDesc().getFieldName(1));
+        SystemTestUtil.matchTuples(scan, expected);
+
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                    t.getRecordId().getPageId(), Permissions.READ_ONLY);
+            Tuple base = p.getTuple(t.getRecordId().tupleno());
+            assertEquals(base.getField(0), t.getField(0));
+            assertEquals(base.getField(2), t.getField(1));
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static DbIterator findScan(DbIterator plan) {
+        while (!(plan instanceof SeqScan))
+            plan = ((Operator) plan).getChildren()[0];
+        return plan;
+    }
+
+    /**
+     * LogicalPlan reads a table from a sorted index when the index covers
+     * every field the query uses
+     */
+    @Test public void physicalPlan() throws Exception {
+        IsamFile index = createIndex(table);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "100");
+        lp.addProjectField("t.c2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(findScan(plan) instanceof IndexOnlyScan);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 100) {
+                ArrayList<Integer> e = new ArrayList<Integer>();
+                e.add(t.get(2));
+                expected.add(e);
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+
+        lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "100");
+        lp.addProjectField("t.c1", null);
+        assertFalse(findScan(lp.physicalPlan(tid, stats, false)) instanceof IndexOnlyScan);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An aggregate over an index-only scan reads its tuples of the covered
+     * fields by columnar batches
+     */
+    @Test public void aggregatePlan() throws Exception {
+        IsamFile index = createIndex(table);
+        TransactionId tid = new TransactionId();
+        index.build(tid);
+        String name = Database.getCatalog().getTableName(table.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name, new TableStats(table.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(table.getId(), "t");
+        lp.addFilter("t.c0", Predicate.Op.LESS_THAN, "100");
+        lp.addProjectField("t.c2", "SUM");
+        lp.addAggregate("SUM", "t.c2", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(findScan(plan) instanceof IndexOnlyScan);
+        int sum = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) < 100)
+                sum += t.get(2);
+        }
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(new ArrayList<Integer>(Arrays.asList(sum)));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IsamIndexTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class JoinAlgorithmTest extends SimpleDbTestBase {
+    ArrayList<ArrayList<Integer>> small;
+    ArrayList<ArrayList<Integer>> big;
+    HeapFile f1;
+    HeapFile f2;
+    JoinOptimizer jo;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        small = new ArrayList<ArrayList<Integer>>();
+        f1 = SystemTestUtil.createRandomHeapFile(2, 200, 100, null, small, "c");
+        big = new ArrayList<ArrayList<Integer>>();
+        f2 = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, big, "c");
+        jo = new JoinOptimizer(new LogicalPlan(), new Vector<LogicalJoinNode>());
+    }
+
+    /**
+     * Equality joins of large inputs are hashed, range joins are merged, and
+     * other joins use nested loops
+     */
+    @Test public void chooseJoinAlgorithm() {
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.EQUALS);
+        assertEquals(LogicalJoinNode.Algorithm.HASH,
+                jo.chooseJoinAlgorithm(lj, 1000, 100000, 10000, 1000000, false));
+        assertEquals(LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP,
+                jo.chooseJoinAlgorithm(lj, 10, 100, 1000, 1000000, true));
+        assertEquals(LogicalJoinNode.Algorithm.HASH,
+                jo.chooseJoinAlgorithm(lj, 100000, 100000, 1000000, 1000000, true));
+
+        lj = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.LESS_THAN);
+        assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE,
+                jo.chooseJoinAlgorithm(lj, 1000, 100000, 10000, 1000000, true));
+        lj = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.NOT_EQUALS);
+        assertEquals(LogicalJoinNode.Algorithm.NESTED_LOOP,
+                jo.chooseJoinAlgorithm(lj, 1000, 100000, 10000, 1000000, true));
+    }
+
+    /**
+     * A hash join is cheaper when it builds on the smaller input, and
+     * costs more once the build side no longer fits in memory
+     */
+    @Test public void buildSide() {
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.EQUALS);
+        double smallBuild = jo.estimateJoinCost(lj, LogicalJoinNode.Algorithm.HASH,
+                1000, 100000, 10000, 1000000);
+        double bigBuild = jo.estimateJoinCost(lj.swapInnerOuter(), LogicalJoinNode.Algorithm.HASH,
+                100000, 1000, 1000000, 10000);
+        assertTrue(smallBuild < bigBuild);
+
+        int n = HashEquiJoin.MAP_SIZE;
+        double fits = jo.estimateJoinCost(lj, LogicalJoinNode.Algorithm.HASH, n, n, n, n);
+        double spills = jo.estimateJoinCost(lj, LogicalJoinNode.Algorithm.HASH, 2 * n, n, n, n);
+        assertTrue(spills - fits > 2 * n);
+    }
+
+    /**
+     * LogicalPlan computes an equality join with a HashEquiJoin that builds
+     * on the smaller table, and the plan shows it
+     */
+    @Test public void physicalPlan() throws Exception {
+        TransactionId tid = new TransactionId();
+        String name1 = Database.getCatalog().getTableName(f1.getId());
+        String name2 = Database.getCatalog().getTableName(f2.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name1, new TableStats(f1.getId(), 1000));
+        stats.put(name2, new TableStats(f2.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f2.getId(), "b");
+        lp.addScan(f1.getId(), "s");
+        lp.addJoin("b.c1", "s.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("s.c1", null);
+        lp.addProjectField("b.c0", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator join = plan;
+        while (!(join instanceof HashEquiJoin))
+            join = ((Operator) join).getChildren()[0];
+        DbIterator build = ((Operator) join).getChildren()[0];
+        assertEquals(f1.getId(), ((SeqScan) build).getTableId());
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan)
+                .contains(QueryPlanVisualizer.HASH_JOIN));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : small) {
+            for (ArrayList<Integer> t2 : big) {
+                if (t1.get(0).equals(t2.get(1))) {
+                    ArrayList<Integer> t = new ArrayList<Integer>();
+                    t.add(t1.get(1));
+                    t.add(t2.get(0));
+                    expected.add(t);
+                }
+            }
+        }
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinAlgorithmTest.class);
+    }
+}
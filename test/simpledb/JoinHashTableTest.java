@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinHashTableTest extends SimpleDbTestBase {
+
+    /** @return the tuples of the chain of a key */
+    private static ArrayList<Tuple> chain(JoinHashTable table, Field key) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int r = table.first(key); r >= 0; r = table.next(r))
+            tuples.add(table.get(r));
+        return tuples;
+    }
+
+    /**
+     * The chain of an int key lists the tuples with that key in the order
+     * they were added, through every rehash
+     */
+    @Test public void intKeys() throws Exception {
+        JoinHashTable table = JoinHashTable.create(Type.INT_TYPE, 1);
+        assertTrue(table instanceof JoinHashTable.IntKeys);
+        HashMap<Integer, ArrayList<Tuple>> expected = new HashMap<Integer, ArrayList<Tuple>>();
+        Random r = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            // keys that differ in their high bits, with duplicates
+            int key = (r.nextInt(5000) << 20) - r.nextInt(3);
+            Tuple t = Utility.getHeapTuple(new int[] { i, key });
+            table.add(t);
+            if (!expected.containsKey(key))
+                expected.put(key, new ArrayList<Tuple>());
+            expected.get(key).add(t);
+        }
+        assertEquals(20000, table.size());
+        for (Integer key : expected.keySet()) {
+            assertEquals(expected.get(key), chain(table, new IntField(key)));
+            assertEquals(table.first(new IntField(key)),
+                    ((JoinHashTable.IntKeys) table).first(key.intValue()));
+        }
+        assertEquals(-1, table.first(new IntField(7)));
+        assertEquals(-1, table.first(new StringField("7", Type.STRING_LEN)));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.first(new IntField(expected.keySet().iterator().next())));
+        table.add(Utility.getHeapTuple(new int[] { 1, 2 }));
+        assertEquals(1, chain(table, new IntField(2)).size());
+    }
+
+    /**
+     * String keys are found by their value
+     */
+    @Test public void stringKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        JoinHashTable table = JoinHashTable.create(Type.STRING_TYPE, 0);
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("key" + (i % 100), Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            table.add(t);
+        }
+        for (int k = 0; k < 100; k++) {
+            ArrayList<Tuple> tuples = chain(table, new StringField("key" + k, Type.STRING_LEN));
+            assertEquals(10, tuples.size());
+            for (int i = 0; i < tuples.size(); i++)
+                assertEquals(new IntField(k + 100 * i), tuples.get(i).getField(1));
+        }
+        assertEquals(-1, table.first(new StringField("key100", Type.STRING_LEN)));
+        assertEquals(-1, table.first(new IntField(1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinHashTableTest.class);
+    }
+}
@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class JoinedTupleTest extends SimpleDbTestBase {
+
+    /**
+     * A view of views returns the fields of the tuples it joins, in order,
+     * and materializes into a Tuple with the same fields
+     */
+    @Test public void fields() {
+        Tuple a = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple b = Utility.getHeapTuple(new int[] { 3 });
+        Tuple c = Utility.getHeapTuple(new int[] { 4, 5, 6 });
+        TupleDesc ab = TupleDesc.merge(a.getTupleDesc(), b.getTupleDesc());
+        TupleDesc abc = TupleDesc.merge(ab, c.getTupleDesc());
+        JoinedTuple left = new JoinedTuple(ab, a, b);
+        JoinedTuple t = new JoinedTuple(abc, left, c);
+        assertSame(abc, t.getTupleDesc());
+        assertSame(left, t.getLeft());
+        assertSame(c, t.getRight());
+        for (int i = 0; i < 6; i++)
+            assertEquals(new IntField(i + 1), t.getField(i));
+        assertEquals("1\t2\t3\t4\t5\t6\t\n", t.toString());
+
+        Tuple m = t.materialize();
+        assertFalse(m instanceof JoinedTuple);
+        assertSame(abc, m.getTupleDesc());
+        assertEquals(t.toString(), m.toString());
+        assertSame(m, m.materialize());
+
+        Iterator<Field> it = t.fields();
+        for (int i = 0; i < 6; i++)
+            assertEquals(new IntField(i + 1), it.next());
+        assertFalse(it.hasNext());
+
+        Tuple p = t.project(new int[] { 5, 2 }, abc.project(new int[] { 5, 2 }));
+        assertEquals("6\t3\t\n", p.toString());
+    }
+
+    /**
+     * Setting a field of a joined tuple changes it alone, not the tuples it
+     * joins
+     */
+    @Test public void setField() {
+        Tuple a = Utility.getHeapTuple(1);
+        Tuple b = Utility.getHeapTuple(2);
+        Tuple c = Utility.getHeapTuple(3);
+        TupleDesc ab = TupleDesc.merge(a.getTupleDesc(), b.getTupleDesc());
+        JoinedTuple t = new JoinedTuple(ab, a, b);
+        t.setField(1, new IntField(5));
+        t.setField(0, new IntField(4));
+        assertEquals("4\t5\t\n", t.toString());
+        assertEquals("4\t5\t\n", t.materialize().toString());
+        assertEquals(new IntField(1), a.getField(0));
+        assertEquals(new IntField(2), b.getField(0));
+
+        JoinedTuple abc = new JoinedTuple(TupleDesc.merge(ab, c.getTupleDesc()), t, c);
+        assertEquals("4\t5\t3\t\n", abc.toString());
+        abc.setField(2, new IntField(6));
+        assertEquals("4\t5\t6\t\n", abc.toString());
+        assertEquals(new IntField(3), c.getField(0));
+    }
+
+    /**
+     * Joins return views of the tuples they join, and OrderBy keeps
+     * materialized tuples
+     */
+    @Test public void operators() throws Exception {
+        TupleIterator left = new TupleIterator(Utility.getTupleDesc(2), new ArrayList<Tuple>(
+                Arrays.asList(Utility.getHeapTuple(new int[] { 1, 10 }),
+                        Utility.getHeapTuple(new int[] { 2, 20 }))));
+        TupleIterator right = new TupleIterator(Utility.getTupleDesc(1), new ArrayList<Tuple>(
+                Arrays.asList(Utility.getHeapTuple(new int[] { 2 }),
+                        Utility.getHeapTuple(new int[] { 1 }))));
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        DbIterator[] joins = { new Join(p, left, right), new HashEquiJoin(p, left, right),
+                new SortMergeJoin(p, left, right) };
+        for (DbIterator j : joins) {
+            j.open();
+            int n = 0;
+            while (j.hasNext()) {
+                Tuple t = j.next();
+                assertTrue(t instanceof JoinedTuple);
+                assertEquals(t.getField(0), t.getField(2));
+                n++;
+            }
+            j.close();
+            assertEquals(2, n);
+        }
+
+        DbIterator sorted = new OrderBy(1, false, new Join(p, left, right));
+        sorted.open();
+        Tuple first = sorted.next();
+        assertFalse(first instanceof JoinedTuple);
+        assertEquals(new IntField(20), first.getField(1));
+        sorted.close();
+    }
+
+    /**
+     * INSERT ... SELECT over a join stores copies of the joined tuples
+     */
+    @Test public void insertJoined() throws Exception {
+        TupleIterator left = new TupleIterator(Utility.getTupleDesc(2), new ArrayList<Tuple>(
+                Arrays.asList(Utility.getHeapTuple(new int[] { 1, 10 }),
+                        Utility.getHeapTuple(new int[] { 2, 20 }))));
+        TupleIterator right = new TupleIterator(Utility.getTupleDesc(1), new ArrayList<Tuple>(
+                Arrays.asList(Utility.getHeapTuple(new int[] { 2 }))));
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 0, 10, null, null);
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                left, right), f.getId());
+        insert.open();
+        assertEquals(new IntField(1), insert.next().getField(0));
+        insert.close();
+
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.open();
+        Tuple t = scan.next();
+        assertFalse(t instanceof JoinedTuple);
+        assertEquals("2\t20\t2\t\n", t.toString());
+        assertFalse(scan.hasNext());
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinedTupleTest.class);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelAggregateTest extends SimpleDbTestBase {
+    HeapFile f;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = SystemTestUtil.createRandomHeapFile(2, 80000, 3000, null, new ArrayList<ArrayList<Integer>>(), "c");
+        tid = new TransactionId();
+        assertTrue(f.numPages() >= Aggregate.PARALLEL_MIN_PAGES);
+    }
+
+    /** @return the tuples of an aggregate run on the specified number of threads */
+    private HashMap<ArrayList<Integer>, Integer> aggregate(int gfield, Aggregator.Op op,
+            int threads, int maxGroups) throws Exception {
+        Aggregate a = new Aggregate(new SeqScan(tid, f.getId()), 1, gfield, op);
+        a.setParallelism(threads);
+        a.setMaxGroups(maxGroups);
+        a.open();
+        HashMap<ArrayList<Integer>, Integer> result = SystemTestUtil.countTuples(a);
+        a.rewind();
+        assertEquals(result, SystemTestUtil.countTuples(a));
+        a.close();
+        assertEquals(maxGroups < 3000 ? 1 : threads, a.threadsUsed());
+        return result;
+    }
+
+    /**
+     * An aggregate of a large scan on several threads returns the same
+     * groups as on one thread, with and without grouping
+     */
+    @Test public void sameGroups() throws Exception {
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                HashMap<ArrayList<Integer>, Integer> expected =
+                        aggregate(gfield, op, 1, Aggregate.DEFAULT_MAX_GROUPS);
+                assertEquals(gfield < 0 ? 1 : 3000, expected.size());
+                assertEquals(expected, aggregate(gfield, op, 4, Aggregate.DEFAULT_MAX_GROUPS));
+            }
+        }
+    }
+
+    /**
+     * When the groups of the threads do not fit in memory, the aggregate
+     * reads its child again on one thread, spilling groups
+     */
+    @Test public void tooManyGroups() throws Exception {
+        HashMap<ArrayList<Integer>, Integer> expected =
+                aggregate(0, Aggregator.Op.SUM, 1, Aggregate.DEFAULT_MAX_GROUPS);
+        assertEquals(expected, aggregate(0, Aggregator.Op.SUM, 4, 1000));
+    }
+
+    /**
+     * The groups of a table are split into partitions that every table
+     * agrees on, and merged with those of other tables
+     */
+    @Test public void mergePartitions() {
+        AggregateHashTable a = AggregateHashTable.create(Type.INT_TYPE);
+        AggregateHashTable b = AggregateHashTable.create(Type.INT_TYPE);
+        for (int i = 0; i < 100; i++) {
+            a.add(a.group(new IntField(i)), i);
+            b.add(b.group(new IntField(99 - i)), 2 * i);
+        }
+        AggregateHashTable merged = AggregateHashTable.create(Type.INT_TYPE);
+        int[] sizes = new int[4];
+        for (int g = 0; g < 100; g++) {
+            int p = a.partition(g, 4);
+            assertEquals(p, b.partition(b.find(a.key(g)), 4));
+            sizes[p]++;
+        }
+        for (int size : sizes)
+            assertTrue(size > 0);
+        int[] groups = new int[100];
+        for (int g = 0; g < 100; g++)
+            groups[g] = g;
+        merged.merge(a, groups);
+        merged.merge(b, groups);
+        assertEquals(100, merged.size());
+        for (int i = 0; i < 100; i++) {
+            int g = merged.find(new IntField(i));
+            assertEquals(2, merged.count(g));
+            assertEquals(i + 2 * (99 - i), merged.sum(g));
+            assertEquals(Math.min(i, 2 * (99 - i)), merged.min(g));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ParallelScanTest extends SimpleDbTestBase {
+    ArrayList<ArrayList<Integer>> tuples;
+    HeapFile f;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(3, 60000, 1000, null, tuples, "c");
+        tid = new TransactionId();
+    }
+
+    /** @return the number of tuples counted by SystemTestUtil.countTuples() */
+    private static int size(HashMap<ArrayList<Integer>, Integer> counts) {
+        int n = 0;
+        for (int c : counts.values())
+            n += c;
+        return n;
+    }
+
+    /** @return a projection of c2 and c0 of the tuples whose c1 is below 300 */
+    private DbIterator pipeline() {
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        ArrayList<Type> types = new ArrayList<Type>();
+        types.add(Type.INT_TYPE);
+        types.add(Type.INT_TYPE);
+        return new Project(fields, types, new Filter(
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)),
+                new SeqScan(tid, f.getId())));
+    }
+
+    /** @return the number of scan threads still running */
+    private static int runningThreads() {
+        int n = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("scan-") && t.isAlive())
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * The threads of a parallel scan return the tuples of the pipeline once
+     * each, read by tuples or by batches, also after a rewind
+     */
+    @Test public void sameTuples() throws Exception {
+        DbIterator serial = pipeline();
+        serial.open();
+        HashMap<ArrayList<Integer>, Integer> expected = SystemTestUtil.countTuples(serial);
+        serial.close();
+
+        ParallelScan scan = new ParallelScan(pipeline(), 4);
+        assertEquals(serial.getTupleDesc(), scan.getTupleDesc());
+        scan.open();
+        assertEquals(expected, SystemTestUtil.countTuples(scan));
+        scan.rewind();
+        HashMap<ArrayList<Integer>, Integer> batches = new HashMap<ArrayList<Integer>, Integer>();
+        assertTrue(scan.hasNext());
+        TupleBatch batch;
+        while ((batch = scan.nextBatch()) != null) {
+            for (int i = 0; i < batch.size(); i++)
+                SystemTestUtil.addTuple(batches, batch.get(i));
+        }
+        assertEquals(expected, batches);
+        scan.close();
+        assertEquals(0, runningThreads());
+
+        ParallelScan all = new ParallelScan(new SeqScan(tid, f.getId()), 3);
+        all.open();
+        assertEquals(tuples.size(), size(SystemTestUtil.countTuples(all)));
+        all.close();
+    }
+
+    /**
+     * Closing a scan before reading all of its tuples stops the threads,
+     * which wait for the consumer when the queue is full
+     */
+    @Test public void closeEarly() throws Exception {
+        Limit l = new Limit(10, new ParallelScan(new SeqScan(tid, f.getId()), 4));
+        l.open();
+        assertEquals(10, size(SystemTestUtil.countTuples(l)));
+        Thread.sleep(50);
+        l.close();
+        assertEquals(0, runningThreads());
+    }
+
+    /**
+     * Only pipelines over a large enough scan are run in parallel, and only
+     * on several threads
+     */
+    @Test public void parallelize() throws Exception {
+        DbIterator bare = new SeqScan(tid, f.getId());
+        assertSame(bare, ParallelScan.parallelize(bare, 4));
+        assertTrue(f.numPages() >= ParallelScan.PARALLEL_MIN_PAGES);
+        DbIterator plan = pipeline();
+        assertTrue(ParallelScan.parallelize(plan, 4) instanceof ParallelScan);
+        assertEquals(4, ((ParallelScan) ParallelScan.parallelize(plan, 4)).getThreads());
+        assertSame(plan, ParallelScan.parallelize(plan, 1));
+
+        HeapFile small = SystemTestUtil.createRandomHeapFile(3, 100, null, null);
+        DbIterator smallPlan = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(1)),
+                new SeqScan(tid, small.getId()));
+        assertSame(smallPlan, ParallelScan.parallelize(smallPlan, 4));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}
@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PredicatePushdownTest extends SimpleDbTestBase {
+    HeapFile f;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File file = File.createTempFile("pushdown", ".dat");
+        file.deleteOnExit();
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "s", "b" });
+        f = new HeapFile(file, td);
+        Database.getCatalog().addTable(f, "pushdown");
+        String[] words = { "", "a", "ab", "abc", "b", "ba", "caf\u00e9", "zz", "\u00e9t\u00e9" };
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Tuple tup = new Tuple(td);
+            tup.setField(0, new IntField(i - 1000));
+            tup.setField(1, new StringField(words[i % words.length], Type.STRING_LEN));
+            tup.setField(2, new IntField(i % 7));
+            Database.getBufferPool().insertTuple(t, f.getId(), tup);
+            if (i % 500 == 499) {
+                // keep the dirty pages within the buffer pool
+                Database.getBufferPool().transactionComplete(t);
+                t = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(t);
+        // read the pages back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    /** @return a scan of f with a predicate pushed into it */
+    private SeqScan pushed(Predicate p) {
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.addPredicate(p);
+        return scan;
+    }
+
+    /**
+     * A scan with pushed predicates returns the same tuples as a Filter of
+     * the scan, for every operator over int and string fields, by tuples
+     * and by columnar batches
+     */
+    @Test public void sameTuples() throws Exception {
+        Field[] operands = { new IntField(-1000), new IntField(0), new IntField(500),
+                new StringField("ab", Type.STRING_LEN), new StringField("", Type.STRING_LEN),
+                new StringField("b", Type.STRING_LEN), new StringField("caf", Type.STRING_LEN),
+                new StringField("\u00e9", Type.STRING_LEN) };
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (Field operand : operands) {
+                Predicate p = new Predicate(operand instanceof IntField ? 0 : 1, op, operand);
+                ArrayList<String> expected = SystemTestUtil.readTuplesWithIds(new Filter(p, new SeqScan(tid, f.getId())));
+                assertEquals(op + " " + operand, expected, SystemTestUtil.readTuplesWithIds(pushed(p)));
+                assertEquals(op + " " + operand, expected, SystemTestUtil.readColumnsWithIds(pushed(p)));
+            }
+        }
+    }
+
+    /**
+     * Several predicates pushed into a scan must all hold, also on a page
+     * modified since it was read
+     */
+    @Test public void conjunction() throws Exception {
+        Predicate p1 = new Predicate(2, Predicate.Op.EQUALS, new IntField(3));
+        Predicate p2 = new Predicate(1, Predicate.Op.LESS_THAN, new StringField("b", Type.STRING_LEN));
+        SeqScan scan = pushed(p1);
+        scan.addPredicate(p2);
+        assertEquals(2, scan.getPredicates().length);
+        ArrayList<String> expected = SystemTestUtil.readTuplesWithIds(new Filter(p2, new Filter(p1, new SeqScan(tid, f.getId()))));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, SystemTestUtil.readTuplesWithIds(scan));
+
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(5000));
+        t.setField(1, new StringField("a", Type.STRING_LEN));
+        t.setField(2, new IntField(3));
+        Database.getBufferPool().deleteTuple(tid, readFirst(pushed(p1)));
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        expected = SystemTestUtil.readTuplesWithIds(new Filter(p2, new Filter(p1, new SeqScan(tid, f.getId()))));
+        assertEquals(expected, SystemTestUtil.readTuplesWithIds(scan));
+        assertEquals(expected, SystemTestUtil.readColumnsWithIds(scan));
+    }
+
+    /** @return the first tuple of an iterator */
+    private static Tuple readFirst(DbIterator it) throws Exception {
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        return t;
+    }
+
+    /**
+     * LogicalPlan pushes the filters on a table into its SeqScan instead of
+     * stacking Filters on it, and the plan shows them
+     */
+    @Test public void physicalPlan() throws Exception {
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("pushdown", new TableStats(f.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(1);
+        lp.addScan(f.getId(), "p");
+        lp.addFilter("p.a", Predicate.Op.GREATER_THAN, "0");
+        lp.addFilter("p.s", Predicate.Op.EQUALS, "ab");
+        lp.addProjectField("p.a", null);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator scan = plan;
+        while (!(scan instanceof SeqScan)) {
+            assertFalse(scan instanceof Filter);
+            scan = ((Operator) scan).getChildren()[0];
+        }
+        assertEquals(2, ((SeqScan) scan).getPredicates().length);
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan)
+                .contains(QueryPlanVisualizer.SELECT + "p.s=ab"));
+
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 2000; i++) {
+            if (i - 1000 > 0 && i % 9 == 2)
+                expected.add(i - 1000);
+        }
+        ArrayList<Integer> actual = new ArrayList<Integer>();
+        plan.open();
+        while (plan.hasNext())
+            actual.add(((IntField) plan.next().getField(0)).getValue());
+        plan.close();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PredicatePushdownTest.class);
+    }
+}
@@ -0,0 +1,272 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class RuntimeFilterTest extends SimpleDbTestBase {
+    HeapFile f;
+    TupleDesc td;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File file = File.createTempFile("runtimefilter", ".dat");
+        file.deleteOnExit();
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "s", "b" });
+        f = new HeapFile(file, td);
+        Database.getCatalog().addTable(f, "runtimefilter");
+        TransactionId t = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(t, f.getId(), tuple(i, "s" + (i % 13), i % 7));
+            if (i % 500 == 499) {
+                // keep the dirty pages within the buffer pool
+                Database.getBufferPool().transactionComplete(t);
+                t = new TransactionId();
+            }
+        }
+        Database.getBufferPool().transactionComplete(t);
+        // read the pages back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    private Tuple tuple(int a, String s, int b) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(a));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        t.setField(2, new IntField(b));
+        return t;
+    }
+
+    /** @return an iterator over tuples of a single int field */
+    private static DbIterator ints(int... values) {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int v : values)
+            tuples.add(Utility.getHeapTuple(v));
+        return new TupleIterator(Utility.getTupleDesc(1), tuples);
+    }
+
+    /** @return the tuples of an iterator as strings, sorted */
+    private static ArrayList<String> readSorted(DbIterator it) throws Exception {
+        ArrayList<String> tuples = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next().toString());
+        it.close();
+        Collections.sort(tuples);
+        return tuples;
+    }
+
+    /** @return the number of tuples of a scan of f with a runtime filter on a field */
+    private int count(int field, RuntimeFilter filter) throws Exception {
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.addRuntimeFilter(field, filter);
+        int n = 0;
+        scan.open();
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    /** @return the bytes of a string field as a HeapPage lays it out */
+    private static byte[] stringBytes(String s) {
+        byte[] b = s.getBytes();
+        byte[] d = new byte[4 + b.length];
+        d[3] = (byte) b.length;
+        System.arraycopy(b, 0, d, 4, b.length);
+        return d;
+    }
+
+    /**
+     * A RuntimeFilter passes every key until it is built, then the keys
+     * added and few others, on Fields and on the bytes of a page
+     */
+    @Test public void filter() throws Exception {
+        RuntimeFilter ints = new RuntimeFilter(Type.INT_TYPE);
+        for (int i = 0; i < 1000; i++)
+            ints.add(new IntField(i * 10));
+        assertTrue(ints.mightContain(new IntField(-1)));
+        ints.build();
+        assertTrue(ints.isBuilt());
+        assertEquals(1000, ints.numKeys());
+        int positives = 0;
+        for (int i = 0; i < 10000; i++) {
+            byte[] d = { (byte) (i >> 24), (byte) (i >> 16), (byte) (i >> 8), (byte) i };
+            assertEquals(ints.mightContain(new IntField(i)), ints.mightContain(d, 0));
+            if (i % 10 == 0)
+                assertTrue(ints.mightContain(new IntField(i)));
+            else if (ints.mightContain(new IntField(i)))
+                positives++;
+        }
+        assertTrue("false positives: " + positives, positives < 9000 / 10);
+        // outside the range of the keys
+        assertFalse(ints.mightContain(new IntField(-10)));
+        assertFalse(ints.mightContain(new IntField(10000)));
+        ints.clear();
+        assertFalse(ints.isBuilt());
+        assertTrue(ints.mightContain(new IntField(10000)));
+
+        RuntimeFilter strings = new RuntimeFilter(Type.STRING_TYPE);
+        String[] keys = { "", "s3", "s12" };
+        for (String k : keys)
+            strings.add(new StringField(k, Type.STRING_LEN));
+        // bytes that are not ASCII, as a page decodes them
+        byte[] other = { 0, 0, 0, 3, 'c', (byte) 0xc3, (byte) 0xa9 };
+        strings.add(new StringField(new String(other, 4, 3), Type.STRING_LEN));
+        strings.build();
+        for (String k : keys) {
+            assertTrue(strings.mightContain(new StringField(k, Type.STRING_LEN)));
+            assertTrue(strings.mightContain(stringBytes(k), 0));
+        }
+        assertTrue(strings.mightContain(other, 0));
+        positives = 0;
+        for (int i = 0; i < 1000; i++) {
+            String k = "x" + i;
+            assertEquals(strings.mightContain(new StringField(k, Type.STRING_LEN)),
+                    strings.mightContain(stringBytes(k), 0));
+            if (strings.mightContain(stringBytes(k), 0))
+                positives++;
+        }
+        assertTrue("false positives: " + positives, positives < 100);
+        assertFalse(strings.mightContain(new IntField(3)));
+    }
+
+    /**
+     * A hash join pushes the filter of its build keys into the scan of its
+     * probe side, which then drops the rows without a match, and returns
+     * the same tuples as without it. Closing the join clears the filter.
+     */
+    @Test public void intKeys() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashEquiJoin plain = new HashEquiJoin(p, ints(3, 1500, 1999, 5000),
+                new SeqScan(tid, f.getId()));
+        plain.setRuntimeFilter(false);
+        ArrayList<String> expected = readSorted(plain);
+        assertEquals(3, expected.size());
+
+        SeqScan scan = new SeqScan(tid, f.getId());
+        HashEquiJoin join = new HashEquiJoin(p, ints(3, 1500, 1999, 5000), scan);
+        assertEquals(expected, readSorted(join));
+        assertEquals(1, scan.getRuntimeFilters().length);
+        assertSame(join.getRuntimeFilter(), scan.getRuntimeFilters()[0]);
+        assertEquals(0, scan.getRuntimeFilterFields()[0]);
+        // a closed join lets every row through
+        assertEquals(2000, count(0, join.getRuntimeFilter()));
+
+        join.open();
+        assertTrue(join.getRuntimeFilter().isBuilt());
+        assertTrue(count(0, join.getRuntimeFilter()) < 100);
+        join.rewind();
+        ArrayList<String> rewound = new ArrayList<String>();
+        while (join.hasNext())
+            rewound.add(join.next().toString());
+        join.close();
+        Collections.sort(rewound);
+        assertEquals(expected, rewound);
+    }
+
+    /**
+     * The filter is pushed into the field of the table that a pruned scan
+     * returns at the position of the key, and applies to the tuples of
+     * modified pages too
+     */
+    @Test public void stringKeys() throws Exception {
+        DbIterator first = new SeqScan(tid, f.getId());
+        first.open();
+        Database.getBufferPool().deleteTuple(tid, first.next());
+        first.close();
+        Database.getBufferPool().insertTuple(tid, f.getId(), tuple(5000, "s3", 42));
+
+        ArrayList<Tuple> build = new ArrayList<Tuple>();
+        build.add(new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE })));
+        build.get(0).setField(0, new StringField("s3", Type.STRING_LEN));
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        SeqScan plainScan = new SeqScan(tid, f.getId());
+        plainScan.setColumns(new int[] { 2, 1 });
+        HashEquiJoin plain = new HashEquiJoin(p, new TupleIterator(build.get(0).getTupleDesc(),
+                build), plainScan);
+        plain.setRuntimeFilter(false);
+        ArrayList<String> expected = readSorted(plain);
+        assertTrue(expected.contains("s3\t42\ts3\t\n"));
+
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.setColumns(new int[] { 2, 1 });
+        HashEquiJoin join = new HashEquiJoin(p, new TupleIterator(build.get(0).getTupleDesc(),
+                build), scan);
+        assertEquals(expected, readSorted(join));
+        assertEquals(1, scan.getRuntimeFilterFields()[0]);
+    }
+
+    /**
+     * The filters of the joins of a star join over f are all pushed into
+     * its scan, through the probe side of the lower join and a Project
+     */
+    @Test public void throughJoins() throws Exception {
+        ArrayList<String> expected = null;
+        for (boolean push : new boolean[] { false, true }) {
+            SeqScan scan = new SeqScan(tid, f.getId());
+            ArrayList<Integer> fields = new ArrayList<Integer>();
+            fields.add(2);
+            fields.add(0);
+            Project project = new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, scan);
+            // on f.a, then on f.b
+            HashEquiJoin lower = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                    ints(10, 11, 12, 13, 14, 700), project);
+            HashEquiJoin upper = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+                    ints(0, 5), lower);
+            lower.setRuntimeFilter(push);
+            upper.setRuntimeFilter(push);
+            ArrayList<String> actual = readSorted(upper);
+            if (!push) {
+                expected = actual;
+                assertEquals(0, scan.getRuntimeFilters().length);
+                continue;
+            }
+            assertEquals(expected, actual);
+            assertArrayEquals(new int[] { 2, 0 }, scan.getRuntimeFilterFields());
+        }
+        assertEquals(3, expected.size());
+    }
+
+    /**
+     * A join whose build side spills returns the same tuples with the
+     * filter as without it
+     */
+    @Test public void spilled() throws Exception {
+        int[] keys = new int[300];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = i * 7;
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        ArrayList<String> expected = null;
+        for (boolean push : new boolean[] { false, true }) {
+            HashEquiJoin join = new HashEquiJoin(p, ints(keys), new SeqScan(tid, f.getId()));
+            join.setMaxBuildTuples(10);
+            join.setRuntimeFilter(push);
+            ArrayList<String> actual = readSorted(join);
+            if (expected != null)
+                assertEquals(expected, actual);
+            expected = actual;
+        }
+        assertEquals(286, expected.size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RuntimeFilterTest.class);
+    }
+}
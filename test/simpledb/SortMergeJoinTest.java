@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+    ArrayList<ArrayList<Integer>> tuples1;
+    ArrayList<ArrayList<Integer>> tuples2;
+    HeapFile f1;
+    HeapFile f2;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples1 = new ArrayList<ArrayList<Integer>>();
+        f1 = SystemTestUtil.createRandomHeapFile(2, 600, 40, null, tuples1, "c");
+        tuples2 = new ArrayList<ArrayList<Integer>>();
+        f2 = SystemTestUtil.createRandomHeapFile(2, 100, 40, null, tuples2, "c");
+        tid = new TransactionId();
+    }
+
+    private ArrayList<ArrayList<Integer>> expectedJoin(Predicate.Op op) {
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : tuples1) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (new IntField(t1.get(1)).compare(op, new IntField(t2.get(0)))) {
+                    ArrayList<Integer> t = new ArrayList<Integer>(t1);
+                    t.addAll(t2);
+                    expected.add(t);
+                }
+            }
+        }
+        return expected;
+    }
+
+    /** @return the number of times each tuple is in a list */
+    private static HashMap<ArrayList<Integer>, Integer> count(ArrayList<ArrayList<Integer>> tuples) {
+        HashMap<ArrayList<Integer>, Integer> counts = new HashMap<ArrayList<Integer>, Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            Integer c = counts.get(t);
+            counts.put(t, c == null ? 1 : c + 1);
+        }
+        return counts;
+    }
+
+    /** @return the tuples of an iterator, checking they are sorted on field */
+    private static ArrayList<ArrayList<Integer>> readSorted(DbIterator it, int field) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            ArrayList<Integer> t = SystemTestUtil.tupleToList(it.next());
+            if (!tuples.isEmpty())
+                assertTrue(tuples.get(tuples.size() - 1).get(field) <= t.get(field));
+            tuples.add(t);
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Equality and range joins return the same tuples as nested loops, in
+     * the order of the outer join field, with runs of duplicate keys on both
+     * sides
+     */
+    @Test public void operators() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS,
+                Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+            SortMergeJoin j = new SortMergeJoin(new JoinPredicate(1, op, 0),
+                    new SeqScan(tid, f1.getId()), new SeqScan(tid, f2.getId()));
+            assertEquals(count(expectedJoin(op)), count(readSorted(j, 1)));
+            assertTrue(SortMergeJoin.isSortedOn(j, 1));
+            assertEquals(op == Predicate.Op.EQUALS, SortMergeJoin.isSortedOn(j, 2));
+        }
+    }
+
+    /**
+     * A child already sorted on its join field, such as another merge join,
+     * is merged as it is
+     */
+    @Test public void sortedChildren() throws Exception {
+        SortMergeJoin inner = new SortMergeJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, f1.getId()), new SeqScan(tid, f2.getId()));
+        SortMergeJoin j = new SortMergeJoin(new JoinPredicate(2, Predicate.Op.EQUALS, 0),
+                inner, new OrderBy(0, true, new SeqScan(tid, f2.getId())));
+        assertSame(inner, j.getChildren()[0]);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : expectedJoin(Predicate.Op.EQUALS)) {
+            for (ArrayList<Integer> t2 : tuples2) {
+                if (t.get(2).equals(t2.get(0))) {
+                    ArrayList<Integer> e = new ArrayList<Integer>(t);
+                    e.addAll(t2);
+                    expected.add(e);
+                }
+            }
+        }
+        assertEquals(count(expected), count(readSorted(j, 1)));
+        assertFalse(SortMergeJoin.isSortedOn(new OrderBy(0, false, new SeqScan(tid, f2.getId())), 0));
+    }
+
+    /**
+     * Rewinding a join returns its tuples again
+     */
+    @Test public void rewind() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN }) {
+            SortMergeJoin j = new SortMergeJoin(new JoinPredicate(1, op, 0),
+                    new SeqScan(tid, f1.getId()), new SeqScan(tid, f2.getId()));
+            j.open();
+            int n = 0;
+            while (j.hasNext()) {
+                j.next();
+                n++;
+            }
+            j.rewind();
+            int m = 0;
+            while (j.hasNext()) {
+                j.next();
+                m++;
+            }
+            j.close();
+            assertEquals(expectedJoin(op).size(), n);
+            assertEquals(n, m);
+        }
+    }
+
+    /**
+     * The optimizer merges a join whose input is already sorted on the join
+     * key, and LogicalPlan drops an ORDER BY on the merge key
+     */
+    @Test public void interestingOrders() throws Exception {
+        JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new java.util.Vector<LogicalJoinNode>());
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", "c0", "c1", Predicate.Op.EQUALS);
+        assertEquals(LogicalJoinNode.Algorithm.HASH,
+                jo.chooseJoinAlgorithm(lj, 100000, 100000, 1000000, 1000000, false));
+        assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE,
+                jo.chooseJoinAlgorithm(lj, 100000, 100000, 1000000, 1000000, false, true, true));
+
+        String name1 = Database.getCatalog().getTableName(f1.getId());
+        String name2 = Database.getCatalog().getTableName(f2.getId());
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put(name1, new TableStats(f1.getId(), 1000));
+        stats.put(name2, new TableStats(f2.getId(), 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f1.getId(), "a");
+        lp.addScan(f2.getId(), "b");
+        lp.addJoin("a.c1", "b.c0", Predicate.Op.LESS_THAN);
+        lp.addProjectField("a.c1", null);
+        lp.addProjectField("b.c0", null);
+        lp.addOrderBy("a.c1", true);
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        DbIterator join = ((Operator) plan).getChildren()[0];
+        assertTrue(join instanceof SortMergeJoin);
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan)
+                .contains(QueryPlanVisualizer.MERGE_JOIN));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : expectedJoin(Predicate.Op.LESS_THAN)) {
+            ArrayList<Integer> e = new ArrayList<Integer>();
+            e.add(t.get(1));
+            e.add(t.get(2));
+            expected.add(e);
+        }
+        assertEquals(count(expected), count(readSorted(plan, 0)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SpillingAggregateTest extends SimpleDbTestBase {
+    HeapFile f;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, new ArrayList<ArrayList<Integer>>(), "c");
+        tid = new TransactionId();
+    }
+
+    /**
+     * An aggregate with more groups than it holds in memory spills them,
+     * partitions them again when a partition is still too large, and returns
+     * the same groups as an in-memory aggregate, also after a rewind
+     */
+    @Test public void spilledGroups() throws Exception {
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            Aggregate inMemory = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, op);
+            inMemory.open();
+            HashMap<ArrayList<Integer>, Integer> expected = SystemTestUtil.countTuples(inMemory);
+            inMemory.close();
+            assertEquals(0, inMemory.numPartitions());
+
+            Aggregate spilled = new Aggregate(new SeqScan(tid, f.getId()), 1, 0, op);
+            spilled.setMaxGroups(100);
+            spilled.open();
+            assertEquals(Aggregate.NUM_PARTITIONS, spilled.numPartitions());
+            assertEquals(expected, SystemTestUtil.countTuples(spilled));
+            spilled.rewind();
+            assertEquals(expected, SystemTestUtil.countTuples(spilled));
+            spilled.close();
+        }
+    }
+
+    /**
+     * String groups and string aggregates are spilled too
+     */
+    @Test public void stringGroups() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.STRING_TYPE });
+        File file = File.createTempFile("spillagg", ".dat");
+        file.deleteOnExit();
+        HeapFile strings = new HeapFile(file, td);
+        Database.getCatalog().addTable(strings, SystemTestUtil.getUUID());
+        HashMap<String, Integer> expected = new HashMap<String, Integer>();
+        for (int i = 0; i < 600; i++) {
+            Tuple t = new Tuple(td);
+            String group = "g" + (i * 31 % 200);
+            t.setField(0, new StringField(group, Type.STRING_LEN));
+            t.setField(1, new StringField("v" + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, strings.getId(), t);
+            Integer c = expected.get(group);
+            expected.put(group, c == null ? 1 : c + 1);
+        }
+        Aggregate a = new Aggregate(new SeqScan(tid, strings.getId()), 1, 0, Aggregator.Op.COUNT);
+        a.setMaxGroups(10);
+        a.open();
+        assertTrue(a.numPartitions() > 0);
+        HashMap<String, Integer> actual = new HashMap<String, Integer>();
+        while (a.hasNext()) {
+            Tuple t = a.next();
+            assertNull(actual.put(((StringField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue()));
+        }
+        a.close();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SpillingAggregateTest.class);
+    }
+}
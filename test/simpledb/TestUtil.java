@@ -370,6 +370,49 @@ public class TestUtil {
         }
     }
 
+    /**
+     * An iterator that returns the tuples of its child and counts the tuples
+     * read from it and the times it is rewound.
+     */
+    public static class CountingIterator implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private DbIterator m_child;
+        /** The number of tuples returned by next() */
+        public int reads;
+        /** The number of calls to rewind() */
+        public int rewinds;
+
+        public CountingIterator(DbIterator child) {
+            m_child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            m_child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return m_child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            reads++;
+            return m_child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            rewinds++;
+            m_child.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return m_child.getTupleDesc();
+        }
+
+        public void close() {
+            m_child.close();
+        }
+    }
+
     /** JUnit fixture that creates a heap file and cleans it up afterward. */
     public static abstract class CreateHeapFile {
         protected CreateHeapFile() {
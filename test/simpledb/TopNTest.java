@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+    ArrayList<ArrayList<Integer>> tuples;
+    HeapFile f;
+    TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        f = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples, "c");
+        tid = new TransactionId();
+    }
+
+    /** @return the tuples of an iterator, read twice with a rewind between */
+    private static ArrayList<ArrayList<Integer>> readTwice(DbIterator it) throws Exception {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.rewind();
+        ArrayList<ArrayList<Integer>> again = new ArrayList<ArrayList<Integer>>();
+        while (it.hasNext())
+            again.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        assertEquals(result, again);
+        return result;
+    }
+
+    /** Sorts lists by c0 descending, then c1 ascending */
+    private static final Comparator<ArrayList<Integer>> C0_DESC_C1_ASC = new Comparator<ArrayList<Integer>>() {
+        public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+            int c = b.get(0).compareTo(a.get(0));
+            return c != 0 ? c : a.get(1).compareTo(b.get(1));
+        }
+    };
+
+    /**
+     * TopN returns the first N tuples of a stable sort, for N smaller than,
+     * equal to and larger than the child
+     */
+    @Test public void firstTuples() throws Exception {
+        ArrayList<ArrayList<Integer>> sorted = new ArrayList<ArrayList<Integer>>(tuples);
+        Collections.sort(sorted, C0_DESC_C1_ASC);
+        for (int n : new int[] { 0, 1, 10, 1500, 5000, 6000 }) {
+            TopN t = new TopN(new int[] { 0, 1 }, new boolean[] { false, true }, n,
+                    new SeqScan(tid, f.getId()));
+            assertEquals(sorted.subList(0, Math.min(n, sorted.size())), readTwice(t));
+        }
+    }
+
+    /**
+     * Limit returns the first tuples of its child without reading more of it
+     */
+    @Test public void limitStopsEarly() throws Exception {
+        TestUtil.CountingIterator child = new TestUtil.CountingIterator(new SeqScan(tid, f.getId()));
+        Limit l = new Limit(10, child);
+        assertEquals(tuples.subList(0, 10), readTwice(l));
+        assertEquals(20, child.reads);
+        assertEquals(0, readTwice(new Limit(0, new SeqScan(tid, f.getId()))).size());
+        assertEquals(tuples, readTwice(new Limit(6000, new SeqScan(tid, f.getId()))));
+    }
+
+    /**
+     * A limit is pushed through a projection and turns a sort into a TopN
+     */
+    @Test public void pushDown() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        ArrayList<Type> types = new ArrayList<Type>();
+        types.add(Type.INT_TYPE);
+        DbIterator plan = Limit.pushDown(5, new Project(fields, types,
+                new OrderBy(2, true, new SeqScan(tid, f.getId()))));
+        assertTrue(plan instanceof Project);
+        DbIterator top = ((Operator) plan).getChildren()[0];
+        assertTrue(top instanceof TopN);
+        assertEquals(5, ((TopN) top).getLimit());
+        assertTrue(SortMergeJoin.isSortedOn(top, 2));
+
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples)
+            expected.add(t.get(2));
+        Collections.sort(expected);
+        ArrayList<ArrayList<Integer>> actual = readTwice(plan);
+        assertEquals(5, actual.size());
+        for (int i = 0; i < 5; i++)
+            assertEquals(expected.get(i), actual.get(i).get(0));
+
+        Limit l = (Limit) Limit.pushDown(3, new Limit(7, new SeqScan(tid, f.getId())));
+        assertEquals(3, l.getLimit());
+        OrderBy big = new OrderBy(0, true, new SeqScan(tid, f.getId()));
+        big.setMemoryPages(1);
+        assertTrue(Limit.pushDown(4000, big) instanceof Limit);
+    }
+
+    /**
+     * The parser reads a LIMIT clause, and the plan ends with a TopN
+     */
+    @Test public void parser() throws Exception {
+        Database.getCatalog().addTable(f, "topn_t");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("topn_t", new TableStats(f.getId(), 1000));
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT t.c0, t.c1 FROM topn_t t ORDER BY t.c0 DESC, t.c1 limit 12;");
+        assertEquals(12, lp.getLimit());
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+        assertTrue(new QueryPlanVisualizer().getQueryPlanTree(plan)
+                .contains(QueryPlanVisualizer.TOP_N));
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            expected.add(new ArrayList<Integer>(t.subList(0, 2)));
+        Collections.sort(expected, C0_DESC_C1_ASC);
+        assertEquals(expected.subList(0, 12), readTwice(plan));
+
+        lp = new Parser().generateLogicalPlan(tid, "SELECT t.c0 FROM topn_t t;");
+        assertEquals(-1, lp.getLimit());
+    }
+
+    /**
+     * The parser rejects a LIMIT clause on a statement other than a SELECT
+     * rather than running it without its limit
+     */
+    @Test public void limitOnlyOnSelect() throws Exception {
+        Database.getCatalog().addTable(f, "topn_t");
+        TableStats.setTableStats("topn_t", new TableStats(f.getId(), 1000));
+        new Parser().processNextStatement("DELETE FROM topn_t WHERE topn_t.c0 < 50 LIMIT 1;");
+        assertEquals(tuples.size(), readTwice(new SeqScan(tid, f.getId())).size());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+    private HeapFile f1;
+    private HeapFile f2;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f1 = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, new ArrayList<ArrayList<Integer>>(), "c");
+        f2 = SystemTestUtil.createRandomHeapFile(3, 2000, 100, null, new ArrayList<ArrayList<Integer>>(), "c");
+        tid = new TransactionId();
+    }
+
+    /** @return the number of times each tuple is returned by nextBatch() */
+    private static HashMap<ArrayList<Integer>, Integer> readBatches(DbIterator it) throws Exception {
+        HashMap<ArrayList<Integer>, Integer> counts = new HashMap<ArrayList<Integer>, Integer>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = ((BatchIterator) it).nextBatch()) != null) {
+            assertTrue(batch.size() > 0);
+            for (int i = 0; i < batch.size(); i++)
+                SystemTestUtil.addTuple(counts, batch.get(i));
+        }
+        it.close();
+        return counts;
+    }
+
+    /** @return the number of times each tuple is returned by next() */
+    private static HashMap<ArrayList<Integer>, Integer> readTuples(DbIterator it) throws Exception {
+        it.open();
+        HashMap<ArrayList<Integer>, Integer> counts = SystemTestUtil.countTuples(it);
+        it.close();
+        return counts;
+    }
+
+    /**
+     * Unit test for TupleBatch.filter() and its selection vector
+     */
+    @Test public void filter() throws Exception {
+        TupleBatch batch = new TupleBatch();
+        for (int i = 0; i < 10; i++)
+            batch.add(Utility.getHeapTuple(i));
+        batch.filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2)));
+        batch.filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(8)));
+        assertEquals(5, batch.size());
+        for (int i = 0; i < batch.size(); i++)
+            assertEquals(new IntField(i + 3), batch.get(i).getField(0));
+    }
+
+    /**
+     * TupleBatch.next() reads batches from iterators that only implement
+     * DbIterator
+     */
+    @Test public void adapter() throws Exception {
+        DbIterator it = TestUtil.createTupleList(1, new int[TupleBatch.SIZE + 10]);
+        it.open();
+        assertEquals(TupleBatch.SIZE, TupleBatch.next(it).size());
+        assertEquals(10, TupleBatch.next(it).size());
+        assertNull(TupleBatch.next(it));
+        it.close();
+    }
+
+    private DbIterator[] plans() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(1);
+        fields.add(0);
+        return new DbIterator[] {
+            new SeqScan(tid, f1.getId()),
+            new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30)),
+                    new SeqScan(tid, f1.getId())),
+            new Project(fields, new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                    new SeqScan(tid, f1.getId())),
+            new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+                    new SeqScan(tid, f1.getId()), new SeqScan(tid, f2.getId())),
+            new Aggregate(new SeqScan(tid, f2.getId()), 2, 0, Aggregator.Op.SUM),
+            new OrderBy(1, true, new SeqScan(tid, f1.getId())),
+        };
+    }
+
+    /**
+     * Each operator returns the same tuples through nextBatch() as through
+     * next()
+     */
+    @Test public void operators() throws Exception {
+        DbIterator[] tuplePlans = plans();
+        DbIterator[] batchPlans = plans();
+        for (int i = 0; i < tuplePlans.length; i++) {
+            HashMap<ArrayList<Integer>, Integer> tuples = readTuples(tuplePlans[i]);
+            assertFalse(tuples.isEmpty());
+            assertEquals(tuples, readBatches(batchPlans[i]));
+        }
+    }
+
+    /**
+     * Calls to nextBatch() and next() may be mixed
+     */
+    @Test public void mixed() throws Exception {
+        Filter f = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(50)),
+                new SeqScan(tid, f1.getId()));
+        HashMap<ArrayList<Integer>, Integer> expected = readTuples(f);
+        HashMap<ArrayList<Integer>, Integer> actual = new HashMap<ArrayList<Integer>, Integer>();
+        f.open();
+        while (f.hasNext()) {
+            SystemTestUtil.addTuple(actual, f.next());
+            TupleBatch batch = f.nextBatch();
+            if (batch == null)
+                break;
+            for (int i = 0; i < batch.size(); i++)
+                SystemTestUtil.addTuple(actual, batch.get(i));
+        }
+        f.close();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
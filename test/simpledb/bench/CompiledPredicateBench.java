@@ -0,0 +1,175 @@
+package simpledb.bench;
+
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Times predicates evaluated by Predicate.filter and JoinPredicate.filter
+ * against classes specialized for their operator and types.
+ * <p>
+ * The filter cases evaluate predicates over 1M in-memory tuples of an int
+ * and a string field, ten times per round: "int" is i &lt; 500, "string" is
+ * s = 'w7', and "mixed" runs i &lt; 500, i &gt;= 100 and s = 'w7' through the
+ * same call site. Their specialized classes are declared here, as the
+ * specialization of Filter's predicates was not kept. The "join" case
+ * evaluates s = s over 2000x2000 pairs of tuples with
+ * CompiledJoinPredicate.
+ * <p>
+ * It is not a unit test; run it by hand after compiling the tests, once per
+ * case and mode so that the profile of one does not affect the other, with
+ * <pre>
+ * java -cp bin/src:bin/test:lib/* simpledb.bench.CompiledPredicateBench
+ *     int|string|mixed|join interpreted|specialized
+ * </pre>
+ */
+public class CompiledPredicateBench {
+
+    private static final int FILTER_TUPLES = 1000000;
+    private static final int FILTER_REPEATS = 10;
+    private static final int JOIN_TUPLES = 2000;
+    private static final int ROUNDS = 5;
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, new String[] { "i", "s" });
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 || !(args[1].equals("interpreted") || args[1].equals("specialized"))) {
+            System.err.println("usage: CompiledPredicateBench int|string|mixed|join interpreted|specialized");
+            System.exit(1);
+        }
+        boolean specialized = args[1].equals("specialized");
+        Predicate lessThan = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500));
+        Predicate atLeast = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(100));
+        Predicate equals = new Predicate(1, Predicate.Op.EQUALS, new StringField("w7", Type.STRING_LEN));
+        if (args[0].equals("int"))
+            filter(new Predicate[] { lessThan }, specialized);
+        else if (args[0].equals("string"))
+            filter(new Predicate[] { equals }, specialized);
+        else if (args[0].equals("mixed"))
+            filter(new Predicate[] { lessThan, atLeast, equals }, specialized);
+        else if (args[0].equals("join"))
+            join(specialized);
+        else
+            throw new IllegalArgumentException("unknown case " + args[0]);
+    }
+
+    /** @return tuples of TD with random values, the strings prefixed */
+    private static Tuple[] tuples(int n, int ints, int strings, String prefix) {
+        Random r = new Random(1);
+        Tuple[] ts = new Tuple[n];
+        for (int i = 0; i < n; i++) {
+            ts[i] = new Tuple(TD);
+            ts[i].setField(0, new IntField(r.nextInt(ints)));
+            ts[i].setField(1, new StringField(prefix + r.nextInt(strings), Type.STRING_LEN));
+        }
+        return ts;
+    }
+
+    private static void filter(Predicate[] ps, boolean specialized) {
+        Tuple[] ts = tuples(FILTER_TUPLES, 1000, 100, "w");
+        // the first rounds warm up the JIT
+        for (int round = 0; round < ROUNDS; round++) {
+            long t0 = System.nanoTime();
+            long n = 0;
+            for (int rep = 0; rep < FILTER_REPEATS; rep++) {
+                for (Predicate p : ps) {
+                    if (specialized) {
+                        Specialized s = Specialized.of(p);
+                        for (Tuple t : ts) {
+                            if (s.filter(t))
+                                n++;
+                        }
+                    } else {
+                        for (Tuple t : ts) {
+                            if (p.filter(t))
+                                n++;
+                        }
+                    }
+                }
+            }
+            System.out.println((specialized ? "specialized: " : "interpreted: ") + n
+                    + " matches, " + (System.nanoTime() - t0) / 1000000 + "ms");
+        }
+    }
+
+    private static void join(boolean specialized) {
+        Tuple[] ts = tuples(JOIN_TUPLES, 1000, 1000, "customer#");
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+        CompiledJoinPredicate c = CompiledJoinPredicate.compile(p, TD, TD);
+        for (int round = 0; round < ROUNDS; round++) {
+            long t0 = System.nanoTime();
+            long n = 0;
+            for (Tuple t2 : ts) {
+                for (Tuple t1 : ts) {
+                    if (specialized ? c.filter(t1, t2) : p.filter(t1, t2))
+                        n++;
+                }
+            }
+            System.out.println((specialized ? "specialized: " : "interpreted: ") + n
+                    + " pairs, " + (System.nanoTime() - t0) / 1000000 + "ms");
+        }
+    }
+
+    /**
+     * A predicate specialized for its operator and the type of its operand,
+     * whose field index and operand are final fields.
+     */
+    private static abstract class Specialized {
+        abstract boolean filter(Tuple t);
+
+        static Specialized of(Predicate p) {
+            final int f = p.getField();
+            Field operand = p.getOperand();
+            if (operand instanceof IntField && p.getOp() == Predicate.Op.LESS_THAN)
+                return new IntLessThan(f, ((IntField) operand).getValue());
+            if (operand instanceof IntField && p.getOp() == Predicate.Op.GREATER_THAN_OR_EQ)
+                return new IntGreaterThanOrEq(f, ((IntField) operand).getValue());
+            if (operand instanceof StringField && p.getOp() == Predicate.Op.EQUALS)
+                return new StringEquals(f, ((StringField) operand).getValue());
+            throw new IllegalArgumentException("no specialized class for " + p);
+        }
+    }
+
+    private static final class IntLessThan extends Specialized {
+        private final int m_field;
+        private final int m_c;
+
+        IntLessThan(int field, int c) {
+            m_field = field;
+            m_c = c;
+        }
+
+        boolean filter(Tuple t) {
+            return ((IntField) t.getField(m_field)).getValue() < m_c;
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends Specialized {
+        private final int m_field;
+        private final int m_c;
+
+        IntGreaterThanOrEq(int field, int c) {
+            m_field = field;
+            m_c = c;
+        }
+
+        boolean filter(Tuple t) {
+            return ((IntField) t.getField(m_field)).getValue() >= m_c;
+        }
+    }
+
+    private static final class StringEquals extends Specialized {
+        private final int m_field;
+        private final String m_c;
+
+        StringEquals(int field, String c) {
+            m_field = field;
+            m_c = c;
+        }
+
+        boolean filter(Tuple t) {
+            return ((StringField) t.getField(m_field)).getValue().equals(m_c);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Sorts a heap file of random two-int tuples on its first field with
+ * OrderBy, and checks the order of its output. The file is generated first
+ * if it does not exist: 20M tuples make a file of about 155MB, which an
+ * OrderBy holding its input in memory cannot sort under a small heap.
+ * <p>
+ * It is not a unit test; run it by hand after compiling the tests, with
+ * <pre>
+ * java -Xmx16m -cp bin/src:bin/test:lib/* simpledb.bench.ExternalSortBench
+ *     file [tuples [memoryPages]]
+ * </pre>
+ * where tuples defaults to 20000000 and memoryPages, the sort memory given
+ * to setMemoryPages, to 40.
+ */
+public class ExternalSortBench {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("usage: ExternalSortBench file [tuples [memoryPages]]");
+            System.exit(1);
+        }
+        File data = new File(args[0]);
+        int tuples = args.length > 1 ? Integer.parseInt(args[1]) : 20000000;
+        int memoryPages = args.length > 2 ? Integer.parseInt(args[2]) : 40;
+        if (!data.exists())
+            generate(data, tuples);
+
+        Database.resetBufferPool(50);
+        HeapFile f = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(f, "sortbench");
+        TransactionId tid = new TransactionId();
+        OrderBy o = new OrderBy(0, true, new SeqScan(tid, f.getId()));
+        o.setMemoryPages(memoryPages);
+        long t0 = System.nanoTime();
+        o.open();
+        long t1 = System.nanoTime();
+        long n = 0;
+        int prev = Integer.MIN_VALUE;
+        TupleBatch b;
+        while ((b = o.nextBatch()) != null) {
+            for (int i = 0; i < b.size(); i++) {
+                int v = ((IntField) b.get(i).getField(0)).getValue();
+                if (v < prev)
+                    throw new RuntimeException("out of order after " + n + " tuples");
+                prev = v;
+                n++;
+            }
+        }
+        long t2 = System.nanoTime();
+        o.close();
+        Database.getBufferPool().transactionComplete(tid);
+        System.out.println(n + " tuples sorted, runs " + (t1 - t0) / 1000000 + "ms, merge "
+                + (t2 - t1) / 1000000 + "ms, heap " + Runtime.getRuntime().maxMemory() / 1048576
+                + "MB, file " + data.length() / 1048576 + "MB");
+    }
+
+    /** Writes a heap file of random two-int tuples, one page at a time */
+    private static void generate(File data, int tuples) throws Exception {
+        File text = File.createTempFile("sortbench", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(1);
+        BufferedWriter w = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < tuples; i++)
+            w.write(r.nextInt() + "," + r.nextInt() + "\n");
+        w.close();
+        HeapFileEncoder.convert(text, data, BufferPool.PAGE_SIZE, 2);
+        text.delete();
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Times the hash table of HashEquiJoin. The first part builds a
+ * JoinHashTable and a HashMap of lists, as HashEquiJoin used to, over
+ * 2M two-int tuples and probes each with 2M int keys. The second part
+ * runs a HashEquiJoin end to end over a 20k tuple build side and a 2M tuple
+ * probe side of random two-int tables, as in JoinTest.
+ * <p>
+ * It is not a unit test; run it by hand after compiling the tests, with
+ * <pre>
+ * java -Xmx2g -cp bin/src:bin/test:lib/* simpledb.bench.JoinHashTableBench
+ * </pre>
+ * The 2M build tuples fill much of a smaller heap, and the garbage
+ * collector then dominates the times of both tables.
+ */
+public class JoinHashTableBench {
+
+    private static final int TABLE_TUPLES = 2000000;
+    private static final int BUILD_TUPLES = 20000;
+    private static final int PROBE_TUPLES = 2000000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        table();
+        join();
+    }
+
+    private static void table() {
+        Random r = new Random(1);
+        Tuple[] build = new Tuple[TABLE_TUPLES];
+        IntField[] probe = new IntField[TABLE_TUPLES];
+        for (int i = 0; i < TABLE_TUPLES; i++) {
+            build[i] = Utility.getHeapTuple(new int[] { r.nextInt(TABLE_TUPLES), i });
+            probe[i] = new IntField(r.nextInt(TABLE_TUPLES));
+        }
+        // the first rounds warm up the JIT
+        for (int round = 0; round < ROUNDS; round++) {
+            long t0 = System.nanoTime();
+            HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
+            for (Tuple t : build) {
+                ArrayList<Tuple> l = map.get(t.getField(0));
+                if (l == null) {
+                    l = new ArrayList<Tuple>();
+                    map.put(t.getField(0), l);
+                }
+                l.add(t);
+            }
+            long mapMatches = 0;
+            for (IntField k : probe) {
+                ArrayList<Tuple> l = map.get(k);
+                if (l != null)
+                    mapMatches += l.size();
+            }
+            long t1 = System.nanoTime();
+            JoinHashTable table = JoinHashTable.create(Type.INT_TYPE, 0);
+            for (Tuple t : build)
+                table.add(t);
+            long tableMatches = 0;
+            for (IntField k : probe) {
+                for (int x = table.first(k); x >= 0; x = table.next(x))
+                    tableMatches++;
+            }
+            long t2 = System.nanoTime();
+            if (mapMatches != tableMatches)
+                throw new RuntimeException(mapMatches + " != " + tableMatches + " matches");
+            System.out.println("table: " + tableMatches + " matches, HashMap "
+                    + (t1 - t0) / 1000000 + "ms, JoinHashTable " + (t2 - t1) / 1000000 + "ms");
+        }
+    }
+
+    private static void join() throws Exception {
+        Database.resetBufferPool(20000);
+        HeapFile build = SystemTestUtil.createRandomHeapFile(2, BUILD_TUPLES, BUILD_TUPLES,
+                null, new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile probe = SystemTestUtil.createRandomHeapFile(2, PROBE_TUPLES, BUILD_TUPLES,
+                null, new ArrayList<ArrayList<Integer>>(), "c");
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < ROUNDS; round++) {
+            HashEquiJoin j = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId()));
+            long t0 = System.nanoTime();
+            j.open();
+            long n = 0;
+            TupleBatch b;
+            while ((b = TupleBatch.next(j)) != null)
+                n += b.size();
+            long t1 = System.nanoTime();
+            j.close();
+            System.out.println("join: " + n + " tuples, " + (t1 - t0) / 1000000 + "ms");
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
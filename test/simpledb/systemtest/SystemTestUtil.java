@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -94,6 +95,65 @@ public class SystemTestUtil {
         return list;
     }
 
+    /**
+     * Adds a tuple to a multiset of tuples, which maps each tuple to the
+     * number of times it was added.
+     */
+    public static void addTuple(HashMap<ArrayList<Integer>, Integer> counts, Tuple t) {
+        ArrayList<Integer> l = tupleToList(t);
+        Integer c = counts.get(l);
+        counts.put(l, c == null ? 1 : c + 1);
+    }
+
+    /**
+     * @return the number of times each tuple is returned by an open
+     *   iterator, read to its end
+     */
+    public static HashMap<ArrayList<Integer>, Integer> countTuples(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        HashMap<ArrayList<Integer>, Integer> counts = new HashMap<ArrayList<Integer>, Integer>();
+        while (it.hasNext())
+            addTuple(counts, it.next());
+        return counts;
+    }
+
+    /** @return a tuple as a string followed by its RecordId */
+    private static String withRecordId(Tuple t) {
+        return t + " " + t.getRecordId().getPageId().pageNumber() + ":" + t.getRecordId().tupleno();
+    }
+
+    /**
+     * @return the tuples returned by next() of an iterator, as strings with
+     *   their RecordIds
+     */
+    public static ArrayList<String> readTuplesWithIds(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> tuples = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(withRecordId(it.next()));
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * @return the rows returned by nextColumnarBatch() of an iterator, as
+     *   strings with their RecordIds
+     */
+    public static ArrayList<String> readColumnsWithIds(ColumnarIterator it)
+            throws DbException, TransactionAbortedException {
+        ArrayList<String> tuples = new ArrayList<String>();
+        it.open();
+        ColumnarBatch batch;
+        while ((batch = it.nextColumnarBatch()) != null) {
+            Assert.assertTrue(batch.size() > 0);
+            for (int i = 0; i < batch.size(); i++)
+                tuples.add(withRecordId(batch.getTuple(i)));
+        }
+        it.close();
+        return tuples;
+    }
+
     public static void matchTuples(DbFile f, List<ArrayList<Integer>> tuples)
             throws DbException, TransactionAbortedException, IOException {
         TransactionId tid = new TransactionId();